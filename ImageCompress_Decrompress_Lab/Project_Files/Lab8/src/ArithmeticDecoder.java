@@ -0,0 +1,127 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The decoder for ArithmeticEncoder.  It tracks the same interval as the
+ * encoder did, along with the 32 coded bits it is currently looking at,
+ * and reads the coded bits out of a buffer as the interval narrows.
+ * Bits past the end of the buffer read as 0, since the encoder leaves
+ * off the bits the decoder can do without.
+ *
+ * @author Benjamin Mitchell
+ */
+public class ArithmeticDecoder {
+    /** the buffer the coded bits are read from */
+    private final ByteBuffer in;
+
+    /** the low end of the interval */
+    private long low;
+
+    /** the high end of the interval (inclusive) */
+    private long high;
+
+    /** the coded bits within the interval */
+    private long code;
+
+    /** the byte the bits are being read from */
+    private int bits;
+
+    /** the number of bits left in that byte */
+    private int bitCount;
+
+    /** the number of bytes the buffer held */
+    private final int length;
+
+    /** the number of bits read, including those past the end */
+    private long bitsRead;
+
+    /**
+     * Create a decoder reading from a buffer.
+     *
+     * @param in the buffer, positioned at the first coded byte
+     */
+    public ArithmeticDecoder(ByteBuffer in) {
+        this.in = in;
+        this.length = in.remaining();
+        this.low = 0;
+        this.high = ArithmeticEncoder.MASK;
+        this.bits = 0;
+        this.bitCount = 0;
+        this.bitsRead = 0;
+        this.code = 0;
+        for(int i = 0; i < 32; i++)
+        {
+            this.code = (this.code << 1) | readBit();
+        }
+    }
+
+    /**
+     * Read the next coded bit.
+     *
+     * @return the bit
+     */
+    private int readBit()
+    {
+        if(bitCount == 0)
+        {
+            bits = in.hasRemaining() ? in.get() & 0xFF : 0;
+            bitCount = 8;
+        }
+        bitCount--;
+        bitsRead++;
+        return (bits >>> bitCount) & 1;
+    }
+
+    /**
+     * Decode a symbol and then update the model with it.
+     *
+     * @param model the model the symbol was coded against
+     * @return the symbol
+     * @throws QTException if the coded bits don't match the model
+     */
+    public int decode(FrequencyModel model) throws QTException
+    {
+        long range = high - low + 1;
+        long total = model.getTotal();
+        long value = ((code - low + 1) * total - 1) / range;
+        if(value < 0 || value >= total)
+        {
+            throw new QTException("Error uncompressing.  Bad entropy coded data.");
+        }
+        int symbol = model.find((int) value);
+        long symLow = model.getLow(symbol);
+        long symHigh = symLow + model.getCount(symbol);
+        high = low + symHigh * range / total - 1;
+        low = low + symLow * range / total;
+        while(((low ^ high) & ArithmeticEncoder.HALF) == 0)
+        {
+            code = ((code << 1) & ArithmeticEncoder.MASK) | readBit();
+            low = (low << 1) & ArithmeticEncoder.MASK;
+            high = ((high << 1) & ArithmeticEncoder.MASK) | 1;
+        }
+        while((low & ~high & ArithmeticEncoder.QUARTER) != 0)
+        {
+            code = (code & ArithmeticEncoder.HALF) | ((code << 1) & (ArithmeticEncoder.MASK >>> 1)) | readBit();
+            low = (low << 1) ^ ArithmeticEncoder.HALF;
+            high = ((high ^ ArithmeticEncoder.HALF) << 1) | ArithmeticEncoder.HALF | 1;
+        }
+        model.update(symbol);
+        return symbol;
+    }
+
+    /**
+     * Check that the buffer held all the coded bits, once the last symbol
+     * has been decoded.  The encoder finishes with one bit past those the
+     * decoder has moved out of its window, so a buffer that was cut short
+     * can be told from one that merely ends early.
+     *
+     * @throws QTException if the buffer was cut short
+     */
+    public void finish() throws QTException
+    {
+        long needed = (bitsRead - 32 + 1 + 7) / 8;
+        if(length < needed)
+        {
+            throw new QTException("Error uncompressing.  Not enough data.");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A binary arithmetic encoder with 32 bits of state.  Each symbol narrows
+ * the current interval in proportion to its probability in a
+ * FrequencyModel; whenever the top bit of both ends of the interval
+ * agree it is settled and shifted out.  When the interval straddles the
+ * middle too closely, the bit is deferred until it is known.
+ *
+ * @author Benjamin Mitchell
+ */
+public class ArithmeticEncoder {
+    /** the mask of the 32 state bits */
+    final static long MASK = (1L << 32) - 1;
+
+    /** the top state bit */
+    final static long HALF = 1L << 31;
+
+    /** the second state bit */
+    final static long QUARTER = 1L << 30;
+
+    /** the stream the coded bits are written to */
+    private final OutputStream out;
+
+    /** the low end of the interval */
+    private long low;
+
+    /** the high end of the interval (inclusive) */
+    private long high;
+
+    /** the number of deferred bits, which are the opposite of the next bit */
+    private int pending;
+
+    /** the bits waiting to fill a byte */
+    private int bits;
+
+    /** the number of bits waiting */
+    private int bitCount;
+
+    /**
+     * Create an encoder writing to a stream.
+     *
+     * @param out the stream to write to
+     */
+    public ArithmeticEncoder(OutputStream out) {
+        this.out = out;
+        this.low = 0;
+        this.high = MASK;
+        this.pending = 0;
+        this.bits = 0;
+        this.bitCount = 0;
+    }
+
+    /**
+     * Write a bit, buffering until there is a byte.
+     *
+     * @param bit the bit
+     * @throws IOException if there are issues writing the stream
+     */
+    private void writeBit(int bit) throws IOException
+    {
+        bits = (bits << 1) | bit;
+        bitCount++;
+        if(bitCount == 8)
+        {
+            out.write(bits);
+            bits = 0;
+            bitCount = 0;
+        }
+    }
+
+    /**
+     * Write a settled bit followed by the bits deferred before it.
+     *
+     * @param bit the bit
+     * @throws IOException if there are issues writing the stream
+     */
+    private void settle(int bit) throws IOException
+    {
+        writeBit(bit);
+        for(; pending > 0; pending--)
+        {
+            writeBit(bit ^ 1);
+        }
+    }
+
+    /**
+     * Encode a symbol and then update the model with it.
+     *
+     * @param model the model the symbol is coded against
+     * @param symbol the symbol
+     * @throws IOException if there are issues writing the stream
+     */
+    public void encode(FrequencyModel model, int symbol) throws IOException
+    {
+        long range = high - low + 1;
+        long total = model.getTotal();
+        long symLow = model.getLow(symbol);
+        long symHigh = symLow + model.getCount(symbol);
+        high = low + symHigh * range / total - 1;
+        low = low + symLow * range / total;
+        while(((low ^ high) & HALF) == 0)
+        {
+            settle((int) (low >>> 31));
+            low = (low << 1) & MASK;
+            high = ((high << 1) & MASK) | 1;
+        }
+        while((low & ~high & QUARTER) != 0)
+        {
+            pending++;
+            low = (low << 1) ^ HALF;
+            high = ((high ^ HALF) << 1) | HALF | 1;
+        }
+        model.update(symbol);
+    }
+
+    /**
+     * Write out the last bits so the decoder can finish.  The stream is not
+     * closed.
+     *
+     * @throws IOException if there are issues writing the stream
+     */
+    public void finish() throws IOException
+    {
+        settle(1);
+        while(bitCount != 0)
+        {
+            writeBit(0);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,35 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the values of a compressed RIT image in the ASCII format, one
+ * integer per line.
+ *
+ * @author Benjamin Mitchell
+ */
+public class AsciiPreorderSink implements PreorderSink {
+    /** the writer the values are written to */
+    private final Writer writer;
+
+    /**
+     * Create a new sink over a writer.
+     *
+     * @param writer the writer to write the values to
+     */
+    public AsciiPreorderSink(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void put(int value) throws IOException
+    {
+        writer.write(Integer.toString(value));
+        writer.write('\n');
+    }
+
+    @Override
+    public void putPixel(int pixel) throws IOException
+    {
+        put(pixel);
+    }
+}
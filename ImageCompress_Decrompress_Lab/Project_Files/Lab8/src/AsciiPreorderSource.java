@@ -0,0 +1,114 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the values of an ASCII formatted RIT file, one integer per line.
+ * The digits are parsed straight out of a byte buffer so that no String
+ * or Integer is created for each value.
+ *
+ * @author Benjamin Mitchell
+ */
+public class AsciiPreorderSource implements PreorderSource, Closeable {
+    /** the size of the read buffer */
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    /** the stream the values are read from */
+    private final InputStream in;
+
+    /** the read buffer */
+    private final byte[] buffer;
+
+    /** the position of the next unread byte in the buffer */
+    private int pos;
+
+    /** the number of valid bytes in the buffer */
+    private int limit;
+
+    /**
+     * Create a new source over a stream.
+     *
+     * @param in the stream holding the ASCII values
+     */
+    public AsciiPreorderSource(InputStream in) {
+        this.in = in;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.pos = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * Get the next byte from the stream, refilling the buffer as needed.
+     *
+     * @return the next byte, or -1 at the end of the stream
+     * @throws IOException if there are issues reading the stream
+     */
+    private int read() throws IOException
+    {
+        if(pos == limit)
+        {
+            limit = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            if(limit <= 0)
+            {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[pos++];
+    }
+
+    @Override
+    public int next() throws IOException, QTException
+    {
+        int b = read();
+        //skip over the line breaks (and any stray spaces) between values
+        while(b == '\n' || b == '\r' || b == ' ' || b == '\t')
+        {
+            b = read();
+        }
+        if(b == -1)
+        {
+            throw new QTException("Error uncompressing.  Not enough data.");
+        }
+        boolean negative = (b == '-');
+        if(negative)
+        {
+            b = read();
+        }
+        if(b < '0' || b > '9')
+        {
+            throw new QTException("Error uncompressing.  Bad value in file.");
+        }
+        long value = 0;
+        while(b >= '0' && b <= '9')
+        {
+            value = value * 10 + (b - '0');
+            //too big for an int, as Integer.parseInt() would have found
+            if(value > Integer.MAX_VALUE + (negative ? 1L : 0L))
+            {
+                throw new QTException("Error uncompressing.  Bad value in file.");
+            }
+            b = read();
+        }
+        //a value must be followed by whitespace or the end of the file
+        if(b != '\n' && b != '\r' && b != ' ' && b != '\t' && b != -1)
+        {
+            throw new QTException("Error uncompressing.  Bad value in file.");
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    @Override
+    public int pixel() throws IOException, QTException
+    {
+        //a pixel is just another line in the ASCII format
+        return next();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
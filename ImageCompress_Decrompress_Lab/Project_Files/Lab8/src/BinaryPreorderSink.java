@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the values of a compressed RIT image as byte packed preorder.
+ * See RITFormat for the layout of the bytes.
+ *
+ * @author Benjamin Mitchell
+ */
+public class BinaryPreorderSink implements PreorderSink {
+    /** the stream the bytes are written to */
+    private final OutputStream out;
+
+    /** the number of bytes written so far */
+    private long position;
+
+    /**
+     * Create a new sink over a stream.
+     *
+     * @param out the stream to write the bytes to
+     */
+    public BinaryPreorderSink(OutputStream out) {
+        this.out = out;
+        this.position = 0;
+    }
+
+    /**
+     * Get the number of bytes written through this sink, which is where
+     * the next value will start relative to the first one.
+     *
+     * @return the number of bytes written
+     */
+    public long getPosition() { return this.position; }
+
+    @Override
+    public void put(int value) throws IOException, QTException
+    {
+        if(value == QTree.QUAD_SPLIT)
+        {
+            out.write(RITFormat.SPLIT);
+            position += 1;
+        }
+        else if(value == QTree.RAW_BLOCK)
+        {
+            out.write(RITFormat.ESCAPE);
+            out.write(RITFormat.RAW);
+            position += 2;
+        }
+        else if(value < 0 || value > 255)
+        {
+            throw new QTException("Error writing compressed file.  Bad value " + value + ".");
+        }
+        else
+        {
+            //the colors that collide with the markers need an escape in front
+            if(value >= RITFormat.ESCAPE)
+            {
+                out.write(RITFormat.ESCAPE);
+                position += 1;
+            }
+            out.write(value);
+            position += 1;
+        }
+    }
+
+    @Override
+    public void putPixel(int pixel) throws IOException, QTException
+    {
+        if(pixel < 0 || pixel > 255)
+        {
+            throw new QTException("Error writing compressed file.  Bad pixel " + pixel + ".");
+        }
+        out.write(pixel);
+        position += 1;
+    }
+
+    /**
+     * Write a reference to a subtree written earlier through this sink, in
+     * place of writing it again.
+     *
+     * @param start the position the earlier subtree started at
+     * @throws IOException if there are issues writing the stream
+     * @throws QTException if the position is not before this one
+     */
+    public void putReference(long start) throws IOException, QTException
+    {
+        if(start < 0 || start >= position || position - start > Integer.MAX_VALUE)
+        {
+            throw new QTException("Error writing compressed file.  Bad reference to " + start + ".");
+        }
+        out.write(RITFormat.ESCAPE);
+        out.write(RITFormat.REF);
+        int distance = (int) (position - start);
+        RITFormat.writeVarint(out, distance);
+        position += referenceLength(distance);
+    }
+
+    /**
+     * Write a reference to an entry of a dictionary in place of the
+     * subtree it holds.
+     *
+     * @param id the number of the entry
+     * @throws IOException if there are issues writing the stream
+     */
+    public void putEntry(int id) throws IOException
+    {
+        out.write(RITFormat.ESCAPE);
+        out.write(RITFormat.DICT);
+        RITFormat.writeVarint(out, id);
+        position += referenceLength(id);
+    }
+
+    /**
+     * Get the number of bytes a reference or dictionary entry takes, the
+     * ESCAPE and code included.
+     *
+     * @param distance how many bytes back the subtree starts, or the
+     * number of the entry
+     * @return the length of the reference
+     */
+    public static int referenceLength(long distance)
+    {
+        int length = 3;
+        while(distance >= 0x80)
+        {
+            distance >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,299 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads the byte packed values of a binary RIT file.  See RITFormat for
+ * the layout of the bytes.
+ *
+ * A reference to an earlier subtree is read by jumping back to where the
+ * subtree starts and replaying its values, then returning to the byte
+ * after the reference once the whole subtree has been read.  References
+ * are never seen by the caller, so anything that reads a preorder stream
+ * reads a file with shared subtrees as if they were written out in full.
+ * An entry of a dictionary is replayed the same way from the dictionary's
+ * buffer.
+ *
+ * @author Benjamin Mitchell
+ */
+public class BinaryPreorderSource implements PreorderSource {
+    /** the buffer holding the values of the file */
+    private final ByteBuffer values;
+
+    /** the buffer positioned at the next value, the file's or the dictionary's */
+    private ByteBuffer in;
+
+    /** where the first value starts; references can't go before it */
+    private final int start;
+
+    /** the dictionary the file refers to, or null */
+    private final RITDictionary dictionary;
+
+    /** the entries of the dictionary, once one has been read */
+    private ByteBuffer entries;
+
+    /** the buffer to go back to after each subtree being replayed, innermost last */
+    private ByteBuffer buffers[];
+
+    /** where to go back to after each subtree being replayed, innermost last */
+    private int returns[];
+
+    /** the number of nodes left to read of each subtree being replayed */
+    private int pending[];
+
+    /** the number of subtrees being replayed */
+    private int replays;
+
+    /**
+     * Create a new source over a buffer.
+     *
+     * @param in the buffer, positioned at the first value
+     */
+    public BinaryPreorderSource(ByteBuffer in) {
+        this(in, null);
+    }
+
+    /**
+     * Create a new source over a buffer whose values refer to a dictionary.
+     *
+     * @param in the buffer, positioned at the first value
+     * @param dictionary the dictionary the values refer to, or null if
+     * they don't
+     */
+    public BinaryPreorderSource(ByteBuffer in, RITDictionary dictionary) {
+        this.values = in;
+        this.in = in;
+        this.start = in.position();
+        this.dictionary = dictionary;
+        this.entries = null;
+        this.buffers = new ByteBuffer[8];
+        this.returns = new int[8];
+        this.pending = new int[8];
+        this.replays = 0;
+    }
+
+    /**
+     * Get the next unsigned byte from the buffer.
+     *
+     * @return the byte (0-255)
+     * @throws QTException if the buffer has run out
+     */
+    private int read() throws QTException
+    {
+        if(!in.hasRemaining())
+        {
+            throw new QTException("Error uncompressing.  Not enough data.");
+        }
+        return in.get() & 0xFF;
+    }
+
+    /**
+     * Return from every replayed subtree that has been read in full.
+     */
+    private void resume()
+    {
+        while(replays > 0 && pending[replays - 1] == 0)
+        {
+            replays--;
+            in = buffers[replays];
+            in.position(returns[replays]);
+        }
+    }
+
+    /**
+     * Count a node, which may be a whole skipped subtree, against the
+     * innermost subtree being replayed.
+     *
+     * @param children the number of child nodes that follow it
+     */
+    private void count(int children)
+    {
+        if(replays > 0)
+        {
+            pending[replays - 1] += children - 1;
+        }
+    }
+
+    /**
+     * Read the distance of a reference and check where it points.
+     *
+     * @param position where the ESCAPE of the reference is
+     * @return where the subtree it refers to starts
+     * @throws QTException if the reference doesn't point back into the values
+     */
+    private int target(int position) throws QTException
+    {
+        if(in != values)
+        {
+            throw new QTException("Error uncompressing.  Bad value in dictionary.");
+        }
+        int distance = RITFormat.readVarint(in);
+        if(distance <= 0 || distance > position - start)
+        {
+            throw new QTException("Error uncompressing.  Bad reference in file.");
+        }
+        return position - distance;
+    }
+
+    /**
+     * Read the number of a dictionary entry and check it is in the
+     * dictionary.
+     *
+     * @return where the entry starts in the dictionary's buffer
+     * @throws QTException if there is no such entry
+     */
+    private int entry() throws QTException
+    {
+        if(in != values)
+        {
+            throw new QTException("Error uncompressing.  Bad value in dictionary.");
+        }
+        if(dictionary == null)
+        {
+            throw new QTException("Error uncompressing.  The file needs a dictionary.");
+        }
+        int id = RITFormat.readVarint(in);
+        if(id >= dictionary.size())
+        {
+            throw new QTException("Error uncompressing.  Bad dictionary entry in file.");
+        }
+        return dictionary.getOffset(id);
+    }
+
+    /**
+     * Start replaying the subtree a reference points to.  The reference
+     * stands for one node of the subtree it is in.
+     *
+     * @param buffer the buffer holding the subtree
+     * @param target where the subtree starts
+     */
+    private void replay(ByteBuffer buffer, int target)
+    {
+        count(0);
+        if(replays == returns.length)
+        {
+            buffers = Arrays.copyOf(buffers, replays * 2);
+            returns = Arrays.copyOf(returns, replays * 2);
+            pending = Arrays.copyOf(pending, replays * 2);
+        }
+        buffers[replays] = in;
+        returns[replays] = in.position();
+        pending[replays] = 1;
+        replays++;
+        in = buffer;
+        in.position(target);
+    }
+
+    @Override
+    public int next() throws QTException
+    {
+        resume();
+        int position = in.position();
+        int b = read();
+        if(b == RITFormat.SPLIT)
+        {
+            count(4);
+            return QTree.QUAD_SPLIT;
+        }
+        else if(b == RITFormat.ESCAPE)
+        {
+            //an escape is either a color that collides with the markers
+            //or one of the other kinds of node
+            int escaped = read();
+            if(escaped == RITFormat.ESCAPE || escaped == RITFormat.SPLIT)
+            {
+                count(0);
+                return escaped;
+            }
+            else if(escaped == RITFormat.RAW)
+            {
+                //the pixels are read before the next value, so a replay
+                //ending with a raw block is only returned from by then
+                count(0);
+                return QTree.RAW_BLOCK;
+            }
+            else if(escaped == RITFormat.REF)
+            {
+                replay(values, target(position));
+                return next();
+            }
+            else if(escaped == RITFormat.DICT)
+            {
+                int target = entry();
+                if(entries == null)
+                {
+                    entries = dictionary.getEntries();
+                }
+                replay(entries, target);
+                return next();
+            }
+            throw new QTException("Error uncompressing.  Bad value in file.");
+        }
+        count(0);
+        return b;
+    }
+
+    @Override
+    public int pixel() throws QTException
+    {
+        //the pixels of a raw block are plain bytes
+        return read();
+    }
+
+    @Override
+    public void skip(int size) throws QTException
+    {
+        resume();
+        //the skipped subtree's bytes are contiguous, so it counts as one node
+        count(0);
+        skipSubtree(size);
+    }
+
+    /**
+     * Step over the bytes of the next subtree.  A reference inside it is
+     * stepped over without following it.
+     *
+     * @param size the size of the square region the subtree represents
+     * @throws QTException if the values do not describe a valid tree
+     */
+    private void skipSubtree(int size) throws QTException
+    {
+        int position = in.position();
+        int b = read();
+        if(b == RITFormat.SPLIT)
+        {
+            if(size == 1)
+            {
+                throw new QTException("Error uncompressing.  Split below pixel level.");
+            }
+            for(int q = 0; q < 4; q++)
+            {
+                skipSubtree(size/2);
+            }
+        }
+        else if(b == RITFormat.ESCAPE)
+        {
+            int escaped = read();
+            if(escaped == RITFormat.RAW)
+            {
+                //the pixels of a raw block can be jumped all at once
+                if(in.remaining() < (long) size * size)
+                {
+                    throw new QTException("Error uncompressing.  Not enough data.");
+                }
+                in.position(in.position() + size * size);
+            }
+            else if(escaped == RITFormat.REF)
+            {
+                target(position);
+            }
+            else if(escaped == RITFormat.DICT)
+            {
+                entry();
+            }
+            else if(escaped != RITFormat.ESCAPE && escaped != RITFormat.SPLIT)
+            {
+                throw new QTException("Error uncompressing.  Bad value in file.");
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * The models and the position in the tree shared by EntropyPreorderSink
+ * and EntropyPreorderSource.  Both sides walk the same preorder stream
+ * and update the same models, so the decoder always picks the model the
+ * encoder used.
+ *
+ * Each node is coded as a kind (leaf, split or raw block) and, for a
+ * leaf, a color.  The kind is coded with a model chosen by the node's
+ * depth and the kind of its previous sibling, since splits cluster near
+ * the top of the tree and in busy regions.  The color is coded as its
+ * difference from a prediction: the previous sibling's color when that
+ * was a leaf, otherwise the last leaf color seen.  Neighbouring blocks
+ * tend to be close in color, so the differences bunch up near 0.  The
+ * pixels of a raw block are coded as differences from the pixel before.
+ *
+ * @author Benjamin Mitchell
+ */
+public class EntropyContext {
+    /** the kind of a node with a single color */
+    final static int LEAF = 0;
+
+    /** the kind of a node split into 4 sub-regions */
+    final static int SPLIT = 1;
+
+    /** the kind of a raw block of pixels */
+    final static int RAW = 2;
+
+    /** the previous sibling kind of the first child */
+    private final static int NONE = 3;
+
+    /** the deepest a tree can go (an image is at most 2^31 pixels wide) */
+    private final static int MAX_DEPTH = 32;
+
+    /** the kind models by depth and previous sibling kind */
+    private final FrequencyModel kindModels[][];
+
+    /** the color models by depth and whether the previous sibling was a leaf */
+    private final FrequencyModel valueModels[][];
+
+    /** the model for the pixels of raw blocks */
+    private final FrequencyModel pixelModel;
+
+    /** the square dimension of the image */
+    private final int dim;
+
+    /** the depth of the next node */
+    private int depth;
+
+    /** how many children of the open split at each depth are done */
+    private final int childIndex[];
+
+    /** the kind of the last node at each depth */
+    private final int prevKind[];
+
+    /** the color of the last node at each depth */
+    private final int prevValue[];
+
+    /** the color of the last leaf */
+    private int lastLeaf;
+
+    /** the number of pixels left in the current raw block */
+    private int rawRemaining;
+
+    /** the last pixel of the current raw block */
+    private int prevPixel;
+
+    /**
+     * Create the context for the start of an image.
+     *
+     * @param dim the square dimension of the image
+     */
+    public EntropyContext(int dim) {
+        this.kindModels = new FrequencyModel[MAX_DEPTH][NONE + 1];
+        this.valueModels = new FrequencyModel[MAX_DEPTH][2];
+        for(int d = 0; d < MAX_DEPTH; d++)
+        {
+            for(int k = 0; k <= NONE; k++)
+            {
+                this.kindModels[d][k] = new FrequencyModel(3);
+            }
+            this.valueModels[d][0] = new FrequencyModel(256);
+            this.valueModels[d][1] = new FrequencyModel(256);
+        }
+        this.pixelModel = new FrequencyModel(256);
+        this.dim = dim;
+        this.depth = 0;
+        this.childIndex = new int[MAX_DEPTH];
+        this.prevKind = new int[MAX_DEPTH];
+        this.prevValue = new int[MAX_DEPTH];
+        this.lastLeaf = 0;
+        this.rawRemaining = 0;
+        this.prevPixel = 0;
+    }
+
+    /**
+     * Check whether the previous sibling of the next node was a leaf.
+     *
+     * @return whether the prediction comes from a sibling
+     */
+    private boolean siblingLeaf()
+    {
+        return childIndex[depth] > 0 && prevKind[depth] == LEAF;
+    }
+
+    /**
+     * Get the model to code the kind of the next node with.
+     *
+     * @return the kind model
+     */
+    public FrequencyModel kindModel()
+    {
+        return kindModels[depth][childIndex[depth] > 0 ? prevKind[depth] : NONE];
+    }
+
+    /**
+     * Get the model to code the color of the next node with.
+     *
+     * @return the color model
+     */
+    public FrequencyModel valueModel()
+    {
+        return valueModels[depth][siblingLeaf() ? 1 : 0];
+    }
+
+    /**
+     * Get the predicted color of the next node.
+     *
+     * @return the prediction (0-255)
+     */
+    public int predict()
+    {
+        return siblingLeaf() ? prevValue[depth] : lastLeaf;
+    }
+
+    /**
+     * Check whether the next value is a pixel of a raw block.
+     *
+     * @return whether a raw block is being coded
+     */
+    public boolean inRawBlock() { return this.rawRemaining > 0; }
+
+    /**
+     * Get the model to code the pixels of raw blocks with.
+     *
+     * @return the pixel model
+     */
+    public FrequencyModel pixelModel() { return this.pixelModel; }
+
+    /**
+     * Get the predicted next pixel of the current raw block.
+     *
+     * @return the prediction (0-255)
+     */
+    public int predictPixel() { return this.prevPixel; }
+
+    /**
+     * Move past a node.
+     *
+     * @param kind the kind of node
+     * @param value the node's color, if it is a leaf
+     * @throws QTException if the node doesn't fit in the tree
+     */
+    public void node(int kind, int value) throws QTException
+    {
+        int size = dim >> depth;
+        int predicted = predict();
+        prevKind[depth] = kind;
+        prevValue[depth] = value;
+        if(kind == SPLIT)
+        {
+            if(size <= 1)
+            {
+                throw new QTException("Error uncompressing.  Split below pixel level.");
+            }
+            depth++;
+            childIndex[depth] = 0;
+        }
+        else if(kind == RAW)
+        {
+            rawRemaining = size * size;
+            prevPixel = predicted;
+        }
+        else
+        {
+            lastLeaf = value;
+            done();
+        }
+    }
+
+    /**
+     * Move past a pixel of the current raw block.
+     *
+     * @param pixel the pixel's color
+     */
+    public void pixel(int pixel)
+    {
+        prevPixel = pixel;
+        rawRemaining--;
+        if(rawRemaining == 0)
+        {
+            done();
+        }
+    }
+
+    /**
+     * Finish a node, and with it any splits whose last child it was.
+     */
+    private void done()
+    {
+        childIndex[depth]++;
+        while(depth > 0 && childIndex[depth] == 4)
+        {
+            depth--;
+            childIndex[depth]++;
+        }
+    }
+}
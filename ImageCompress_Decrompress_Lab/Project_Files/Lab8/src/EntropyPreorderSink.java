@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the values of a compressed RIT image arithmetic coded with
+ * adaptive models (see EntropyContext).  The coded bits go straight to the
+ * stream as the tree is walked; finish() must be called after the last
+ * value.
+ *
+ * @author Benjamin Mitchell
+ */
+public class EntropyPreorderSink implements PreorderSink {
+    /** the coder writing to the stream */
+    private final ArithmeticEncoder encoder;
+
+    /** the models and position in the tree */
+    private final EntropyContext context;
+
+    /**
+     * Create a new sink over a stream.
+     *
+     * @param out the stream to write the coded bits to
+     * @param dim the square dimension of the image
+     */
+    public EntropyPreorderSink(OutputStream out, int dim) {
+        this.encoder = new ArithmeticEncoder(out);
+        this.context = new EntropyContext(dim);
+    }
+
+    @Override
+    public void put(int value) throws IOException, QTException
+    {
+        if(value == QTree.QUAD_SPLIT)
+        {
+            encoder.encode(context.kindModel(), EntropyContext.SPLIT);
+            context.node(EntropyContext.SPLIT, value);
+        }
+        else if(value == QTree.RAW_BLOCK)
+        {
+            encoder.encode(context.kindModel(), EntropyContext.RAW);
+            context.node(EntropyContext.RAW, value);
+        }
+        else if(value < 0 || value > 255)
+        {
+            throw new QTException("Error writing compressed file.  Bad value " + value + ".");
+        }
+        else
+        {
+            encoder.encode(context.kindModel(), EntropyContext.LEAF);
+            encoder.encode(context.valueModel(), (value - context.predict()) & 0xFF);
+            context.node(EntropyContext.LEAF, value);
+        }
+    }
+
+    @Override
+    public void putPixel(int pixel) throws IOException, QTException
+    {
+        if(pixel < 0 || pixel > 255)
+        {
+            throw new QTException("Error writing compressed file.  Bad pixel " + pixel + ".");
+        }
+        encoder.encode(context.pixelModel(), (pixel - context.predictPixel()) & 0xFF);
+        context.pixel(pixel);
+    }
+
+    /**
+     * Write out the last of the coded bits.  The stream is not closed.
+     *
+     * @throws IOException if there are issues writing the stream
+     */
+    public void finish() throws IOException
+    {
+        encoder.finish();
+    }
+}
@@ -0,0 +1,65 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the arithmetic coded values of a binary RIT file (see
+ * EntropyContext).  The values are decoded one at a time as they are
+ * asked for, so the image is painted while the file is read.
+ *
+ * @author Benjamin Mitchell
+ */
+public class EntropyPreorderSource implements PreorderSource {
+    /** the coder reading from the buffer */
+    private final ArithmeticDecoder decoder;
+
+    /** the models and position in the tree */
+    private final EntropyContext context;
+
+    /**
+     * Create a new source over a buffer.
+     *
+     * @param in the buffer, positioned at the first coded byte
+     * @param dim the square dimension of the image
+     */
+    public EntropyPreorderSource(ByteBuffer in, int dim) {
+        this.decoder = new ArithmeticDecoder(in);
+        this.context = new EntropyContext(dim);
+    }
+
+    @Override
+    public int next() throws QTException
+    {
+        int kind = decoder.decode(context.kindModel());
+        if(kind == EntropyContext.SPLIT)
+        {
+            context.node(kind, QTree.QUAD_SPLIT);
+            return QTree.QUAD_SPLIT;
+        }
+        else if(kind == EntropyContext.RAW)
+        {
+            context.node(kind, QTree.RAW_BLOCK);
+            return QTree.RAW_BLOCK;
+        }
+        int value = (context.predict() + decoder.decode(context.valueModel())) & 0xFF;
+        context.node(kind, value);
+        return value;
+    }
+
+    @Override
+    public int pixel() throws QTException
+    {
+        int pixel = (context.predictPixel() + decoder.decode(context.pixelModel())) & 0xFF;
+        context.pixel(pixel);
+        return pixel;
+    }
+
+    /**
+     * Check that the file held all the coded values, once the whole tree
+     * has been read (see ArithmeticDecoder.finish()).
+     *
+     * @throws QTException if the file was cut short
+     */
+    public void finish() throws QTException
+    {
+        decoder.finish();
+    }
+}
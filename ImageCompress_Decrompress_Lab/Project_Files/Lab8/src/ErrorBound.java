@@ -0,0 +1,114 @@
+/**
+ * How far a block of the raw image may stray from a single value and
+ * still be compressed into one node in lossy mode.  A block that is
+ * within the bound is stored as its mean.  The bound can be put on:
+ *
+ *      - RANGE: the largest value minus the smallest value in the block
+ *      - STDDEV: the standard deviation of the values in the block
+ *      - MAX_ERROR: the largest difference between a value and the mean
+ *
+ * A bound of 0 on any of them is lossless.  This class is immutable
+ * after construction.
+ *
+ * @author Benjamin Mitchell
+ */
+public class ErrorBound {
+    /** bound the range (max - min) of a block */
+    public final static int RANGE = 0;
+
+    /** bound the standard deviation of a block */
+    public final static int STDDEV = 1;
+
+    /** bound the largest absolute error against the block's mean */
+    public final static int MAX_ERROR = 2;
+
+    /** the statistic being bounded */
+    private final int metric;
+
+    /** the largest value of the statistic allowed */
+    private final double bound;
+
+    /**
+     * Create a new error bound.
+     *
+     * @param metric RANGE, STDDEV or MAX_ERROR
+     * @param bound the largest value of the statistic allowed
+     */
+    public ErrorBound(int metric, double bound) {
+        if(metric != RANGE && metric != STDDEV && metric != MAX_ERROR)
+        {
+            throw new IllegalArgumentException("Unknown error metric: " + metric);
+        }
+        if(bound < 0)
+        {
+            throw new IllegalArgumentException("Bad error bound: " + bound);
+        }
+        this.metric = metric;
+        this.bound = bound;
+    }
+
+    /**
+     * Get the statistic being bounded.
+     *
+     * @return RANGE, STDDEV or MAX_ERROR
+     */
+    public int getMetric() { return this.metric; }
+
+    /**
+     * Get the largest value of the statistic allowed.
+     *
+     * @return the bound
+     */
+    public double getBound() { return this.bound; }
+
+    /**
+     * Get the value a block is stored as, its mean rounded to the nearest
+     * grayscale value.
+     *
+     * @param sum the sum of the values in the block
+     * @param count the number of values in the block
+     * @return the rounded mean
+     */
+    public static int mean(long sum, long count)
+    {
+        return (int) ((sum + count / 2) / count);
+    }
+
+    /**
+     * Check whether a block is within the bound.
+     *
+     * @param min the smallest value in the block
+     * @param max the largest value in the block
+     * @param sum the sum of the values in the block
+     * @param sumOfSquares the sum of the squares of the values in the block
+     * @param count the number of values in the block
+     * @return whether the block can be stored as its mean
+     */
+    public boolean accepts(int min, int max, long sum, long sumOfSquares, long count)
+    {
+        if(metric == RANGE)
+        {
+            return max - min <= bound;
+        }
+        else if(metric == STDDEV)
+        {
+            double mean = (double) sum / count;
+            double variance = (double) sumOfSquares / count - mean * mean;
+            return variance <= bound * bound;
+        }
+        int mean = mean(sum, count);
+        return Math.max(max - mean, mean - min) <= bound;
+    }
+
+    /**
+     * Returns a string like "range <= 8.0".
+     *
+     * @return string representation of the bound
+     */
+    @Override
+    public String toString()
+    {
+        String[] names = {"range", "stddev", "max error"};
+        return names[metric] + " <= " + bound;
+    }
+}
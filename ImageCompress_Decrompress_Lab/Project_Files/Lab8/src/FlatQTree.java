@@ -0,0 +1,617 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A quadtree stored as two parallel int arrays in preorder instead of a
+ * graph of QTNode objects.  Node i has the value values[i] and its
+ * subtree (itself and everything under it) covers the sizes[i] entries
+ * starting at i.  The children of a split node are implicit: the upper
+ * left child is the next entry, and each following sibling starts right
+ * after the subtree of the one before it.
+ *
+ * A raw block (QTree.RAW_BLOCK) is followed by its pixels in row-major
+ * order, and its subtree covers them, so it is skipped like any other
+ * subtree.
+ *
+ * Each node costs 8 bytes, against an object header, an int and four
+ * references for a QTNode, and walking the tree in preorder (which is all
+ * writing and uncompressing do) is a sequential scan of the arrays.
+ *
+ * @author Benjamin Mitchell
+ */
+public class FlatQTree {
+    /** the initial capacity of an empty tree */
+    private final static int INITIAL_CAPACITY = 64;
+
+    /** the value of each node in preorder */
+    private int values[];
+
+    /** the number of nodes in each node's subtree */
+    private int sizes[];
+
+    /** the number of nodes in the tree */
+    private int count;
+
+    /**
+     * Create an initially empty tree.
+     */
+    public FlatQTree() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create an initially empty tree with room for a number of nodes.
+     *
+     * @param capacity the number of nodes to make room for
+     */
+    public FlatQTree(int capacity) {
+        this.values = new int[Math.max(capacity, 1)];
+        this.sizes = new int[Math.max(capacity, 1)];
+        this.count = 0;
+    }
+
+    /**
+     * Get the number of nodes in the tree.
+     *
+     * @return the number of nodes
+     */
+    public int size() { return this.count; }
+
+    /**
+     * Get a node's value.
+     *
+     * @param node the preorder position of the node
+     * @return the node's value
+     */
+    public int getVal(int node) { return this.values[node]; }
+
+    /**
+     * Get the number of nodes in a node's subtree, itself included.
+     *
+     * @param node the preorder position of the node
+     * @return the size of the subtree
+     */
+    public int getSubtreeSize(int node) { return this.sizes[node]; }
+
+    /**
+     * Get one of the children of a split node.
+     *
+     * @param node the preorder position of the split node
+     * @param quadrant 0-3 for upper left, upper right, lower left, lower right
+     * @return the preorder position of the child
+     */
+    public int child(int node, int quadrant)
+    {
+        int child = node + 1;
+        for(int q = 0; q < quadrant; q++)
+        {
+            child += sizes[child];
+        }
+        return child;
+    }
+
+    /**
+     * Grow the arrays so they hold at least a number of nodes.
+     *
+     * @param capacity the number of nodes needed
+     */
+    private void ensureCapacity(int capacity)
+    {
+        if(capacity > values.length)
+        {
+            int grown = Math.max(capacity, values.length * 2);
+            values = Arrays.copyOf(values, grown);
+            sizes = Arrays.copyOf(sizes, grown);
+        }
+    }
+
+    /**
+     * Append a node in preorder.  Its subtree size starts out as 1; a
+     * split node must be closed once its children have been appended.
+     *
+     * @param value the node's value
+     * @return the preorder position of the node
+     */
+    public int add(int value)
+    {
+        ensureCapacity(count + 1);
+        values[count] = value;
+        sizes[count] = 1;
+        return count++;
+    }
+
+    /**
+     * Finish a split node once everything under it has been appended.
+     *
+     * @param node the preorder position of the split node
+     */
+    public void close(int node)
+    {
+        sizes[node] = count - node;
+    }
+
+    /**
+     * Append a whole tree in preorder.
+     *
+     * @param tree the tree to append
+     */
+    public void addAll(FlatQTree tree)
+    {
+        ensureCapacity(count + tree.count);
+        System.arraycopy(tree.values, 0, values, count, tree.count);
+        System.arraycopy(tree.sizes, 0, sizes, count, tree.count);
+        count += tree.count;
+    }
+
+    /**
+     * Build a tree whose root is split into four existing trees.
+     *
+     * @param ul the upper left sub-tree
+     * @param ur the upper right sub-tree
+     * @param ll the lower left sub-tree
+     * @param lr the lower right sub-tree
+     * @return the combined tree
+     */
+    public static FlatQTree split(FlatQTree ul, FlatQTree ur, FlatQTree ll, FlatQTree lr)
+    {
+        FlatQTree tree = new FlatQTree(1 + ul.count + ur.count + ll.count + lr.count);
+        int root = tree.add(QTree.QUAD_SPLIT);
+        tree.addAll(ul);
+        tree.addAll(ur);
+        tree.addAll(ll);
+        tree.addAll(lr);
+        tree.close(root);
+        return tree;
+    }
+
+    /**
+     * Release the spare capacity left over from appending.
+     */
+    public void trim()
+    {
+        values = Arrays.copyOf(values, Math.max(count, 1));
+        sizes = Arrays.copyOf(sizes, Math.max(count, 1));
+    }
+
+    /**
+     * Rotate or mirror the tree (see RITTransform.transform()).  The new
+     * tree has the same nodes, with the children of every split and the
+     * pixels of every raw block reordered, so it is built straight into
+     * arrays of the same length.
+     *
+     * @param transform the transform, one of RITTransform's IDENTITY to
+     * TRANSVERSE
+     * @param size the square dimension of the image
+     * @return the transformed tree
+     */
+    public FlatQTree transform(int transform, int size)
+    {
+        //the child that ends up in each quadrant
+        int from[] = new int[4];
+        for(int q = 0; q < 4; q++)
+        {
+            from[RITTransform.moved(transform, q / 2, q % 2, 2)] = q;
+        }
+        FlatQTree tree = new FlatQTree(this.count);
+        if(this.count > 0)
+        {
+            tree.addMoved(this, 0, size, transform, from);
+        }
+        return tree;
+    }
+
+    /**
+     * Append a transformed copy of a subtree of another tree.
+     *
+     * @param tree the tree being transformed
+     * @param node the preorder position of the subtree's root in it
+     * @param size the size of the subtree's region
+     * @param transform the transform
+     * @param from the child that ends up in each quadrant
+     */
+    private void addMoved(FlatQTree tree, int node, int size, int transform, int from[])
+    {
+        int value = tree.values[node];
+        int moved = add(value);
+        if(value == QTree.QUAD_SPLIT)
+        {
+            int children[] = new int[4];
+            children[0] = node + 1;
+            for(int q = 1; q < 4; q++)
+            {
+                children[q] = children[q - 1] + tree.sizes[children[q - 1]];
+            }
+            for(int q = 0; q < 4; q++)
+            {
+                addMoved(tree, children[from[q]], size/2, transform, from);
+            }
+            close(moved);
+        }
+        else if(value == QTree.RAW_BLOCK)
+        {
+            ensureCapacity(count + size * size);
+            for(int r = 0; r < size; r++)
+            {
+                for(int c = 0; c < size; c++)
+                {
+                    int pixel = moved + 1 + RITTransform.moved(transform, r, c, size);
+                    values[pixel] = tree.values[node + 1 + r * size + c];
+                    sizes[pixel] = 1;
+                }
+            }
+            count += size * size;
+            close(moved);
+        }
+    }
+
+    /**
+     * Read a tree from the values of a compressed image.
+     *
+     * @param values the source of the compressed values
+     * @param size the size of the square region the tree represents
+     * @return the tree
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if the values do not describe a valid tree
+     */
+    public static FlatQTree read(PreorderSource values, int size) throws IOException, QTException
+    {
+        FlatQTree tree = new FlatQTree();
+        tree.readNode(values, size);
+        tree.trim();
+        return tree;
+    }
+
+    /**
+     * Append the next node in the values, and its subtree if it is split.
+     *
+     * @param values the source of the compressed values
+     * @param size the size of the square region the node represents
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if the values do not describe a valid tree
+     */
+    private void readNode(PreorderSource values, int size) throws IOException, QTException
+    {
+        int value = values.next();
+        int node = add(value);
+        if(value == QTree.QUAD_SPLIT)
+        {
+            //A single pixel can't be divided any further
+            if(size == 1)
+            {
+                throw new QTException("Error uncompressing.  Split below pixel level.");
+            }
+            for(int quadrant = 0; quadrant < 4; quadrant++)
+            {
+                readNode(values, size/2);
+            }
+            close(node);
+        }
+        else if(value == QTree.RAW_BLOCK)
+        {
+            for(int i = 0; i < size * size; i++)
+            {
+                add(values.pixel());
+            }
+            close(node);
+        }
+    }
+
+    /**
+     * Write the tree's values in preorder, which is the order they are
+     * stored in.
+     *
+     * @param values the sink to write the values to
+     * @throws IOException if there are issues with the sink
+     * @throws QTException if a value can't be written
+     */
+    public void write(PreorderSink values) throws IOException, QTException
+    {
+        write(values, 0, count);
+    }
+
+    /**
+     * Write a run of whole subtrees in preorder.
+     *
+     * @param values the sink to write the values to
+     * @param from the preorder position of the first node to write
+     * @param to the preorder position just after the last subtree
+     * @throws IOException if there are issues with the sink
+     * @throws QTException if a value can't be written
+     */
+    private void write(PreorderSink values, int from, int to) throws IOException, QTException
+    {
+        int i = from;
+        while(i < to)
+        {
+            values.put(this.values[i]);
+            if(this.values[i] == QTree.RAW_BLOCK)
+            {
+                //the pixels of a raw block make up the rest of its subtree
+                for(int p = i + 1; p < i + sizes[i]; p++)
+                {
+                    values.putPixel(this.values[p]);
+                }
+                i += sizes[i];
+            }
+            else
+            {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Write the tree's values in preorder, recording where each node down
+     * to the index depth starts and the mean of its region.
+     *
+     * @param values the sink to write the values to
+     * @param index the index being filled in
+     * @param size the square dimension of the image
+     * @throws IOException if there are issues with the sink
+     * @throws QTException if a value can't be written
+     */
+    public void write(BinaryPreorderSink values, RITIndex index, int size) throws IOException, QTException
+    {
+        if(count > 0)
+        {
+            write(values, index, 0, 0, 0, size);
+        }
+    }
+
+    /**
+     * The recursive helper for writing with an index.
+     *
+     * @param values the sink to write the values to
+     * @param index the index being filled in
+     * @param node the preorder position of the current node
+     * @param slot the index slot of the current node
+     * @param depth the depth of the current node
+     * @param size the size of the current node's region
+     * @return the sum of the colors in the current node's region
+     * @throws IOException if there are issues with the sink
+     * @throws QTException if a value can't be written
+     */
+    private long write(BinaryPreorderSink values, RITIndex index, int node, int slot, int depth, int size)
+            throws IOException, QTException
+    {
+        if(depth > index.getDepth())
+        {
+            //below the index, so the rest of the subtree is a plain copy
+            write(values, node, node + sizes[node]);
+            return sum(node, size);
+        }
+        index.setOffset(slot, values.getPosition());
+        long sum;
+        if(this.values[node] != QTree.QUAD_SPLIT)
+        {
+            write(values, node, node + sizes[node]);
+            sum = sum(node, size);
+        }
+        else
+        {
+            values.put(QTree.QUAD_SPLIT);
+            sum = 0;
+            int child = node + 1;
+            for(int quadrant = 0; quadrant < 4; quadrant++)
+            {
+                sum += write(values, index, child, RITIndex.child(slot, quadrant), depth + 1, size/2);
+                child += sizes[child];
+            }
+        }
+        index.setMean(slot, ErrorBound.mean(sum, (long) size * size));
+        return sum;
+    }
+
+    /**
+     * Add up the colors in a node's region.
+     *
+     * @param node the preorder position of the node
+     * @param size the size of the node's region
+     * @return the sum of the colors
+     */
+    private long sum(int node, int size)
+    {
+        int value = values[node];
+        if(value == QTree.RAW_BLOCK)
+        {
+            long sum = 0;
+            for(int p = node + 1; p < node + sizes[node]; p++)
+            {
+                sum += values[p];
+            }
+            return sum;
+        }
+        else if(value != QTree.QUAD_SPLIT)
+        {
+            return (long) value * size * size;
+        }
+        long sum = 0;
+        int child = node + 1;
+        for(int quadrant = 0; quadrant < 4; quadrant++)
+        {
+            sum += sum(child, size/2);
+            child += sizes[child];
+        }
+        return sum;
+    }
+
+    /**
+     * Paint the raw image the tree represents.
+     *
+     * @param image the 2-D array to paint, the size of the whole tree
+     */
+    public void paint(int image[][])
+    {
+        this.paint(image, 0, 0, image.length);
+    }
+
+    /**
+     * Paint the tree into a square region of a larger image.
+     *
+     * @param image the 2-D array to paint
+     * @param row the starting row of the region
+     * @param col the starting column of the region
+     * @param size the size of the region, the size of the whole tree
+     */
+    public void paint(int image[][], int row, int col, int size)
+    {
+        if(count > 0)
+        {
+            paint(image, 0, size, row, col);
+        }
+    }
+
+    /**
+     * The recursive helper for painting.
+     *
+     * @param image the 2-D array to paint
+     * @param node the preorder position of the current node
+     * @param size the size of the current node's region
+     * @param row the starting row of the region
+     * @param col the starting column of the region
+     * @return the preorder position just after the current node's subtree
+     */
+    private int paint(int image[][], int node, int size, int row, int col)
+    {
+        int value = values[node];
+        if(value == QTree.RAW_BLOCK)
+        {
+            for(int r = 0; r < size; r++)
+            {
+                System.arraycopy(values, node + 1 + r * size, image[row + r], col, size);
+            }
+            return node + sizes[node];
+        }
+        else if(value != QTree.QUAD_SPLIT)
+        {
+            for(int r = row; r < row + size; r++)
+            {
+                Arrays.fill(image[r], col, col + size, value);
+            }
+            return node + 1;
+        }
+        int half = size/2;
+        int next = paint(image, node + 1, half, row, col);
+        next = paint(image, next, half, row, col + half);
+        next = paint(image, next, half, row + half, col);
+        return paint(image, next, half, row + half, col + half);
+    }
+
+    /**
+     * Build a copy of this tree in which every split subtree that takes
+     * more values to store than the pixels of its region is replaced by a
+     * raw block.  A raw block costs its RAW_BLOCK value plus one value per
+     * pixel, so the whole tree never costs more than the raw image plus
+     * one value.
+     *
+     * @param image the raw image the tree was compressed from
+     * @return the hybrid tree
+     */
+    public FlatQTree hybrid(int image[][])
+    {
+        boolean raw[] = new boolean[count];
+        if(count > 0)
+        {
+            hybridCost(raw, 0, image.length);
+        }
+        FlatQTree tree = new FlatQTree(count);
+        if(count > 0)
+        {
+            tree.copyHybrid(this, raw, image, 0, image.length, 0, 0);
+        }
+        tree.trim();
+        return tree;
+    }
+
+    /**
+     * Work out which nodes become raw blocks, bottom up.
+     *
+     * @param raw marks the split nodes that become raw blocks
+     * @param node the preorder position of the current node
+     * @param size the size of the current node's region
+     * @return the number of values the node's subtree costs after the change
+     */
+    private int hybridCost(boolean raw[], int node, int size)
+    {
+        if(values[node] != QTree.QUAD_SPLIT)
+        {
+            return sizes[node];
+        }
+        int cost = 1;
+        int child = node + 1;
+        for(int quadrant = 0; quadrant < 4; quadrant++)
+        {
+            cost += hybridCost(raw, child, size/2);
+            child += sizes[child];
+        }
+        //on a tie keep the split, which is what a non-hybrid reader expects
+        if(1 + size * size < cost)
+        {
+            raw[node] = true;
+            return 1 + size * size;
+        }
+        return cost;
+    }
+
+    /**
+     * Append the hybrid version of a subtree of another tree.
+     *
+     * @param tree the tree being copied
+     * @param raw marks the split nodes that become raw blocks
+     * @param image the raw image the tree was compressed from
+     * @param node the preorder position of the current node in tree
+     * @param size the size of the current node's region
+     * @param row the starting row of the region
+     * @param col the starting column of the region
+     */
+    private void copyHybrid(FlatQTree tree, boolean raw[], int image[][],
+                            int node, int size, int row, int col)
+    {
+        if(raw[node])
+        {
+            int block = add(QTree.RAW_BLOCK);
+            for(int r = row; r < row + size; r++)
+            {
+                for(int c = col; c < col + size; c++)
+                {
+                    add(image[r][c]);
+                }
+            }
+            close(block);
+        }
+        else if(tree.values[node] == QTree.QUAD_SPLIT)
+        {
+            int split = add(QTree.QUAD_SPLIT);
+            int half = size/2;
+            int child = node + 1;
+            copyHybrid(tree, raw, image, child, half, row, col);
+            child += tree.sizes[child];
+            copyHybrid(tree, raw, image, child, half, row, col + half);
+            child += tree.sizes[child];
+            copyHybrid(tree, raw, image, child, half, row + half, col);
+            child += tree.sizes[child];
+            copyHybrid(tree, raw, image, child, half, row + half, col + half);
+            close(split);
+        }
+        else
+        {
+            add(tree.values[node]);
+        }
+    }
+
+    /**
+     * Returns the values of the tree in preorder, separated by spaces.
+     *
+     * @return the preorder string
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        for(int i = 0; i < count; i++)
+        {
+            result.append(values[i]).append(' ');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.Arrays;
+
+/**
+ * An adaptive frequency model for arithmetic coding.  Every symbol starts
+ * with a count of 1, and each time a symbol is coded its count goes up, so
+ * the model learns the statistics of the stream as it goes.  The encoder
+ * and decoder update their models identically, so nothing about the
+ * statistics needs to be stored in the file.
+ *
+ * The counts are kept in a Fenwick tree, so finding the cumulative count
+ * of a symbol, or the symbol for a cumulative count, takes O(log n).
+ *
+ * @author Benjamin Mitchell
+ */
+public class FrequencyModel {
+    /** how much a symbol's count goes up each time it is coded */
+    private final static int INCREMENT = 24;
+
+    /** the total count at which every count is halved */
+    private final static int MAX_TOTAL = 1 << 16;
+
+    /** the count of each symbol */
+    private final int counts[];
+
+    /** the Fenwick tree over the counts, 1-based */
+    private final int tree[];
+
+    /** the largest power of 2 no greater than the number of symbols */
+    private final int topBit;
+
+    /** the sum of all counts */
+    private int total;
+
+    /**
+     * Create a model where every symbol is equally likely.
+     *
+     * @param symbols the number of symbols
+     */
+    public FrequencyModel(int symbols) {
+        this.counts = new int[symbols];
+        this.tree = new int[symbols + 1];
+        this.topBit = Integer.highestOneBit(symbols);
+        Arrays.fill(this.counts, 1);
+        this.rebuild();
+    }
+
+    /**
+     * Rebuild the Fenwick tree from the counts.
+     */
+    private void rebuild()
+    {
+        Arrays.fill(tree, 0);
+        total = 0;
+        for(int i = 0; i < counts.length; i++)
+        {
+            total += counts[i];
+            for(int j = i + 1; j < tree.length; j += j & -j)
+            {
+                tree[j] += counts[i];
+            }
+        }
+    }
+
+    /**
+     * Get the sum of all counts.
+     *
+     * @return the total count
+     */
+    public int getTotal() { return this.total; }
+
+    /**
+     * Get the sum of the counts of the symbols before a symbol.
+     *
+     * @param symbol the symbol
+     * @return the cumulative count below the symbol
+     */
+    public int getLow(int symbol)
+    {
+        int sum = 0;
+        for(int i = symbol; i > 0; i -= i & -i)
+        {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Get the count of a symbol.
+     *
+     * @param symbol the symbol
+     * @return the symbol's count
+     */
+    public int getCount(int symbol) { return this.counts[symbol]; }
+
+    /**
+     * Find the symbol whose cumulative range holds a count.
+     *
+     * @param value a cumulative count below the total
+     * @return the symbol s with getLow(s) <= value < getLow(s) + getCount(s)
+     */
+    public int find(int value)
+    {
+        int pos = 0;
+        for(int bit = topBit; bit > 0; bit >>= 1)
+        {
+            int next = pos + bit;
+            if(next < tree.length && tree[next] <= value)
+            {
+                pos = next;
+                value -= tree[next];
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Record that a symbol was coded.
+     *
+     * @param symbol the symbol
+     */
+    public void update(int symbol)
+    {
+        counts[symbol] += INCREMENT;
+        total += INCREMENT;
+        for(int i = symbol + 1; i < tree.length; i += i & -i)
+        {
+            tree[i] += INCREMENT;
+        }
+        if(total > MAX_TOTAL)
+        {
+            //halve the counts so recent statistics weigh more
+            for(int i = 0; i < counts.length; i++)
+            {
+                counts[i] = (counts[i] + 1) / 2;
+            }
+            rebuild();
+        }
+    }
+}
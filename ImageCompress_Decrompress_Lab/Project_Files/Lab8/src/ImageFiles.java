@@ -0,0 +1,298 @@
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.*;
+
+/**
+ * Reads and writes grayscale images in the formats the tools accept
+ * besides the ASCII raw format:
+ *
+ *      - binary PGM (P5) with a maximum value of at most 255
+ *      - 8-bit grayscale PNG
+ *
+ * The pixels go straight between the image's rows and the file's raster,
+ * so none of these need the text format as a stepping stone.  Images are
+ * read to be compressed, so they must be square; any image can be
+ * written.  Nothing here needs a display, so it works on headless
+ * servers.
+ *
+ * @author Benjamin Mitchell
+ */
+public class ImageFiles {
+    /** the magic number of a binary PGM file */
+    private final static byte[] PGM_MAGIC = {'P', '5'};
+
+    /** the signature at the start of every PNG file */
+    private final static byte[] PNG_MAGIC = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * The image files are only a collection of static helpers.
+     */
+    private ImageFiles() {}
+
+    /**
+     * Check whether a file starts with a magic number.
+     *
+     * @param filename the name of the file
+     * @param magic the magic number
+     * @return whether the file starts with it
+     * @throws IOException if there are issues reading the file
+     */
+    private static boolean startsWith(String filename, byte[] magic) throws IOException
+    {
+        try(InputStream in = new FileInputStream(filename))
+        {
+            for(byte b : magic)
+            {
+                if(in.read() != (b & 0xFF))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Read an image, telling PGM and PNG files apart from ASCII raw files
+     * by their magic numbers.
+     *
+     * @param filename the name of the image file
+     * @return the pixels of the image, by row
+     * @throws IOException if there are issues reading the file, or the
+     * image isn't square and grayscale
+     */
+    public static int[][] read(String filename) throws IOException
+    {
+        if(startsWith(filename, PGM_MAGIC))
+        {
+            return readPGM(filename);
+        }
+        if(startsWith(filename, PNG_MAGIC))
+        {
+            return readPNG(filename);
+        }
+        return RawImageLoader.load(filename);
+    }
+
+    /**
+     * Read a binary PGM file.  Maximum values below 255 are scaled up to
+     * the full 0-255 range.
+     *
+     * @param filename the name of the PGM file
+     * @return the pixels of the image, by row
+     * @throws IOException if there are issues reading the file, or the
+     * image isn't square or has more than 8 bits per pixel
+     */
+    public static int[][] readPGM(String filename) throws IOException
+    {
+        try(RasterReader in = new RasterReader(filename))
+        {
+            if(in.getWidth() != in.getHeight())
+            {
+                throw new IOException("Image is not square: " + in.getWidth() + "x" + in.getHeight());
+            }
+            int image[][] = new int[in.getHeight()][in.getWidth()];
+            for(int[] row : image)
+            {
+                in.readRow(row);
+            }
+            return image;
+        }
+    }
+
+    /**
+     * Read an 8-bit grayscale PNG file.
+     *
+     * @param filename the name of the PNG file
+     * @return the pixels of the image, by row
+     * @throws IOException if there are issues reading the file, or the
+     * image isn't square and 8-bit grayscale
+     */
+    public static int[][] readPNG(String filename) throws IOException
+    {
+        BufferedImage png = ImageIO.read(new File(filename));
+        if(png == null || png.getType() != BufferedImage.TYPE_BYTE_GRAY)
+        {
+            throw new IOException("Only 8-bit grayscale PNG images are supported");
+        }
+        int width = png.getWidth();
+        int height = png.getHeight();
+        if(width != height)
+        {
+            throw new IOException("Image is not square: " + width + "x" + height);
+        }
+        return getPixels(png);
+    }
+
+    /**
+     * Get the pixels of an image in memory.  An image that isn't 8-bit
+     * grayscale is converted to it first.
+     *
+     * @param image the image
+     * @return the pixels of the image, by row
+     */
+    public static int[][] getPixels(BufferedImage image)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if(image.getType() != BufferedImage.TYPE_BYTE_GRAY)
+        {
+            BufferedImage gray = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D g = gray.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            image = gray;
+        }
+        Raster raster = image.getRaster();
+        int pixels[][] = new int[height][width];
+        for(int r = 0; r < height; r++)
+        {
+            raster.getSamples(0, r, width, 1, 0, pixels[r]);
+        }
+        return pixels;
+    }
+
+    /**
+     * Make an 8-bit grayscale image in memory from pixels.
+     *
+     * @param pixels the pixels of the image, by row
+     * @return the image
+     */
+    public static BufferedImage toImage(int[][] pixels)
+    {
+        int height = pixels.length;
+        int width = height == 0 ? 0 : pixels[0].length;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = image.getRaster();
+        for(int r = 0; r < height; r++)
+        {
+            raster.setSamples(0, r, width, 1, 0, pixels[r]);
+        }
+        return image;
+    }
+
+    /**
+     * Write an image as a binary PGM file.
+     *
+     * @param image the pixels of the image, by row
+     * @param filename the name of the PGM file
+     * @throws IOException if there are issues writing the file
+     */
+    public static void writePGM(int[][] image, String filename) throws IOException
+    {
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(filename)))
+        {
+            writePGM(image, out);
+        }
+    }
+
+    /**
+     * Write an image as a binary PGM file to a stream.  The stream is left
+     * open.
+     *
+     * @param image the pixels of the image, by row
+     * @param out the stream to write to
+     * @throws IOException if there are issues writing the stream
+     */
+    public static void writePGM(int[][] image, OutputStream out) throws IOException
+    {
+        int height = image.length;
+        int width = height == 0 ? 0 : image[0].length;
+        writePGMHeader(out, width, height);
+        byte bytes[] = new byte[width];
+        for(int[] row : image)
+        {
+            writePGMRow(out, row, width, bytes);
+        }
+    }
+
+    /**
+     * Write the header of a binary PGM file with a maximum value of 255.
+     *
+     * @param out the stream to write to
+     * @param width the width of the image
+     * @param height the height of the image
+     * @throws IOException if there are issues writing the stream
+     */
+    static void writePGMHeader(OutputStream out, int width, int height) throws IOException
+    {
+        out.write(("P5\n" + width + " " + height + "\n255\n").getBytes("US-ASCII"));
+    }
+
+    /**
+     * Write a row of a binary PGM file.
+     *
+     * @param out the stream to write to
+     * @param row the pixels of the row
+     * @param width how many of the pixels to write
+     * @param bytes a scratch array at least width long
+     * @throws IOException if there are issues writing the stream
+     */
+    static void writePGMRow(OutputStream out, int[] row, int width, byte[] bytes) throws IOException
+    {
+        for(int c = 0; c < width; c++)
+        {
+            bytes[c] = (byte) row[c];
+        }
+        out.write(bytes, 0, width);
+    }
+
+    /**
+     * Write an image as an 8-bit grayscale PNG file.
+     *
+     * @param image the pixels of the image, by row
+     * @param filename the name of the PNG file
+     * @throws IOException if there are issues writing the file
+     */
+    public static void writePNG(int[][] image, String filename) throws IOException
+    {
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(filename)))
+        {
+            writePNG(image, out);
+        }
+    }
+
+    /**
+     * Write an image as an 8-bit grayscale PNG file to a stream.  The
+     * stream is left open.
+     *
+     * @param image the pixels of the image, by row
+     * @param out the stream to write to
+     * @throws IOException if there are issues writing the stream
+     */
+    public static void writePNG(int[][] image, OutputStream out) throws IOException
+    {
+        if(!ImageIO.write(toImage(image), "png", out))
+        {
+            throw new IOException("No PNG writer available");
+        }
+    }
+
+    /**
+     * Write an image as PGM or PNG, going by the file name's extension.
+     *
+     * @param image the pixels of the image, by row
+     * @param filename the name of the file, ending in .pgm or .png
+     * @throws IOException if there are issues writing the file, or the
+     * extension is neither
+     */
+    public static void write(int[][] image, String filename) throws IOException
+    {
+        String lower = filename.toLowerCase();
+        if(lower.endsWith(".png"))
+        {
+            writePNG(image, filename);
+        }
+        else if(lower.endsWith(".pgm"))
+        {
+            writePGM(image, filename);
+        }
+        else
+        {
+            throw new IOException("Unknown image format: " + filename);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Paints the image in a level order RIT file (see LevelOrderPreorderSink)
+ * one level at a time.  Every level covers the whole image, with each
+ * split node painted in its mean color until the level below refines it,
+ * so a reader that stops early, or shows the image as it goes, has a
+ * coarse picture of all of it rather than the full detail of one corner.
+ *
+ * The image can also be painted at a lower resolution, where each block
+ * of scale x scale pixels becomes one pixel.  The level whose nodes are
+ * that size already holds the mean of every block, so nothing below it is
+ * read.
+ *
+ * @author Benjamin Mitchell
+ */
+public class LevelOrderDecoder {
+    /** the stream the levels are read from, or null */
+    private final InputStream in;
+
+    /** the buffer the levels are read from, or null */
+    private final ByteBuffer buffer;
+
+    /** the image being painted */
+    private final int image[][];
+
+    /** the size of the blocks that become one pixel */
+    private final int scale;
+
+    /** whether split nodes are painted before they are refined */
+    private final boolean progressive;
+
+    /** the size of the nodes in the next level */
+    private int size;
+
+    /** the starting rows of the nodes in the next level */
+    private int rows[];
+
+    /** the starting columns of the nodes in the next level */
+    private int cols[];
+
+    /** the number of nodes in the next level */
+    private int count;
+
+    /** the split flags of the last level read */
+    private byte flags[];
+
+    /** the colors of the last level read */
+    private byte colors[];
+
+    /** the number of levels read */
+    private int levels;
+
+    /**
+     * Create a decoder reading from a stream.
+     *
+     * @param in the stream, positioned after the header
+     * @param size the square dimension of the image
+     * @param scale the size of the blocks that become one pixel, a power of
+     * 2 no larger than the image
+     * @param progressive whether to paint split nodes before they are
+     * refined, so the image is complete after every level
+     */
+    public LevelOrderDecoder(InputStream in, int size, int scale, boolean progressive) {
+        this(in, null, size, scale, progressive);
+    }
+
+    /**
+     * Create a decoder reading from a buffer.
+     *
+     * @param buffer the buffer, positioned after the header
+     * @param size the square dimension of the image
+     * @param scale the size of the blocks that become one pixel, a power of
+     * 2 no larger than the image
+     * @param progressive whether to paint split nodes before they are
+     * refined, so the image is complete after every level
+     */
+    public LevelOrderDecoder(ByteBuffer buffer, int size, int scale, boolean progressive) {
+        this(null, buffer, size, scale, progressive);
+    }
+
+    /**
+     * Create a decoder reading from a stream or a buffer.
+     *
+     * @param in the stream, or null
+     * @param buffer the buffer, or null
+     * @param size the square dimension of the image
+     * @param scale the size of the blocks that become one pixel
+     * @param progressive whether to paint split nodes before they are refined
+     */
+    private LevelOrderDecoder(InputStream in, ByteBuffer buffer, int size, int scale, boolean progressive) {
+        if(scale < 1 || Integer.bitCount(scale) != 1 || scale > Math.max(size, 1))
+        {
+            throw new IllegalArgumentException("Bad scale: " + scale);
+        }
+        this.in = in;
+        this.buffer = buffer;
+        this.image = new int[size / scale][size / scale];
+        this.scale = scale;
+        this.progressive = progressive;
+        this.size = size;
+        this.rows = new int[]{0};
+        this.cols = new int[]{0};
+        this.count = size > 0 ? 1 : 0;
+    }
+
+    /**
+     * Get the image being painted.  It is painted in place, so it can be
+     * shown while the levels are read.
+     *
+     * @return the image, by row
+     */
+    public int[][] getImage() { return this.image; }
+
+    /**
+     * Read bytes from the stream or buffer.
+     *
+     * @param bytes the array to fill
+     * @throws IOException if there are issues reading the stream
+     * @throws QTException if the data runs out
+     */
+    private void readFully(byte[] bytes) throws IOException, QTException
+    {
+        if(buffer != null)
+        {
+            if(buffer.remaining() < bytes.length)
+            {
+                throw new QTException("Error uncompressing.  Not enough data.");
+            }
+            buffer.get(bytes);
+            return;
+        }
+        int n = 0;
+        while(n < bytes.length)
+        {
+            int read = in.read(bytes, n, bytes.length - n);
+            if(read < 0)
+            {
+                throw new QTException("Error uncompressing.  Not enough data.");
+            }
+            n += read;
+        }
+    }
+
+    /**
+     * Read and paint the next level.
+     *
+     * @return whether there was a level to read; false once the image is
+     * finished
+     * @throws IOException if there are issues reading the stream
+     * @throws QTException if the level is damaged
+     */
+    public boolean readLevel() throws IOException, QTException
+    {
+        if(count == 0)
+        {
+            return false;
+        }
+        flags = new byte[(count + 7) / 8];
+        colors = new byte[count];
+        readFully(flags);
+        readFully(colors);
+        levels++;
+        //the last level painted is the one whose nodes are a pixel each
+        boolean last = size == scale;
+        int splits = 0;
+        for(int i = 0; i < count; i++)
+        {
+            boolean split = (flags[i >>> 3] & (1 << (i & 7))) != 0;
+            if(split)
+            {
+                if(size == 1)
+                {
+                    throw new QTException("Error uncompressing.  Split below pixel level.");
+                }
+                splits++;
+            }
+            if(!split || progressive || last)
+            {
+                int cells = size / scale;
+                int color = colors[i] & 0xFF;
+                for(int r = rows[i] / scale; r < rows[i] / scale + cells; r++)
+                {
+                    Arrays.fill(image[r], cols[i] / scale, cols[i] / scale + cells, color);
+                }
+            }
+        }
+        if(last)
+        {
+            count = 0;
+            return true;
+        }
+        int half = size / 2;
+        int nextRows[] = new int[4 * splits];
+        int nextCols[] = new int[4 * splits];
+        int n = 0;
+        for(int i = 0; i < count; i++)
+        {
+            if((flags[i >>> 3] & (1 << (i & 7))) != 0)
+            {
+                for(int quadrant = 0; quadrant < 4; quadrant++)
+                {
+                    nextRows[n] = rows[i] + (quadrant / 2) * half;
+                    nextCols[n] = cols[i] + (quadrant % 2) * half;
+                    n++;
+                }
+            }
+        }
+        rows = nextRows;
+        cols = nextCols;
+        count = n;
+        size = half;
+        return true;
+    }
+
+    /**
+     * Read and paint every level, keeping the tree they describe.
+     *
+     * @return the tree in preorder
+     * @throws IOException if there are issues reading the stream
+     * @throws QTException if a level is damaged
+     */
+    public FlatQTree readTree() throws IOException, QTException
+    {
+        //a tree cut off above the pixels would have splits without children
+        if(levels > 0 || scale != 1)
+        {
+            throw new IllegalStateException("Only a full decode from the first level keeps the tree");
+        }
+        List<byte[]> levelFlags = new ArrayList<>();
+        List<byte[]> levelColors = new ArrayList<>();
+        while(readLevel())
+        {
+            levelFlags.add(flags);
+            levelColors.add(colors);
+        }
+        FlatQTree tree = new FlatQTree();
+        if(!levelFlags.isEmpty())
+        {
+            addNode(tree, levelFlags, levelColors, new int[levelFlags.size()], 0);
+        }
+        tree.trim();
+        return tree;
+    }
+
+    /**
+     * Append the next node of a level, and its subtree if it is split.  A
+     * preorder walk meets the nodes of each level in the order they are
+     * stored, so each level only needs a count of the nodes taken so far.
+     *
+     * @param tree the tree to append to
+     * @param levelFlags the split flags of every level
+     * @param levelColors the colors of every level
+     * @param taken the nodes taken so far from each level
+     * @param level the level of the node
+     */
+    private static void addNode(FlatQTree tree, List<byte[]> levelFlags, List<byte[]> levelColors,
+                                int taken[], int level)
+    {
+        int i = taken[level]++;
+        if((levelFlags.get(level)[i >>> 3] & (1 << (i & 7))) == 0)
+        {
+            tree.add(levelColors.get(level)[i] & 0xFF);
+            return;
+        }
+        int node = tree.add(QTree.QUAD_SPLIT);
+        for(int quadrant = 0; quadrant < 4; quadrant++)
+        {
+            addNode(tree, levelFlags, levelColors, taken, level + 1);
+        }
+        tree.close(node);
+    }
+
+    /**
+     * Read and paint every remaining level.
+     *
+     * @throws IOException if there are issues reading the stream
+     * @throws QTException if a level is damaged
+     */
+    public void readAll() throws IOException, QTException
+    {
+        while(readLevel())
+        {
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Collects the values of a compressed RIT image in preorder and writes
+ * them out level by level, so that a reader gets a coarse picture of the
+ * whole image from the start of the file (see LevelOrderDecoder).  Every
+ * node of a level has to be known before the level is written, so the
+ * values are held until writeTo() is called.
+ *
+ * The nodes of each level are in the order of their parents, with the
+ * children of a split in the usual quadrant order.  Each level is:
+ *
+ *      - one bit per node, 1 for a split, packed low bits first into bytes
+ *      - one byte per node: the color of a leaf, or the mean color of a
+ *        split node's region
+ *
+ * The first level is the root alone, and each level after it holds the 4
+ * children of every split in the level before.  The last level has no
+ * splits.  Raw blocks can't be written this way.
+ *
+ * @author Benjamin Mitchell
+ */
+public class LevelOrderPreorderSink implements PreorderSink {
+    /** the values in preorder */
+    private int values[];
+
+    /** the number of values so far */
+    private int count;
+
+    /**
+     * Create an empty sink.
+     */
+    public LevelOrderPreorderSink() {
+        this.values = new int[64];
+        this.count = 0;
+    }
+
+    @Override
+    public void put(int value) throws QTException
+    {
+        if(value == QTree.RAW_BLOCK)
+        {
+            throw new QTException("Error writing compressed file.  Level order files can't hold raw blocks.");
+        }
+        if(value != QTree.QUAD_SPLIT && (value < 0 || value > 255))
+        {
+            throw new QTException("Error writing compressed file.  Bad value " + value + ".");
+        }
+        if(count == values.length)
+        {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count++] = value;
+    }
+
+    @Override
+    public void putPixel(int pixel) throws QTException
+    {
+        throw new QTException("Error writing compressed file.  Level order files can't hold raw blocks.");
+    }
+
+    /**
+     * Find where a node's subtree ends and the sum of its region's colors,
+     * recording both for every split node under it.
+     *
+     * @param node the preorder position of the node
+     * @param size the size of the node's region
+     * @param ends where each node's subtree ends
+     * @param means the mean of each split node's region
+     * @return the sum of the colors in the node's region
+     * @throws QTException if the values don't make a whole tree
+     */
+    private long measure(int node, int size, int[] ends, int[] means) throws QTException
+    {
+        if(node >= count)
+        {
+            throw new QTException("Error writing compressed file.  Incomplete tree.");
+        }
+        if(values[node] != QTree.QUAD_SPLIT)
+        {
+            ends[node] = node + 1;
+            return (long) values[node] * size * size;
+        }
+        long sum = 0;
+        int child = node + 1;
+        for(int quadrant = 0; quadrant < 4; quadrant++)
+        {
+            sum += measure(child, size/2, ends, means);
+            child = ends[child];
+        }
+        ends[node] = child;
+        means[node] = ErrorBound.mean(sum, (long) size * size);
+        return sum;
+    }
+
+    /**
+     * Write the levels of the tree.
+     *
+     * @param out the stream to write to
+     * @param size the square dimension of the image
+     * @throws IOException if there are issues writing the stream
+     * @throws QTException if the values don't make a whole tree
+     */
+    public void writeTo(OutputStream out, int size) throws IOException, QTException
+    {
+        int ends[] = new int[count];
+        int means[] = new int[count];
+        measure(0, size, ends, means);
+        int level[] = {0};
+        int levelCount = 1;
+        while(levelCount > 0)
+        {
+            byte flags[] = new byte[(levelCount + 7) / 8];
+            byte colors[] = new byte[levelCount];
+            int splits = 0;
+            for(int i = 0; i < levelCount; i++)
+            {
+                int node = level[i];
+                if(values[node] == QTree.QUAD_SPLIT)
+                {
+                    flags[i >>> 3] |= 1 << (i & 7);
+                    colors[i] = (byte) means[node];
+                    splits++;
+                }
+                else
+                {
+                    colors[i] = (byte) values[node];
+                }
+            }
+            out.write(flags);
+            out.write(colors);
+            //the next level is the children of this level's splits
+            int next[] = new int[4 * splits];
+            int n = 0;
+            for(int i = 0; i < levelCount; i++)
+            {
+                int node = level[i];
+                if(values[node] == QTree.QUAD_SPLIT)
+                {
+                    int child = node + 1;
+                    for(int quadrant = 0; quadrant < 4; quadrant++)
+                    {
+                        next[n++] = child;
+                        child = ends[child];
+                    }
+                }
+            }
+            level = next;
+            levelCount = n;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * A pyramid of the smallest and largest values in every aligned block of
+ * a 2^n x 2^n image.  Level 0 is the image itself, and each block at
+ * level L covers a 2^L x 2^L region whose minimum and maximum are found
+ * from the four blocks under it at level L-1.  Building the whole pyramid
+ * visits each pixel once, after which asking whether any aligned block
+ * holds a single value is a constant time lookup.
+ *
+ * For lossy compression the pyramid can also keep the sum and the sum of
+ * squares of every block, from which its mean and standard deviation
+ * follow in constant time as well.
+ *
+ * @author Benjamin Mitchell
+ */
+public class MinMaxPyramid {
+    /** the raw image (level 0) */
+    private final int image[][];
+
+    /** the smallest value in each block, indexed by level then row-major block */
+    private final int min[][];
+
+    /** the largest value in each block, indexed by level then row-major block */
+    private final int max[][];
+
+    /** the sum of the values in each block, or null if not kept */
+    private final long sum[][];
+
+    /** the sum of the squares of the values in each block, or null if not kept */
+    private final long sumOfSquares[][];
+
+    /**
+     * Build the pyramid for an image.
+     *
+     * @param image the raw image, 2^n x 2^n pixels
+     */
+    public MinMaxPyramid(int image[][]) {
+        this(image, false);
+    }
+
+    /**
+     * Build the pyramid for an image, optionally with the block sums.
+     *
+     * @param image the raw image, 2^n x 2^n pixels
+     * @param sums whether to keep the sums needed for lossy compression
+     */
+    public MinMaxPyramid(int image[][], boolean sums) {
+        this.image = image;
+        int levels = Integer.numberOfTrailingZeros(Math.max(image.length, 1)) + 1;
+        this.min = new int[levels][];
+        this.max = new int[levels][];
+        this.sum = sums ? new long[levels][] : null;
+        this.sumOfSquares = sums ? new long[levels][] : null;
+        for(int level = 1; level < levels; level++)
+        {
+            int side = image.length >> level;
+            int lo[] = new int[side * side];
+            int hi[] = new int[side * side];
+            for(int r = 0; r < side; r++)
+            {
+                for(int c = 0; c < side; c++)
+                {
+                    int i = r * side + c;
+                    //the first level is built straight from the pixels
+                    if(level == 1)
+                    {
+                        int a = image[2 * r][2 * c];
+                        int b = image[2 * r][2 * c + 1];
+                        int d = image[2 * r + 1][2 * c];
+                        int e = image[2 * r + 1][2 * c + 1];
+                        lo[i] = Math.min(Math.min(a, b), Math.min(d, e));
+                        hi[i] = Math.max(Math.max(a, b), Math.max(d, e));
+                    }
+                    //every other level combines the four blocks under it
+                    else
+                    {
+                        int below = side * 2;
+                        int ul = 2 * r * below + 2 * c;
+                        int ll = ul + below;
+                        int prevLo[] = this.min[level - 1];
+                        int prevHi[] = this.max[level - 1];
+                        lo[i] = Math.min(Math.min(prevLo[ul], prevLo[ul + 1]),
+                                Math.min(prevLo[ll], prevLo[ll + 1]));
+                        hi[i] = Math.max(Math.max(prevHi[ul], prevHi[ul + 1]),
+                                Math.max(prevHi[ll], prevHi[ll + 1]));
+                    }
+                }
+            }
+            this.min[level] = lo;
+            this.max[level] = hi;
+            if(sums)
+            {
+                this.buildSums(level, side);
+            }
+        }
+    }
+
+    /**
+     * Fill in the sums for one level of the pyramid.
+     *
+     * @param level the level to fill in
+     * @param side the number of blocks along a side at this level
+     */
+    private void buildSums(int level, int side)
+    {
+        long total[] = new long[side * side];
+        long squares[] = new long[side * side];
+        for(int r = 0; r < side; r++)
+        {
+            for(int c = 0; c < side; c++)
+            {
+                int i = r * side + c;
+                if(level == 1)
+                {
+                    for(int pr = 2 * r; pr < 2 * r + 2; pr++)
+                    {
+                        for(int pc = 2 * c; pc < 2 * c + 2; pc++)
+                        {
+                            long value = image[pr][pc];
+                            total[i] += value;
+                            squares[i] += value * value;
+                        }
+                    }
+                }
+                else
+                {
+                    int below = side * 2;
+                    int ul = 2 * r * below + 2 * c;
+                    int ll = ul + below;
+                    long prevTotal[] = this.sum[level - 1];
+                    long prevSquares[] = this.sumOfSquares[level - 1];
+                    total[i] = prevTotal[ul] + prevTotal[ul + 1] + prevTotal[ll] + prevTotal[ll + 1];
+                    squares[i] = prevSquares[ul] + prevSquares[ul + 1]
+                            + prevSquares[ll] + prevSquares[ll + 1];
+                }
+            }
+        }
+        this.sum[level] = total;
+        this.sumOfSquares[level] = squares;
+    }
+
+    /**
+     * Get the smallest value in a block.
+     *
+     * @param row the starting row of the block
+     * @param col the starting column of the block
+     * @param size the size of the block (a power of 2)
+     * @return the smallest value
+     */
+    public int getMin(int row, int col, int size)
+    {
+        if(size == 1)
+        {
+            return image[row][col];
+        }
+        int level = Integer.numberOfTrailingZeros(size);
+        return min[level][(row >> level) * (image.length >> level) + (col >> level)];
+    }
+
+    /**
+     * Get the largest value in a block.
+     *
+     * @param row the starting row of the block
+     * @param col the starting column of the block
+     * @param size the size of the block (a power of 2)
+     * @return the largest value
+     */
+    public int getMax(int row, int col, int size)
+    {
+        if(size == 1)
+        {
+            return image[row][col];
+        }
+        int level = Integer.numberOfTrailingZeros(size);
+        return max[level][(row >> level) * (image.length >> level) + (col >> level)];
+    }
+
+    /**
+     * Get the sum of the values in a block.
+     *
+     * @rit.pre the pyramid was built with its sums
+     * @param row the starting row of the block
+     * @param col the starting column of the block
+     * @param size the size of the block (a power of 2)
+     * @return the sum of the values
+     */
+    public long getSum(int row, int col, int size)
+    {
+        if(size == 1)
+        {
+            return image[row][col];
+        }
+        int level = Integer.numberOfTrailingZeros(size);
+        return sum[level][(row >> level) * (image.length >> level) + (col >> level)];
+    }
+
+    /**
+     * Get the sum of the squares of the values in a block.
+     *
+     * @rit.pre the pyramid was built with its sums
+     * @param row the starting row of the block
+     * @param col the starting column of the block
+     * @param size the size of the block (a power of 2)
+     * @return the sum of the squares of the values
+     */
+    public long getSumOfSquares(int row, int col, int size)
+    {
+        if(size == 1)
+        {
+            long value = image[row][col];
+            return value * value;
+        }
+        int level = Integer.numberOfTrailingZeros(size);
+        return sumOfSquares[level][(row >> level) * (image.length >> level) + (col >> level)];
+    }
+
+    /**
+     * Check whether every pixel in a block has the same value.
+     *
+     * @param row the starting row of the block
+     * @param col the starting column of the block
+     * @param size the size of the block (a power of 2)
+     * @return whether the block is a single value
+     */
+    public boolean isUniform(int row, int col, int size)
+    {
+        return getMin(row, col, size) == getMax(row, col, size);
+    }
+}
@@ -0,0 +1,30 @@
+import java.io.IOException;
+
+/**
+ * The destination of the values of a compressed RIT image as the tree is
+ * written out in preorder.  It is the writing counterpart of
+ * PreorderSource.
+ *
+ * @author Benjamin Mitchell
+ */
+public interface PreorderSink {
+    /**
+     * Write the next value in the stream.
+     *
+     * @param value a grayscale color (0-255), QTree.QUAD_SPLIT or
+     * QTree.RAW_BLOCK
+     * @throws IOException if there are issues writing the value
+     * @throws QTException if the value can't be represented
+     */
+    void put(int value) throws IOException, QTException;
+
+    /**
+     * Write the next pixel of a raw block.  The pixels of a block follow
+     * its RAW_BLOCK value in row-major order.
+     *
+     * @param pixel the pixel's grayscale color (0-255)
+     * @throws IOException if there are issues writing the pixel
+     * @throws QTException if the pixel can't be represented
+     */
+    void putPixel(int pixel) throws IOException, QTException;
+}
@@ -0,0 +1,63 @@
+import java.io.IOException;
+
+/**
+ * A source of the values of a compressed RIT image, handed out one at a
+ * time in the same preorder the tree was written in.  A decoder pulls
+ * values off the source as it walks the image, so nothing more than the
+ * current path through the tree ever needs to be held in memory.
+ *
+ * @author Benjamin Mitchell
+ */
+public interface PreorderSource {
+    /**
+     * Get the next value in the stream.
+     *
+     * @return the next value, either a grayscale color (0-255),
+     * QTree.QUAD_SPLIT or QTree.RAW_BLOCK
+     * @throws IOException if there are issues reading the underlying data
+     * @throws QTException if the stream has run out or is malformed
+     */
+    int next() throws IOException, QTException;
+
+    /**
+     * Get the next pixel of a raw block.  The pixels of a block follow its
+     * RAW_BLOCK value in row-major order.
+     *
+     * @return the pixel's grayscale color (0-255)
+     * @throws IOException if there are issues reading the underlying data
+     * @throws QTException if the stream has run out or is malformed
+     */
+    int pixel() throws IOException, QTException;
+
+    /**
+     * Step over the next node and its whole subtree without handing out
+     * its values.  By default the values are read and thrown away; sources
+     * that can find the end of a subtree faster override this.
+     *
+     * @param size the size of the square region the node represents
+     * @throws IOException if there are issues reading the underlying data
+     * @throws QTException if the stream has run out or is malformed
+     */
+    default void skip(int size) throws IOException, QTException
+    {
+        int value = next();
+        if(value == QTree.QUAD_SPLIT)
+        {
+            if(size == 1)
+            {
+                throw new QTException("Error uncompressing.  Split below pixel level.");
+            }
+            for(int q = 0; q < 4; q++)
+            {
+                skip(size/2);
+            }
+        }
+        else if(value == QTree.RAW_BLOCK)
+        {
+            for(int i = 0; i < size * size; i++)
+            {
+                pixel();
+            }
+        }
+    }
+}
@@ -4,7 +4,8 @@
  *
  * A node contains a value which is either a grayscale color (0-255) for a
  * region, or QTree.QUAD_SPLIT meaning this node cannot hold a single color
- * and thus has split itself into 4 sub-regions.
+ * and thus has split itself into 4 sub-regions, or QTree.RAW_BLOCK meaning
+ * this node holds every pixel of its region as is.
  *
  * @author Sean Strout @ RIT
  * @author Benjamin Mitchell
@@ -25,6 +26,9 @@ public class QTNode {
     /** quadrant IV */
     private QTNode lr;
 
+    /** the pixels of a raw block in row-major order */
+    private int pixels[];
+
     /**
      * Construct a leaf node with no children.
      * @param val node value
@@ -48,6 +52,17 @@ public class QTNode {
         this.ur = ur;
         this.ll = ll;
         this.lr = lr;
+        this.pixels = null;
+    }
+
+    /**
+     * Construct a raw block node holding its region's pixels.
+     *
+     * @param pixels the pixels of the region in row-major order
+     */
+    public QTNode(int pixels[]) {
+        this(QTree.RAW_BLOCK, null, null, null, null);
+        this.pixels = pixels;
     }
 
     /**
@@ -85,6 +100,13 @@ public class QTNode {
      */
     public QTNode getLowerRight() { return this.lr; }
 
+    /**
+     * Get the pixels of a raw block.
+     *
+     * @return the pixels in row-major order, or null if not a raw block
+     */
+    public int[] getPixels() { return this.pixels; }
+
     @Override
     public String toString() {
         return String.valueOf(this.val);
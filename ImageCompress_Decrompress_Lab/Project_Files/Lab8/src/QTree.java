@@ -1,6 +1,13 @@
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * This class represents the Quadtree data structure used to compress raw
@@ -8,7 +15,10 @@ import java.util.List;
  * a collection of QTNode's.  A QTNode either holds a grayscale image
  * value (0-255), or QUAD_SPLIT, meaning the node is split into four
  * sub-nodes that are equally sized sub-regions that divide up the
- * current space.
+ * current space.  In hybrid mode a node can also be a RAW_BLOCK, which
+ * holds every pixel of its region as is, for regions too noisy to be
+ * worth splitting.  In shared mode identical subtrees are a single
+ * QTNode, so the tree is a DAG rather than a tree.
  *
  * To learn more about quadtrees:
  *      https://en.wikipedia.org/wiki/Quadtree
@@ -20,9 +30,24 @@ public class QTree {
     /** the value of a node that indicates it is spplit into 4 sub-regions */
     public final static int QUAD_SPLIT = -1;
 
+    /** the value of a node that holds the pixels of its region as is */
+    public final static int RAW_BLOCK = -2;
+
+    /** compress by scanning each block for a single value (the default) */
+    public final static int SCAN_ENGINE = 0;
+
+    /** compress by looking blocks up in a min/max pyramid of the image */
+    public final static int PYRAMID_ENGINE = 1;
+
     /** the root node in the tree */
     private QTNode root;
 
+    /** the tree when it is kept as flat arrays instead of nodes */
+    private FlatQTree flatTree;
+
+    /** whether to keep the tree as flat arrays (see FlatQTree) */
+    private boolean flat;
+
     /** the square dimension of the tree */
     private int DIM;
 
@@ -35,15 +60,69 @@ public class QTree {
     /** the size of the compressed image */
     private int compressedSize;
 
+    /** the engine used to compress, SCAN_ENGINE or PYRAMID_ENGINE */
+    private int engine;
+
+    /** regions larger than this are compressed in parallel (0 means never) */
+    private int parallelThreshold;
+
+    /** the depth of the index written with binary files (0 means none) */
+    private int indexDepth;
+
+    /** how writeBinary() lays out the values (a RITFormat encoding) */
+    private int encoding;
+
+    /** how far a block may stray from its mean in lossy mode (null when lossless) */
+    private ErrorBound errorBound;
+
+    /** whether noisy regions are stored as raw blocks (see setHybrid) */
+    private boolean hybrid;
+
+    /** whether identical subtrees are shared (see setShared) */
+    private boolean shared;
+
+    /** the number of nodes of the tree that sharing did away with */
+    private int sharedNodes;
+
+    /** the number of references to earlier subtrees in the last binary file written */
+    private int references;
+
+    /** the dictionary binary files are written and read with (see setDictionary), or null */
+    private RITDictionary dictionary;
+
+    /** the number of dictionary entries used in the last binary file written */
+    private int entryReferences;
+
+    /** the largest difference between a compressed pixel and the raw one */
+    private int maxError;
+
+    /** the mean of the squared differences between compressed and raw pixels */
+    private double meanSquaredError;
+
     /**
      * Create an initially empty tree.
      */
     public QTree() {
         this.root = null;
+        this.flatTree = null;
+        this.flat = false;
         this.DIM = 0;
         this.image = null;
         this.rawSize = 0;
         this.compressedSize = 0;
+        this.engine = SCAN_ENGINE;
+        this.parallelThreshold = 0;
+        this.indexDepth = 0;
+        this.encoding = RITFormat.ENCODING_PREORDER;
+        this.errorBound = null;
+        this.hybrid = false;
+        this.shared = false;
+        this.sharedNodes = 0;
+        this.references = 0;
+        this.dictionary = null;
+        this.entryReferences = 0;
+        this.maxError = 0;
+        this.meanSquaredError = 0;
     }
 
     /**
@@ -74,63 +153,257 @@ public class QTree {
     public int getCompressedSize() { return this.compressedSize; }
 
     /**
-     * A private helper routine for parsing the compressed image into
-     * a tree of nodes.  When parsing through the values, there are
-     * two cases:
+     * Choose the engine used by compress().  Both engines produce the
+     * same tree; the pyramid engine trades memory (a third of the image
+     * again, twice) for not rescanning a block at every level.
+     *
+     * @param engine SCAN_ENGINE or PYRAMID_ENGINE
+     */
+    public void setEngine(int engine)
+    {
+        if(engine != SCAN_ENGINE && engine != PYRAMID_ENGINE)
+        {
+            throw new IllegalArgumentException("Unknown compression engine: " + engine);
+        }
+        this.engine = engine;
+    }
+
+    /**
+     * Compress in parallel.  Regions larger than the threshold have their
+     * four sub-regions compressed as separate fork/join tasks; regions at
+     * or below it are compressed sequentially within their task.  The tree
+     * produced is the same as when compressing sequentially.
+     *
+     * @param threshold the largest region size compressed by a single
+     * task, or 0 to compress everything sequentially
+     */
+    public void setParallelThreshold(int threshold)
+    {
+        if(threshold < 0)
+        {
+            throw new IllegalArgumentException("Bad parallel threshold: " + threshold);
+        }
+        this.parallelThreshold = threshold;
+    }
+
+    /**
+     * Get the largest difference between a pixel of the compressed image
+     * and the raw image.  It is always 0 unless compressing in lossy mode.
+     *
+     * @return the largest absolute error
+     */
+    public int getMaxError() { return this.maxError; }
+
+    /**
+     * Get the mean of the squared differences between the pixels of the
+     * compressed image and the raw image.  It is always 0 unless
+     * compressing in lossy mode.
+     *
+     * @return the mean squared error
+     */
+    public double getMeanSquaredError() { return this.meanSquaredError; }
+
+    /**
+     * Compress in lossy mode.  Rather than only collapsing blocks that hold
+     * a single value, compress() collapses every block that is within the
+     * bound into a node holding the block's mean.  Both engines honor the
+     * bound; the pyramid engine keeps block sums so checking a block stays
+     * O(1).
+     *
+     * @param errorBound how far a block may stray from its mean, or null
+     * to compress losslessly
+     */
+    public void setErrorBound(ErrorBound errorBound)
+    {
+        this.errorBound = errorBound;
+    }
+
+    /**
+     * Compress in hybrid mode.  After the tree is built, every split region
+     * whose subtree takes more values to store than the region has pixels
+     * is replaced by a RAW_BLOCK node followed by the pixels.  A split 4x4
+     * region costs up to 21 values against 17 for the raw block, so this
+     * pays off on high-entropy images, and the compressed size can never
+     * exceed the raw size by more than one value.  Readers that predate
+     * raw blocks can't read hybrid files.
+     *
+     * @param hybrid whether to store noisy regions as raw blocks
+     */
+    public void setHybrid(boolean hybrid)
+    {
+        this.hybrid = hybrid;
+    }
+
+    /**
+     * Compress in shared mode.  After the tree is built, identical
+     * subtrees are canonicalised bottom up through a table keyed on a
+     * node's value, size and the identities of its children, so each
+     * distinct subtree is a single QTNode however often it occurs.  A
+     * binary preorder file without an index then writes every later
+     * occurrence that is bigger than a reference as a reference back to
+     * the first one (see RITFormat).  Other formats write shared subtrees
+     * out in full.  A flat tree is not shared.
+     *
+     * @param shared whether to share identical subtrees
+     */
+    public void setShared(boolean shared)
+    {
+        this.shared = shared;
+    }
+
+    /**
+     * Get the number of nodes that sharing did away with: the nodes of the
+     * tree as written out in full, less the distinct ones kept.
+     *
+     * @return the number of nodes shared
+     */
+    public int getSharedNodes() { return this.sharedNodes; }
+
+    /**
+     * Get the number of references to earlier subtrees in the last binary
+     * file written.
      *
-     * 1. The value is a grayscale color (0-255).  In this case
-     * return a node containing the value.
+     * @return the number of references
+     */
+    public int getReferences() { return this.references; }
+
+    /**
+     * Compress and uncompress with a dictionary of subtrees shared by a
+     * corpus of images (see RITDictionary).  A binary preorder file
+     * without an index is written with every subtree found in the
+     * dictionary as a reference to its entry, and files written that way
+     * can only be read with the same dictionary.  The dictionary is never
+     * changed, so any number of trees can share it.
+     *
+     * @param dictionary the dictionary, or null for none
+     */
+    public void setDictionary(RITDictionary dictionary)
+    {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Get the dictionary binary files are written and read with.
+     *
+     * @return the dictionary, or null
+     */
+    RITDictionary getDictionary() { return this.dictionary; }
+
+    /**
+     * Get the number of subtrees written as dictionary entries in the last
+     * binary file written.
+     *
+     * @return the number of entries used
+     */
+    public int getEntryReferences() { return this.entryReferences; }
+
+    /**
+     * Choose how the tree is kept in memory.  By default it is a graph of
+     * QTNode objects.  A flat tree (see FlatQTree) holds the same nodes in
+     * two int arrays, which takes a fraction of the heap.  Compressing,
+     * writing, uncompressing and toString() all work with either; with a
+     * flat tree, uncompress() also keeps the tree so it can be written
+     * back out or printed.  A file with an index is still read in
+     * parallel, each indexed quadrant into a tree of its own.
+     *
+     * @param flat whether to keep the tree as flat arrays
+     */
+    public void setFlat(boolean flat)
+    {
+        this.flat = flat;
+    }
+
+    /**
+     * Check whether trees are kept as flat arrays (see setFlat()).
      *
-     * 2. The value is QUAD_SPLIT.  The node must be split into
-     * four sub-regions.  Each sub-region is attained by recursively
-     * calling this routine.  A node containing these four sub-regions
-     * is returned.
+     * @return whether trees are kept flat
+     */
+    boolean isFlat() { return this.flat; }
+
+    /**
+     * Have writeBinary() add an index of where the nodes down to a given
+     * depth start (see RITIndex).  Files with an index are uncompressed by
+     * decoding their quadrants in parallel; files without one are decoded
+     * sequentially.  An index never goes below quadrants of
+     * RITIndex.MIN_SIZE pixels, and it is made shallower while it has more
+     * slots than the tree has values, so it never outgrows the tree; a
+     * small image gets no index at all.
      *
-     * @param values the values in the compressed image
-     * @return a node that encapsulates this portion of the compressed
-     * image
-     * @throws QTException if there are not enough values in the
-     * compressed image
+     * @param depth the depth of the deepest indexed nodes, or 0 for no index
      */
-    private QTNode parse(List<Integer> values) throws QTException
+    public void setIndexDepth(int depth)
     {
-        //Value of the node
-        int value = values.remove(0);
-        if(value != this.QUAD_SPLIT)
+        if(depth < 0 || depth > RITIndex.MAX_DEPTH)
         {
-            //base case - return the node's value
-            return new QTNode(value);
+            throw new IllegalArgumentException("Bad index depth: " + depth);
         }
-        else
+        this.indexDepth = depth;
+    }
+
+    /**
+     * Choose how writeBinary() lays out the values (see RITFormat):
+     *
+     *      - ENCODING_PREORDER packs them a byte each, with an index if an
+     *        index depth has been set
+     *      - ENCODING_ARITHMETIC codes them with adaptive models (see
+     *        EntropyContext)
+     *      - ENCODING_SPLIT_STREAMS stores the shape of the tree as a bit
+     *        per node apart from the leaf colors (see
+     *        SplitStreamPreorderSource), which can't hold raw blocks
+     *      - ENCODING_LEVEL_ORDER writes the tree a level at a time, so the
+     *        image can be shown coarse first and refined (see
+     *        LevelOrderPreorderSink), which can't hold raw blocks either
+     *
+     * Only the preorder encoding can be combined with an index.
+     *
+     * @param encoding the encoding
+     */
+    public void setEncoding(int encoding)
+    {
+        if(encoding != RITFormat.ENCODING_PREORDER && encoding != RITFormat.ENCODING_ARITHMETIC
+                && encoding != RITFormat.ENCODING_SPLIT_STREAMS
+                && encoding != RITFormat.ENCODING_LEVEL_ORDER)
         {
-            //If the -1 node doesn't have sufficient information below it
-            if(values.size() < 4)
-            {
-                throw new QTException("Error uncompressing.  Not enough data.");
-            }
-            //Recursively call parse() to create the node tree
-            QTNode ul = parse(values);
-            QTNode ur = parse(values);
-            QTNode ll = parse(values);
-            QTNode lr = parse(values);
-            return new QTNode(value, ul, ur, ll, lr);
+            throw new IllegalArgumentException("Bad encoding: " + encoding);
+        }
+        this.encoding = encoding;
+    }
+
+    /**
+     * Fill a square block of the raw image with a single value.
+     *
+     * @param row the starting row of the block
+     * @param col the starting column of the block
+     * @param size the size of the block
+     * @param val the grayscale value to fill the block with
+     */
+    private void fill(int row, int col, int size, int val)
+    {
+        for(int r = row; r < row + size; r++)
+        {
+            Arrays.fill(image[r], col, col + size, val);
         }
     }
 
     /**
-     * This is the core routine for uncompressing an image stored in a tree
-     * into its raw image (a 2-D array of grayscale values (0-255).
-     * It is called by the public uncompress routine.
-     * The main idea is that we are working with a tree whose root represents the
-     * entire 2^n x 2^n image.  There are two cases:
+     * This is the core routine for uncompressing an image into its raw
+     * image (a 2-D array of grayscale values (0-255)).  It is called by the
+     * public uncompress routine.  Rather than building a tree of nodes
+     * first, it pulls the values off the source in preorder and writes
+     * them straight into the image, so the only memory it needs beyond
+     * the image is the recursion itself (one frame per level of the tree).
+     * The main idea is that the first value represents the entire
+     * 2^n x 2^n image.  There are two cases:
      *
-     * 1. The node is not split.  We can write out the corresponding
-     * "block" of values into the raw image array based on the size
-     * of the region
+     * 1. The value is a grayscale color (0-255).  We can write out the
+     * corresponding "block" of values into the raw image array based on
+     * the size of the region.
      *
-     * 2. The node is split.  We must recursively call ourselves with the
-     * the four sub-regions.  Take note of the pattern for representing the
-     * starting coordinate of the four sub-regions of a 4x4 grid:
+     * 2. The value is QUAD_SPLIT.  We must recursively call ourselves with
+     * the four sub-regions, which follow in the stream in the order upper
+     * left, upper right, lower left, lower right.  Take note of the
+     * pattern for representing the starting coordinate of the four
+     * sub-regions of a 4x4 grid:
      *      - upper left: (0, 0)
      *      - upper right: (0, 1)
      *      - lower left: (1, 0)
@@ -139,38 +412,45 @@ public class QTree {
      * it to the starting row and column in the appropriate places
      * (there is a 1).
      *
-     * @param node the node to uncompress
-     * @param size the size of the square region this node represents
-     * @param start the starting coordinate this row represents in the image
+     * @param values the source of the compressed values
+     * @param size the size of the square region the next value represents
+     * @param row the starting row of the region
+     * @param col the starting column of the region
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if the values do not describe a valid tree
      */
-    private void uncompress(QTNode node, int size, Coordinate start)
+    private void decode(PreorderSource values, int size, int row, int col)
+            throws IOException, QTException
     {
-        //If the node does not have blocks underneath it
-        if(node.getVal() != this.QUAD_SPLIT)
+        int value = values.next();
+        if(value == RAW_BLOCK)
         {
-            int val = node.getVal();
-            int rowStart = start.getRow();
-            int colStart = start.getCol();
-
-            for(int r = 0; r < size; r++)
+            //the region's pixels follow in row-major order
+            for(int r = row; r < row + size; r++)
             {
-                for(int c = 0; c < size; c++)
+                for(int c = col; c < col + size; c++)
                 {
-                    //Populating the image 2-D array of ints
-                    int row = rowStart + r;
-                    int column = colStart + c;
-                    image[row][column] = val;
+                    image[r][c] = values.pixel();
                 }
             }
         }
-        //If the node is a -1 node (parent)
+        else if(value != QUAD_SPLIT)
+        {
+            //base case - paint the whole region with the value
+            this.fill(row, col, size, value);
+        }
         else
         {
+            //A single pixel can't be divided any further
+            if(size == 1)
+            {
+                throw new QTException("Error uncompressing.  Split below pixel level.");
+            }
             int offset = size/2;
-            this.uncompress(node.getUpperLeft(), size/2, new Coordinate(start.getRow(), start.getCol()));
-            this.uncompress(node.getUpperRight(), size/2, new Coordinate(start.getRow(), start.getCol() + offset));
-            this.uncompress(node.getLowerLeft(), size/2, new Coordinate(start.getRow() + offset, start.getCol()));
-            this.uncompress(node.getLowerRight(), size/2, new Coordinate(start.getRow() + offset, start.getCol() + offset));
+            this.decode(values, offset, row, col);
+            this.decode(values, offset, row, col + offset);
+            this.decode(values, offset, row + offset, col);
+            this.decode(values, offset, row + offset, col + offset);
         }
     }
 
@@ -178,9 +458,11 @@ public class QTree {
      * Uncompress a RIT compressed file.  This is the public facing routine
      * meant to be used by a client to uncompress an image for displaying.
      *
-     * The file is expected to be 2^n x 2^n pixels.  The first line in
-     * the file is its size (number of values).  The remaining lines are
-     * the values in the compressed image, one per line, of "size" lines.
+     * The file is expected to be 2^n x 2^n pixels.  The file can either be
+     * in the ASCII format or the binary format (see RITFormat), which is
+     * detected from the start of the file.  In the ASCII format the first
+     * line in the file is its size (number of values).  The remaining lines
+     * are the values in the compressed image, one per line, of "size" lines.
      *
      * Once this routine completes, the raw image of grayscale values (0-255)
      * is stored internally and can be retrieved by the client using getImage().
@@ -191,217 +473,1666 @@ public class QTree {
      */
     public void uncompress(String filename) throws IOException, QTException
     {
-        //Reading Object
-        BufferedReader reader = new BufferedReader(new FileReader(filename));
-        //Compressed size is the number at the beginning of the file
-        this.compressedSize = Integer.parseInt(reader.readLine());
-        this.DIM = (int) Math.sqrt(compressedSize);
-        //Creating a list to store read in values
-        List<Integer> lst = new ArrayList<>();
-        String num;
-        //reading in the values from the file
-        while((num = reader.readLine()) != null)
+        if(RITFormat.isBinary(filename))
         {
-            //populating the list
-            lst.add(Integer.parseInt(num));
+            this.uncompressBinary(filename);
+            return;
+        }
+        try(AsciiPreorderSource values = new AsciiPreorderSource(new FileInputStream(filename)))
+        {
+            //Compressed size is the number at the beginning of the file
+            this.compressedSize = values.next();
+            this.uncompress(values);
         }
-        //creating the node tree by calling parse() on the list of values
-        this.root = parse(lst);
-        //instantiating the 2-D array for the image with it's size
-        this.image = new int[this.DIM][this.DIM];
-        //populating the 2-D array
-        this.uncompress(this.root, this.DIM, new Coordinate(0, 0));
-        reader.close();
-
     }
 
     /**
-     * The private writer is a recursive helper routine that writes out the
-     * compressed image.  It goes through the tree in preorder fashion
-     * writing out the values of each node as they are encountered.
-     *
-     * @param node the current node in the tree
-     * @param writer the writer to write the node data out to
-     * @throws IOException if there are issues with the writer
+     * A fork/join task that decodes the node in one slot of the index of a
+     * binary file.  A split node above the index depth forks a task for
+     * each of its quadrants, which start wherever the index says they do;
+     * anything else is decoded sequentially from its offset.  Every task
+     * paints a different region of the image, so they never overlap.
      */
-    private void write(QTNode node, BufferedWriter writer) throws IOException
+    @SuppressWarnings("serial")
+    private class DecodeTask extends RecursiveAction
     {
-        //If the node value is not empty, do something with it
-        if(node != null)
+        /** the values of the file, starting with the root */
+        private final ByteBuffer values;
+
+        /** the index of the file */
+        private final RITIndex index;
+
+        /** the slot of the node to decode */
+        private final int slot;
+
+        /** the depth of the node to decode */
+        private final int depth;
+
+        /** the starting row of the node's region */
+        private final int row;
+
+        /** the starting column of the node's region */
+        private final int col;
+
+        /** the size of the node's region */
+        private final int size;
+
+        /**
+         * Create a task for the node in a slot.
+         *
+         * @param values the values of the file, starting with the root
+         * @param index the index of the file
+         * @param slot the slot of the node to decode
+         * @param depth the depth of the node to decode
+         * @param row the starting row of the node's region
+         * @param col the starting column of the node's region
+         * @param size the size of the node's region
+         */
+        DecodeTask(ByteBuffer values, RITIndex index, int slot, int depth,
+                   int row, int col, int size) {
+            this.values = values;
+            this.index = index;
+            this.slot = slot;
+            this.depth = depth;
+            this.row = row;
+            this.col = col;
+            this.size = size;
+        }
+
+        @Override
+        protected void compute()
         {
-            //If it's a 0-255 value, write it!
-            if(node.getVal() != this.QUAD_SPLIT)
+            int offset = index.getOffset(slot);
+            try
             {
-                writer.write(node.getVal() + "\n");
+                if(offset < 0 || offset >= values.limit())
+                {
+                    throw new QTException("Error uncompressing.  Damaged index.");
+                }
+                boolean split = (values.get(offset) & 0xFF) == RITFormat.SPLIT;
+                if(!split || size == 1 || depth == index.getDepth())
+                {
+                    //every task reads through its own view of the values
+                    ByteBuffer own = values.duplicate();
+                    own.position(offset);
+                    decode(new BinaryPreorderSource(own), size, row, col);
+                    return;
+                }
             }
-            //otherwise, recrusively call write(), further traversing through the QTree
-            else
+            catch(QTException | IOException e)
             {
-                writer.write(node.getVal() + "\n");
-                write(node.getUpperLeft(), writer);
-                write(node.getUpperRight(), writer);
-                write(node.getLowerLeft(), writer);
-                write(node.getLowerRight(), writer);
+                throw new RuntimeException(e);
             }
-
+            int half = size/2;
+            invokeAll(new DecodeTask(values, index, RITIndex.child(slot, 0), depth + 1, row, col, half),
+                    new DecodeTask(values, index, RITIndex.child(slot, 1), depth + 1, row, col + half, half),
+                    new DecodeTask(values, index, RITIndex.child(slot, 2), depth + 1, row + half, col, half),
+                    new DecodeTask(values, index, RITIndex.child(slot, 3), depth + 1, row + half, col + half, half));
         }
     }
 
     /**
-     * Write the compressed image to the output file.  This routine is meant to be
-     * called from a client after it has been compressed
-     *
-     * @rit.pre client has called compress() to compress the input file
-     * @param outFile the name of the file to write the compressed image to
-     * @throws IOException any errors involved with writing the file out
-     * @throws QTException if the file has not been compressed yet
+     * A fork/join task that reads the node in one slot of the index of a
+     * binary file into a flat tree, painting it as it goes.  It splits up
+     * the work as DecodeTask does, and joins the trees of the four
+     * quadrants of a split under a new root.
      */
-    public void write(String outFile) throws IOException, QTException
+    @SuppressWarnings("serial")
+    private class FlatDecodeTask extends RecursiveTask<FlatQTree>
     {
-        if(root != null)
-        {
-            //Writing utensil
-            BufferedWriter writer = new BufferedWriter(new FileWriter(outFile));
-            writer.write(this.rawSize + "\n");
-            //Writes the QTree node tree + other information
-            this.write(root, writer);
-            writer.close();
+        /** the values of the file, starting with the root */
+        private final ByteBuffer values;
+
+        /** the index of the file */
+        private final RITIndex index;
+
+        /** the slot of the node to read */
+        private final int slot;
+
+        /** the depth of the node to read */
+        private final int depth;
+
+        /** the starting row of the node's region */
+        private final int row;
+
+        /** the starting column of the node's region */
+        private final int col;
+
+        /** the size of the node's region */
+        private final int size;
+
+        /**
+         * Create a task for the node in a slot.
+         *
+         * @param values the values of the file, starting with the root
+         * @param index the index of the file
+         * @param slot the slot of the node to read
+         * @param depth the depth of the node to read
+         * @param row the starting row of the node's region
+         * @param col the starting column of the node's region
+         * @param size the size of the node's region
+         */
+        FlatDecodeTask(ByteBuffer values, RITIndex index, int slot, int depth,
+                       int row, int col, int size) {
+            this.values = values;
+            this.index = index;
+            this.slot = slot;
+            this.depth = depth;
+            this.row = row;
+            this.col = col;
+            this.size = size;
         }
-        else
+
+        @Override
+        protected FlatQTree compute()
         {
-            throw new QTException("Error writing compressed file.  FIle has not been compressed.");
+            int offset = index.getOffset(slot);
+            try
+            {
+                if(offset < 0 || offset >= values.limit())
+                {
+                    throw new QTException("Error uncompressing.  Damaged index.");
+                }
+                boolean split = (values.get(offset) & 0xFF) == RITFormat.SPLIT;
+                if(!split || size == 1 || depth == index.getDepth())
+                {
+                    ByteBuffer own = values.duplicate();
+                    own.position(offset);
+                    FlatQTree tree = FlatQTree.read(new BinaryPreorderSource(own), size);
+                    tree.paint(image, row, col, size);
+                    return tree;
+                }
+            }
+            catch(QTException | IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            int half = size/2;
+            FlatDecodeTask quadrants[] = new FlatDecodeTask[4];
+            for(int q = 0; q < 4; q++)
+            {
+                quadrants[q] = new FlatDecodeTask(values, index, RITIndex.child(slot, q), depth + 1,
+                        row + (q / 2) * half, col + (q % 2) * half, half);
+            }
+            invokeAll(quadrants);
+            return FlatQTree.split(quadrants[0].join(), quadrants[1].join(),
+                    quadrants[2].join(), quadrants[3].join());
         }
     }
 
     /**
-     * Check to see whether a region in the raw image contains the same value.
-     * This routine is used by the private compress routine so that it can
-     * construct the nodes in the tree.
+     * Uncompress a binary RIT file.  The file is mapped into memory and the
+     * byte packed values are decoded straight out of the mapping, in
+     * parallel when the file has an index.
      *
-     * @param start the starting coordinate in the region
-     * @param size the size of the region
-     * @return whether the region can be compressed or not
+     * @param filename the name of the compressed file
+     * @throws IOException if there are issues working with the compressed file
+     * @throws QTException if there are issues parsing the data in the file
      */
-    private boolean canCompressBlock(Coordinate start, int size)
+    private void uncompressBinary(String filename) throws IOException, QTException
     {
-        //Value of the pixel at a certain location
-        int init = image[start.getRow()][start.getCol()];
-        //Comparing the value to the rest of the prospective pixels
-        for(int r = 0;r < size; r++)
+        try(FileChannel channel = new FileInputStream(filename).getChannel())
         {
-            for(int c = 0;c < size; c++)
-            {
-                int row = r + start.getRow();
-                int col = c + start.getCol();
-                if(image[row][col] != init)
-                {
-                    return false;
-                }
-            }
+            this.uncompress(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
         }
-        return true;
     }
 
     /**
-     * This is the core compression routine.  Its job is to work over a region
-     * of the image and compress it.  It is a recursive routine with two cases:
-     *
-     * 1. The entire region represented by this image has the same value, or
-     * we are down to one pixel.  In either case, we can now create a node
-     * that represents this.
-     *
-     * 2. If we can't compress at this level, we need to divide into 4
-     * equally sized sub-regions and call ourselves again.  Just like with
-     * uncompressing, we can compute the starting point of the four sub-regions
-     * by using the starting point and size of the full region.
+     * Uncompress a RIT image read from a stream, as uncompress(String) does
+     * for a file.  The format is detected from the start of the stream.  A
+     * binary image is read to the end of the stream; the stream is not
+     * closed.
      *
-     * @param start the start coordinate for this region
-     * @param size the size this region represents
-     * @return a node containing the compression information for the region
+     * @param in the stream holding the compressed image
+     * @throws IOException if there are issues reading the stream
+     * @throws QTException if there are issues parsing the data in the stream
      */
-    private QTNode compress(Coordinate start, int size)
+    public void uncompress(InputStream in) throws IOException, QTException
     {
-        //Value of the pixel at a certain location
-        int num = image[start.getRow()][start.getCol()];
-        //If the size of the area (in pixels) is 1, the block can no longer
-        //be broken down, so just return a new node with said node's value
-        if(size == 1)
-        {
-            //+1 to node count
-            this.compressedSize += 1;
-            return new QTNode(num);
-        }
-        //Although this does the same thing as the 'if' above, it checks if the
-        //block surrounding this pixel can be collapsed into less nodes
-        else if(canCompressBlock(start, size))
+        //the magic number is read ahead and put back
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(RITFormat.MAGIC.length);
+        boolean binary = true;
+        for(byte b : RITFormat.MAGIC)
         {
-            //+1 to node count
-            this.compressedSize += 1;
-            return new QTNode(num);
+            if(buffered.read() != (b & 0xFF))
+            {
+                binary = false;
+                break;
+            }
         }
-        //Size is >1 and can't be collapsed
-        else
+        buffered.reset();
+        if(binary)
         {
-            //+1 to node count
-            this.compressedSize += 1;
-            int row = start.getRow();
-            int col = start.getCol();
-            int offset = size/2;
-            //I got lost in the parenthesis for about 5 minutes
-            return new QTNode(-1, (this.compress(new Coordinate(row, col), size/2)),
-                    (this.compress(new Coordinate(row, col + offset), size/2)),
-                    (this.compress(new Coordinate(row + offset, col), size/2)),
-                    (this.compress(new Coordinate(row + offset, col + offset), size/2)));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte chunk[] = new byte[8192];
+            for(int n = buffered.read(chunk); n > 0; n = buffered.read(chunk))
+            {
+                bytes.write(chunk, 0, n);
+            }
+            this.uncompress(ByteBuffer.wrap(bytes.toByteArray()));
+            return;
         }
+        AsciiPreorderSource values = new AsciiPreorderSource(buffered);
+        this.compressedSize = values.next();
+        this.uncompress(values);
     }
 
     /**
-     * Compress a raw image into the RIT format.  This routine is meant to be
-     * called by a client.  It is expected to be passed a file which represents
-     * the raw image.  It is ASCII formatted and contains a series of grayscale
-     * values (0-255).  There is one value per line, and 2^n x 2^n total lines.
+     * Get a source for the values of a binary image, read in preorder.
+     * An indexed file's values are the same as a plain one's, so its index
+     * is left alone.  A level order file has no preorder to read.
      *
-     * @param inputFile the raw image file name
-     * @throws IOException if there are issues working with the file
+     * @param buffer the compressed image, positioned after its header
+     * @param encoding the encoding read from the header
+     * @param size the square dimension of the image
+     * @param dictionary the dictionary to read with, or null
+     * @return the source of the values
+     * @throws QTException if the values can't be read
      */
-    public void compress(String inputFile) throws IOException
+    static PreorderSource source(ByteBuffer buffer, int encoding, int size, RITDictionary dictionary)
+            throws QTException
     {
-        //Creating our reading object
-        BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-
-        //creates a list of the integers
-        List<Integer> lst = new ArrayList<>();
-        String num;
-        //reading in the file, stores in an integer array
-        while((num = reader.readLine()) != null)
+        if(encoding == RITFormat.ENCODING_ARITHMETIC)
         {
-            lst.add(Integer.parseInt(num));
+            return new EntropyPreorderSource(buffer, size);
         }
+        if(encoding == RITFormat.ENCODING_SPLIT_STREAMS)
+        {
+            return new SplitStreamPreorderSource(buffer);
+        }
+        if(encoding == RITFormat.ENCODING_LEVEL_ORDER)
+        {
+            throw new QTException("Error uncompressing.  Level order files can't be read in preorder.");
+        }
+        if(encoding == RITFormat.ENCODING_DICTIONARY_PREORDER)
+        {
+            //the dictionary is named by its checksum after the header
+            if(buffer.remaining() < 4)
+            {
+                throw new QTException("Error uncompressing.  Not enough data.");
+            }
+            int checksum = buffer.getInt();
+            if(dictionary == null)
+            {
+                throw new QTException("Error uncompressing.  The file needs the dictionary it was compressed with.");
+            }
+            if(checksum != dictionary.getChecksum())
+            {
+                throw new QTException("Error uncompressing.  The file was compressed with a different dictionary.");
+            }
+            return new BinaryPreorderSource(buffer, dictionary);
+        }
+        return new BinaryPreorderSource(buffer);
+    }
+
+    /**
+     * Uncompress a binary RIT image held in a buffer, as uncompress(String)
+     * does for a binary file.  The buffer's position is moved past what is
+     * read.
+     *
+     * @param buffer the compressed image, positioned at its header
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if there are issues parsing the data in the buffer
+     */
+    public void uncompress(ByteBuffer buffer) throws IOException, QTException
+    {
+        //an index holds offsets from the start of the image, so the image
+        //is read through a view that starts there
+        ByteBuffer image = buffer.slice();
+        this.uncompressImage(image);
+        buffer.position(buffer.position() + image.position());
+    }
+
+    /**
+     * Uncompress a binary RIT image held in a buffer that starts at its
+     * header, leaving the buffer's position past what is read.
+     *
+     * @param buffer the compressed image, starting at position 0
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if there are issues parsing the data in the buffer
+     */
+    private void uncompressImage(ByteBuffer buffer) throws IOException, QTException
+    {
+        int encoding = RITFormat.readEncoding(buffer);
+        //the raw size is recorded in the header
+        this.compressedSize = RITFormat.readVarint(buffer);
+        if(encoding == RITFormat.ENCODING_LEVEL_ORDER)
+        {
+            //the levels are painted straight into the image, keeping the tree only if asked
+            this.DIM = (int) Math.sqrt(compressedSize);
+            this.rawSize = this.DIM * this.DIM;
+            this.root = null;
+            this.flatTree = null;
+            LevelOrderDecoder levels = new LevelOrderDecoder(buffer, this.DIM, 1, false);
+            if(this.flat)
+            {
+                this.flatTree = levels.readTree();
+            }
+            else
+            {
+                levels.readAll();
+            }
+            this.image = levels.getImage();
+            return;
+        }
+        if(encoding != RITFormat.ENCODING_INDEXED_PREORDER)
+        {
+            PreorderSource values = source(buffer, encoding, (int) Math.sqrt(compressedSize), this.dictionary);
+            this.uncompress(values);
+            if(values instanceof EntropyPreorderSource)
+            {
+                //the coded bits can't tell by themselves that they were cut short
+                ((EntropyPreorderSource) values).finish();
+            }
+            return;
+        }
+        RITIndex index = RITIndex.read(buffer);
+        ByteBuffer values = buffer.duplicate();
+        values.limit(RITIndex.start(buffer));
+        values = values.slice();
+        //the index trailer runs to the end of the image
+        buffer.position(buffer.limit());
+        this.DIM = (int) Math.sqrt(compressedSize);
+        this.rawSize = this.DIM * this.DIM;
+        this.root = null;
+        this.flatTree = null;
+        this.image = new int[this.DIM][this.DIM];
+        try
+        {
+            if(this.flat)
+            {
+                //the quadrants' trees are read in parallel too
+                this.flatTree = ForkJoinPool.commonPool().invoke(
+                        new FlatDecodeTask(values, index, 0, 0, 0, 0, this.DIM));
+            }
+            else
+            {
+                ForkJoinPool.commonPool().invoke(new DecodeTask(values, index, 0, 0, 0, 0, this.DIM));
+            }
+        }
+        catch(RuntimeException e)
+        {
+            //the tasks wrap what went wrong, possibly more than once
+            for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+            {
+                if(cause instanceof QTException)
+                {
+                    throw (QTException) cause;
+                }
+                if(cause instanceof IOException)
+                {
+                    throw (IOException) cause;
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Set up the image for the size read from the header of a compressed
+     * file and paint it from the values that follow.
+     *
+     * @param values the source of the compressed values
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if the values do not describe a valid tree
+     */
+    private void uncompress(PreorderSource values) throws IOException, QTException
+    {
+        this.DIM = (int) Math.sqrt(compressedSize);
+        this.rawSize = this.DIM * this.DIM;
+        //the image is painted directly, so no tree of nodes is kept
+        this.root = null;
+        this.flatTree = null;
+        //instantiating the 2-D array for the image with it's size
+        this.image = new int[this.DIM][this.DIM];
+        if(this.flat)
+        {
+            //a flat tree is cheap enough to keep around
+            this.flatTree = FlatQTree.read(values, this.DIM);
+            this.flatTree.paint(this.image);
+            return;
+        }
+        //populating the 2-D array straight from the file
+        this.decode(values, this.DIM, 0, 0);
+    }
+
+    /**
+     * Uncompress only a rectangle of a RIT compressed file (see
+     * RITRegion.decode()).
+     *
+     * @param filename the name of the compressed file
+     * @param row the top row of the rectangle
+     * @param col the left column of the rectangle
+     * @param height the height of the rectangle
+     * @param width the width of the rectangle
+     * @return the pixels of the rectangle, by row
+     * @throws IOException if there are issues working with the compressed file
+     * @throws QTException if there are issues parsing the data in the file
+     */
+    public static int[][] decodeRegion(String filename, int row, int col, int height, int width)
+            throws IOException, QTException
+    {
+        return RITRegion.decode(filename, null, row, col, height, width);
+    }
+
+    /**
+     * Uncompress only a rectangle of a RIT compressed file that may have
+     * been compressed with a dictionary (see RITRegion.decode()).
+     *
+     * @param filename the name of the compressed file
+     * @param dictionary the dictionary the file was compressed with, or null
+     * @param row the top row of the rectangle
+     * @param col the left column of the rectangle
+     * @param height the height of the rectangle
+     * @param width the width of the rectangle
+     * @return the pixels of the rectangle, by row
+     * @throws IOException if there are issues working with the compressed file
+     * @throws QTException if there are issues parsing the data in the file
+     */
+    public static int[][] decodeRegion(String filename, RITDictionary dictionary, int row, int col,
+            int height, int width) throws IOException, QTException
+    {
+        return RITRegion.decode(filename, dictionary, row, col, height, width);
+    }
+
+    /**
+     * Uncompress a RIT compressed file at a lower resolution, for previews
+     * and thumbnails (see RITRegion.preview()), with the dictionary set by
+     * setDictionary().
+     *
+     * Once this routine completes, getImage() and getDim() give the
+     * preview.
+     *
+     * @param filename the name of the compressed file
+     * @param resolution the square dimension of the preview, a power of 2
+     * no larger than the image
+     * @throws IOException if there are issues working with the compressed file
+     * @throws QTException if there are issues parsing the data in the file
+     */
+    public void uncompress(String filename, int resolution) throws IOException, QTException
+    {
+        this.image = RITRegion.preview(filename, this.dictionary, resolution);
+        this.compressedSize = RITRegion.rawSize(filename);
+        this.rawSize = this.compressedSize;
+        this.DIM = resolution;
+        this.root = null;
+        this.flatTree = null;
+    }
+
+    /**
+     * The private writer is a recursive helper routine that writes out the
+     * compressed image.  It goes through the tree in preorder fashion
+     * writing out the values of each node as they are encountered.
+     *
+     * @param node the current node in the tree
+     * @param values the sink to write the node data out to
+     * @throws IOException if there are issues with the sink
+     * @throws QTException if a node value can't be written
+     */
+    private void write(QTNode node, PreorderSink values) throws IOException, QTException
+    {
+        //If the node value is not empty, do something with it
+        if(node != null)
+        {
+            //If it's a raw block, write it and its pixels
+            if(node.getVal() == RAW_BLOCK)
+            {
+                values.put(node.getVal());
+                for(int pixel : node.getPixels())
+                {
+                    values.putPixel(pixel);
+                }
+            }
+            //If it's a 0-255 value, write it!
+            else if(node.getVal() != QUAD_SPLIT)
+            {
+                values.put(node.getVal());
+            }
+            //otherwise, recrusively call write(), further traversing through the QTree
+            else
+            {
+                values.put(node.getVal());
+                write(node.getUpperLeft(), values);
+                write(node.getUpperRight(), values);
+                write(node.getLowerLeft(), values);
+                write(node.getLowerRight(), values);
+            }
+
+        }
+    }
+
+    /**
+     * Write the values of whichever tree is being kept.
+     *
+     * @param values the sink to write the values to
+     * @throws IOException if there are issues with the sink
+     * @throws QTException if the file has not been compressed yet
+     */
+    private void writeTree(PreorderSink values) throws IOException, QTException
+    {
+        if(this.flatTree != null)
+        {
+            this.flatTree.write(values);
+        }
+        else if(this.root != null)
+        {
+            this.write(this.root, values);
+        }
+        else
+        {
+            throw new QTException("Error writing compressed file.  FIle has not been compressed.");
+        }
+    }
+
+    /**
+     * Keep a tree read from a file as the tree, in place of any image (see
+     * RITTransform).
+     *
+     * @param root the root of the tree of nodes, or null
+     * @param flatTree the flat tree, or null
+     * @param size the square dimension of the image
+     * @param values the number of values in the tree
+     */
+    void load(QTNode root, FlatQTree flatTree, int size, int values)
+    {
+        this.root = root;
+        this.flatTree = flatTree;
+        this.image = null;
+        this.DIM = size;
+        this.rawSize = size * size;
+        this.compressedSize = 1 + values;
+        this.maxError = 0;
+        this.meanSquaredError = 0;
+        this.shareTree(size);
+    }
+
+    /**
+     * Write the compressed image to the output file.  This routine is meant to be
+     * called from a client after it has been compressed
+     *
+     * @rit.pre client has called compress() to compress the input file
+     * @param outFile the name of the file to write the compressed image to
+     * @throws IOException any errors involved with writing the file out
+     * @throws QTException if the file has not been compressed yet
+     */
+    public void write(String outFile) throws IOException, QTException
+    {
+        if(root != null || flatTree != null)
+        {
+            //Writing utensil
+            try(BufferedWriter writer = new BufferedWriter(new FileWriter(outFile)))
+            {
+                writer.write(this.rawSize + "\n");
+                //Writes the QTree node tree + other information
+                this.writeTree(new AsciiPreorderSink(writer));
+            }
+        }
+        else
+        {
+            throw new QTException("Error writing compressed file.  FIle has not been compressed.");
+        }
+    }
+
+    /**
+     * The private writer for an indexed binary file.  It writes the same
+     * preorder values as the other writer, recording where each node down
+     * to the index depth starts and the mean of its region as it goes.
+     *
+     * @param node the current node in the tree
+     * @param values the sink to write the node data out to
+     * @param index the index being filled in
+     * @param slot the index slot of the current node
+     * @param depth the depth of the current node
+     * @param size the size of the current node's region
+     * @return the sum of the colors in the current node's region
+     * @throws IOException if there are issues with the sink
+     * @throws QTException if a node value can't be written
+     */
+    private long write(QTNode node, BinaryPreorderSink values, RITIndex index, int slot, int depth, int size)
+            throws IOException, QTException
+    {
+        if(depth > index.getDepth())
+        {
+            //below the index, so just write the subtree
+            write(node, values);
+            return sum(node, size);
+        }
+        index.setOffset(slot, values.getPosition());
+        long sum;
+        if(node.getVal() != QUAD_SPLIT)
+        {
+            write(node, values);
+            sum = sum(node, size);
+        }
+        else
+        {
+            values.put(node.getVal());
+            int half = size/2;
+            sum = write(node.getUpperLeft(), values, index, RITIndex.child(slot, 0), depth + 1, half)
+                    + write(node.getUpperRight(), values, index, RITIndex.child(slot, 1), depth + 1, half)
+                    + write(node.getLowerLeft(), values, index, RITIndex.child(slot, 2), depth + 1, half)
+                    + write(node.getLowerRight(), values, index, RITIndex.child(slot, 3), depth + 1, half);
+        }
+        index.setMean(slot, ErrorBound.mean(sum, (long) size * size));
+        return sum;
+    }
+
+    /**
+     * Add up the colors in a node's region.
+     *
+     * @param node the node
+     * @param size the size of the node's region
+     * @return the sum of the colors
+     */
+    private static long sum(QTNode node, int size)
+    {
+        if(node.getVal() == RAW_BLOCK)
+        {
+            long sum = 0;
+            for(int pixel : node.getPixels())
+            {
+                sum += pixel;
+            }
+            return sum;
+        }
+        else if(node.getVal() != QUAD_SPLIT)
+        {
+            return (long) node.getVal() * size * size;
+        }
+        int half = size/2;
+        return sum(node.getUpperLeft(), half) + sum(node.getUpperRight(), half)
+                + sum(node.getLowerLeft(), half) + sum(node.getLowerRight(), half);
+    }
+
+    /**
+     * Write the compressed image to the output file in the binary format
+     * (see RITFormat).  This routine is meant to be called from a client
+     * after it has been compressed.  If an index depth has been set, the
+     * index is written after the values.  The values are laid out in the
+     * encoding chosen with setEncoding().
+     *
+     * @rit.pre client has called compress() to compress the input file
+     * @param outFile the name of the file to write the compressed image to
+     * @throws IOException any errors involved with writing the file out
+     * @throws QTException if the file has not been compressed yet
+     */
+    public void writeBinary(String outFile) throws IOException, QTException
+    {
+        if(root == null && flatTree == null)
+        {
+            throw new QTException("Error writing compressed file.  FIle has not been compressed.");
+        }
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile)))
+        {
+            this.writeBinary(out);
+        }
+    }
+
+    /**
+     * Write the compressed image to a stream in the binary format, as
+     * writeBinary(String) does.  The stream is not closed, so more can
+     * follow the image.
+     *
+     * @param out the stream to write the compressed image to
+     * @throws IOException any errors involved with writing the stream
+     * @throws QTException if the file has not been compressed yet
+     */
+    public void writeBinary(OutputStream out) throws IOException, QTException
+    {
+        if(root == null && flatTree == null)
+        {
+            throw new QTException("Error writing compressed file.  FIle has not been compressed.");
+        }
+        if(this.encoding != RITFormat.ENCODING_PREORDER && this.indexDepth > 0)
+        {
+            throw new QTException("Error writing compressed file.  Only preorder files can have an index.");
+        }
+        if(this.dictionary != null
+                && (this.encoding != RITFormat.ENCODING_PREORDER || this.indexDepth > 0 || this.root == null))
+        {
+            throw new QTException("Error writing compressed file.  Only plain preorder trees of nodes can use a dictionary.");
+        }
+        if(this.encoding == RITFormat.ENCODING_SPLIT_STREAMS)
+        {
+            SplitStreamPreorderSink values = new SplitStreamPreorderSink();
+            this.writeTree(values);
+            RITFormat.writeHeader(out, RITFormat.ENCODING_SPLIT_STREAMS, this.rawSize);
+            values.writeTo(out);
+            return;
+        }
+        if(this.encoding == RITFormat.ENCODING_LEVEL_ORDER)
+        {
+            LevelOrderPreorderSink values = new LevelOrderPreorderSink();
+            this.writeTree(values);
+            RITFormat.writeHeader(out, RITFormat.ENCODING_LEVEL_ORDER, this.rawSize);
+            values.writeTo(out, this.DIM);
+            return;
+        }
+        if(this.encoding == RITFormat.ENCODING_ARITHMETIC)
+        {
+            RITFormat.writeHeader(out, RITFormat.ENCODING_ARITHMETIC, this.rawSize);
+            EntropyPreorderSink values = new EntropyPreorderSink(out, (int) Math.sqrt(this.rawSize));
+            this.writeTree(values);
+            values.finish();
+            return;
+        }
+        this.references = 0;
+        this.entryReferences = 0;
+        if(this.dictionary != null)
+        {
+            RITFormat.writeHeader(out, RITFormat.ENCODING_DICTIONARY_PREORDER, this.rawSize);
+            new DataOutputStream(out).writeInt(this.dictionary.getChecksum());
+            Map<QTNode, Integer> entries = new IdentityHashMap<>();
+            this.subtrees(this.root, this.DIM, new int[1], null, null, entries);
+            this.write(this.root, new BinaryPreorderSink(out),
+                    this.shared ? new IdentityHashMap<QTNode, long[]>() : null, entries);
+            return;
+        }
+        int depth = this.writtenIndexDepth();
+        if(depth == 0)
+        {
+            RITFormat.writeHeader(out, RITFormat.ENCODING_PREORDER, this.rawSize);
+            if(this.shared && this.root != null)
+            {
+                this.write(this.root, new BinaryPreorderSink(out), new IdentityHashMap<QTNode, long[]>(),
+                        new IdentityHashMap<QTNode, Integer>());
+            }
+            else
+            {
+                this.writeTree(new BinaryPreorderSink(out));
+            }
+            return;
+        }
+        //the trailer needs to know where it starts, header included
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        RITFormat.writeHeader(header, RITFormat.ENCODING_INDEXED_PREORDER, this.rawSize);
+        header.writeTo(out);
+        BinaryPreorderSink values = new BinaryPreorderSink(out);
+        RITIndex index = new RITIndex(depth);
+        if(this.flatTree != null)
+        {
+            this.flatTree.write(values, index, this.DIM);
+        }
+        else
+        {
+            this.write(root, values, index, 0, 0, this.DIM);
+        }
+        index.write(out, header.size() + values.getPosition());
+    }
+
+    /**
+     * Get the depth of the index writeBinary() writes, which is the depth
+     * asked for cut down to fit the image and the tree.
+     *
+     * @return the depth of the index, or 0 for none
+     */
+    private int writtenIndexDepth()
+    {
+        //quadrants below the smallest indexed size are decoded sequentially
+        int levels = Integer.numberOfTrailingZeros(this.DIM) - Integer.numberOfTrailingZeros(RITIndex.MIN_SIZE);
+        int depth = Math.max(0, Math.min(this.indexDepth, levels));
+        //an index with more slots than the tree has values is mostly empty
+        while(depth > 0 && RITIndex.slots(depth) > this.compressedSize)
+        {
+            depth--;
+        }
+        return depth;
+    }
+
+    /**
+     * Check to see whether a region in the raw image contains the same value.
+     * This routine is used by the private compress routine so that it can
+     * construct the nodes in the tree.
+     *
+     * @param start the starting coordinate in the region
+     * @param size the size of the region
+     * @return whether the region can be compressed or not
+     */
+    private boolean canCompressBlock(Coordinate start, int size)
+    {
+        if(this.errorBound != null)
+        {
+            return canCompressLossy(start, size);
+        }
+        //Value of the pixel at a certain location
+        int init = image[start.getRow()][start.getCol()];
+        //Comparing the value to the rest of the prospective pixels
+        for(int r = 0;r < size; r++)
+        {
+            for(int c = 0;c < size; c++)
+            {
+                int row = r + start.getRow();
+                int col = c + start.getCol();
+                if(image[row][col] != init)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check to see whether a region in the raw image is within the error
+     * bound of lossy mode.
+     *
+     * @param start the starting coordinate in the region
+     * @param size the size of the region
+     * @return whether the region can be compressed into its mean
+     */
+    private boolean canCompressLossy(Coordinate start, int size)
+    {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long sum = 0;
+        long sumOfSquares = 0;
+        for(int row = start.getRow(); row < start.getRow() + size; row++)
+        {
+            for(int col = start.getCol(); col < start.getCol() + size; col++)
+            {
+                int value = image[row][col];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+                sumOfSquares += (long) value * value;
+            }
+        }
+        return this.errorBound.accepts(min, max, sum, sumOfSquares, (long) size * size);
+    }
+
+    /**
+     * Get the mean of a region in the raw image, which is the value a
+     * region is stored as in lossy mode.
+     *
+     * @param start the starting coordinate in the region
+     * @param size the size of the region
+     * @return the rounded mean of the region
+     */
+    private int blockMean(Coordinate start, int size)
+    {
+        long sum = 0;
+        for(int row = start.getRow(); row < start.getRow() + size; row++)
+        {
+            for(int col = start.getCol(); col < start.getCol() + size; col++)
+            {
+                sum += image[row][col];
+            }
+        }
+        return ErrorBound.mean(sum, (long) size * size);
+    }
+
+    /**
+     * This is the core compression routine.  Its job is to work over a region
+     * of the image and compress it.  It is a recursive routine with two cases:
+     *
+     * 1. The entire region represented by this image has the same value, or
+     * we are down to one pixel.  In either case, we can now create a node
+     * that represents this.
+     *
+     * 2. If we can't compress at this level, we need to divide into 4
+     * equally sized sub-regions and call ourselves again.  Just like with
+     * uncompressing, we can compute the starting point of the four sub-regions
+     * by using the starting point and size of the full region.
+     *
+     * @param start the start coordinate for this region
+     * @param size the size this region represents
+     * @return a node containing the compression information for the region
+     */
+    private QTNode compress(Coordinate start, int size)
+    {
+        //Value of the pixel at a certain location
+        int num = image[start.getRow()][start.getCol()];
+        //If the size of the area (in pixels) is 1, the block can no longer
+        //be broken down, so just return a new node with said node's value
+        if(size == 1)
+        {
+            //+1 to node count
+            this.compressedSize += 1;
+            return new QTNode(num);
+        }
+        //Although this does the same thing as the 'if' above, it checks if the
+        //block surrounding this pixel can be collapsed into less nodes
+        else if(canCompressBlock(start, size))
+        {
+            //+1 to node count
+            this.compressedSize += 1;
+            //In lossy mode the block is stored as its mean
+            if(this.errorBound != null)
+            {
+                num = blockMean(start, size);
+            }
+            return new QTNode(num);
+        }
+        //Size is >1 and can't be collapsed
+        else
+        {
+            //+1 to node count
+            this.compressedSize += 1;
+            int row = start.getRow();
+            int col = start.getCol();
+            int offset = size/2;
+            //I got lost in the parenthesis for about 5 minutes
+            return new QTNode(-1, (this.compress(new Coordinate(row, col), size/2)),
+                    (this.compress(new Coordinate(row, col + offset), size/2)),
+                    (this.compress(new Coordinate(row + offset, col), size/2)),
+                    (this.compress(new Coordinate(row + offset, col + offset), size/2)));
+        }
+    }
+
+    /**
+     * The compression routine used by the pyramid engine.  It follows the
+     * same two cases as the scanning routine above, but whether a region
+     * holds a single value is looked up in the pyramid rather than found
+     * by visiting every pixel in it again, so each node costs O(1).
+     *
+     * @param pyramid the min/max pyramid of the raw image
+     * @param row the starting row of the region
+     * @param col the starting column of the region
+     * @param size the size this region represents
+     * @return a node containing the compression information for the region
+     */
+    private QTNode compress(MinMaxPyramid pyramid, int row, int col, int size)
+    {
+        //+1 to node count
+        this.compressedSize += 1;
+        int value = blockValue(pyramid, row, col, size);
+        if(value != QUAD_SPLIT)
+        {
+            return new QTNode(value);
+        }
+        int offset = size/2;
+        return new QTNode(QUAD_SPLIT, this.compress(pyramid, row, col, offset),
+                this.compress(pyramid, row, col + offset, offset),
+                this.compress(pyramid, row + offset, col, offset),
+                this.compress(pyramid, row + offset, col + offset, offset));
+    }
+
+    /**
+     * Find the value a region is compressed into with either engine.  That
+     * is its single value, or in lossy mode its mean if it is within the
+     * error bound.
+     *
+     * @param pyramid the min/max pyramid of the image, or null to scan
+     * @param row the starting row of the region
+     * @param col the starting column of the region
+     * @param size the size of the region
+     * @return the value of the region's node, or QUAD_SPLIT if it must split
+     */
+    private int blockValue(MinMaxPyramid pyramid, int row, int col, int size)
+    {
+        if(pyramid != null && this.errorBound != null)
+        {
+            boolean within = this.errorBound.accepts(pyramid.getMin(row, col, size),
+                    pyramid.getMax(row, col, size), pyramid.getSum(row, col, size),
+                    pyramid.getSumOfSquares(row, col, size), (long) size * size);
+            return within ? ErrorBound.mean(pyramid.getSum(row, col, size), (long) size * size)
+                    : QUAD_SPLIT;
+        }
+        else if(pyramid != null)
+        {
+            return pyramid.isUniform(row, col, size) ? image[row][col] : QUAD_SPLIT;
+        }
+        Coordinate start = new Coordinate(row, col);
+        if(size > 1 && !canCompressBlock(start, size))
+        {
+            return QUAD_SPLIT;
+        }
+        return this.errorBound != null ? blockMean(start, size) : image[row][col];
+    }
+
+    /**
+     * The compression routine for a flat tree.  It makes the same decisions
+     * as the other routines, appending the nodes to the tree in preorder.
+     *
+     * @param tree the tree to append to
+     * @param pyramid the min/max pyramid of the image, or null to scan
+     * @param row the starting row of the region
+     * @param col the starting column of the region
+     * @param size the size this region represents
+     */
+    private void compress(FlatQTree tree, MinMaxPyramid pyramid, int row, int col, int size)
+    {
+        int value = blockValue(pyramid, row, col, size);
+        if(value != QUAD_SPLIT)
+        {
+            tree.add(value);
+            return;
+        }
+        int node = tree.add(QUAD_SPLIT);
+        int offset = size/2;
+        this.compress(tree, pyramid, row, col, offset);
+        this.compress(tree, pyramid, row, col + offset, offset);
+        this.compress(tree, pyramid, row + offset, col, offset);
+        this.compress(tree, pyramid, row + offset, col + offset, offset);
+        tree.close(node);
+    }
+
+    /**
+     * The fork/join task for compressing into a flat tree.  Each task
+     * above the parallel threshold joins the trees of its four quadrants
+     * under a split node; the node count is simply the size of the tree.
+     */
+    @SuppressWarnings("serial")
+    private class FlatCompressTask extends RecursiveTask<FlatQTree>
+    {
+        /** the min/max pyramid of the image, or null to scan blocks */
+        private final MinMaxPyramid pyramid;
+
+        /** the starting row of the region */
+        private final int row;
+
+        /** the starting column of the region */
+        private final int col;
+
+        /** the size of the region */
+        private final int size;
+
+        /**
+         * Create a task for a region.
+         *
+         * @param pyramid the min/max pyramid of the image, or null to scan
+         * @param row the starting row of the region
+         * @param col the starting column of the region
+         * @param size the size of the region
+         */
+        FlatCompressTask(MinMaxPyramid pyramid, int row, int col, int size) {
+            this.pyramid = pyramid;
+            this.row = row;
+            this.col = col;
+            this.size = size;
+        }
+
+        @Override
+        protected FlatQTree compute()
+        {
+            if(size <= parallelThreshold || blockValue(pyramid, row, col, size) != QUAD_SPLIT)
+            {
+                FlatQTree tree = new FlatQTree();
+                compress(tree, pyramid, row, col, size);
+                return tree;
+            }
+            int offset = size/2;
+            FlatCompressTask ul = new FlatCompressTask(pyramid, row, col, offset);
+            FlatCompressTask ur = new FlatCompressTask(pyramid, row, col + offset, offset);
+            FlatCompressTask ll = new FlatCompressTask(pyramid, row + offset, col, offset);
+            FlatCompressTask lr = new FlatCompressTask(pyramid, row + offset, col + offset, offset);
+            ul.fork();
+            ur.fork();
+            ll.fork();
+            FlatQTree lowerRight = lr.compute();
+            return FlatQTree.split(ul.join(), ur.join(), ll.join(), lowerRight);
+        }
+    }
+
+    /**
+     * A fork/join task that compresses one region of the image.  The four
+     * sub-regions of a region above the parallel threshold are forked as
+     * separate tasks and joined in order, so the tree comes out exactly as
+     * the sequential routines build it.  Tasks never touch compressedSize;
+     * each one counts the nodes it creates and adds in the counts of the
+     * tasks it joins, so the count at the root is the size of the tree.
+     */
+    @SuppressWarnings("serial")
+    private class CompressTask extends RecursiveTask<QTNode>
+    {
+        /** the min/max pyramid of the image, or null to scan blocks */
+        private final MinMaxPyramid pyramid;
+
+        /** the starting row of the region */
+        private final int row;
+
+        /** the starting column of the region */
+        private final int col;
+
+        /** the size of the region */
+        private final int size;
+
+        /** the number of nodes in the subtree built by this task */
+        private int nodes;
+
+        /**
+         * Create a task for a region.
+         *
+         * @param pyramid the min/max pyramid of the image, or null to scan
+         * @param row the starting row of the region
+         * @param col the starting column of the region
+         * @param size the size of the region
+         */
+        CompressTask(MinMaxPyramid pyramid, int row, int col, int size) {
+            this.pyramid = pyramid;
+            this.row = row;
+            this.col = col;
+            this.size = size;
+            this.nodes = 0;
+        }
+
+        /**
+         * Compress a region within this task.
+         *
+         * @param row the starting row of the region
+         * @param col the starting column of the region
+         * @param size the size of the region
+         * @return a node containing the compression information for the region
+         */
+        private QTNode compressSequential(int row, int col, int size)
+        {
+            this.nodes += 1;
+            int value = blockValue(pyramid, row, col, size);
+            if(value != QUAD_SPLIT)
+            {
+                return new QTNode(value);
+            }
+            int offset = size/2;
+            return new QTNode(QUAD_SPLIT, compressSequential(row, col, offset),
+                    compressSequential(row, col + offset, offset),
+                    compressSequential(row + offset, col, offset),
+                    compressSequential(row + offset, col + offset, offset));
+        }
+
+        @Override
+        protected QTNode compute()
+        {
+            if(size <= parallelThreshold || blockValue(pyramid, row, col, size) != QUAD_SPLIT)
+            {
+                return compressSequential(row, col, size);
+            }
+            int offset = size/2;
+            CompressTask ul = new CompressTask(pyramid, row, col, offset);
+            CompressTask ur = new CompressTask(pyramid, row, col + offset, offset);
+            CompressTask ll = new CompressTask(pyramid, row + offset, col, offset);
+            CompressTask lr = new CompressTask(pyramid, row + offset, col + offset, offset);
+            //run the last quadrant in this thread while the others are stolen
+            ul.fork();
+            ur.fork();
+            ll.fork();
+            QTNode lowerRight = lr.compute();
+            QTNode node = new QTNode(QUAD_SPLIT, ul.join(), ur.join(), ll.join(), lowerRight);
+            //this split node plus everything under it
+            this.nodes = 1 + ul.nodes + ur.nodes + ll.nodes + lr.nodes;
+            return node;
+        }
+    }
+
+    /**
+     * Replace the split subtrees that cost more to store than their pixels
+     * with raw blocks, working bottom up.  The cost of a subtree is the
+     * number of values written for it: one per node, plus one per pixel
+     * of a raw block.
+     *
+     * @param node the node for the region
+     * @param row the starting row of the region
+     * @param col the starting column of the region
+     * @param size the size this region represents
+     * @param cost receives the cost of the returned subtree in cost[0]
+     * @return the node, or its replacement
+     */
+    private QTNode hybrid(QTNode node, int row, int col, int size, int cost[])
+    {
+        if(node.getVal() != QUAD_SPLIT)
+        {
+            cost[0] = 1;
+            return node;
+        }
+        int offset = size/2;
+        int total = 1;
+        QTNode ul = hybrid(node.getUpperLeft(), row, col, offset, cost);
+        total += cost[0];
+        QTNode ur = hybrid(node.getUpperRight(), row, col + offset, offset, cost);
+        total += cost[0];
+        QTNode ll = hybrid(node.getLowerLeft(), row + offset, col, offset, cost);
+        total += cost[0];
+        QTNode lr = hybrid(node.getLowerRight(), row + offset, col + offset, offset, cost);
+        total += cost[0];
+        //on a tie keep the split, which any reader understands
+        if(1 + size * size < total)
+        {
+            int pixels[] = new int[size * size];
+            for(int r = 0; r < size; r++)
+            {
+                System.arraycopy(image[row + r], col, pixels, r * size, size);
+            }
+            cost[0] = 1 + size * size;
+            return new QTNode(pixels);
+        }
+        cost[0] = total;
+        return new QTNode(QUAD_SPLIT, ul, ur, ll, lr);
+    }
+
+    /**
+     * What makes two subtrees the same once their children have been
+     * shared: the node's value, the size of its region, its children by
+     * identity and the pixels of a raw block.
+     */
+    private static class SubtreeKey {
+        /** the node whose subtree this is */
+        private final QTNode node;
+
+        /** the size of the region the node represents */
+        private final int size;
+
+        /**
+         * Create the key of a node whose children are already shared.
+         *
+         * @param node the node
+         * @param size the size of the region the node represents
+         */
+        SubtreeKey(QTNode node, int size) {
+            this.node = node;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof SubtreeKey))
+            {
+                return false;
+            }
+            SubtreeKey other = (SubtreeKey) o;
+            return this.size == other.size && this.node.getVal() == other.node.getVal()
+                    && this.node.getUpperLeft() == other.node.getUpperLeft()
+                    && this.node.getUpperRight() == other.node.getUpperRight()
+                    && this.node.getLowerLeft() == other.node.getLowerLeft()
+                    && this.node.getLowerRight() == other.node.getLowerRight()
+                    && Arrays.equals(this.node.getPixels(), other.node.getPixels());
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = 31 * this.size + this.node.getVal();
+            hash = 31 * hash + System.identityHashCode(this.node.getUpperLeft());
+            hash = 31 * hash + System.identityHashCode(this.node.getUpperRight());
+            hash = 31 * hash + System.identityHashCode(this.node.getLowerLeft());
+            hash = 31 * hash + System.identityHashCode(this.node.getLowerRight());
+            return 31 * hash + Arrays.hashCode(this.node.getPixels());
+        }
+    }
+
+    /**
+     * Share the identical subtrees under a node, working bottom up, so
+     * that a subtree is looked up by the identities of children that are
+     * already shared.
+     *
+     * @param node the node for the region
+     * @param size the size this region represents
+     * @param canonical the first node found for each distinct subtree
+     * @param nodes counts the nodes visited in nodes[0]
+     * @return the node, or the identical one found before it
+     */
+    private QTNode share(QTNode node, int size, Map<SubtreeKey, QTNode> canonical, int nodes[])
+    {
+        nodes[0]++;
+        if(node.getVal() == QUAD_SPLIT)
+        {
+            int offset = size/2;
+            node = new QTNode(QUAD_SPLIT, share(node.getUpperLeft(), offset, canonical, nodes),
+                    share(node.getUpperRight(), offset, canonical, nodes),
+                    share(node.getLowerLeft(), offset, canonical, nodes),
+                    share(node.getLowerRight(), offset, canonical, nodes));
+        }
+        QTNode first = canonical.putIfAbsent(new SubtreeKey(node, size), node);
+        return first != null ? first : node;
+    }
+
+    /**
+     * Write a shared tree in preorder, writing each subtree seen before as
+     * a reference to where it was first written when that is smaller, and
+     * each subtree held in the dictionary as a reference to its entry.
+     *
+     * @param node the current node in the tree
+     * @param values the sink to write the node data out to
+     * @param written where each subtree was first written and how many
+     * bytes it took, or null if the tree isn't shared
+     * @param entries the dictionary entry of each subtree that has one
+     * @throws IOException if there are issues with the sink
+     * @throws QTException if a node value can't be written
+     */
+    private void write(QTNode node, BinaryPreorderSink values, Map<QTNode, long[]> written,
+            Map<QTNode, Integer> entries) throws IOException, QTException
+    {
+        Integer id = entries.get(node);
+        if(id != null)
+        {
+            values.putEntry(id);
+            this.entryReferences++;
+            return;
+        }
+        long start = values.getPosition();
+        long first[] = written != null ? written.get(node) : null;
+        if(first != null && first[1] > BinaryPreorderSink.referenceLength(start - first[0]))
+        {
+            values.putReference(first[0]);
+            this.references++;
+            return;
+        }
+        values.put(node.getVal());
+        if(node.getVal() == RAW_BLOCK)
+        {
+            for(int pixel : node.getPixels())
+            {
+                values.putPixel(pixel);
+            }
+        }
+        else if(node.getVal() == QUAD_SPLIT)
+        {
+            write(node.getUpperLeft(), values, written, entries);
+            write(node.getUpperRight(), values, written, entries);
+            write(node.getLowerLeft(), values, written, entries);
+            write(node.getLowerRight(), values, written, entries);
+        }
+        if(first == null && written != null)
+        {
+            written.put(node, new long[]{start, values.getPosition() - start});
+        }
+    }
+
+    /**
+     * Go through the subtrees of the tree that are worth a dictionary
+     * entry, counting them or collecting their values, for building a
+     * dictionary (see RITDictionary.build()).
+     *
+     * @param counts how often each subtree occurs, how many bytes it takes
+     * and the size of its region, by hash; the subtrees are counted into
+     * it, or null
+     * @param wanted the values of the subtrees being collected, by hash;
+     * those not yet found are filled in, or null
+     * @throws IOException if a subtree can't be encoded
+     * @throws QTException if the tree isn't kept as nodes
+     */
+    void subtrees(Map<Long, long[]> counts, Map<Long, byte[]> wanted) throws IOException, QTException
+    {
+        if(this.root == null)
+        {
+            throw new QTException("Error building dictionary.  Only a tree of nodes can be searched.");
+        }
+        this.subtrees(this.root, this.DIM, new int[1], counts, wanted, null);
+    }
+
+    /**
+     * Hash a subtree bottom up the way RITDictionary hashes its entries,
+     * and count, collect or look up in the dictionary every subtree under
+     * it that takes at least RITDictionary.MIN_LENGTH bytes.
+     *
+     * @param node the node for the region
+     * @param size the size this region represents
+     * @param length receives the number of bytes the subtree takes in length[0]
+     * @param counts the counts of the subtrees (see subtrees()), or null
+     * @param wanted the values being collected (see subtrees()), or null
+     * @param entries receives the dictionary entry of each subtree that has
+     * one, or null
+     * @return the hash of the subtree
+     * @throws IOException if a subtree can't be encoded
+     * @throws QTException if a node value can't be encoded
+     */
+    private long subtrees(QTNode node, int size, int length[], Map<Long, long[]> counts,
+            Map<Long, byte[]> wanted, Map<QTNode, Integer> entries) throws IOException, QTException
+    {
+        long hash = RITDictionary.hash(size, node.getVal());
+        int bytes;
+        if(node.getVal() == QUAD_SPLIT)
+        {
+            int offset = size/2;
+            QTNode children[] = {node.getUpperLeft(), node.getUpperRight(),
+                    node.getLowerLeft(), node.getLowerRight()};
+            bytes = 1;
+            for(QTNode child : children)
+            {
+                hash = RITDictionary.mix(hash, subtrees(child, offset, length, counts, wanted, entries));
+                bytes += length[0];
+            }
+        }
+        else if(node.getVal() == RAW_BLOCK)
+        {
+            bytes = 2 + node.getPixels().length;
+            for(int pixel : node.getPixels())
+            {
+                hash = RITDictionary.mix(hash, pixel);
+            }
+        }
+        else
+        {
+            //a leaf is never worth an entry
+            length[0] = node.getVal() >= RITFormat.ESCAPE ? 2 : 1;
+            return hash;
+        }
+        length[0] = bytes;
+        if(bytes >= RITDictionary.MIN_LENGTH)
+        {
+            if(counts != null)
+            {
+                long count[] = counts.get(hash);
+                if(count == null)
+                {
+                    counts.put(hash, new long[]{1, bytes, size});
+                }
+                else
+                {
+                    count[0]++;
+                }
+            }
+            if(wanted != null && wanted.containsKey(hash) && wanted.get(hash) == null)
+            {
+                wanted.put(hash, this.encode(node));
+            }
+            if(entries != null && !entries.containsKey(node))
+            {
+                int id = this.dictionary.find(hash, size);
+                if(id >= 0 && this.dictionary.holds(id, this.encode(node)))
+                {
+                    entries.put(node, id);
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Get the byte packed values of a subtree, written out in full.
+     *
+     * @param node the node at the top of the subtree
+     * @return the values
+     * @throws IOException if the values can't be written
+     * @throws QTException if a node value can't be written
+     */
+    private byte[] encode(QTNode node) throws IOException, QTException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        this.write(node, new BinaryPreorderSink(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Paint the region of an image that a node represents.
+     *
+     * @param node the node to paint
+     * @param target the image to paint into
+     * @param size the size of the region this node represents
+     * @param row the starting row of the region
+     * @param col the starting column of the region
+     */
+    private void paint(QTNode node, int target[][], int size, int row, int col)
+    {
+        if(node.getVal() == RAW_BLOCK)
+        {
+            for(int r = 0; r < size; r++)
+            {
+                System.arraycopy(node.getPixels(), r * size, target[row + r], col, size);
+            }
+            return;
+        }
+        else if(node.getVal() != QUAD_SPLIT)
+        {
+            for(int r = row; r < row + size; r++)
+            {
+                Arrays.fill(target[r], col, col + size, node.getVal());
+            }
+            return;
+        }
+        int offset = size/2;
+        paint(node.getUpperLeft(), target, offset, row, col);
+        paint(node.getUpperRight(), target, offset, row, col + offset);
+        paint(node.getLowerLeft(), target, offset, row + offset, col);
+        paint(node.getLowerRight(), target, offset, row + offset, col + offset);
+    }
 
-        int arySize = (int) Math.sqrt(lst.size());
+    /**
+     * Measure how far the compressed image is from the raw image.  In
+     * lossless mode they are identical, so there is nothing to measure.
+     */
+    private void measureError()
+    {
+        this.maxError = 0;
+        this.meanSquaredError = 0;
+        if(this.errorBound == null || this.DIM == 0)
+        {
+            return;
+        }
+        int compressed[][] = new int[this.DIM][this.DIM];
+        if(this.flatTree != null)
+        {
+            this.flatTree.paint(compressed);
+        }
+        else
+        {
+            this.paint(this.root, compressed, this.DIM, 0, 0);
+        }
+        double squares = 0;
+        for(int r = 0; r < this.DIM; r++)
+        {
+            for(int c = 0; c < this.DIM; c++)
+            {
+                int error = Math.abs(compressed[r][c] - image[r][c]);
+                this.maxError = Math.max(this.maxError, error);
+                squares += (double) error * error;
+            }
+        }
+        this.meanSquaredError = squares / ((double) this.DIM * this.DIM);
+    }
 
-        //setting the size of the 2-D array
-        this.image = new int[arySize][arySize];
-        int counter = 0;
+    /**
+     * Compress a raw image into the RIT format.  This routine is meant to be
+     * called by a client.  It is expected to be passed a file which represents
+     * the raw image.  It is ASCII formatted and contains a series of grayscale
+     * values (0-255).  There is one value per line, and 2^n x 2^n total lines.
+     * Binary PGM and 8-bit grayscale PNG files are also accepted (see
+     * ImageFiles).
+     *
+     * @param inputFile the raw image file name
+     * @throws IOException if there are issues working with the file
+     */
+    public void compress(String inputFile) throws IOException
+    {
+        //ASCII raw files are mapped and parsed in parallel chunks (see RawImageLoader)
+        this.compress(ImageFiles.read(inputFile));
+    }
 
-        //Populating the 2-D array of integers that represents the image pixel colors
-        //(One coordinate = one pixel)
-        for(int r = 0; r < arySize; r++)
+    /**
+     * Compress an image that is already in memory, as compress(String)
+     * does for a file.  The tree keeps the image rather than a copy.  A
+     * tree can compress any number of images one after another with the
+     * same settings.
+     *
+     * @param image the pixels of a 2^n x 2^n image, by row
+     */
+    public void compress(int[][] image)
+    {
+        for(int[] row : image)
         {
-            for(int c = 0; c < arySize; c++)
+            if(row.length != image.length)
             {
-                image[r][c] = lst.get(counter);
-                counter += 1;
+                throw new IllegalArgumentException("Image is not square");
             }
         }
+        //the quadrants of anything else don't halve evenly
+        if(Integer.bitCount(image.length) != 1)
+        {
+            throw new IllegalArgumentException("Image is " + image.length + "x" + image.length
+                    + ", not a power of 2");
+        }
+        this.image = image;
+        int arySize = this.image.length;
+
         //+1 to count the root
-        this.compressedSize += 1;
+        this.compressedSize = 1;
         //Calling the compressing routine further to create the tree
         //and populate the root object
-        this.root = this.compress(new Coordinate(0, 0), arySize);
+        this.root = null;
+        this.flatTree = null;
+        MinMaxPyramid pyramid = null;
+        if(this.engine == PYRAMID_ENGINE)
+        {
+            //lossy mode needs the block sums as well
+            pyramid = new MinMaxPyramid(this.image, this.errorBound != null);
+        }
+        if(this.flat)
+        {
+            if(this.parallelThreshold > 0)
+            {
+                this.flatTree = ForkJoinPool.commonPool().invoke(
+                        new FlatCompressTask(pyramid, 0, 0, arySize));
+            }
+            else
+            {
+                this.flatTree = new FlatQTree();
+                this.compress(this.flatTree, pyramid, 0, 0, arySize);
+            }
+            this.flatTree.trim();
+            this.compressedSize += this.flatTree.size();
+        }
+        else if(this.parallelThreshold > 0)
+        {
+            CompressTask task = new CompressTask(pyramid, 0, 0, arySize);
+            this.root = ForkJoinPool.commonPool().invoke(task);
+            this.compressedSize += task.nodes;
+        }
+        else if(pyramid != null)
+        {
+            this.root = this.compress(pyramid, 0, 0, arySize);
+        }
+        else
+        {
+            this.root = this.compress(new Coordinate(0, 0), arySize);
+        }
+        if(this.hybrid)
+        {
+            //the size is now counted in values rather than nodes
+            if(this.flatTree != null)
+            {
+                this.flatTree = this.flatTree.hybrid(this.image);
+                this.compressedSize = 1 + this.flatTree.size();
+            }
+            else
+            {
+                int cost[] = new int[1];
+                this.root = this.hybrid(this.root, 0, 0, arySize, cost);
+                this.compressedSize = 1 + cost[0];
+            }
+        }
+        this.shareTree(arySize);
+        this.DIM = arySize;
+        this.measureError();
         //The raw size of this file/image, used in the % compressed calculation
         this.rawSize = (arySize * arySize);
-        reader.close();
+    }
+
+    /**
+     * Share the identical subtrees of the tree of nodes, if sharing is on
+     * (see setShared()).
+     *
+     * @param size the square dimension of the image
+     */
+    private void shareTree(int size)
+    {
+        this.sharedNodes = 0;
+        if(this.shared && this.root != null)
+        {
+            Map<SubtreeKey, QTNode> canonical = new HashMap<>();
+            int nodes[] = new int[1];
+            this.root = this.share(this.root, size, canonical, nodes);
+            this.sharedNodes = nodes[0] - canonical.size();
+        }
     }
 
     /**
@@ -434,6 +2165,16 @@ public class QTree {
             return (node.getVal() + " " + result);
 
         }
+        //A raw block is followed by all of its pixels
+        else if(node.getVal() == RAW_BLOCK)
+        {
+            StringBuilder result = new StringBuilder(node.getVal() + " ");
+            for(int pixel : node.getPixels())
+            {
+                result.append(pixel).append(' ');
+            }
+            return result.toString();
+        }
         //Otherwise, add to the string return the node value (base case 2)
         else
         {
@@ -442,13 +2183,19 @@ public class QTree {
     }
 
     /**
-     * Returns a string which is a preorder traversal of the tree.
+     * Returns a string which is a preorder traversal of the tree.  An
+     * image is uncompressed without keeping its tree unless setFlat() is
+     * on, and then there is no tree to traverse.
      *
      * @return the qtree string representation
      */
     @Override
     public String toString()
     {
+        if(this.flatTree != null)
+        {
+            return "QTree: " + this.flatTree;
+        }
         //Print the tree's preorder
         return "QTree: " + preorder(this.root);
     }
@@ -0,0 +1,311 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An archive of many binary RIT images in one file, for serving large
+ * numbers of small images without opening, reading and parsing a file
+ * for each one.  The archive is mapped once when it is opened; each member
+ * is then found by name in an in-memory index and read straight out of
+ * the mapping through a slice of it, without copying its bytes.  The
+ * layout is:
+ *
+ *      - a 4 byte magic number, "RITA"
+ *      - a version byte
+ *      - the members, each a complete binary RIT image (see RITFormat)
+ *      - the index: the number of members as a varint, then for each
+ *        member the length of its name as a varint, the name in UTF-8,
+ *        the offset of the member from the start of the file as an 8 byte
+ *        long and the length of the member as a varint
+ *      - where the index starts as an 8 byte long
+ *
+ * An open archive can be read by any number of threads at once, since
+ * every member is read through its own view of the mapping.
+ *
+ * $ java RITArchive -c archive-file rit-file...
+ * $ java RITArchive -l archive-file
+ * $ java RITArchive -x archive-file name image.pgm|image.png
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITArchive implements Closeable {
+    /** the magic number at the start of every RIT archive */
+    public final static byte[] MAGIC = {'R', 'I', 'T', 'A'};
+
+    /** the current version of the archive format */
+    public final static int VERSION = 1;
+
+    /** the file being read */
+    private final FileChannel channel;
+
+    /** the whole file, mapped */
+    private final ByteBuffer archive;
+
+    /** where each member starts and how long it is, by name, in archive order */
+    private final Map<String, long[]> members;
+
+    /**
+     * Open an archive for reading, mapping it and reading its index.
+     *
+     * @param filename the name of the archive
+     * @throws IOException if there are issues reading the file
+     * @throws QTException if the file isn't a valid archive
+     */
+    public RITArchive(String filename) throws IOException, QTException {
+        this.channel = new FileInputStream(filename).getChannel();
+        try
+        {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+            {
+                throw new QTException("Error reading archive.  Archives over 2GB can't be mapped.");
+            }
+            this.archive = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            for(byte b : MAGIC)
+            {
+                if(!archive.hasRemaining() || archive.get() != b)
+                {
+                    throw new QTException("Error reading archive.  Not a RIT archive.");
+                }
+            }
+            if(!archive.hasRemaining() || archive.get() != VERSION)
+            {
+                throw new QTException("Error reading archive.  Unsupported archive version.");
+            }
+            int start = archive.position();
+            if(size < start + 8)
+            {
+                throw new QTException("Error reading archive.  Damaged index.");
+            }
+            long indexStart = archive.getLong((int) size - 8);
+            if(indexStart < start || indexStart > size - 8)
+            {
+                throw new QTException("Error reading archive.  Damaged index.");
+            }
+            ByteBuffer index = archive.duplicate();
+            index.position((int) indexStart);
+            index.limit((int) size - 8);
+            int count = RITFormat.readVarint(index);
+            this.members = new LinkedHashMap<>();
+            for(int i = 0; i < count; i++)
+            {
+                int nameLength = RITFormat.readVarint(index);
+                if(nameLength < 0 || index.remaining() < nameLength + 8)
+                {
+                    throw new QTException("Error reading archive.  Damaged index.");
+                }
+                byte name[] = new byte[nameLength];
+                index.get(name);
+                long offset = index.getLong();
+                int length = RITFormat.readVarint(index);
+                if(offset < start || length < 0 || offset + length > indexStart)
+                {
+                    throw new QTException("Error reading archive.  Damaged index.");
+                }
+                this.members.put(new String(name, StandardCharsets.UTF_8), new long[]{offset, length});
+            }
+        }
+        catch(IOException | QTException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check whether a file starts with the archive magic number.
+     *
+     * @param filename the name of the file to check
+     * @return whether the file is a RIT archive
+     * @throws IOException if there are issues reading the file
+     */
+    public static boolean isArchive(String filename) throws IOException
+    {
+        try(InputStream in = new FileInputStream(filename))
+        {
+            for(byte b : MAGIC)
+            {
+                if(in.read() != (b & 0xFF))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Get the names of the members, in the order they were archived.
+     *
+     * @return the names
+     */
+    public List<String> getNames()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(this.members.keySet()));
+    }
+
+    /**
+     * Check whether the archive has a member.
+     *
+     * @param name the name of the member
+     * @return whether there is a member by that name
+     */
+    public boolean contains(String name) { return this.members.containsKey(name); }
+
+    /**
+     * Get the bytes of a member, a complete binary RIT image, as a slice
+     * of the mapped archive.  Nothing is copied.
+     *
+     * @param name the name of the member
+     * @return a read-only buffer holding just the member
+     */
+    public ByteBuffer getMember(String name)
+    {
+        long member[] = this.members.get(name);
+        if(member == null)
+        {
+            throw new IllegalArgumentException("No member named " + name);
+        }
+        ByteBuffer bytes = this.archive.duplicate();
+        bytes.limit((int) (member[0] + member[1]));
+        bytes.position((int) member[0]);
+        return bytes.slice();
+    }
+
+    /**
+     * Uncompress a member into a tree, with the tree's settings (see
+     * QTree.uncompress(ByteBuffer)).
+     *
+     * @param name the name of the member
+     * @param tree the tree to uncompress into
+     * @throws IOException if there are issues reading the member
+     * @throws QTException if the member is damaged
+     */
+    public void uncompress(String name, QTree tree) throws IOException, QTException
+    {
+        tree.uncompress(getMember(name));
+    }
+
+    /**
+     * Uncompress a member.
+     *
+     * @param name the name of the member
+     * @return the pixels of the image, by row
+     * @throws IOException if there are issues reading the member
+     * @throws QTException if the member is damaged
+     */
+    public int[][] read(String name) throws IOException, QTException
+    {
+        QTree tree = new QTree();
+        uncompress(name, tree);
+        return tree.getImage();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Pack binary RIT files into an archive.  Each member is named after
+     * its file, without the directory.
+     *
+     * @param archiveFile the name of the archive to write
+     * @param files the names of the binary RIT files to pack
+     * @throws IOException if there are issues reading or writing the files
+     * @throws QTException if a file isn't a binary RIT image or two files
+     * have the same name
+     */
+    public static void create(String archiveFile, List<String> files) throws IOException, QTException
+    {
+        Map<String, long[]> members = new LinkedHashMap<>();
+        try(DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(archiveFile))))
+        {
+            out.write(MAGIC);
+            out.write(VERSION);
+            for(String file : files)
+            {
+                String name = new File(file).getName();
+                if(members.containsKey(name))
+                {
+                    throw new QTException("Error writing archive.  Two members are named " + name + ".");
+                }
+                byte bytes[] = Files.readAllBytes(Paths.get(file));
+                if(bytes.length < RITFormat.MAGIC.length
+                        || !Arrays.equals(Arrays.copyOf(bytes, RITFormat.MAGIC.length), RITFormat.MAGIC))
+                {
+                    throw new QTException("Error writing archive.  " + file + " is not a binary RIT file.");
+                }
+                //the whole archive has to fit in one mapping
+                if((long) out.size() + bytes.length >= Integer.MAX_VALUE)
+                {
+                    throw new QTException("Error writing archive.  Archives over 2GB can't be mapped.");
+                }
+                members.put(name, new long[]{out.size(), bytes.length});
+                out.write(bytes);
+            }
+            long indexStart = out.size();
+            RITFormat.writeVarint(out, members.size());
+            for(Map.Entry<String, long[]> member : members.entrySet())
+            {
+                byte name[] = member.getKey().getBytes(StandardCharsets.UTF_8);
+                RITFormat.writeVarint(out, name.length);
+                out.write(name);
+                out.writeLong(member.getValue()[0]);
+                RITFormat.writeVarint(out, (int) member.getValue()[1]);
+            }
+            out.writeLong(indexStart);
+        }
+    }
+
+    /**
+     * The main routine.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length >= 2 && args[0].equals("-c")) {
+            try {
+                List<String> files = Arrays.asList(args).subList(2, args.length);
+                create(args[1], files);
+                System.out.println("Members: " + files.size());
+                System.out.println("Archive size (bytes): " + new File(args[1]).length());
+            } catch (Exception e) {
+                System.err.println(e);
+            }
+        } else if (args.length == 2 && args[0].equals("-l")) {
+            try (RITArchive archive = new RITArchive(args[1])) {
+                for (String name : archive.getNames()) {
+                    ByteBuffer member = archive.getMember(name);
+                    int bytes = member.remaining();
+                    RITFormat.readEncoding(member);
+                    int dim = (int) Math.sqrt(RITFormat.readVarint(member));
+                    System.out.println(name + "\t" + dim + "x" + dim + "\t" + bytes);
+                }
+            } catch (Exception e) {
+                System.err.println(e);
+            }
+        } else if (args.length == 4 && args[0].equals("-x")) {
+            try (RITArchive archive = new RITArchive(args[1])) {
+                ImageFiles.write(archive.read(args[2]), args[3]);
+            } catch (Exception e) {
+                System.err.println(e);
+            }
+        } else {
+            System.out.println("Usage: java RITArchive -c archive-file rit-file...");
+            System.out.println("       java RITArchive -l archive-file");
+            System.out.println("       java RITArchive -x archive-file name image.pgm|image.png");
+        }
+    }
+}
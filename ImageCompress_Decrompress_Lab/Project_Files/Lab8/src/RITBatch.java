@@ -0,0 +1,540 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rich Image Tool batch compressor and uncompressor.  This program
+ * compresses or uncompresses every image in a directory, or named in a
+ * manifest, into an output directory, and prints a report of how fast it
+ * went.
+ *
+ * $ java RITBatch compress [-threads count] [-queue length]
+ *          [-lossy range|stddev|maxerror bound] [-hybrid]
+ *          [-entropy | -streams | -levels] [-dag] [-dict dictionary]
+ *          input-directory|manifest output-directory
+ * $ java RITBatch uncompress [-threads count] [-queue length] [-png]
+ *          [-dict dictionary] input-directory|manifest output-directory
+ *
+ * A manifest is a text file naming one input file per line; names that
+ * aren't absolute are taken relative to the manifest's directory.  The
+ * work is done in three stages that overlap: one thread reads the input
+ * files, a pool of -threads workers (by default one per processor) each
+ * compress or uncompress an image with a tree of their own, and the main
+ * thread writes the results.  The stages hand images on through queues
+ * holding at most -queue images (by default twice the workers), so a slow
+ * stage holds the others back rather than filling the heap.
+ *
+ * Compressing writes binary RIT files (see RITFormat), with the options
+ * meaning what they do for RITCompress, named after the input with the
+ * extension replaced by .rit.  Uncompressing accepts ASCII or binary RIT
+ * files and writes binary PGM files, or PNG files with -png.  Nothing is
+ * done if two inputs would be written to the same output file.  A file
+ * that fails is reported and skipped.  The report gives the images and raw
+ * (uncompressed) megabytes handled per second, the total compression
+ * ratio, and percentiles of each file's latency, the time from starting
+ * to read it to having written it.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITBatch {
+    /** an image on its way through the stages */
+    private static class Item {
+        /** the input file */
+        final File input;
+
+        /** when reading the input started, by System.nanoTime() */
+        final long start;
+
+        /** the image read from the input, when compressing */
+        int[][] image;
+
+        /** the bytes read from the input, when uncompressing */
+        byte[] bytes;
+
+        /** the bytes to write, once the worker is done */
+        byte[] output;
+
+        /** the pixels in the image */
+        long rawSize;
+
+        /** the size of the compressed file */
+        long compressedSize;
+
+        /** what went wrong, if anything */
+        Throwable error;
+
+        /**
+         * Start an image through the stages.
+         *
+         * @param input the input file, or null for the end of the input
+         */
+        Item(File input) {
+            this.input = input;
+            this.start = System.nanoTime();
+        }
+    }
+
+    /** whether to compress rather than uncompress */
+    private final boolean compress;
+
+    /** the bound on the error of lossy compression, if any */
+    private ErrorBound errorBound;
+
+    /** whether to store regions as raw blocks where that's cheaper */
+    private boolean hybrid;
+
+    /** whether to share identical subtrees */
+    private boolean shared;
+
+    /** the encoding of the compressed files */
+    private int encoding = RITFormat.ENCODING_PREORDER;
+
+    /** the dictionary to compress with or uncompress with, if any */
+    private RITDictionary dictionary;
+
+    /** whether to write PNG rather than PGM files, when uncompressing */
+    private boolean png;
+
+    /** the directory the output files go in */
+    private File outputDirectory;
+
+    /**
+     * Set up a batch.
+     *
+     * @param compress whether to compress rather than uncompress
+     */
+    private RITBatch(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Make a tree with the batch's settings.  The workers each have their
+     * own, since a tree holds the image it is working on.
+     *
+     * @return the tree
+     */
+    private QTree newTree() {
+        QTree tree = new QTree();
+        if (compress) {
+            tree.setErrorBound(errorBound);
+            tree.setHybrid(hybrid);
+            tree.setShared(shared);
+            tree.setEncoding(encoding);
+        }
+        tree.setDictionary(dictionary);
+        return tree;
+    }
+
+    /**
+     * List the input files: the files in a directory, by name, or the
+     * files named in a manifest, in order.
+     *
+     * @param input the directory or manifest
+     * @return the input files
+     * @throws IOException if there are issues reading the manifest
+     */
+    private static List<File> inputFiles(File input) throws IOException {
+        List<File> files = new ArrayList<>();
+        if (input.isDirectory()) {
+            File[] listed = input.listFiles();
+            if (listed != null) {
+                Arrays.sort(listed);
+                for (File file : listed) {
+                    if (file.isFile()) {
+                        files.add(file);
+                    }
+                }
+            }
+            return files;
+        }
+        for (String line : Files.readAllLines(input.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            File file = new File(line);
+            files.add(file.isAbsolute() ? file : new File(input.getAbsoluteFile().getParentFile(), line));
+        }
+        return files;
+    }
+
+    /**
+     * Get the name of the output file for an input file.
+     *
+     * @param input the input file
+     * @return the output file
+     */
+    private File outputFile(File input) {
+        String name = input.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        return new File(outputDirectory, name + (compress ? ".rit" : png ? ".png" : ".pgm"));
+    }
+
+    /**
+     * Check that no two input files would be written to the same output
+     * file, which happens when they differ only in their extension or
+     * their directory.  Names are compared ignoring case, since some file
+     * systems do.
+     *
+     * @param files the input files
+     * @throws IOException if two input files share an output file
+     */
+    private void checkOutputFiles(List<File> files) throws IOException {
+        Map<String, File> inputs = new HashMap<>();
+        for (File file : files) {
+            File output = outputFile(file);
+            File other = inputs.put(output.getName().toLowerCase(Locale.ROOT), file);
+            if (other != null) {
+                throw new IOException("Both " + other + " and " + file + " would be written to " + output);
+            }
+        }
+    }
+
+    /**
+     * Read an input file, the first stage.
+     *
+     * @param item the image to read
+     * @throws IOException if there are issues reading the file
+     */
+    private void read(Item item) throws IOException {
+        if (compress) {
+            item.image = ImageFiles.read(item.input.getPath());
+        } else {
+            item.bytes = Files.readAllBytes(item.input.toPath());
+        }
+    }
+
+    /**
+     * Compress or uncompress an image, the second stage.
+     *
+     * @param item the image, once read
+     * @param tree the worker's tree
+     * @throws IOException if there are issues encoding the image
+     * @throws QTException if the image can't be compressed or uncompressed
+     */
+    private void process(Item item, QTree tree) throws IOException, QTException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (compress) {
+            tree.compress(item.image);
+            item.image = null;
+            tree.writeBinary(out);
+            item.rawSize = tree.getRawSize();
+            item.compressedSize = out.size();
+        } else {
+            item.compressedSize = item.bytes.length;
+            if (item.bytes.length >= RITFormat.MAGIC.length
+                    && Arrays.equals(Arrays.copyOf(item.bytes, RITFormat.MAGIC.length), RITFormat.MAGIC)) {
+                tree.uncompress(ByteBuffer.wrap(item.bytes));
+            } else {
+                // the ASCII format is only read from files
+                tree.uncompress(item.input.getPath());
+            }
+            item.bytes = null;
+            item.rawSize = tree.getRawSize();
+            if (png) {
+                ImageFiles.writePNG(tree.getImage(), out);
+            } else {
+                ImageFiles.writePGM(tree.getImage(), out);
+            }
+        }
+        item.output = out.toByteArray();
+    }
+
+    /**
+     * Run the batch and print the report.
+     *
+     * @param files the input files
+     * @param threads the number of workers
+     * @param queueLength the most images each queue holds
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    private void run(final List<File> files, int threads, int queueLength) throws InterruptedException {
+        final Item end = new Item(null);
+        final BlockingQueue<Item> read = new ArrayBlockingQueue<>(queueLength);
+        final BlockingQueue<Item> processed = new ArrayBlockingQueue<>(queueLength);
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        long start = System.nanoTime();
+
+        // the reader, which passes failures straight on to be reported
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (File file : files) {
+                        Item item = new Item(file);
+                        try {
+                            read(item);
+                        } catch (Throwable e) {
+                            // even an OutOfMemoryError only loses this image
+                            item.error = e;
+                        }
+                        if (item.error == null) {
+                            read.put(item);
+                        } else {
+                            processed.put(item);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    // however the reader stops, the workers are told
+                    post(read, end);
+                }
+            }
+        });
+
+        // the workers, which each pass the end on for the next worker
+        for (int i = 0; i < threads; i++) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean ended = false;
+                    try {
+                        QTree tree = newTree();
+                        for (Item item = read.take(); item != end; item = read.take()) {
+                            try {
+                                process(item, tree);
+                            } catch (Throwable e) {
+                                item.error = e;
+                                item.image = null;
+                                item.bytes = null;
+                            }
+                            processed.put(item);
+                        }
+                        ended = true;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        // the end is only passed on once it has arrived, so a
+                        // worker that dies early leaves the input to the others
+                        if (ended) {
+                            post(read, end);
+                        }
+                        // however the worker stops, the writer is told
+                        post(processed, end);
+                    }
+                }
+            });
+        }
+
+        // the writer, until every worker has finished
+        long latencies[] = new long[files.size()];
+        int done = 0;
+        int failed = 0;
+        long rawSize = 0;
+        long compressedSize = 0;
+        for (int finished = 0; finished < threads; ) {
+            Item item = processed.take();
+            if (item == end) {
+                finished++;
+                continue;
+            }
+            if (item.error == null) {
+                try {
+                    Files.write(outputFile(item.input).toPath(), item.output);
+                } catch (IOException e) {
+                    item.error = e;
+                }
+            }
+            if (item.error != null) {
+                System.err.println(item.input + ": " + item.error);
+                failed++;
+                continue;
+            }
+            latencies[done++] = System.nanoTime() - item.start;
+            rawSize += item.rawSize;
+            compressedSize += item.compressedSize;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        // the report
+        Arrays.sort(latencies, 0, done);
+        System.out.println("Images: " + done);
+        System.out.println("Failed: " + failed);
+        System.out.printf("Seconds: %.3f%n", seconds);
+        System.out.printf("Images/sec: %.1f%n", done / seconds);
+        System.out.printf("MB/sec: %.2f%n", rawSize / 1e6 / seconds);
+        System.out.println("Raw size (bytes): " + rawSize);
+        System.out.println("Compressed size (bytes): " + compressedSize);
+        if (compressedSize > 0) {
+            System.out.printf("Compression ratio: %.2f%n", (double) rawSize / compressedSize);
+        }
+        if (done > 0) {
+            System.out.printf("Latency (ms): p50 %.2f  p90 %.2f  p99 %.2f  max %.2f%n",
+                    percentile(latencies, done, 50) / 1e6, percentile(latencies, done, 90) / 1e6,
+                    percentile(latencies, done, 99) / 1e6, latencies[done - 1] / 1e6);
+        }
+    }
+
+    /**
+     * Put an item on a queue, even if the thread has been interrupted.
+     *
+     * @param queue the queue
+     * @param item the item
+     */
+    private static void post(BlockingQueue<Item> queue, Item item) {
+        boolean interrupted = Thread.interrupted();
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get a percentile of sorted values, by the nearest rank.
+     *
+     * @param sorted the values, sorted
+     * @param count how many of the values to use
+     * @param percent the percentile
+     * @return the value
+     */
+    private static long percentile(long[] sorted, int count, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * count);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Print the usage message.
+     */
+    private static void usage() {
+        System.out.println("Usage: java RITBatch compress [-threads count] [-queue length] " +
+                "[-lossy range|stddev|maxerror bound] [-hybrid] [-entropy | -streams | -levels] " +
+                "[-dag] [-dict dictionary] input-directory|manifest output-directory");
+        System.out.println("       java RITBatch uncompress [-threads count] [-queue length] [-png] " +
+                "[-dict dictionary] input-directory|manifest output-directory");
+    }
+
+    /**
+     * The main routine.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || !(args[0].equals("compress") || args[0].equals("uncompress"))) {
+            usage();
+            return;
+        }
+        RITBatch batch = new RITBatch(args[0].equals("compress"));
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queueLength = 0;
+        String dictionaryFile = null;
+        int arg = 1;
+        // consume the options in front of the file names
+        while (arg < args.length && args[arg].startsWith("-")) {
+            if (args[arg].equals("-threads") && arg + 1 < args.length) {
+                arg++;
+                try {
+                    threads = Integer.parseInt(args[arg]);
+                } catch (NumberFormatException e) {
+                    threads = 0;
+                }
+                if (threads < 1) {
+                    System.out.println("Bad thread count: " + args[arg]);
+                    return;
+                }
+            } else if (args[arg].equals("-queue") && arg + 1 < args.length) {
+                arg++;
+                try {
+                    queueLength = Integer.parseInt(args[arg]);
+                } catch (NumberFormatException e) {
+                    queueLength = 0;
+                }
+                if (queueLength < 1) {
+                    System.out.println("Bad queue length: " + args[arg]);
+                    return;
+                }
+            } else if (args[arg].equals("-dict") && arg + 1 < args.length) {
+                arg++;
+                dictionaryFile = args[arg];
+            } else if (!batch.compress && args[arg].equals("-png")) {
+                batch.png = true;
+            } else if (batch.compress && args[arg].equals("-hybrid")) {
+                batch.hybrid = true;
+            } else if (batch.compress && args[arg].equals("-dag")) {
+                batch.shared = true;
+            } else if (batch.compress && args[arg].equals("-entropy")) {
+                batch.encoding = RITFormat.ENCODING_ARITHMETIC;
+            } else if (batch.compress && args[arg].equals("-streams")) {
+                batch.encoding = RITFormat.ENCODING_SPLIT_STREAMS;
+            } else if (batch.compress && args[arg].equals("-levels")) {
+                batch.encoding = RITFormat.ENCODING_LEVEL_ORDER;
+            } else if (batch.compress && args[arg].equals("-lossy") && arg + 2 < args.length) {
+                String[] metrics = {"range", "stddev", "maxerror"};
+                int metric = Arrays.asList(metrics).indexOf(args[arg + 1]);
+                if (metric < 0) {
+                    System.out.println("Unknown error metric: " + args[arg + 1]);
+                    return;
+                }
+                try {
+                    batch.errorBound = new ErrorBound(metric, Double.parseDouble(args[arg + 2]));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Bad error bound: " + args[arg + 2]);
+                    return;
+                }
+                arg += 2;
+            } else {
+                System.out.println("Unknown option: " + args[arg]);
+                return;
+            }
+            arg++;
+        }
+        if (args.length - arg != 2) {
+            usage();
+            return;
+        }
+        if ((batch.encoding == RITFormat.ENCODING_SPLIT_STREAMS
+                || batch.encoding == RITFormat.ENCODING_LEVEL_ORDER) && batch.hybrid) {
+            System.out.println("-streams and -levels can't be combined with -hybrid");
+            return;
+        }
+        if (batch.encoding != RITFormat.ENCODING_PREORDER && (batch.shared || dictionaryFile != null)) {
+            System.out.println("-dag and -dict can't be combined with -entropy, -streams or -levels");
+            return;
+        }
+        File input = new File(args[arg]);
+        batch.outputDirectory = new File(args[arg + 1]);
+        if (queueLength == 0) {
+            queueLength = 2 * threads;
+        }
+
+        try {
+            if (dictionaryFile != null) {
+                batch.dictionary = RITDictionary.read(dictionaryFile);
+            }
+            if (!batch.outputDirectory.isDirectory() && !batch.outputDirectory.mkdirs()) {
+                throw new IOException("Can't make output directory " + batch.outputDirectory);
+            }
+            List<File> files = inputFiles(input);
+            batch.checkOutputFiles(files);
+            batch.run(files, threads, queueLength);
+        } catch (Exception e) {
+            System.err.println(e);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Rich Image Tool benchmark.  This program times the codec on raw image
+ * files and prints one line of results per image.
+ *
+ * $ java RITBenchmark tree|transform raw-file...
+ *
+ * The tree benchmark compares keeping the tree as QTNode objects with
+ * keeping it as flat arrays (see FlatQTree).  For each it reports the
+ * best time to compress, to write a binary file and to uncompress that
+ * file back into a tree, and the heap retained by the compressed QTree.
+ *
+ * The transform benchmark compares rotating, mirroring and cropping a
+ * binary file on its tree (see RITTransform.transform() and RITTransform.crop()) with
+ * uncompressing it, transforming the pixels and compressing them again.
+ * For each it reports the best time of both ways from the file to the
+ * bytes of the new file, and checks that they write the same file.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITBenchmark {
+    /** the number of times each measurement is repeated */
+    private final static int RUNS = 5;
+
+    /**
+     * Get the heap in use after collecting garbage.
+     *
+     * @return the bytes in use
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Benchmark the two tree representations on one image.
+     *
+     * @param inputFile the raw image file name
+     * @throws Exception if the image can't be compressed
+     */
+    private static void benchmarkTree(String inputFile) throws Exception {
+        File temp = File.createTempFile("bench", ".rit");
+        temp.deleteOnExit();
+        for (boolean flat : new boolean[] {false, true}) {
+            long compress = Long.MAX_VALUE;
+            long write = Long.MAX_VALUE;
+            long uncompress = Long.MAX_VALUE;
+            long heap = 0;
+            int nodes = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long before = usedHeap();
+                QTree tree = new QTree();
+                tree.setFlat(flat);
+                long start = System.nanoTime();
+                tree.compress(inputFile);
+                compress = Math.min(compress, System.nanoTime() - start);
+                heap = usedHeap() - before;
+                nodes = tree.getCompressedSize() - 1;
+
+                start = System.nanoTime();
+                tree.writeBinary(temp.getPath());
+                write = Math.min(write, System.nanoTime() - start);
+
+                QTree copy = new QTree();
+                copy.setFlat(flat);
+                start = System.nanoTime();
+                copy.uncompress(temp.getPath());
+                uncompress = Math.min(uncompress, System.nanoTime() - start);
+            }
+            System.out.printf("%-30s %-6s nodes %8d  compress %8.2f ms  write %8.2f ms  " +
+                            "uncompress %8.2f ms  heap %8d KB%n",
+                    new File(inputFile).getName(), flat ? "flat" : "object", nodes,
+                    compress / 1e6, write / 1e6, uncompress / 1e6, heap / 1024);
+        }
+    }
+
+    /**
+     * Benchmark the transforms on one image.
+     *
+     * @param inputFile the raw image file name
+     * @throws Exception if the image can't be compressed
+     */
+    private static void benchmarkTransform(String inputFile) throws Exception {
+        File temp = File.createTempFile("bench", ".rit");
+        temp.deleteOnExit();
+        QTree original = new QTree();
+        original.compress(inputFile);
+        original.writeBinary(temp.getPath());
+        int dim = original.getDim();
+        // every transform but the identity, then the lower right quadrant
+        for (int transform = RITTransform.ROTATE_90; transform <= RITTransform.TRANSVERSE + 1; transform++) {
+            boolean crop = transform > RITTransform.TRANSVERSE;
+            int size = Math.max(dim / 2, 1);
+            long onTree = Long.MAX_VALUE;
+            long onPixels = Long.MAX_VALUE;
+            byte treeFile[] = null;
+            byte pixelFile[] = null;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                QTree tree = new QTree();
+                tree.setFlat(true);
+                if (crop) {
+                    RITTransform.crop(tree, temp.getPath(), dim - size, dim - size, size);
+                } else {
+                    RITTransform.transform(tree, temp.getPath(), transform);
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                tree.writeBinary(out);
+                treeFile = out.toByteArray();
+                onTree = Math.min(onTree, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                QTree decoded = new QTree();
+                decoded.uncompress(temp.getPath());
+                int image[][] = decoded.getImage();
+                int moved[][];
+                if (crop) {
+                    moved = new int[size][];
+                    for (int r = 0; r < size; r++) {
+                        moved[r] = Arrays.copyOfRange(image[dim - size + r], dim - size, dim);
+                    }
+                } else {
+                    moved = new int[dim][dim];
+                    for (int r = 0; r < dim; r++) {
+                        for (int c = 0; c < dim; c++) {
+                            int to = RITTransform.moved(transform, r, c, dim);
+                            moved[to / dim][to % dim] = image[r][c];
+                        }
+                    }
+                }
+                QTree encoded = new QTree();
+                encoded.compress(moved);
+                out = new ByteArrayOutputStream();
+                encoded.writeBinary(out);
+                pixelFile = out.toByteArray();
+                onPixels = Math.min(onPixels, System.nanoTime() - start);
+            }
+            System.out.printf("%-30s %-10s on tree %8.2f ms  decode/encode %8.2f ms  %6.1fx  %s%n",
+                    new File(inputFile).getName(), crop ? "crop" : RITTransform.name(transform),
+                    onTree / 1e6, onPixels / 1e6, (double) onPixels / onTree,
+                    Arrays.equals(treeFile, pixelFile) ? "same file" : "DIFFERENT FILE");
+        }
+    }
+
+    /**
+     * The main routine.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java RITBenchmark tree|transform raw-file...");
+            return;
+        }
+
+        try {
+            for (int i = 1; i < args.length; i++) {
+                if (args[0].equals("tree")) {
+                    benchmarkTree(args[i]);
+                } else if (args[0].equals("transform")) {
+                    benchmarkTransform(args[i]);
+                } else {
+                    System.out.println("Unknown benchmark: " + args[0]);
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            System.err.println(e);
+        }
+    }
+}
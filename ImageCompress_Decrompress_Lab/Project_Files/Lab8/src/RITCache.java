@@ -0,0 +1,464 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache in front of a RITCodec for workloads that compress or
+ * uncompress the same images over and over.  Compressed files are cached
+ * by the content of the image they were compressed from and the settings
+ * of the codec, and uncompressed images by the content of the file and
+ * the dictionary of the codec, each named by a SHA-256 digest, so the
+ * same image is found however it came to be asked for again.
+ *
+ * The cache holds up to a budget of bytes, counting a compressed file by
+ * its length and an image by its pixels, and evicts the least recently
+ * used entries to stay within it.  The entries are spread over stripes by
+ * their digests, each with a lock and a share of the budget of its own,
+ * so threads looking up different images rarely wait on each other.  An
+ * entry bigger than a stripe's share isn't held in memory, so a cache of
+ * large images wants fewer stripes.  Two threads that miss on the same
+ * image at once both code it.
+ *
+ * If a directory is given, every entry is also written there, and looked
+ * for there before being coded, so the cache outlives the program.  An
+ * entry that is damaged there, found by decoding a compressed file or
+ * reading an image, is coded and written again.  The directory isn't
+ * bounded by the budget.
+ *
+ * The arrays handed out are the ones in the cache, so they must not be
+ * changed.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITCache {
+    /** the number of stripes unless told otherwise */
+    public final static int DEFAULT_STRIPES = 16;
+
+    /** the bytes counted for an entry besides its data */
+    private final static int ENTRY_OVERHEAD = 128;
+
+    /** a share of the cache with a lock of its own */
+    private static class Stripe {
+        /** the entries by digest, least recently used first */
+        final LinkedHashMap<String, Object> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        /** the bytes the entries take */
+        long bytes;
+    }
+
+    /** the stripes, a power of 2 of them */
+    private final Stripe stripes[];
+
+    /** the budget of each stripe */
+    private final long stripeBudget;
+
+    /** the directory entries are kept in as well, or null */
+    private final File directory;
+
+    /** the lookups found in memory */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** the lookups found in the directory */
+    private final AtomicLong diskHits = new AtomicLong();
+
+    /** the lookups that had to be coded */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** the entries evicted from memory */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a cache held only in memory.
+     *
+     * @param budget the most bytes to hold
+     */
+    public RITCache(long budget) {
+        this(budget, DEFAULT_STRIPES, null);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param budget the most bytes to hold in memory
+     * @param stripes the number of stripes, a power of 2
+     * @param directory the directory to keep the entries in as well, or
+     * null to keep them only in memory; it is made when first written
+     */
+    public RITCache(long budget, int stripes, File directory) {
+        if(budget < 0 || stripes < 1 || Integer.bitCount(stripes) != 1)
+        {
+            throw new IllegalArgumentException("Bad cache size: " + budget + " bytes in " + stripes + " stripes");
+        }
+        this.stripes = new Stripe[stripes];
+        for(int i = 0; i < stripes; i++)
+        {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeBudget = budget / stripes;
+        this.directory = directory;
+    }
+
+    /**
+     * Compress an image with a codec, or find the file it was compressed
+     * to before with the same settings.
+     *
+     * @param codec the codec, whose settings must not change during the
+     * call
+     * @param image the pixels of a 2^n x 2^n image, by row
+     * @return the binary RIT file
+     * @throws IOException if there are issues writing the image or reading
+     * or writing the directory
+     * @throws QTException if the image can't be written with the settings
+     */
+    public byte[] compress(RITCodec codec, int[][] image) throws IOException, QTException
+    {
+        for(int[] pixels : image)
+        {
+            if(pixels.length != image.length)
+            {
+                throw new IllegalArgumentException("Image is not square");
+            }
+        }
+        MessageDigest digest = digest();
+        digest.update((byte) 'C');
+        digest.update(codec.getSettings().getBytes(StandardCharsets.UTF_8));
+        ByteBuffer row = ByteBuffer.allocate(4 * Math.max(image.length, 1));
+        row.putInt(image.length);
+        digest.update(row.array(), 0, 4);
+        for(int[] pixels : image)
+        {
+            row.clear();
+            row.asIntBuffer().put(pixels);
+            digest.update(row.array(), 0, 4 * pixels.length);
+        }
+        String key = hex(digest.digest());
+        Object cached = get(key);
+        if(cached != null)
+        {
+            return (byte[]) cached;
+        }
+        File file = this.directory == null ? null : new File(this.directory, key + ".rit");
+        byte compressed[] = file == null ? null : readFile(file, codec, image.length);
+        if(compressed != null)
+        {
+            this.diskHits.incrementAndGet();
+        }
+        else
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            codec.compress(image, out);
+            compressed = out.toByteArray();
+            this.misses.incrementAndGet();
+            if(file != null)
+            {
+                store(file, compressed);
+            }
+        }
+        put(key, compressed);
+        return compressed;
+    }
+
+    /**
+     * Uncompress an ASCII or binary RIT file with a codec, or find the
+     * image it was uncompressed to before with the same dictionary.
+     *
+     * @param codec the codec, with the dictionary the file needs if any
+     * @param file the RIT file
+     * @return the pixels of the image, by row
+     * @throws IOException if there are issues reading the file or reading
+     * or writing the directory
+     * @throws QTException if the file is damaged
+     */
+    public int[][] uncompress(RITCodec codec, byte[] file) throws IOException, QTException
+    {
+        MessageDigest digest = digest();
+        digest.update((byte) 'U');
+        digest.update(codec.getDictionaryName().getBytes(StandardCharsets.UTF_8));
+        digest.update(file);
+        String key = hex(digest.digest());
+        Object cached = get(key);
+        if(cached != null)
+        {
+            return (int[][]) cached;
+        }
+        File pgm = this.directory == null ? null : new File(this.directory, key + ".pgm");
+        int image[][] = pgm == null ? null : readImage(pgm);
+        if(image != null)
+        {
+            this.diskHits.incrementAndGet();
+        }
+        else
+        {
+            image = codec.uncompress(new ByteArrayInputStream(file));
+            this.misses.incrementAndGet();
+            if(pgm != null)
+            {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageFiles.writePGM(image, out);
+                store(pgm, out.toByteArray());
+            }
+        }
+        put(key, image);
+        return image;
+    }
+
+    /**
+     * Read a compressed file from the directory.  It is only handed back
+     * if it decodes to an image of the right size.
+     *
+     * @param file the entry's file
+     * @param codec the codec, with the dictionary the file needs if any
+     * @param dim the square dimension of the image it was compressed from
+     * @return the compressed file, or null if it isn't there or is damaged
+     * @throws IOException if there are issues reading the directory
+     */
+    private static byte[] readFile(File file, RITCodec codec, int dim) throws IOException
+    {
+        if(!file.isFile())
+        {
+            return null;
+        }
+        byte bytes[] = Files.readAllBytes(file.toPath());
+        try
+        {
+            return codec.uncompress(ByteBuffer.wrap(bytes)).length == dim ? bytes : null;
+        }
+        catch(IOException | QTException e)
+        {
+            //damaged, so it is coded and written again
+            return null;
+        }
+    }
+
+    /**
+     * Read an uncompressed image from the directory.
+     *
+     * @param pgm the entry's file
+     * @return the pixels of the image, by row, or null if it isn't there or
+     * is damaged
+     */
+    private static int[][] readImage(File pgm)
+    {
+        if(!pgm.isFile())
+        {
+            return null;
+        }
+        try
+        {
+            return ImageFiles.readPGM(pgm.getPath());
+        }
+        catch(IOException e)
+        {
+            //damaged, so it is coded and written again
+            return null;
+        }
+    }
+
+    /**
+     * Get a digest to name an entry with.
+     *
+     * @return the digest
+     */
+    private static MessageDigest digest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+            //every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Write a digest out as hex.
+     *
+     * @param digest the digest
+     * @return the hex digits
+     */
+    private static String hex(byte[] digest)
+    {
+        StringBuilder hex = new StringBuilder(2 * digest.length);
+        for(byte b : digest)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Get the stripe an entry belongs in.
+     *
+     * @param key the entry's digest in hex
+     * @return the stripe
+     */
+    private Stripe stripe(String key)
+    {
+        //the digest is already well mixed
+        return this.stripes[Integer.parseInt(key.substring(0, 4), 16) & (this.stripes.length - 1)];
+    }
+
+    /**
+     * Look an entry up in memory, counting a hit if it is there.
+     *
+     * @param key the entry's digest in hex
+     * @return the entry, or null
+     */
+    private Object get(String key)
+    {
+        Stripe stripe = stripe(key);
+        Object value;
+        synchronized(stripe)
+        {
+            value = stripe.entries.get(key);
+        }
+        if(value != null)
+        {
+            this.hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Add an entry to memory, evicting the least recently used entries of
+     * its stripe to make room.  An entry bigger than a stripe's budget
+     * isn't kept.
+     *
+     * @param key the entry's digest in hex
+     * @param value the entry
+     */
+    private void put(String key, Object value)
+    {
+        long bytes = bytes(value);
+        if(bytes > this.stripeBudget)
+        {
+            return;
+        }
+        Stripe stripe = stripe(key);
+        synchronized(stripe)
+        {
+            if(stripe.entries.containsKey(key))
+            {
+                return;
+            }
+            stripe.entries.put(key, value);
+            stripe.bytes += bytes;
+            Iterator<Map.Entry<String, Object>> oldest = stripe.entries.entrySet().iterator();
+            while(stripe.bytes > this.stripeBudget)
+            {
+                stripe.bytes -= bytes(oldest.next().getValue());
+                oldest.remove();
+                this.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Get the bytes counted for an entry.
+     *
+     * @param value the entry
+     * @return the bytes
+     */
+    private static long bytes(Object value)
+    {
+        if(value instanceof byte[])
+        {
+            return ((byte[]) value).length + ENTRY_OVERHEAD;
+        }
+        int dim = ((int[][]) value).length;
+        return 4L * dim * dim + 16L * dim + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Write an entry to the directory.  It is written under another name
+     * and renamed, so a reader never finds half of it.
+     *
+     * @param file the file to write
+     * @param bytes the contents
+     * @throws IOException if there are issues writing the file
+     */
+    private static void store(File file, byte[] bytes) throws IOException
+    {
+        Files.createDirectories(file.getParentFile().toPath());
+        File temp = File.createTempFile("entry", ".tmp", file.getParentFile());
+        try
+        {
+            Files.write(temp.toPath(), bytes);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Get the number of lookups found in memory.
+     *
+     * @return the hits
+     */
+    public long getHits() { return this.hits.get(); }
+
+    /**
+     * Get the number of lookups found in the directory.
+     *
+     * @return the hits on disk
+     */
+    public long getDiskHits() { return this.diskHits.get(); }
+
+    /**
+     * Get the number of lookups that had to be coded.
+     *
+     * @return the misses
+     */
+    public long getMisses() { return this.misses.get(); }
+
+    /**
+     * Get the number of entries evicted from memory.
+     *
+     * @return the evictions
+     */
+    public long getEvictions() { return this.evictions.get(); }
+
+    /**
+     * Get the bytes held in memory.
+     *
+     * @return the bytes counted for every entry
+     */
+    public long getBytes()
+    {
+        long bytes = 0;
+        for(Stripe stripe : this.stripes)
+        {
+            synchronized(stripe)
+            {
+                bytes += stripe.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a string like "hits 10, disk hits 0, misses 2, evictions 0,
+     * 70144 bytes".
+     *
+     * @return the counters
+     */
+    @Override
+    public String toString()
+    {
+        return "hits " + getHits() + ", disk hits " + getDiskHits() + ", misses " + getMisses()
+                + ", evictions " + getEvictions() + ", " + getBytes() + " bytes";
+    }
+}
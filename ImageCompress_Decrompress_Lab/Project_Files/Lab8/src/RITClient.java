@@ -0,0 +1,242 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Rich Image Tool codec client.  This program has a running RITServer
+ * compress or uncompress an image, taking the same arguments as
+ * RITCompress and RITUncompress, or prints the server's stats.
+ *
+ * $ java RITClient compress [-port port] [-lossy range|stddev|maxerror bound]
+ *          [-hybrid] [-entropy | -streams | -levels] [-dag]
+ *          input-file output-file
+ * $ java RITClient uncompress [-port port] [-o image.pgm|image.png] filename
+ * $ java RITClient stats [-port port]
+ *
+ * Compressing always writes a binary file.  The image is read here and
+ * sent as pixels; the RIT file is sent as it is to be uncompressed, and
+ * the image is written or displayed here.  Programs can keep a client
+ * open and send it any number of requests over the one connection.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITClient implements Closeable {
+    /** the connection to the server */
+    private final Socket socket;
+
+    /** the stream of requests */
+    private final DataOutputStream out;
+
+    /** the stream of responses */
+    private final DataInputStream in;
+
+    /**
+     * Connect to a server on this machine.
+     *
+     * @param port the port the server listens on
+     * @throws IOException if the server can't be reached
+     */
+    public RITClient(int port) throws IOException {
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    /**
+     * Send a request and wait for its response.
+     *
+     * @param op the operation
+     * @param body the body of the request
+     * @return the body of the response
+     * @throws IOException if there are issues with the connection
+     * @throws QTException if the server couldn't do the request
+     */
+    private byte[] request(int op, byte[] body) throws IOException, QTException {
+        out.write(op);
+        out.writeInt(body.length);
+        out.write(body);
+        out.flush();
+        int status = in.read();
+        if (status < 0) {
+            throw new EOFException("The server closed the connection");
+        }
+        byte response[] = new byte[in.readInt()];
+        in.readFully(response);
+        if (status != RITServer.OK) {
+            throw new QTException(new String(response, StandardCharsets.UTF_8));
+        }
+        return response;
+    }
+
+    /**
+     * Have the server compress an image.
+     *
+     * @param image the pixels of a 2^n x 2^n image, by row
+     * @param flags RITServer.HYBRID and RITServer.SHARED, or 0
+     * @param encoding the encoding (see RITFormat)
+     * @param errorBound the bound on the error, or null for lossless
+     * @return the binary RIT file
+     * @throws IOException if there are issues with the connection
+     * @throws QTException if the server couldn't compress the image
+     */
+    public byte[] compress(int[][] image, int flags, int encoding, ErrorBound errorBound)
+            throws IOException, QTException {
+        int dim = image.length;
+        ByteBuffer body = ByteBuffer.allocate(15 + dim * dim);
+        body.put((byte) flags);
+        body.put((byte) encoding);
+        body.put((byte) (errorBound == null ? -1 : errorBound.getMetric()));
+        body.putDouble(errorBound == null ? 0 : errorBound.getBound());
+        body.putInt(dim);
+        for (int[] row : image) {
+            if (row.length != dim) {
+                throw new IllegalArgumentException("Image is not square");
+            }
+            for (int pixel : row) {
+                body.put((byte) pixel);
+            }
+        }
+        return request(RITServer.COMPRESS, body.array());
+    }
+
+    /**
+     * Have the server uncompress a RIT file.
+     *
+     * @param file the ASCII or binary RIT file
+     * @return the pixels of the image, by row
+     * @throws IOException if there are issues with the connection
+     * @throws QTException if the server couldn't uncompress the file
+     */
+    public int[][] uncompress(byte[] file) throws IOException, QTException {
+        ByteBuffer response = ByteBuffer.wrap(request(RITServer.UNCOMPRESS, file));
+        int dim = response.getInt();
+        int image[][] = new int[dim][dim];
+        for (int[] row : image) {
+            for (int c = 0; c < dim; c++) {
+                row[c] = response.get() & 0xFF;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Get the server's stats.
+     *
+     * @return the stats, a line each
+     * @throws IOException if there are issues with the connection
+     * @throws QTException if the server couldn't answer
+     */
+    public String stats() throws IOException, QTException {
+        return new String(request(RITServer.STATS, new byte[0]), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Print the usage message.
+     */
+    private static void usage() {
+        System.out.println("Usage: java RITClient compress [-port port] " +
+                "[-lossy range|stddev|maxerror bound] [-hybrid] [-entropy | -streams | -levels] [-dag] " +
+                "input-file output-file");
+        System.out.println("       java RITClient uncompress [-port port] [-o image.pgm|image.png] filename");
+        System.out.println("       java RITClient stats [-port port]");
+    }
+
+    /**
+     * The main routine.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            usage();
+            return;
+        }
+        String command = args[0];
+        int port = RITServer.DEFAULT_PORT;
+        ErrorBound errorBound = null;
+        int flags = 0;
+        int encoding = RITFormat.ENCODING_PREORDER;
+        String imageFile = null;
+        int arg = 1;
+        // consume the options in front of the file names
+        while (arg < args.length && args[arg].startsWith("-")) {
+            if (args[arg].equals("-port") && arg + 1 < args.length) {
+                arg++;
+                try {
+                    port = Integer.parseInt(args[arg]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Bad port: " + args[arg]);
+                    return;
+                }
+            } else if (command.equals("uncompress") && args[arg].equals("-o") && arg + 1 < args.length) {
+                arg++;
+                imageFile = args[arg];
+            } else if (command.equals("compress") && args[arg].equals("-hybrid")) {
+                flags |= RITServer.HYBRID;
+            } else if (command.equals("compress") && args[arg].equals("-dag")) {
+                flags |= RITServer.SHARED;
+            } else if (command.equals("compress") && args[arg].equals("-entropy")) {
+                encoding = RITFormat.ENCODING_ARITHMETIC;
+            } else if (command.equals("compress") && args[arg].equals("-streams")) {
+                encoding = RITFormat.ENCODING_SPLIT_STREAMS;
+            } else if (command.equals("compress") && args[arg].equals("-levels")) {
+                encoding = RITFormat.ENCODING_LEVEL_ORDER;
+            } else if (command.equals("compress") && args[arg].equals("-lossy") && arg + 2 < args.length) {
+                String[] metrics = {"range", "stddev", "maxerror"};
+                int metric = Arrays.asList(metrics).indexOf(args[arg + 1]);
+                if (metric < 0) {
+                    System.out.println("Unknown error metric: " + args[arg + 1]);
+                    return;
+                }
+                try {
+                    errorBound = new ErrorBound(metric, Double.parseDouble(args[arg + 2]));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Bad error bound: " + args[arg + 2]);
+                    return;
+                }
+                arg += 2;
+            } else {
+                System.out.println("Unknown option: " + args[arg]);
+                return;
+            }
+            arg++;
+        }
+        int files = args.length - arg;
+        if (!(command.equals("compress") && files == 2) && !(command.equals("uncompress") && files == 1)
+                && !(command.equals("stats") && files == 0)) {
+            usage();
+            return;
+        }
+
+        try (RITClient client = new RITClient(port)) {
+            if (command.equals("stats")) {
+                System.out.print(client.stats());
+            } else if (command.equals("compress")) {
+                int image[][] = ImageFiles.read(args[arg]);
+                byte file[] = client.compress(image, flags, encoding, errorBound);
+                Files.write(Paths.get(args[arg + 1]), file);
+                System.out.println("Raw image size: " + image.length * image.length);
+                System.out.println("File size (bytes): " + file.length);
+            } else {
+                int image[][] = client.uncompress(Files.readAllBytes(Paths.get(args[arg])));
+                if (imageFile != null) {
+                    ImageFiles.write(image, imageFile);
+                } else {
+                    new RITViewer(image, image.length).display(args[arg]);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println(e);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compresses and uncompresses RIT images held in memory, for programs
+ * that have the pixels or the compressed bytes at hand rather than files.
+ * Images are compressed from rows of pixels, a single array of them or a
+ * BufferedImage into binary RIT images (see RITFormat) written to a
+ * stream or returned in a buffer, and uncompressed from a stream or a
+ * buffer.
+ *
+ * A codec can be used by any number of threads at once.  Every call works
+ * on a tree of its own, set up with the codec's settings as they are when
+ * the call starts; the settings mean what they do for a QTree.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITCodec {
+    /** the engine to build the trees with */
+    private volatile int engine;
+
+    /** the bound on the error of lossy compression, or null for lossless */
+    private volatile ErrorBound errorBound;
+
+    /** whether to store regions as raw blocks where that's cheaper */
+    private volatile boolean hybrid;
+
+    /** whether to share identical subtrees */
+    private volatile boolean shared;
+
+    /** how the compressed values are laid out */
+    private volatile int encoding;
+
+    /** the dictionary to compress and uncompress with, or null */
+    private volatile RITDictionary dictionary;
+
+    /**
+     * Create a codec that compresses losslessly into plain binary files.
+     */
+    public RITCodec() {
+        this.engine = QTree.SCAN_ENGINE;
+        this.errorBound = null;
+        this.hybrid = false;
+        this.shared = false;
+        this.encoding = RITFormat.ENCODING_PREORDER;
+        this.dictionary = null;
+    }
+
+    /**
+     * Choose how the trees are built (see QTree.setEngine()).
+     *
+     * @param engine SCAN_ENGINE or PYRAMID_ENGINE
+     */
+    public void setEngine(int engine)
+    {
+        //the tree checks the setting
+        new QTree().setEngine(engine);
+        this.engine = engine;
+    }
+
+    /**
+     * Compress lossily (see QTree.setErrorBound()).
+     *
+     * @param errorBound the bound, or null to compress losslessly
+     */
+    public void setErrorBound(ErrorBound errorBound)
+    {
+        this.errorBound = errorBound;
+    }
+
+    /**
+     * Store regions as raw blocks where that's cheaper (see
+     * QTree.setHybrid()).
+     *
+     * @param hybrid whether to store raw blocks
+     */
+    public void setHybrid(boolean hybrid)
+    {
+        this.hybrid = hybrid;
+    }
+
+    /**
+     * Share identical subtrees (see QTree.setShared()).
+     *
+     * @param shared whether to share subtrees
+     */
+    public void setShared(boolean shared)
+    {
+        this.shared = shared;
+    }
+
+    /**
+     * Choose how the compressed values are laid out (see
+     * QTree.setEncoding()).
+     *
+     * @param encoding the encoding
+     */
+    public void setEncoding(int encoding)
+    {
+        //the tree checks the setting
+        new QTree().setEncoding(encoding);
+        this.encoding = encoding;
+    }
+
+    /**
+     * Compress and uncompress with a dictionary (see QTree.setDictionary()).
+     *
+     * @param dictionary the dictionary, or null for none
+     */
+    public void setDictionary(RITDictionary dictionary)
+    {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Describe the settings that change what the codec compresses an image
+     * to, so that files compressed with different settings can be told
+     * apart (see RITCache).
+     *
+     * @return the settings
+     */
+    String getSettings()
+    {
+        return this.errorBound + "/" + this.hybrid + "/" + this.shared + "/" + this.encoding + "/"
+                + getDictionaryName();
+    }
+
+    /**
+     * Name the dictionary the codec uncompresses with, which decides what
+     * a file that uses one uncompresses to (see RITCache).
+     *
+     * @return the checksum of the dictionary in hex, or "none"
+     */
+    String getDictionaryName()
+    {
+        RITDictionary dictionary = this.dictionary;
+        return dictionary == null ? "none" : Integer.toHexString(dictionary.getChecksum());
+    }
+
+    /**
+     * Make a tree with the codec's settings.
+     *
+     * @return the tree
+     */
+    private QTree newTree()
+    {
+        QTree tree = new QTree();
+        tree.setEngine(this.engine);
+        tree.setErrorBound(this.errorBound);
+        tree.setHybrid(this.hybrid);
+        tree.setShared(this.shared);
+        tree.setEncoding(this.encoding);
+        tree.setDictionary(this.dictionary);
+        return tree;
+    }
+
+    /**
+     * Compress an image into a stream.  The stream is not closed.
+     *
+     * @param image the pixels of a 2^n x 2^n image, by row; they are not
+     * changed
+     * @param out the stream to write the binary RIT image to
+     * @throws IOException if there are issues writing the stream
+     * @throws QTException if the image can't be written with the settings
+     */
+    public void compress(int[][] image, OutputStream out) throws IOException, QTException
+    {
+        QTree tree = newTree();
+        tree.compress(image);
+        tree.writeBinary(out);
+    }
+
+    /**
+     * Check that an image held as a single array is 2^n x 2^n pixels, before
+     * it is copied into rows.
+     *
+     * @param length the number of pixels in the array
+     * @param dim the square dimension of the image
+     */
+    private static void checkDim(int length, int dim)
+    {
+        if(Integer.bitCount(dim) != 1)
+        {
+            throw new IllegalArgumentException("Image is " + dim + "x" + dim + ", not a power of 2");
+        }
+        if(length != (long) dim * dim)
+        {
+            throw new IllegalArgumentException("Expected " + dim + "x" + dim + " pixels, not " + length);
+        }
+    }
+
+    /**
+     * Compress an image held as a single array of pixels into a stream.
+     *
+     * @param pixels the pixels of a 2^n x 2^n image, row after row
+     * @param dim the square dimension of the image
+     * @param out the stream to write the binary RIT image to
+     * @throws IOException if there are issues writing the stream
+     * @throws QTException if the image can't be written with the settings
+     */
+    public void compress(int[] pixels, int dim, OutputStream out) throws IOException, QTException
+    {
+        checkDim(pixels.length, dim);
+        int image[][] = new int[dim][];
+        for(int r = 0; r < dim; r++)
+        {
+            image[r] = Arrays.copyOfRange(pixels, r * dim, (r + 1) * dim);
+        }
+        compress(image, out);
+    }
+
+    /**
+     * Compress an image held as a single array of unsigned bytes, one per
+     * pixel, into a stream.
+     *
+     * @param pixels the pixels of a 2^n x 2^n image, row after row
+     * @param dim the square dimension of the image
+     * @param out the stream to write the binary RIT image to
+     * @throws IOException if there are issues writing the stream
+     * @throws QTException if the image can't be written with the settings
+     */
+    public void compress(byte[] pixels, int dim, OutputStream out) throws IOException, QTException
+    {
+        checkDim(pixels.length, dim);
+        int image[][] = new int[dim][dim];
+        for(int r = 0; r < dim; r++)
+        {
+            for(int c = 0; c < dim; c++)
+            {
+                image[r][c] = pixels[r * dim + c] & 0xFF;
+            }
+        }
+        compress(image, out);
+    }
+
+    /**
+     * Compress a square image into a stream.  An image that isn't 8-bit
+     * grayscale is converted to it first.
+     *
+     * @param image the image
+     * @param out the stream to write the binary RIT image to
+     * @throws IOException if there are issues writing the stream
+     * @throws QTException if the image can't be written with the settings
+     */
+    public void compress(BufferedImage image, OutputStream out) throws IOException, QTException
+    {
+        compress(ImageFiles.getPixels(image), out);
+    }
+
+    /**
+     * Compress an image into a buffer.
+     *
+     * @param image the pixels of a 2^n x 2^n image, by row; they are not
+     * changed
+     * @return a buffer holding the binary RIT image
+     * @throws IOException if there are issues writing the image
+     * @throws QTException if the image can't be written with the settings
+     */
+    public ByteBuffer compress(int[][] image) throws IOException, QTException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compress(image, out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Uncompress a binary RIT image held in a buffer.  The buffer's
+     * position is left where it was.
+     *
+     * @param buffer the compressed image, from its position to its limit
+     * @return the pixels of the image, by row
+     * @throws IOException if there are issues reading the image
+     * @throws QTException if the image is damaged
+     */
+    public int[][] uncompress(ByteBuffer buffer) throws IOException, QTException
+    {
+        QTree tree = newTree();
+        tree.uncompress(buffer.duplicate());
+        return tree.getImage();
+    }
+
+    /**
+     * Uncompress an ASCII or binary RIT image read from a stream (see
+     * QTree.uncompress(InputStream)).  The stream is not closed.
+     *
+     * @param in the stream holding the compressed image
+     * @return the pixels of the image, by row
+     * @throws IOException if there are issues reading the stream
+     * @throws QTException if the image is damaged
+     */
+    public int[][] uncompress(InputStream in) throws IOException, QTException
+    {
+        QTree tree = newTree();
+        tree.uncompress(in);
+        return tree.getImage();
+    }
+
+    /**
+     * Uncompress a binary RIT image held in a buffer into an 8-bit
+     * grayscale BufferedImage.  The buffer's position is left where it was.
+     *
+     * @param buffer the compressed image, from its position to its limit
+     * @return the image
+     * @throws IOException if there are issues reading the image
+     * @throws QTException if the image is damaged
+     */
+    public BufferedImage uncompressImage(ByteBuffer buffer) throws IOException, QTException
+    {
+        return ImageFiles.toImage(uncompress(buffer));
+    }
+}
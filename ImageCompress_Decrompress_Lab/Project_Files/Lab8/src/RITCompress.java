@@ -1,11 +1,52 @@
+import java.io.File;
+import java.util.Arrays;
+
 /**
  * Rich Image Tool compressor.  This program takes a raw image file of
  * grayscale values (0-255) and compresses them into the RIT format.
  * It is expected this raw image file is perfectly square, e.g.
  * 1x1, 2x2, 4x4, 16x16, 256x256, 512x512.  In other words, there
- * are 2^n x 2^n pixels.
+ * are 2^n x 2^n pixels.  Binary PGM (P5) and 8-bit grayscale PNG images
+ * are accepted as well, and told apart by their contents.
+ *
+ * $ java RITCompress [-binary] [-engine scan|pyramid] [-parallel size]
+ *          [-index depth] [-flat] [-lossy range|stddev|maxerror bound]
+ *          [-hybrid] [-entropy | -streams | -levels] [-dag] [-dict dictionary]
+ *          [-tile size] input-file output-file
  *
- * $ java RITCompress input-file output-file
+ * By default the compressed image is written in the ASCII format.  The
+ * -binary option writes the smaller, faster to read binary format
+ * instead (see RITFormat).  RITUncompress detects which one it is given.
+ * The -engine option picks how the tree is built; both engines produce
+ * the same file, but the pyramid engine does not rescan every block at
+ * every level.  The -parallel option compresses regions larger than
+ * size x size on separate threads.  The -index option writes a binary
+ * file with an index of the nodes down to depth, which lets RITUncompress
+ * decode the quadrants of the image in parallel.  The -flat option keeps
+ * the tree in flat arrays rather than nodes while compressing.  The
+ * -lossy option collapses every block whose range, standard deviation or
+ * largest error against its mean is within bound into the block's mean,
+ * and reports how far the result is from the raw image.  The -hybrid
+ * option stores regions that are cheaper as raw pixels than as a subtree
+ * as raw blocks.  The -entropy option writes a binary file with the values
+ * arithmetic coded, which is smaller but can't carry an index.  The
+ * -streams option writes a binary file with the shape of the tree stored
+ * as a bit per node apart from the leaf colors; it can't be combined with
+ * -hybrid or -index.  The -levels option writes a binary file a level of
+ * the tree at a time, with the mean of every split, so RITUncompress can
+ * show the whole image coarse as soon as it starts reading and refine it;
+ * it can't be combined with -hybrid or -index either.  The -dag option
+ * shares identical subtrees and writes a binary file with every repeat
+ * of one as a reference back to the first (see QTree.setShared()), and
+ * reports how much was shared; it only applies to plain binary files, so
+ * it can't be combined with -index, -flat or the other encodings.  The
+ * -dict option writes a binary file with every subtree found in a
+ * dictionary built by RITDictionary as a reference to its entry; the same
+ * dictionary is needed to uncompress it, and like -dag it only applies to
+ * plain binary files, not tiled ones.  The -tile option writes a tiled container (see
+ * RITTiles) of size x size tiles, each compressed with the other options,
+ * reading the image a band of tiles at a time; the image can be any shape,
+ * but only binary PGM and ASCII raw input can be tiled.
  *
  * @author Sean Strout @ RIT
  * @author Benjamin Mitchell
@@ -18,29 +59,198 @@ public class RITCompress {
      * @param args command line arguments
      */
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.out.println("Usage: java RITCompress input-file output-file");
+        boolean binary = false;
+        int engine = QTree.SCAN_ENGINE;
+        int parallelThreshold = 0;
+        int indexDepth = 0;
+        int tileSize = 0;
+        boolean flat = false;
+        ErrorBound errorBound = null;
+        boolean hybrid = false;
+        boolean shared = false;
+        String dictionaryFile = null;
+        int encoding = RITFormat.ENCODING_PREORDER;
+        int arg = 0;
+        // consume the options in front of the file names
+        while (arg < args.length && args[arg].startsWith("-")) {
+            if (args[arg].equals("-binary")) {
+                binary = true;
+            } else if (args[arg].equals("-flat")) {
+                flat = true;
+            } else if (args[arg].equals("-hybrid")) {
+                hybrid = true;
+            } else if (args[arg].equals("-entropy")) {
+                // only the binary format is entropy coded
+                encoding = RITFormat.ENCODING_ARITHMETIC;
+                binary = true;
+            } else if (args[arg].equals("-streams")) {
+                encoding = RITFormat.ENCODING_SPLIT_STREAMS;
+                binary = true;
+            } else if (args[arg].equals("-dag")) {
+                // only the binary format has references
+                shared = true;
+                binary = true;
+            } else if (args[arg].equals("-dict") && arg + 1 < args.length) {
+                // only the binary format refers to a dictionary
+                arg++;
+                dictionaryFile = args[arg];
+                binary = true;
+            } else if (args[arg].equals("-levels")) {
+                encoding = RITFormat.ENCODING_LEVEL_ORDER;
+                binary = true;
+            } else if (args[arg].equals("-lossy") && arg + 2 < args.length) {
+                String[] metrics = {"range", "stddev", "maxerror"};
+                int metric = Arrays.asList(metrics).indexOf(args[arg + 1]);
+                if (metric < 0) {
+                    System.out.println("Unknown error metric: " + args[arg + 1]);
+                    return;
+                }
+                try {
+                    errorBound = new ErrorBound(metric, Double.parseDouble(args[arg + 2]));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Bad error bound: " + args[arg + 2]);
+                    return;
+                }
+                arg += 2;
+            } else if (args[arg].equals("-engine") && arg + 1 < args.length) {
+                arg++;
+                if (args[arg].equals("scan")) {
+                    engine = QTree.SCAN_ENGINE;
+                } else if (args[arg].equals("pyramid")) {
+                    engine = QTree.PYRAMID_ENGINE;
+                } else {
+                    System.out.println("Unknown engine: " + args[arg]);
+                    return;
+                }
+            } else if (args[arg].equals("-parallel") && arg + 1 < args.length) {
+                arg++;
+                try {
+                    parallelThreshold = Integer.parseInt(args[arg]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Bad parallel size: " + args[arg]);
+                    return;
+                }
+            } else if (args[arg].equals("-index") && arg + 1 < args.length) {
+                arg++;
+                try {
+                    indexDepth = Integer.parseInt(args[arg]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Bad index depth: " + args[arg]);
+                    return;
+                }
+                // only the binary format can carry an index
+                binary = true;
+            } else if (args[arg].equals("-tile") && arg + 1 < args.length) {
+                arg++;
+                try {
+                    tileSize = Integer.parseInt(args[arg]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Bad tile size: " + args[arg]);
+                    return;
+                }
+                if (tileSize < 1 || Integer.bitCount(tileSize) != 1) {
+                    System.out.println("Tile size must be a power of 2: " + args[arg]);
+                    return;
+                }
+            } else {
+                System.out.println("Unknown option: " + args[arg]);
+                return;
+            }
+            arg++;
+        }
+        if (args.length - arg != 2) {
+            System.out.println("Usage: java RITCompress [-binary] [-engine scan|pyramid] " +
+                    "[-parallel size] [-index depth] [-flat] " +
+                    "[-lossy range|stddev|maxerror bound] [-hybrid] [-entropy | -streams | -levels] [-dag] [-dict dictionary] [-tile size] " +
+                    "input-file output-file");
+            return;
+        }
+        if (encoding != RITFormat.ENCODING_PREORDER && indexDepth > 0) {
+            System.out.println("-entropy, -streams and -levels can't be combined with -index");
+            return;
+        }
+        if ((encoding == RITFormat.ENCODING_SPLIT_STREAMS || encoding == RITFormat.ENCODING_LEVEL_ORDER) && hybrid) {
+            System.out.println("-streams and -levels can't be combined with -hybrid");
+            return;
+        }
+        if (shared && (encoding != RITFormat.ENCODING_PREORDER || indexDepth > 0 || flat)) {
+            System.out.println("-dag can't be combined with -index, -flat, -entropy, -streams or -levels");
             return;
         }
+        if (dictionaryFile != null
+                && (encoding != RITFormat.ENCODING_PREORDER || indexDepth > 0 || flat || tileSize > 0)) {
+            System.out.println("-dict can't be combined with -index, -flat, -tile, -entropy, -streams or -levels");
+            return;
+        }
+        String inputFile = args[arg];
+        String outputFile = args[arg + 1];
 
         try {
             // initialize the tree
             QTree tree = new QTree();
+            tree.setEngine(engine);
+            tree.setParallelThreshold(parallelThreshold);
+            tree.setIndexDepth(indexDepth);
+            tree.setFlat(flat);
+            tree.setErrorBound(errorBound);
+            tree.setHybrid(hybrid);
+            tree.setShared(shared);
+            if (dictionaryFile != null) {
+                tree.setDictionary(RITDictionary.read(dictionaryFile));
+            }
+            tree.setEncoding(encoding);
+
+            // a tiled image is compressed a band at a time, straight to the file
+            if (tileSize > 0) {
+                long compressed = RITTiles.compress(tree, inputFile, outputFile, tileSize);
+                try (RITTiles tiles = new RITTiles(outputFile)) {
+                    long rawSize = (long) tiles.getWidth() * tiles.getHeight();
+                    System.out.println("Tiles: " + tiles.getTilesAcross() + "x" + tiles.getTilesDown() +
+                            " of " + tileSize + "x" + tileSize);
+                    System.out.println("Raw image size: " + rawSize);
+                    System.out.println("Compressed image size: " + compressed);
+                    System.out.println("Compression %: " + (1.0 - (double) compressed / rawSize) * 100);
+                    System.out.println("File size (bytes): " + new File(outputFile).length());
+                }
+                return;
+            }
 
             // compress the image
-            tree.compress(args[0]);
+            tree.compress(inputFile);
 
             // display the tree in preorder
             System.out.println(tree);
 
             // write the compressed tree out to output-file
-            tree.write(args[1]);
+            if (binary) {
+                tree.writeBinary(outputFile);
+            } else {
+                tree.write(outputFile);
+            }
 
             // display statistics regarding the compression efficiency
             System.out.println("Raw image size: " + tree.getRawSize());
             System.out.println("Compressed image size: " + tree.getCompressedSize());
             System.out.println("Compression %: " +
                    (1.0 - (double) tree.getCompressedSize() / tree.getRawSize()) * 100);
+            if (encoding != RITFormat.ENCODING_PREORDER || shared || dictionaryFile != null) {
+                System.out.println("File size (bytes): " + new File(outputFile).length());
+            }
+            if (shared) {
+                System.out.println("Shared nodes: " + tree.getSharedNodes());
+                System.out.println("References: " + tree.getReferences());
+            }
+            if (dictionaryFile != null) {
+                System.out.println("Dictionary entries used: " + tree.getEntryReferences());
+            }
+            if (errorBound != null) {
+                double mse = tree.getMeanSquaredError();
+                System.out.println("Error bound: " + errorBound);
+                System.out.println("Max error: " + tree.getMaxError());
+                System.out.println("RMS error: " + Math.sqrt(mse));
+                System.out.println("PSNR (dB): " +
+                        (mse == 0 ? "infinite" : 10 * Math.log10(255.0 * 255.0 / mse)));
+            }
         } catch (Exception e) {
             System.err.println(e);
         }
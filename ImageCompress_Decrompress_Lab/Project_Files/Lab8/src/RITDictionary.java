@@ -0,0 +1,437 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A dictionary of subtrees that occur often across a corpus of similar
+ * images, such as shared borders, logos and backgrounds.  A binary RIT
+ * file compressed with a dictionary (see QTree.setDictionary()) refers to
+ * an entry by its number instead of writing the subtree out, and can only
+ * be read with the same dictionary, which the file names by checksum.
+ *
+ * A dictionary is built once from a training set of images and never
+ * changes after, so one loaded dictionary can be shared by any number of
+ * trees and threads, and a batch job reads it only once.
+ *
+ * The dictionary file is:
+ *
+ *      - a 4 byte magic number, "RITD"
+ *      - a version byte
+ *      - the number of entries as a varint
+ *      - for each entry, the size of its region and the length of its
+ *        values as varints, then its values as byte packed preorder (see
+ *        RITFormat), without references
+ *
+ * Entries are numbered in the order they are stored, the most useful
+ * first, so the common ones take the fewest bytes to refer to.
+ *
+ * $ java RITDictionary [-entries count] [-lossy range|stddev|maxerror bound]
+ *          dictionary-file training-file...
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITDictionary {
+    /** the magic number at the start of a dictionary file */
+    public final static byte[] MAGIC = {'R', 'I', 'T', 'D'};
+
+    /** the current version of the dictionary format */
+    public final static int VERSION = 1;
+
+    /** the fewest bytes a subtree takes to be worth an entry */
+    public final static int MIN_LENGTH = 8;
+
+    /** the most entries kept when none is asked for */
+    public final static int DEFAULT_ENTRIES = 4096;
+
+    /** the bytes of the dictionary file */
+    private final byte data[];
+
+    /** where each entry's values start in the file */
+    private final int offsets[];
+
+    /** the number of bytes of each entry's values */
+    private final int lengths[];
+
+    /** the length of the dictionary file */
+    private final int end;
+
+    /** the size of the region of each entry */
+    private final int sizes[];
+
+    /** the number of each entry by the hash of its subtree */
+    private final Map<Long, Integer> ids;
+
+    /** the checksum of the dictionary file */
+    private final int checksum;
+
+    /**
+     * Load a dictionary from the bytes of its file.
+     *
+     * @param data the bytes of the file, which are kept
+     * @throws QTException if the bytes aren't a dictionary
+     */
+    private RITDictionary(byte[] data) throws QTException {
+        this.data = data;
+        ByteBuffer in = ByteBuffer.wrap(data);
+        for(byte b : MAGIC)
+        {
+            if(!in.hasRemaining() || in.get() != b)
+            {
+                throw new QTException("Error reading dictionary.  Not a RIT dictionary.");
+            }
+        }
+        if(!in.hasRemaining() || in.get() != VERSION)
+        {
+            throw new QTException("Error reading dictionary.  Unsupported dictionary version.");
+        }
+        int count = RITFormat.readVarint(in);
+        if(count < 0 || count > in.remaining())
+        {
+            throw new QTException("Error reading dictionary.  Bad entry count.");
+        }
+        this.offsets = new int[count];
+        this.lengths = new int[count];
+        this.sizes = new int[count];
+        this.ids = new HashMap<>();
+        for(int id = 0; id < count; id++)
+        {
+            int size = RITFormat.readVarint(in);
+            int length = RITFormat.readVarint(in);
+            if(size < 1 || Integer.bitCount(size) != 1 || length < 0 || length > in.remaining())
+            {
+                throw new QTException("Error reading dictionary.  Bad entry " + id + ".");
+            }
+            this.sizes[id] = size;
+            this.offsets[id] = in.position();
+            this.lengths[id] = length;
+            //the entry has to be exactly one subtree of its size
+            ByteBuffer values = ByteBuffer.wrap(data, in.position(), length).slice();
+            long hash = hash(new BinaryPreorderSource(values), size);
+            if(values.hasRemaining())
+            {
+                throw new QTException("Error reading dictionary.  Bad entry " + id + ".");
+            }
+            this.ids.putIfAbsent(hash, id);
+            in.position(in.position() + length);
+        }
+        this.end = in.position();
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, this.end);
+        this.checksum = (int) crc.getValue();
+    }
+
+    /**
+     * Read a dictionary file.
+     *
+     * @param filename the name of the dictionary file
+     * @return the dictionary
+     * @throws IOException if there are issues reading the file
+     * @throws QTException if the file isn't a dictionary
+     */
+    public static RITDictionary read(String filename) throws IOException, QTException
+    {
+        return new RITDictionary(Files.readAllBytes(Paths.get(filename)));
+    }
+
+    /**
+     * Write the dictionary to a file.
+     *
+     * @param filename the name of the file to write
+     * @throws IOException if there are issues writing the file
+     */
+    public void write(String filename) throws IOException
+    {
+        try(OutputStream out = new FileOutputStream(filename))
+        {
+            out.write(this.data, 0, this.end);
+        }
+    }
+
+    /**
+     * Build a dictionary from a training set of images.  Each image is
+     * compressed with the tree's settings and the subtrees of every image
+     * counted; the subtrees that would save the most bytes across the set
+     * become the entries.  The images are compressed a second time to
+     * collect the chosen subtrees, so only one image is held at a time.
+     *
+     * @param tree the tree to compress the images with, which must not
+     * be flat
+     * @param filenames the names of the training images
+     * @param maxEntries the most entries to keep
+     * @return the dictionary
+     * @throws IOException if there are issues reading the images
+     * @throws QTException if an image can't be compressed into nodes
+     */
+    public static RITDictionary build(QTree tree, List<String> filenames, int maxEntries)
+            throws IOException, QTException
+    {
+        if(maxEntries < 0)
+        {
+            throw new IllegalArgumentException("Bad entry count: " + maxEntries);
+        }
+        //how often each subtree occurs, how many bytes it takes and its size
+        Map<Long, long[]> counts = new HashMap<>();
+        for(String filename : filenames)
+        {
+            tree.compress(filename);
+            tree.subtrees(counts, null);
+        }
+        List<long[]> candidates = new ArrayList<>();
+        for(Map.Entry<Long, long[]> entry : counts.entrySet())
+        {
+            long count[] = entry.getValue();
+            //a subtree seen once saves nothing for the rest of the corpus
+            long saving = count[0] * (count[1] - BinaryPreorderSink.referenceLength(maxEntries));
+            if(count[0] > 1 && saving > 0)
+            {
+                candidates.add(new long[]{entry.getKey(), saving, count[2]});
+            }
+        }
+        counts = null;
+        //the most bytes saved first
+        candidates.sort(new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b)
+            {
+                return Long.compare(b[1], a[1]);
+            }
+        });
+        Map<Long, byte[]> wanted = new HashMap<>();
+        for(int i = 0; i < candidates.size() && i < maxEntries; i++)
+        {
+            wanted.put(candidates.get(i)[0], null);
+        }
+        for(String filename : filenames)
+        {
+            if(!wanted.containsValue(null))
+            {
+                break;
+            }
+            tree.compress(filename);
+            tree.subtrees(null, wanted);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC);
+        out.write(VERSION);
+        RITFormat.writeVarint(out, wanted.size());
+        for(int i = 0; i < candidates.size() && i < maxEntries; i++)
+        {
+            byte values[] = wanted.get(candidates.get(i)[0]);
+            RITFormat.writeVarint(out, (int) candidates.get(i)[2]);
+            RITFormat.writeVarint(out, values.length);
+            out.write(values);
+        }
+        return new RITDictionary(out.toByteArray());
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() { return this.sizes.length; }
+
+    /**
+     * Get the checksum of the dictionary file, which names the dictionary
+     * in the files that use it.
+     *
+     * @return the checksum
+     */
+    public int getChecksum() { return this.checksum; }
+
+    /**
+     * Get the size of the region an entry covers.
+     *
+     * @param id the number of the entry
+     * @return the size of its region
+     */
+    public int getSize(int id) { return this.sizes[id]; }
+
+    /**
+     * Get the number of bytes an entry's values take.
+     *
+     * @param id the number of the entry
+     * @return the length of its values
+     */
+    public int getLength(int id) { return this.lengths[id]; }
+
+    /**
+     * Get where an entry's values start in the buffer from getEntries().
+     *
+     * @param id the number of the entry
+     * @return the position of its first value
+     */
+    public int getOffset(int id) { return this.offsets[id]; }
+
+    /**
+     * Get a buffer over the entries' values.  Each call gets a buffer of
+     * its own, so readers don't disturb one another.
+     *
+     * @return a read-only buffer over the dictionary file
+     */
+    public ByteBuffer getEntries()
+    {
+        return ByteBuffer.wrap(this.data).asReadOnlyBuffer();
+    }
+
+    /**
+     * Find the entry that might hold a subtree.
+     *
+     * @param hash the hash of the subtree (see hash())
+     * @param size the size of the subtree's region
+     * @return the number of the entry, or -1 if there is none
+     */
+    int find(long hash, int size)
+    {
+        Integer id = this.ids.get(hash);
+        return id != null && this.sizes[id] == size ? id : -1;
+    }
+
+    /**
+     * Check whether an entry holds exactly the given values.
+     *
+     * @param id the number of the entry
+     * @param values the byte packed values of a subtree
+     * @return whether they are the entry's values
+     */
+    boolean holds(int id, byte[] values)
+    {
+        int start = this.offsets[id];
+        return values.length == this.lengths[id]
+                && Arrays.equals(values, Arrays.copyOfRange(this.data, start, start + this.lengths[id]));
+    }
+
+    /**
+     * Start the hash of a node.
+     *
+     * @param size the size of the node's region
+     * @param value the value of the node
+     * @return the hash of a leaf, to be mixed with the children of a split
+     * or the pixels of a raw block
+     */
+    static long hash(int size, int value)
+    {
+        return mix(mix(0x9E3779B97F4A7C15L, size), value);
+    }
+
+    /**
+     * Mix a value into a hash.
+     *
+     * @param hash the hash so far
+     * @param value the value to mix in
+     * @return the new hash
+     */
+    static long mix(long hash, long value)
+    {
+        hash = (hash ^ value) * 0xBF58476D1CE4E5B9L;
+        return hash ^ (hash >>> 31);
+    }
+
+    /**
+     * Hash the next subtree in a source the way QTree hashes its nodes.
+     *
+     * @param values the source of the values
+     * @param size the size of the subtree's region
+     * @return the hash
+     * @throws QTException if the values aren't a subtree
+     */
+    private static long hash(PreorderSource values, int size) throws QTException
+    {
+        try
+        {
+            int value = values.next();
+            long hash = hash(size, value);
+            if(value == QTree.QUAD_SPLIT)
+            {
+                if(size == 1)
+                {
+                    throw new QTException("Error reading dictionary.  Split below pixel level.");
+                }
+                for(int q = 0; q < 4; q++)
+                {
+                    hash = mix(hash, hash(values, size/2));
+                }
+            }
+            else if(value == QTree.RAW_BLOCK)
+            {
+                for(int i = 0; i < size * size; i++)
+                {
+                    hash = mix(hash, values.pixel());
+                }
+            }
+            return hash;
+        }
+        catch(IOException e)
+        {
+            throw new QTException("Error reading dictionary.  " + e.getMessage());
+        }
+    }
+
+    /**
+     * The main routine.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        int maxEntries = DEFAULT_ENTRIES;
+        ErrorBound errorBound = null;
+        int arg = 0;
+        // consume the options in front of the file names
+        while (arg < args.length && args[arg].startsWith("-")) {
+            if (args[arg].equals("-entries") && arg + 1 < args.length) {
+                arg++;
+                try {
+                    maxEntries = Integer.parseInt(args[arg]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Bad entry count: " + args[arg]);
+                    return;
+                }
+            } else if (args[arg].equals("-lossy") && arg + 2 < args.length) {
+                String[] metrics = {"range", "stddev", "maxerror"};
+                int metric = Arrays.asList(metrics).indexOf(args[arg + 1]);
+                if (metric < 0) {
+                    System.out.println("Unknown error metric: " + args[arg + 1]);
+                    return;
+                }
+                try {
+                    errorBound = new ErrorBound(metric, Double.parseDouble(args[arg + 2]));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Bad error bound: " + args[arg + 2]);
+                    return;
+                }
+                arg += 2;
+            } else {
+                System.out.println("Unknown option: " + args[arg]);
+                return;
+            }
+            arg++;
+        }
+        if (args.length - arg < 2) {
+            System.out.println("Usage: java RITDictionary [-entries count] " +
+                    "[-lossy range|stddev|maxerror bound] dictionary-file training-file...");
+            return;
+        }
+
+        try {
+            QTree tree = new QTree();
+            tree.setErrorBound(errorBound);
+            List<String> training = Arrays.asList(args).subList(arg + 1, args.length);
+            RITDictionary dictionary = build(tree, training, maxEntries);
+            dictionary.write(args[arg]);
+            System.out.println("Training images: " + training.size());
+            System.out.println("Entries: " + dictionary.size());
+            System.out.println("Dictionary size (bytes): " + new File(args[arg]).length());
+        } catch (Exception e) {
+            System.err.println(e);
+        }
+    }
+}
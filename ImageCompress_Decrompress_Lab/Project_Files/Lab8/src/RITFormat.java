@@ -0,0 +1,263 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Constants and helpers for the binary flavor of the Rich Image Tool
+ * file format.  The ASCII format writes every value on its own line; the
+ * binary format packs the same preorder stream into bytes:
+ *
+ *      - a 4 byte magic number, "RITB"
+ *      - a version byte
+ *      - an encoding byte describing how the values are laid out
+ *      - the raw image size (number of pixels) as a varint
+ *      - the values of the tree in preorder
+ *
+ * The indexed preorder encoding is the same stream of values followed by
+ * an RITIndex trailer holding where the nodes near the top of the tree
+ * start, so the quadrants of the image can be found without reading the
+ * values before them.  The arithmetic encoding codes the same stream with
+ * adaptive models instead of a byte per value; see EntropyContext.  The
+ * split streams encoding stores the shape of the tree as one bit per node
+ * apart from the leaf colors; see SplitStreamPreorderSource.  The level
+ * order encoding writes the tree a level at a time, with the mean color of
+ * every split, so a reader has a coarse picture of the whole image from
+ * the first few bytes; see LevelOrderPreorderSink.  The dictionary
+ * preorder encoding is the preorder encoding with references to the
+ * entries of a dictionary shared by a corpus of images; the checksum of
+ * the dictionary follows the raw size as 4 bytes, big-endian, so a file
+ * is never read with the wrong one (see RITDictionary).
+ *
+ * In the preorder encoding every grayscale color below ESCAPE is a single
+ * byte, QTree.QUAD_SPLIT is the single byte SPLIT, and the two colors that
+ * collide with those markers (254 and 255) are written as ESCAPE followed
+ * by the color.  ESCAPE followed by any other code introduces another kind
+ * of node:
+ *
+ *      - RAW: QTree.RAW_BLOCK, followed by the block's pixels, one byte
+ *        each
+ *      - REF: a repeat of a subtree written earlier (see
+ *        QTree.setShared()), followed by a varint of how many bytes back
+ *        from the ESCAPE the subtree starts; readers replay those bytes in
+ *        its place
+ *      - DICT: a subtree held in the dictionary, followed by the entry's
+ *        number as a varint
+ *
+ * Varints are unsigned, 7 bits per byte, low bits first, with the high bit
+ * set on every byte but the last.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITFormat {
+    /** the magic number at the start of every binary RIT file */
+    public final static byte[] MAGIC = {'R', 'I', 'T', 'B'};
+
+    /** the current version of the binary format */
+    public final static int VERSION = 1;
+
+    /** the values follow as byte packed preorder */
+    public final static int ENCODING_PREORDER = 0;
+
+    /** the values follow as byte packed preorder with an index trailer */
+    public final static int ENCODING_INDEXED_PREORDER = 1;
+
+    /** the values follow arithmetic coded (see EntropyContext) */
+    public final static int ENCODING_ARITHMETIC = 2;
+
+    /** the tree shape and leaf colors follow as separate streams (see SplitStreamPreorderSource) */
+    public final static int ENCODING_SPLIT_STREAMS = 3;
+
+    /** the tree follows a level at a time (see LevelOrderPreorderSink) */
+    public final static int ENCODING_LEVEL_ORDER = 4;
+
+    /** the values follow as byte packed preorder that uses a dictionary (see RITDictionary) */
+    public final static int ENCODING_DICTIONARY_PREORDER = 5;
+
+    /** the byte for a node that is split into 4 sub-regions */
+    public final static int SPLIT = 0xFF;
+
+    /** the byte that introduces a color which collides with a marker */
+    public final static int ESCAPE = 0xFE;
+
+    /** the code after ESCAPE for a raw block of pixels */
+    public final static int RAW = 0x00;
+
+    /** the code after ESCAPE for a reference to an earlier subtree */
+    public final static int REF = 0x01;
+
+    /** the code after ESCAPE for an entry of a dictionary */
+    public final static int DICT = 0x02;
+
+    /**
+     * The format is only a collection of static helpers.
+     */
+    private RITFormat() {}
+
+    /**
+     * Check whether a file starts with the binary magic number.  Anything
+     * else is treated as the ASCII format.
+     *
+     * @param filename the name of the file to check
+     * @return whether the file is a binary RIT file
+     * @throws IOException if there are issues reading the file
+     */
+    public static boolean isBinary(String filename) throws IOException
+    {
+        try(InputStream in = new FileInputStream(filename))
+        {
+            for(byte b : MAGIC)
+            {
+                if(in.read() != (b & 0xFF))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Write the header of a binary file.
+     *
+     * @param out the stream to write to
+     * @param encoding how the values that follow are laid out
+     * @param rawSize the number of pixels in the raw image
+     * @throws IOException if there are issues writing the header
+     */
+    public static void writeHeader(OutputStream out, int encoding, int rawSize)
+            throws IOException
+    {
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(encoding);
+        writeVarint(out, rawSize);
+    }
+
+    /**
+     * Read the start of the header of a binary file, leaving the buffer
+     * positioned at the raw image size.
+     *
+     * @param in the buffer holding the file
+     * @return the encoding of the values
+     * @throws QTException if the header is missing or not supported
+     */
+    public static int readEncoding(ByteBuffer in) throws QTException
+    {
+        for(byte b : MAGIC)
+        {
+            if(!in.hasRemaining() || in.get() != b)
+            {
+                throw new QTException("Error uncompressing.  Not a binary RIT file.");
+            }
+        }
+        if(in.remaining() < 2 || in.get() != VERSION)
+        {
+            throw new QTException("Error uncompressing.  Unsupported RIT version.");
+        }
+        int encoding = in.get();
+        if(encoding < ENCODING_PREORDER || encoding > ENCODING_DICTIONARY_PREORDER)
+        {
+            throw new QTException("Error uncompressing.  Unsupported RIT encoding.");
+        }
+        return encoding;
+    }
+
+    /**
+     * Read the start of the header of a binary file from a stream, as
+     * readEncoding(ByteBuffer) does.
+     *
+     * @param in the stream holding the file
+     * @return the encoding of the values
+     * @throws IOException if there are issues reading the stream
+     * @throws QTException if the header is missing or not supported
+     */
+    public static int readEncoding(InputStream in) throws IOException, QTException
+    {
+        for(byte b : MAGIC)
+        {
+            if(in.read() != (b & 0xFF))
+            {
+                throw new QTException("Error uncompressing.  Not a binary RIT file.");
+            }
+        }
+        if(in.read() != VERSION)
+        {
+            throw new QTException("Error uncompressing.  Unsupported RIT version.");
+        }
+        int encoding = in.read();
+        if(encoding < ENCODING_PREORDER || encoding > ENCODING_DICTIONARY_PREORDER)
+        {
+            throw new QTException("Error uncompressing.  Unsupported RIT encoding.");
+        }
+        return encoding;
+    }
+
+    /**
+     * Write an unsigned varint.
+     *
+     * @param out the stream to write to
+     * @param value the non-negative value to write
+     * @throws IOException if there are issues writing the value
+     */
+    public static void writeVarint(OutputStream out, int value) throws IOException
+    {
+        while((value & ~0x7F) != 0)
+        {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Read an unsigned varint.
+     *
+     * @param in the buffer to read from
+     * @return the value
+     * @throws QTException if the buffer runs out or the varint is too long
+     */
+    public static int readVarint(ByteBuffer in) throws QTException
+    {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7)
+        {
+            if(!in.hasRemaining())
+            {
+                throw new QTException("Error uncompressing.  Not enough data.");
+            }
+            int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new QTException("Error uncompressing.  Bad varint in file.");
+    }
+
+    /**
+     * Read an unsigned varint from a stream.
+     *
+     * @param in the stream to read from
+     * @return the value
+     * @throws IOException if there are issues reading the stream
+     * @throws QTException if the stream runs out or the varint is too long
+     */
+    public static int readVarint(InputStream in) throws IOException, QTException
+    {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7)
+        {
+            int b = in.read();
+            if(b < 0)
+            {
+                throw new QTException("Error uncompressing.  Not enough data.");
+            }
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new QTException("Error uncompressing.  Bad varint in file.");
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An index of where the nodes near the top of a compressed tree start in
+ * a binary RIT file.  The nodes down to a fixed depth are numbered like a
+ * heap: the root is slot 0 and the children of slot i are slots 4i+1
+ * (upper left) through 4i+4 (lower right).  Each slot holds the byte
+ * offset of its node relative to the first value, or ABSENT when one of
+ * its ancestors is a leaf.  That makes finding any quadrant of any split
+ * node down to the index depth an O(1) lookup.  Each slot also holds the
+ * mean color of its node's region, so the image can be previewed at the
+ * resolution of any indexed depth without decoding below it.
+ *
+ * The index is stored as a trailer after the values:
+ *
+ *      - the offset of every slot as a 4 byte int
+ *      - if the MEANS flag is set, the mean of every slot as a byte (0 for
+ *        ABSENT slots)
+ *      - a byte of flags saying which of the optional fields are there
+ *      - the depth of the index as a byte
+ *      - where the index starts in the file as an 8 byte long
+ *      - a 4 byte magic number, "RITI"
+ *
+ * Trailers written before the flags byte end in OLD_MAGIC, "RITX", and
+ * have no flags: the offsets are followed by the means only if the length
+ * of the trailer leaves room for them.  They are still read.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITIndex {
+    /** the magic number at the end of the index trailer */
+    public final static byte[] MAGIC = {'R', 'I', 'T', 'I'};
+
+    /** the magic number at the end of an index trailer without flags */
+    public final static byte[] OLD_MAGIC = {'R', 'I', 'T', 'X'};
+
+    /** the deepest index that can be stored */
+    public final static int MAX_DEPTH = 10;
+
+    /** the smallest quadrant worth indexing, as smaller ones decode faster than a task starts */
+    public final static int MIN_SIZE = 8;
+
+    /** the offset of a slot whose node does not exist */
+    public final static int ABSENT = -1;
+
+    /** the flag for a trailer that holds the mean of every slot */
+    public final static int MEANS = 0x01;
+
+    /** the size of the fields after the depth */
+    private final static int TRAILER_SIZE = 1 + 8 + 4;
+
+    /** the depth of the deepest indexed nodes (the root is depth 0) */
+    private final int depth;
+
+    /** the offset of the node in each slot */
+    private final int offsets[];
+
+    /** the mean color of the node in each slot */
+    private final int means[];
+
+    /** whether the means are known */
+    private boolean hasMeans;
+
+    /**
+     * Create an empty index.
+     *
+     * @param depth the depth of the deepest indexed nodes
+     */
+    public RITIndex(int depth) {
+        if(depth < 0 || depth > MAX_DEPTH)
+        {
+            throw new IllegalArgumentException("Bad index depth: " + depth);
+        }
+        this.depth = depth;
+        this.offsets = new int[slots(depth)];
+        Arrays.fill(this.offsets, ABSENT);
+        this.means = new int[this.offsets.length];
+        this.hasMeans = true;
+    }
+
+    /**
+     * Get the number of slots in an index.
+     *
+     * @param depth the depth of the deepest indexed nodes
+     * @return the number of nodes in a full tree of that depth
+     */
+    public static int slots(int depth)
+    {
+        return ((1 << (2 * (depth + 1))) - 1) / 3;
+    }
+
+    /**
+     * Get the slot of a child.
+     *
+     * @param slot the slot of the parent
+     * @param quadrant 0-3 for upper left, upper right, lower left, lower right
+     * @return the slot of the child
+     */
+    public static int child(int slot, int quadrant)
+    {
+        return 4 * slot + 1 + quadrant;
+    }
+
+    /**
+     * Get the depth of the deepest indexed nodes.
+     *
+     * @return the index depth
+     */
+    public int getDepth() { return this.depth; }
+
+    /**
+     * Get where a node starts.
+     *
+     * @param slot the slot of the node
+     * @return the offset of the node from the first value, or ABSENT
+     */
+    public int getOffset(int slot) { return this.offsets[slot]; }
+
+    /**
+     * Record where a node starts.
+     *
+     * @param slot the slot of the node
+     * @param offset the offset of the node from the first value
+     */
+    public void setOffset(int slot, long offset)
+    {
+        if(offset > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Offset too large to index: " + offset);
+        }
+        this.offsets[slot] = (int) offset;
+    }
+
+    /**
+     * Check whether the index holds the mean of every node.  Every index
+     * written here does, but a trailer only has them if its MEANS flag is
+     * set, or for an old trailer if there is room for them.
+     *
+     * @return whether getMean() can be used
+     */
+    public boolean hasMeans() { return this.hasMeans; }
+
+    /**
+     * Get the mean color of a node's region.
+     *
+     * @param slot the slot of the node
+     * @return the mean (0-255), rounded
+     */
+    public int getMean(int slot) { return this.means[slot]; }
+
+    /**
+     * Record the mean color of a node's region.
+     *
+     * @param slot the slot of the node
+     * @param mean the mean (0-255), rounded
+     */
+    public void setMean(int slot, int mean)
+    {
+        this.means[slot] = mean;
+    }
+
+    /**
+     * Write the index trailer.
+     *
+     * @param out the stream to write to
+     * @param start where the trailer starts in the file
+     * @throws IOException if there are issues writing the trailer
+     */
+    public void write(OutputStream out, long start) throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(out);
+        for(int offset : offsets)
+        {
+            data.writeInt(offset);
+        }
+        for(int mean : means)
+        {
+            data.writeByte(mean);
+        }
+        data.writeByte(MEANS);
+        data.writeByte(depth);
+        data.writeLong(start);
+        data.write(MAGIC);
+        data.flush();
+    }
+
+    /**
+     * Read the index trailer from the end of a file.
+     *
+     * @param file the whole file
+     * @return the index
+     * @throws QTException if the trailer is missing or damaged
+     */
+    public static RITIndex read(ByteBuffer file) throws QTException
+    {
+        int end = file.limit();
+        boolean old = endsWith(file, OLD_MAGIC);
+        if(end < TRAILER_SIZE + (old ? 0 : 1) || !(old || endsWith(file, MAGIC)))
+        {
+            throw new QTException("Error uncompressing.  Missing index.");
+        }
+        int depth = file.get(end - TRAILER_SIZE);
+        long start = file.getLong(end - TRAILER_SIZE + 1);
+        if(depth < 0 || depth > MAX_DEPTH || start < 0)
+        {
+            throw new QTException("Error uncompressing.  Damaged index.");
+        }
+        boolean hasMeans;
+        long length;
+        if(old)
+        {
+            //the means are there if there is room for them
+            length = end - TRAILER_SIZE - start;
+            hasMeans = length == 5L * slots(depth);
+        }
+        else
+        {
+            int flags = file.get(end - TRAILER_SIZE - 1) & 0xFF;
+            if((flags & ~MEANS) != 0)
+            {
+                throw new QTException("Error uncompressing.  Unsupported index layout.");
+            }
+            hasMeans = (flags & MEANS) != 0;
+            //the flags say exactly what lies between the start and the flags
+            length = end - TRAILER_SIZE - 1 - start;
+        }
+        if(length != (hasMeans ? 5L : 4L) * slots(depth))
+        {
+            throw new QTException("Error uncompressing.  Damaged index.");
+        }
+        RITIndex index = new RITIndex(depth);
+        int meanStart = (int) start + 4 * index.offsets.length;
+        for(int slot = 0; slot < index.offsets.length; slot++)
+        {
+            index.offsets[slot] = file.getInt((int) start + 4 * slot);
+            index.means[slot] = hasMeans ? file.get(meanStart + slot) & 0xFF : 0;
+        }
+        index.hasMeans = hasMeans;
+        return index;
+    }
+
+    /**
+     * Check whether a file ends with a magic number.
+     *
+     * @param file the whole file
+     * @param magic the magic number
+     * @return whether the last bytes of the file are the magic number
+     */
+    private static boolean endsWith(ByteBuffer file, byte[] magic)
+    {
+        int end = file.limit();
+        if(end < magic.length)
+        {
+            return false;
+        }
+        for(int i = 0; i < magic.length; i++)
+        {
+            if(file.get(end - magic.length + i) != magic[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get where the index trailer starts in a file that has one.
+     *
+     * @param file the whole file
+     * @return the position of the first byte of the trailer
+     */
+    public static int start(ByteBuffer file)
+    {
+        return (int) file.getLong(file.limit() - TRAILER_SIZE + 1);
+    }
+}
@@ -0,0 +1,566 @@
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Partial uncompression of RIT compressed files: a rectangle of the image
+ * at full resolution, or the whole image at a lower one.  Both read only
+ * as much of the tree as they need, stepping over the quadrants outside
+ * the rectangle or adding up the ones below the preview, and use the
+ * index of an indexed file (see RITIndex) to jump straight to the
+ * quadrants they want.  Tiled files (see RITTiles) are decoded a tile at
+ * a time with the same routines.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITRegion {
+    /**
+     * The decoders are only a collection of static helpers.
+     */
+    private RITRegion() {}
+
+    /**
+     * Uncompress only a rectangle of a RIT compressed file in the ASCII,
+     * binary or tiled format.  Only the quadrants that overlap the
+     * rectangle are decoded; the rest are stepped over.  In a file with an
+     * index the quadrants down to the index depth are found without
+     * reading the ones before them, in a split stream file subtrees are
+     * stepped over by counting bits, and in a tiled file only the tiles
+     * that overlap are read, so the work follows the size of the rectangle
+     * rather than the image.  Otherwise the values of the skipped subtrees
+     * still have to be read past, and a level order file, whose levels each
+     * span the whole image, is uncompressed whole.
+     *
+     * @param filename the name of the compressed file
+     * @param row the top row of the rectangle
+     * @param col the left column of the rectangle
+     * @param height the height of the rectangle
+     * @param width the width of the rectangle
+     * @return the pixels of the rectangle, by row
+     * @throws IOException if there are issues working with the compressed file
+     * @throws QTException if there are issues parsing the data in the file
+     */
+    public static int[][] decode(String filename, int row, int col, int height, int width)
+            throws IOException, QTException
+    {
+        return decode(filename, null, row, col, height, width);
+    }
+
+    /**
+     * Uncompress only a rectangle of a RIT compressed file, as
+     * decode(String, int, int, int, int) does, for a file that may have
+     * been compressed with a dictionary.
+     *
+     * @param filename the name of the compressed file
+     * @param dictionary the dictionary the file was compressed with, or null
+     * @param row the top row of the rectangle
+     * @param col the left column of the rectangle
+     * @param height the height of the rectangle
+     * @param width the width of the rectangle
+     * @return the pixels of the rectangle, by row
+     * @throws IOException if there are issues working with the compressed file
+     * @throws QTException if there are issues parsing the data in the file
+     */
+    public static int[][] decode(String filename, RITDictionary dictionary, int row, int col,
+            int height, int width) throws IOException, QTException
+    {
+        if(RITTiles.isTiled(filename))
+        {
+            try(RITTiles tiles = new RITTiles(filename))
+            {
+                return tiles.readRegion(row, col, height, width);
+            }
+        }
+        int region[][];
+        if(RITFormat.isBinary(filename))
+        {
+            try(FileChannel channel = new FileInputStream(filename).getChannel())
+            {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                //peek at the size in the header
+                ByteBuffer header = buffer.duplicate();
+                RITFormat.readEncoding(header);
+                int size = (int) Math.sqrt(RITFormat.readVarint(header));
+                region = newRegion(size, row, col, height, width);
+                decode(buffer, dictionary, 0, 0, region, row, col);
+            }
+            return region;
+        }
+        try(AsciiPreorderSource values = new AsciiPreorderSource(new FileInputStream(filename)))
+        {
+            int size = (int) Math.sqrt(values.next());
+            region = newRegion(size, row, col, height, width);
+            decode(values, size, 0, 0, region, row, col);
+        }
+        return region;
+    }
+
+    /**
+     * Make the array for a rectangle of an image, making sure the
+     * rectangle is inside the image.
+     *
+     * @param size the square dimension of the image
+     * @param row the top row of the rectangle
+     * @param col the left column of the rectangle
+     * @param height the height of the rectangle
+     * @param width the width of the rectangle
+     * @return the array for the rectangle's pixels
+     */
+    private static int[][] newRegion(int size, int row, int col, int height, int width)
+    {
+        if(row < 0 || col < 0 || height < 0 || width < 0
+                || (long) row + height > size || (long) col + width > size)
+        {
+            throw new IllegalArgumentException("Region is outside the " + size + "x" + size + " image");
+        }
+        return new int[height][width];
+    }
+
+    /**
+     * Check whether a square region overlaps a rectangle.
+     *
+     * @param row the starting row of the region
+     * @param col the starting column of the region
+     * @param size the size of the region
+     * @param region the rectangle's pixels
+     * @param top the row of the image the rectangle starts at
+     * @param left the column of the image the rectangle starts at
+     * @return whether they overlap
+     */
+    private static boolean overlaps(int row, int col, int size, int[][] region, int top, int left)
+    {
+        int width = region.length == 0 ? 0 : region[0].length;
+        return row < top + region.length && row + size > top
+                && col < left + width && col + size > left;
+    }
+
+    /**
+     * Uncompress the part of a binary RIT image that overlaps a rectangle.
+     *
+     * @param buffer the compressed image, positioned at its header
+     * @param dictionary the dictionary the image was compressed with, or null
+     * @param row the row of the rectangle's image the compressed one starts at
+     * @param col the column of the rectangle's image the compressed one starts at
+     * @param region the rectangle's pixels, which are painted where they overlap
+     * @param top the row the rectangle starts at
+     * @param left the column the rectangle starts at
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if there are issues parsing the data in the buffer
+     */
+    static void decode(ByteBuffer buffer, RITDictionary dictionary, int row, int col,
+            int[][] region, int top, int left) throws IOException, QTException
+    {
+        //an index holds offsets from the start of the image
+        buffer = buffer.slice();
+        int encoding = RITFormat.readEncoding(buffer);
+        int size = (int) Math.sqrt(RITFormat.readVarint(buffer));
+        if(encoding == RITFormat.ENCODING_INDEXED_PREORDER)
+        {
+            RITIndex index = RITIndex.read(buffer);
+            buffer.limit(RITIndex.start(buffer));
+            decode(buffer.slice(), index, 0, 0, size, row, col, region, top, left);
+        }
+        else if(encoding == RITFormat.ENCODING_LEVEL_ORDER)
+        {
+            //every level spans the whole image, so there is nothing to step over
+            LevelOrderDecoder levels = new LevelOrderDecoder(buffer, size, 1, false);
+            levels.readAll();
+            int[][] image = levels.getImage();
+            for(int r = Math.max(row, top); r < Math.min(row + size, top + region.length); r++)
+            {
+                for(int c = Math.max(col, left); c < Math.min(col + size, left + region[0].length); c++)
+                {
+                    region[r - top][c - left] = image[r - row][c - col];
+                }
+            }
+        }
+        else
+        {
+            PreorderSource values = QTree.source(buffer, encoding, size, dictionary);
+            decode(values, size, row, col, region, top, left);
+            finish(values);
+        }
+    }
+
+    /**
+     * Check that the values read came from the file rather than past its
+     * end.  The coded bits of an entropy coded file can't tell by
+     * themselves that they were cut short.
+     *
+     * @param values the source of the compressed values
+     * @throws QTException if more was read than the file holds
+     */
+    private static void finish(PreorderSource values) throws QTException
+    {
+        if(values instanceof EntropyPreorderSource)
+        {
+            ((EntropyPreorderSource) values).finish();
+        }
+    }
+
+    /**
+     * Uncompress the part of the node in one slot of an index that
+     * overlaps a rectangle, jumping straight to the quadrants that overlap
+     * it down to the index depth.
+     *
+     * @param values the values of the file, starting with the root
+     * @param index the index of the file
+     * @param slot the slot of the node to decode
+     * @param depth the depth of the node to decode
+     * @param size the size of the node's region
+     * @param row the starting row of the node's region
+     * @param col the starting column of the node's region
+     * @param region the rectangle's pixels
+     * @param top the row the rectangle starts at
+     * @param left the column the rectangle starts at
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if the values or index are damaged
+     */
+    private static void decode(ByteBuffer values, RITIndex index, int slot, int depth, int size,
+                               int row, int col, int[][] region, int top, int left)
+            throws IOException, QTException
+    {
+        int offset = index.getOffset(slot);
+        if(offset < 0 || offset >= values.limit())
+        {
+            throw new QTException("Error uncompressing.  Damaged index.");
+        }
+        boolean split = (values.get(offset) & 0xFF) == RITFormat.SPLIT;
+        if(!split || size == 1 || depth == index.getDepth())
+        {
+            ByteBuffer own = values.duplicate();
+            own.position(offset);
+            decode(new BinaryPreorderSource(own), size, row, col, region, top, left);
+            return;
+        }
+        int half = size/2;
+        for(int q = 0; q < 4; q++)
+        {
+            int r = row + (q / 2) * half;
+            int c = col + (q % 2) * half;
+            if(overlaps(r, c, half, region, top, left))
+            {
+                decode(values, index, RITIndex.child(slot, q), depth + 1, half, r, c, region, top, left);
+            }
+        }
+    }
+
+    /**
+     * Uncompress the part of the next node that overlaps a rectangle,
+     * stepping over the quadrants that don't.
+     *
+     * @param values the source of the compressed values
+     * @param size the size of the square region the next value represents
+     * @param row the starting row of the region
+     * @param col the starting column of the region
+     * @param region the rectangle's pixels
+     * @param top the row the rectangle starts at
+     * @param left the column the rectangle starts at
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if the values do not describe a valid tree
+     */
+    private static void decode(PreorderSource values, int size, int row, int col,
+                               int[][] region, int top, int left)
+            throws IOException, QTException
+    {
+        int value = values.next();
+        int height = region.length;
+        int width = height == 0 ? 0 : region[0].length;
+        if(value == QTree.QUAD_SPLIT)
+        {
+            if(size == 1)
+            {
+                throw new QTException("Error uncompressing.  Split below pixel level.");
+            }
+            int half = size/2;
+            //the quadrants in preorder: upper left, upper right, lower left, lower right
+            for(int q = 0; q < 4; q++)
+            {
+                int r = row + (q / 2) * half;
+                int c = col + (q % 2) * half;
+                if(overlaps(r, c, half, region, top, left))
+                {
+                    decode(values, half, r, c, region, top, left);
+                }
+                else
+                {
+                    values.skip(half);
+                }
+            }
+        }
+        else if(value == QTree.RAW_BLOCK)
+        {
+            for(int r = row; r < row + size; r++)
+            {
+                for(int c = col; c < col + size; c++)
+                {
+                    int pixel = values.pixel();
+                    if(r >= top && r < top + height && c >= left && c < left + width)
+                    {
+                        region[r - top][c - left] = pixel;
+                    }
+                }
+            }
+        }
+        else
+        {
+            //paint the part of the region inside the rectangle
+            int fromCol = Math.max(col, left) - left;
+            int toCol = Math.min(col + size, left + width) - left;
+            for(int r = Math.max(row, top); r < Math.min(row + size, top + height); r++)
+            {
+                Arrays.fill(region[r - top], fromCol, toCol, value);
+            }
+        }
+    }
+
+    /**
+     * Uncompress a RIT compressed file at a lower resolution, for previews
+     * and thumbnails.  Every block of the image becomes a single pixel
+     * holding the mean of the block, so only the top of the tree is
+     * painted.  The means of split nodes are read from the index of a
+     * binary file that has one, so a preview no deeper than the index
+     * never reads the values below it, as are those of a level order file,
+     * which is read no further than the level of the preview; otherwise
+     * each such subtree is added up in one pass without painting it.
+     *
+     * @param filename the name of the compressed file
+     * @param dictionary the dictionary the file was compressed with, or null
+     * @param resolution the square dimension of the preview, a power of 2
+     * no larger than the image
+     * @return the pixels of the preview, by row
+     * @throws IOException if there are issues working with the compressed file
+     * @throws QTException if there are issues parsing the data in the file
+     */
+    public static int[][] preview(String filename, RITDictionary dictionary, int resolution)
+            throws IOException, QTException
+    {
+        if(resolution < 1 || Integer.bitCount(resolution) != 1)
+        {
+            throw new IllegalArgumentException("Bad resolution: " + resolution);
+        }
+        if(RITTiles.isTiled(filename))
+        {
+            throw new QTException("Error uncompressing.  Tiled files can't be previewed.");
+        }
+        int image[][] = new int[resolution][resolution];
+        if(!RITFormat.isBinary(filename))
+        {
+            try(AsciiPreorderSource values = new AsciiPreorderSource(new FileInputStream(filename)))
+            {
+                int size = checkResolution(values.next(), resolution);
+                decodeLevel(values, size, 0, 0, size / resolution, image);
+            }
+            return image;
+        }
+        try(FileChannel channel = new FileInputStream(filename).getChannel())
+        {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int encoding = RITFormat.readEncoding(buffer);
+            int size = checkResolution(RITFormat.readVarint(buffer), resolution);
+            if(encoding == RITFormat.ENCODING_INDEXED_PREORDER)
+            {
+                RITIndex index = RITIndex.read(buffer);
+                buffer.limit(RITIndex.start(buffer));
+                decodeLevel(buffer.slice(), index, 0, 0, size, 0, 0, size / resolution, image);
+            }
+            else if(encoding == RITFormat.ENCODING_LEVEL_ORDER)
+            {
+                //the means are stored, so the levels below the preview aren't read
+                LevelOrderDecoder levels = new LevelOrderDecoder(buffer, size, size / resolution, false);
+                levels.readAll();
+                image = levels.getImage();
+            }
+            else
+            {
+                PreorderSource values = QTree.source(buffer, encoding, size, dictionary);
+                decodeLevel(values, size, 0, 0, size / resolution, image);
+                finish(values);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Read the raw size from the header of an ASCII or binary file.
+     *
+     * @param filename the name of the compressed file
+     * @return the number of pixels in the image
+     * @throws IOException if there are issues reading the file
+     * @throws QTException if the header is damaged
+     */
+    static int rawSize(String filename) throws IOException, QTException
+    {
+        if(RITFormat.isBinary(filename))
+        {
+            try(InputStream in = new BufferedInputStream(new FileInputStream(filename)))
+            {
+                RITFormat.readEncoding(in);
+                return RITFormat.readVarint(in);
+            }
+        }
+        try(AsciiPreorderSource values = new AsciiPreorderSource(new FileInputStream(filename)))
+        {
+            return values.next();
+        }
+    }
+
+    /**
+     * Check that a preview is no larger than the image it is of.
+     *
+     * @param rawSize the raw size read from the header of a compressed file
+     * @param resolution the square dimension of the preview
+     * @return the square dimension of the full image
+     */
+    private static int checkResolution(int rawSize, int resolution)
+    {
+        int size = (int) Math.sqrt(rawSize);
+        if(resolution > size)
+        {
+            throw new IllegalArgumentException("Resolution " + resolution + " is larger than the image");
+        }
+        return size;
+    }
+
+    /**
+     * Add up the colors in the region of the next node, reading its whole
+     * subtree.
+     *
+     * @param values the source of the compressed values
+     * @param size the size of the square region the next value represents
+     * @return the sum of the colors
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if the values do not describe a valid tree
+     */
+    private static long sum(PreorderSource values, int size) throws IOException, QTException
+    {
+        int value = values.next();
+        if(value == QTree.RAW_BLOCK)
+        {
+            long sum = 0;
+            for(int i = 0; i < size * size; i++)
+            {
+                sum += values.pixel();
+            }
+            return sum;
+        }
+        else if(value != QTree.QUAD_SPLIT)
+        {
+            return (long) value * size * size;
+        }
+        if(size == 1)
+        {
+            throw new QTException("Error uncompressing.  Split below pixel level.");
+        }
+        int half = size/2;
+        return sum(values, half) + sum(values, half) + sum(values, half) + sum(values, half);
+    }
+
+    /**
+     * Paint the preview of the next node.  Blocks of scale x scale pixels
+     * become one pixel of the preview.
+     *
+     * @param values the source of the compressed values
+     * @param size the size of the square region the next value represents
+     * @param row the starting row of the region in the full image
+     * @param col the starting column of the region in the full image
+     * @param scale the size of the blocks that become one pixel
+     * @param image the preview, which is painted
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if the values do not describe a valid tree
+     */
+    private static void decodeLevel(PreorderSource values, int size, int row, int col, int scale,
+                                    int[][] image)
+            throws IOException, QTException
+    {
+        if(size == scale)
+        {
+            image[row / scale][col / scale] = ErrorBound.mean(sum(values, size), (long) size * size);
+            return;
+        }
+        int value = values.next();
+        if(value == QTree.RAW_BLOCK)
+        {
+            //add the pixels of each block up, then paint the means
+            int cells = size / scale;
+            long sums[] = new long[cells * cells];
+            for(int r = 0; r < size; r++)
+            {
+                for(int c = 0; c < size; c++)
+                {
+                    sums[(r / scale) * cells + c / scale] += values.pixel();
+                }
+            }
+            for(int i = 0; i < sums.length; i++)
+            {
+                image[row / scale + i / cells][col / scale + i % cells] =
+                        ErrorBound.mean(sums[i], (long) scale * scale);
+            }
+        }
+        else if(value != QTree.QUAD_SPLIT)
+        {
+            for(int r = row / scale; r < (row + size) / scale; r++)
+            {
+                Arrays.fill(image[r], col / scale, (col + size) / scale, value);
+            }
+        }
+        else
+        {
+            int half = size/2;
+            decodeLevel(values, half, row, col, scale, image);
+            decodeLevel(values, half, row, col + half, scale, image);
+            decodeLevel(values, half, row + half, col, scale, image);
+            decodeLevel(values, half, row + half, col + half, scale, image);
+        }
+    }
+
+    /**
+     * Paint the preview of the node in one slot of an index, taking the
+     * means of split nodes from the index when it has them.
+     *
+     * @param values the values of the file, starting with the root
+     * @param index the index of the file
+     * @param slot the slot of the node
+     * @param depth the depth of the node
+     * @param size the size of the node's region
+     * @param row the starting row of the region in the full image
+     * @param col the starting column of the region in the full image
+     * @param scale the size of the blocks that become one pixel
+     * @param image the preview, which is painted
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if the values or index are damaged
+     */
+    private static void decodeLevel(ByteBuffer values, RITIndex index, int slot, int depth, int size,
+                                    int row, int col, int scale, int[][] image)
+            throws IOException, QTException
+    {
+        int offset = index.getOffset(slot);
+        if(offset < 0 || offset >= values.limit())
+        {
+            throw new QTException("Error uncompressing.  Damaged index.");
+        }
+        boolean split = (values.get(offset) & 0xFF) == RITFormat.SPLIT;
+        if(split && size == scale && index.hasMeans())
+        {
+            image[row / scale][col / scale] = index.getMean(slot);
+            return;
+        }
+        if(!split || size == scale || depth == index.getDepth())
+        {
+            ByteBuffer own = values.duplicate();
+            own.position(offset);
+            decodeLevel(new BinaryPreorderSource(own), size, row, col, scale, image);
+            return;
+        }
+        int half = size/2;
+        for(int q = 0; q < 4; q++)
+        {
+            decodeLevel(values, index, RITIndex.child(slot, q), depth + 1, half,
+                    row + (q / 2) * half, col + (q % 2) * half, scale, image);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rich Image Tool codec server.  This program stays running and
+ * compresses and uncompresses images sent to it over a local socket, so
+ * a client doesn't pay for starting a JVM and warming up the codec on
+ * every image (see RITClient).
+ *
+ * $ java RITServer [-port port] [-threads count] [-queue length]
+ *          [-connections count] [-dict dictionary] [-cache megabytes]
+ *          [-cachedir directory] [-maxpixels count]
+ *
+ * The server only listens on the loopback address.  Each connection gets
+ * a thread of its own, which reads requests and waits for their results,
+ * up to -connections of them (by default DEFAULT_CONNECTIONS); more are
+ * not accepted until one closes.  The images are coded on a pool of
+ * -threads workers (by default one per processor) with at most -queue
+ * jobs (by default four per worker) waiting for them.  A connection only
+ * reads the body of a request once its job has a place in the pool and
+ * the body fits in what is left of MAX_REQUEST bytes shared by every
+ * request being read or coded.  Until then it stops reading, so a flood
+ * of requests backs up into the clients rather than into the heap.  A
+ * file is only uncompressed if its header claims at most -maxpixels
+ * pixels (by default DEFAULT_MAX_PIXELS), since a small file can stand
+ * for a huge image.  The dictionary, if one is given, is used to uncompress files that need it.  With
+ * -cache, files and images already coded are kept in a RITCache of that
+ * many megabytes and handed back without coding them again; with
+ * -cachedir they are kept in a directory as well, to be found again after
+ * a restart.
+ *
+ * A connection carries any number of requests, each answered before the
+ * next is read.  Numbers are big-endian.  A request is an operation byte
+ * and a 4 byte length, followed by that many bytes:
+ *
+ *      - COMPRESS: a flags byte (HYBRID, SHARED), the encoding byte (see
+ *        RITFormat), the error metric byte (see ErrorBound) or -1 for
+ *        lossless, the error bound as an 8 byte double, the square
+ *        dimension of the image as a 4 byte int and the pixels, a byte
+ *        each, row after row
+ *      - UNCOMPRESS: an ASCII or binary RIT file
+ *      - STATS: nothing
+ *
+ * A response is a status byte, OK or ERROR, and a 4 byte length, followed
+ * by that many bytes: the binary RIT file for COMPRESS, the square
+ * dimension as a 4 byte int and the pixels for UNCOMPRESS, and for STATS,
+ * or any request that failed, UTF-8 text.  The stats give the jobs
+ * waiting and running, the most that have waited, the jobs done and
+ * failed, percentiles of the latency of the last LATENCIES jobs, from
+ * being read to being answered, and the cache's counters.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITServer {
+    /** the port the server listens on unless told otherwise */
+    public final static int DEFAULT_PORT = 7431;
+
+    /** the operation that compresses an image */
+    public final static int COMPRESS = 1;
+
+    /** the operation that uncompresses a RIT file */
+    public final static int UNCOMPRESS = 2;
+
+    /** the operation that describes the state of the server */
+    public final static int STATS = 3;
+
+    /** the status of a request that succeeded */
+    public final static int OK = 0;
+
+    /** the status of a request that failed */
+    public final static int ERROR = 1;
+
+    /** the compress flag that stores raw blocks where they're cheaper */
+    public final static int HYBRID = 1;
+
+    /** the compress flag that shares identical subtrees */
+    public final static int SHARED = 2;
+
+    /** the most bytes of request bodies held at once, and so the largest request accepted */
+    public final static int MAX_REQUEST = 1 << 28;
+
+    /** the most pixels of an image uncompressed unless told otherwise, which take 4 bytes each */
+    public final static int DEFAULT_MAX_PIXELS = MAX_REQUEST / 4;
+
+    /** the most connections served at once unless told otherwise */
+    public final static int DEFAULT_CONNECTIONS = 64;
+
+    /** the number of recent latencies kept for the stats */
+    public final static int LATENCIES = 4096;
+
+    /** the workers that code the images */
+    private final ThreadPoolExecutor workers;
+
+    /** a permit for each job that may be running or waiting */
+    private final Semaphore permits;
+
+    /** a permit for each byte of request bodies that may be held */
+    private final Semaphore requestBytes = new Semaphore(MAX_REQUEST, true);
+
+    /** a permit for each connection that may be served */
+    private final Semaphore connectionPermits;
+
+    /** the dictionary to uncompress with, or null */
+    private final RITDictionary dictionary;
+
+    /** the cache of files and images already coded, or null */
+    private final RITCache cache;
+
+    /** the most pixels of an image uncompressed */
+    private final int maxPixels;
+
+    /** the most jobs that have been waiting at once */
+    private final AtomicInteger maxWaiting = new AtomicInteger();
+
+    /** the jobs answered */
+    private final AtomicLong done = new AtomicLong();
+
+    /** the jobs that failed */
+    private final AtomicLong failed = new AtomicLong();
+
+    /** the latencies of the most recent jobs, in nanoseconds, as a ring */
+    private final long latencies[] = new long[LATENCIES];
+
+    /**
+     * Set up a server.
+     *
+     * @param threads the number of workers
+     * @param queueLength the most jobs that may wait for a worker
+     * @param connections the most connections served at once
+     * @param dictionary the dictionary to uncompress with, or null
+     * @param cache the cache of files and images already coded, or null
+     * @param maxPixels the most pixels of an image uncompressed
+     */
+    public RITServer(int threads, int queueLength, int connections, RITDictionary dictionary, RITCache cache,
+            int maxPixels) {
+        if (threads < 1 || queueLength < 1 || connections < 1) {
+            throw new IllegalArgumentException("Bad pool size: " + threads + " threads, queue " + queueLength
+                    + ", " + connections + " connections");
+        }
+        if (maxPixels < 1) {
+            throw new IllegalArgumentException("Bad pixel limit: " + maxPixels);
+        }
+        this.connectionPermits = new Semaphore(connections);
+        // the permits bound the jobs; the queue has room for a job per permit, since a
+        // worker is still finishing one job after its result has been handed back
+        this.permits = new Semaphore(threads + queueLength);
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads + queueLength));
+        this.dictionary = dictionary;
+        this.cache = cache;
+        this.maxPixels = maxPixels;
+    }
+
+    /**
+     * Accept connections until the server socket is closed.
+     *
+     * @param server the socket to accept connections on
+     * @throws IOException if there are issues accepting a connection
+     */
+    public void serve(ServerSocket server) throws IOException {
+        // a connection mostly waits on its client or its jobs, so threads are cheap enough
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try {
+            while (!server.isClosed()) {
+                // connections past the limit wait in the listen backlog
+                connectionPermits.acquireUninterruptibly();
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (IOException | RuntimeException e) {
+                    connectionPermits.release();
+                    throw e;
+                }
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try (Socket s = socket) {
+                            handle(s);
+                        } catch (IOException e) {
+                            // the client went away
+                        } finally {
+                            connectionPermits.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            connections.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Answer the requests on a connection until the client closes it.
+     *
+     * @param socket the connection
+     * @throws IOException if there are issues with the connection
+     */
+    private void handle(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        while (true) {
+            int op = in.read();
+            if (op < 0) {
+                return;
+            }
+            int length = in.readInt();
+            if (length < 0 || length > MAX_REQUEST) {
+                respond(out, ERROR, ("Bad request length: " + length).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (op == STATS) {
+                // a stats request has no use for a body
+                while (length > 0) {
+                    int skipped = in.skipBytes(length);
+                    if (skipped <= 0) {
+                        throw new EOFException();
+                    }
+                    length -= skipped;
+                }
+                respond(out, OK, stats().getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            if (op != COMPRESS && op != UNCOMPRESS) {
+                respond(out, ERROR, ("Unknown operation: " + op).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            final boolean compress = op == COMPRESS;
+            byte response[];
+            int status = OK;
+            long start = 0;
+            try {
+                // waits here while the pool is full, and then until the body fits
+                permits.acquire();
+                try {
+                    requestBytes.acquire(length);
+                    try {
+                        final byte request[] = new byte[length];
+                        in.readFully(request);
+                        start = System.nanoTime();
+                        Future<byte[]> job = workers.submit(new Callable<byte[]>() {
+                            @Override
+                            public byte[] call() throws Exception {
+                                return compress ? compress(request) : uncompress(request);
+                            }
+                        });
+                        int waiting = workers.getQueue().size();
+                        for (int most = maxWaiting.get(); waiting > most && !maxWaiting.compareAndSet(most, waiting); ) {
+                            most = maxWaiting.get();
+                        }
+                        response = job.get();
+                    } finally {
+                        requestBytes.release(length);
+                    }
+                } finally {
+                    permits.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                status = ERROR;
+                Throwable cause = e.getCause();
+                String message = cause.getMessage() == null ? cause.toString() : cause.getMessage();
+                response = message.getBytes(StandardCharsets.UTF_8);
+            }
+            respond(out, status, response);
+            record(System.nanoTime() - start, status == OK);
+        }
+    }
+
+    /**
+     * Send a response.
+     *
+     * @param out the stream to the client
+     * @param status OK or ERROR
+     * @param body the body of the response
+     * @throws IOException if there are issues writing the stream
+     */
+    private static void respond(DataOutputStream out, int status, byte[] body) throws IOException {
+        out.write(status);
+        out.writeInt(body.length);
+        out.write(body);
+        out.flush();
+    }
+
+    /**
+     * Compress the image in a compress request.
+     *
+     * @param request the body of the request
+     * @return the binary RIT file
+     * @throws IOException if the request is cut short
+     * @throws QTException if the image can't be written with the settings
+     */
+    private byte[] compress(byte[] request) throws IOException, QTException {
+        ByteBuffer buffer = ByteBuffer.wrap(request);
+        if (buffer.remaining() < 15) {
+            throw new QTException("Error compressing.  Request too short.");
+        }
+        int flags = buffer.get();
+        int encoding = buffer.get();
+        int metric = buffer.get();
+        double bound = buffer.getDouble();
+        int dim = buffer.getInt();
+        if (dim < 0 || (long) dim * dim != buffer.remaining()) {
+            throw new QTException("Error compressing.  Expected " + dim + "x" + dim + " pixels.");
+        }
+        RITCodec codec = new RITCodec();
+        codec.setHybrid((flags & HYBRID) != 0);
+        codec.setShared((flags & SHARED) != 0);
+        codec.setEncoding(encoding);
+        if (metric >= 0) {
+            codec.setErrorBound(new ErrorBound(metric, bound));
+        }
+        if (cache != null) {
+            int image[][] = new int[dim][dim];
+            for (int[] row : image) {
+                for (int c = 0; c < dim; c++) {
+                    row[c] = buffer.get() & 0xFF;
+                }
+            }
+            return cache.compress(codec, image);
+        }
+        byte pixels[] = Arrays.copyOfRange(request, buffer.position(), request.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.compress(pixels, dim, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Uncompress the RIT file in an uncompress request.
+     *
+     * @param request the body of the request
+     * @return the square dimension and the pixels
+     * @throws IOException if the file can't be read
+     * @throws QTException if the file is damaged or its image is too big
+     */
+    private byte[] uncompress(byte[] request) throws IOException, QTException {
+        // the image is allocated from the header before any of it is read
+        int rawSize = rawSize(request);
+        if (rawSize < 0 || rawSize > maxPixels) {
+            throw new QTException("Error uncompressing.  Image of " + rawSize + " pixels is too big.");
+        }
+        RITCodec codec = new RITCodec();
+        codec.setDictionary(dictionary);
+        int image[][] = cache != null ? cache.uncompress(codec, request)
+                : codec.uncompress(new ByteArrayInputStream(request));
+        int dim = image.length;
+        ByteBuffer response = ByteBuffer.allocate(4 + dim * dim);
+        response.putInt(dim);
+        for (int[] row : image) {
+            for (int pixel : row) {
+                response.put((byte) pixel);
+            }
+        }
+        return response.array();
+    }
+
+    /**
+     * Read the raw size from the header of an ASCII or binary RIT file.
+     *
+     * @param file the RIT file
+     * @return the number of pixels in the image
+     * @throws IOException if the file can't be read
+     * @throws QTException if the header is damaged
+     */
+    private static int rawSize(byte[] file) throws IOException, QTException {
+        boolean binary = file.length >= RITFormat.MAGIC.length;
+        for (int i = 0; binary && i < RITFormat.MAGIC.length; i++) {
+            binary = file[i] == RITFormat.MAGIC[i];
+        }
+        if (binary) {
+            ByteBuffer header = ByteBuffer.wrap(file);
+            RITFormat.readEncoding(header);
+            return RITFormat.readVarint(header);
+        }
+        try (AsciiPreorderSource values = new AsciiPreorderSource(new ByteArrayInputStream(file))) {
+            return values.next();
+        }
+    }
+
+    /**
+     * Record that a job was answered.
+     *
+     * @param latency how long it took, in nanoseconds
+     * @param ok whether it succeeded
+     */
+    private void record(long latency, boolean ok) {
+        long count = done.getAndIncrement();
+        if (!ok) {
+            failed.incrementAndGet();
+        }
+        synchronized (latencies) {
+            latencies[(int) (count % LATENCIES)] = latency;
+        }
+    }
+
+    /**
+     * Describe the state of the server.
+     *
+     * @return the stats, a line each
+     */
+    public String stats() {
+        long count = done.get();
+        long recent[];
+        synchronized (latencies) {
+            recent = Arrays.copyOf(latencies, (int) Math.min(count, LATENCIES));
+        }
+        Arrays.sort(recent);
+        StringBuilder stats = new StringBuilder();
+        stats.append("Waiting: ").append(workers.getQueue().size()).append('\n');
+        stats.append("Running: ").append(workers.getActiveCount()).append('\n');
+        stats.append("Most waiting: ").append(maxWaiting.get()).append('\n');
+        stats.append("Done: ").append(count).append('\n');
+        stats.append("Failed: ").append(failed.get()).append('\n');
+        if (recent.length > 0) {
+            stats.append(String.format("Latency (ms): p50 %.2f  p90 %.2f  p99 %.2f  max %.2f%n",
+                    percentile(recent, 50) / 1e6, percentile(recent, 90) / 1e6,
+                    percentile(recent, 99) / 1e6, recent[recent.length - 1] / 1e6));
+        }
+        if (cache != null) {
+            stats.append("Cache: ").append(cache).append('\n');
+        }
+        return stats.toString();
+    }
+
+    /**
+     * Get a percentile of sorted values, by the nearest rank.
+     *
+     * @param sorted the values, sorted
+     * @param percent the percentile
+     * @return the value
+     */
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * The main routine.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queueLength = 0;
+        int connections = DEFAULT_CONNECTIONS;
+        String dictionaryFile = null;
+        long cacheBudget = 0;
+        File cacheDirectory = null;
+        int maxPixels = DEFAULT_MAX_PIXELS;
+        int arg = 0;
+        // every argument is an option with a value
+        for (; arg + 1 < args.length; arg += 2) {
+            try {
+                if (args[arg].equals("-port")) {
+                    port = Integer.parseInt(args[arg + 1]);
+                } else if (args[arg].equals("-threads")) {
+                    threads = Integer.parseInt(args[arg + 1]);
+                } else if (args[arg].equals("-queue")) {
+                    queueLength = Integer.parseInt(args[arg + 1]);
+                } else if (args[arg].equals("-connections")) {
+                    connections = Integer.parseInt(args[arg + 1]);
+                } else if (args[arg].equals("-dict")) {
+                    dictionaryFile = args[arg + 1];
+                } else if (args[arg].equals("-cache")) {
+                    cacheBudget = Long.parseLong(args[arg + 1]) << 20;
+                } else if (args[arg].equals("-cachedir")) {
+                    cacheDirectory = new File(args[arg + 1]);
+                } else if (args[arg].equals("-maxpixels")) {
+                    maxPixels = Integer.parseInt(args[arg + 1]);
+                } else {
+                    break;
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("Bad number: " + args[arg + 1]);
+                return;
+            }
+        }
+        if (arg != args.length) {
+            System.out.println("Usage: java RITServer [-port port] [-threads count] [-queue length] " +
+                    "[-connections count] [-dict dictionary] [-cache megabytes] [-cachedir directory] " +
+                    "[-maxpixels count]");
+            return;
+        }
+        if (queueLength == 0) {
+            queueLength = 4 * threads;
+        }
+
+        try (ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            RITCache cache = null;
+            if (cacheBudget > 0 || cacheDirectory != null) {
+                cache = new RITCache(cacheBudget, RITCache.DEFAULT_STRIPES, cacheDirectory);
+            }
+            RITServer server = new RITServer(threads, queueLength, connections,
+                    dictionaryFile == null ? null : RITDictionary.read(dictionaryFile), cache, maxPixels);
+            System.out.println("Listening on " + socket.getLocalSocketAddress() + " with " + threads +
+                    " workers, queue " + queueLength + ", " + connections + " connections");
+            server.serve(socket);
+        } catch (Exception e) {
+            System.err.println(e);
+        }
+    }
+}
@@ -0,0 +1,419 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A tiled RIT container, for images too large to hold in memory or that
+ * aren't 2^n x 2^n.  The image is cut into square tiles, each compressed
+ * into its own binary RIT image, so only a band of rows and one tile are
+ * ever in memory at once.  Tiles that hang over the right or bottom edge
+ * are padded with a single color, which the tree covers with a handful
+ * of large leaves.  (Repeating the edge pixels instead makes stripes that
+ * split all the way down.)  The layout is:
+ *
+ *      - a 4 byte magic number, "RITT"
+ *      - a version byte
+ *      - the width, height and tile size of the image as varints
+ *      - the offset of every tile from the start of the file as an 8 byte
+ *        long, by row, followed by the offset of the end of the last tile
+ *      - the tiles, each a complete binary RIT image (see RITFormat)
+ *
+ * An open container reads any tile on demand through its own mapping of
+ * the file.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITTiles implements Closeable {
+    /** the magic number at the start of every tiled RIT file */
+    public final static byte[] MAGIC = {'R', 'I', 'T', 'T'};
+
+    /** the current version of the tiled format */
+    public final static int VERSION = 1;
+
+    /** the color of the padding in the edge tiles */
+    private final static int PADDING = 0;
+
+    /** the longest the fixed fields of the header can be */
+    private final static int MAX_HEADER = 4 + 1 + 3 * 5;
+
+    /** the file being read */
+    private final FileChannel channel;
+
+    /** the width of the image */
+    private final int width;
+
+    /** the height of the image */
+    private final int height;
+
+    /** the square dimension of the tiles */
+    private final int tileSize;
+
+    /** the number of tiles across the image */
+    private final int across;
+
+    /** the number of tiles down the image */
+    private final int down;
+
+    /** where each tile starts, followed by where the last one ends */
+    private final long offsets[];
+
+    /**
+     * Open a tiled RIT file for reading.
+     *
+     * @param filename the name of the tiled file
+     * @throws IOException if there are issues reading the file
+     * @throws QTException if the file isn't a valid tiled RIT file
+     */
+    public RITTiles(String filename) throws IOException, QTException {
+        this.channel = new FileInputStream(filename).getChannel();
+        try
+        {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), MAX_HEADER));
+            for(byte b : MAGIC)
+            {
+                if(!header.hasRemaining() || header.get() != b)
+                {
+                    throw new QTException("Error uncompressing.  Not a tiled RIT file.");
+                }
+            }
+            if(!header.hasRemaining() || header.get() != VERSION)
+            {
+                throw new QTException("Error uncompressing.  Unsupported RIT version.");
+            }
+            this.width = RITFormat.readVarint(header);
+            this.height = RITFormat.readVarint(header);
+            this.tileSize = RITFormat.readVarint(header);
+            if(this.tileSize < 1 || Integer.bitCount(this.tileSize) != 1)
+            {
+                throw new QTException("Error uncompressing.  Bad tile size.");
+            }
+            this.across = (int) (((long) this.width + this.tileSize - 1) / this.tileSize);
+            this.down = (int) (((long) this.height + this.tileSize - 1) / this.tileSize);
+            long count = (long) this.across * this.down + 1;
+            if(header.position() + 8 * count > channel.size())
+            {
+                throw new QTException("Error uncompressing.  Damaged tile table.");
+            }
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, header.position(), 8 * count);
+            this.offsets = new long[(int) count];
+            table.asLongBuffer().get(this.offsets);
+            long previous = header.position() + 8 * count;
+            for(long offset : this.offsets)
+            {
+                if(offset < previous || offset > channel.size())
+                {
+                    throw new QTException("Error uncompressing.  Damaged tile table.");
+                }
+                previous = offset;
+            }
+        }
+        catch(IOException | QTException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check whether a file starts with the tiled magic number.
+     *
+     * @param filename the name of the file to check
+     * @return whether the file is a tiled RIT file
+     * @throws IOException if there are issues reading the file
+     */
+    public static boolean isTiled(String filename) throws IOException
+    {
+        try(InputStream in = new FileInputStream(filename))
+        {
+            for(byte b : MAGIC)
+            {
+                if(in.read() != (b & 0xFF))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Get the width of the image.
+     *
+     * @return the width
+     */
+    public int getWidth() { return this.width; }
+
+    /**
+     * Get the height of the image.
+     *
+     * @return the height
+     */
+    public int getHeight() { return this.height; }
+
+    /**
+     * Get the square dimension of the tiles.
+     *
+     * @return the tile size
+     */
+    public int getTileSize() { return this.tileSize; }
+
+    /**
+     * Get the number of tiles across the image.
+     *
+     * @return the number of tile columns
+     */
+    public int getTilesAcross() { return this.across; }
+
+    /**
+     * Get the number of tiles down the image.
+     *
+     * @return the number of tile rows
+     */
+    public int getTilesDown() { return this.down; }
+
+    /**
+     * Map the compressed bytes of one tile.  The size in the tile's header
+     * is checked first, since a damaged tile could claim to be any size.
+     *
+     * @param tileRow the row of the tile
+     * @param tileCol the column of the tile
+     * @return the tile's binary RIT image
+     * @throws IOException if there are issues mapping the file
+     * @throws QTException if the tile is the wrong size
+     */
+    private ByteBuffer tileBytes(int tileRow, int tileCol) throws IOException, QTException
+    {
+        int tile = tileRow * across + tileCol;
+        ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, offsets[tile],
+                offsets[tile + 1] - offsets[tile]);
+        ByteBuffer header = bytes.duplicate();
+        RITFormat.readEncoding(header);
+        if(RITFormat.readVarint(header) != (long) tileSize * tileSize)
+        {
+            throw new QTException("Error uncompressing.  Tile is the wrong size.");
+        }
+        return bytes;
+    }
+
+    /**
+     * Uncompress one tile, padding included.
+     *
+     * @param tileRow the row of the tile
+     * @param tileCol the column of the tile
+     * @return the pixels of the tile, by row
+     * @throws IOException if there are issues reading the file
+     * @throws QTException if the tile is damaged
+     */
+    public int[][] readTile(int tileRow, int tileCol) throws IOException, QTException
+    {
+        if(tileRow < 0 || tileRow >= down || tileCol < 0 || tileCol >= across)
+        {
+            throw new IllegalArgumentException("No tile at " + tileRow + ", " + tileCol);
+        }
+        QTree tree = new QTree();
+        tree.uncompress(tileBytes(tileRow, tileCol));
+        return tree.getImage();
+    }
+
+    /**
+     * Uncompress the band of tiles in one row and copy the image's rows
+     * out of it.
+     *
+     * @param tileRow the row of tiles
+     * @param rows where to copy the rows, at least tileSize x width
+     * @return the number of the image's rows in the band
+     * @throws IOException if there are issues reading the file
+     * @throws QTException if a tile is damaged
+     */
+    private int readBand(int tileRow, int[][] rows) throws IOException, QTException
+    {
+        int count = Math.min(tileSize, height - tileRow * tileSize);
+        for(int tc = 0; tc < across; tc++)
+        {
+            int tile[][] = readTile(tileRow, tc);
+            int cols = Math.min(tileSize, width - tc * tileSize);
+            for(int r = 0; r < count; r++)
+            {
+                System.arraycopy(tile[r], 0, rows[r], tc * tileSize, cols);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Uncompress the whole image.
+     *
+     * @return the pixels of the image, by row
+     * @throws IOException if there are issues reading the file
+     * @throws QTException if a tile is damaged
+     */
+    public int[][] read() throws IOException, QTException
+    {
+        int image[][] = new int[height][width];
+        int band[][] = new int[tileSize][];
+        for(int tr = 0; tr < down; tr++)
+        {
+            //the band's rows are the image's own rows
+            for(int r = 0; r < tileSize && tr * tileSize + r < height; r++)
+            {
+                band[r] = image[tr * tileSize + r];
+            }
+            readBand(tr, band);
+        }
+        return image;
+    }
+
+    /**
+     * Uncompress a rectangle of the image.  Only the tiles that overlap
+     * it are read, and only their quadrants that overlap it are decoded
+     * (see RITRegion.decode()).
+     *
+     * @param row the top row of the rectangle
+     * @param col the left column of the rectangle
+     * @param regionHeight the height of the rectangle
+     * @param regionWidth the width of the rectangle
+     * @return the pixels of the rectangle, by row
+     * @throws IOException if there are issues reading the file
+     * @throws QTException if a tile is damaged
+     */
+    public int[][] readRegion(int row, int col, int regionHeight, int regionWidth)
+            throws IOException, QTException
+    {
+        if(row < 0 || col < 0 || regionHeight < 0 || regionWidth < 0
+                || (long) row + regionHeight > height || (long) col + regionWidth > width)
+        {
+            throw new IllegalArgumentException("Region is outside the " + width + "x" + height + " image");
+        }
+        int region[][] = new int[regionHeight][regionWidth];
+        if(regionHeight == 0 || regionWidth == 0)
+        {
+            return region;
+        }
+        for(int tr = row / tileSize; tr <= (row + regionHeight - 1) / tileSize; tr++)
+        {
+            for(int tc = col / tileSize; tc <= (col + regionWidth - 1) / tileSize; tc++)
+            {
+                RITRegion.decode(tileBytes(tr, tc), null, tr * tileSize, tc * tileSize, region, row, col);
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Uncompress the image into a binary PGM file, a band of tiles at a
+     * time, so the image never has to fit in memory.
+     *
+     * @param filename the name of the PGM file
+     * @throws IOException if there are issues reading or writing the files
+     * @throws QTException if a tile is damaged
+     */
+    public void writePGM(String filename) throws IOException, QTException
+    {
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(filename)))
+        {
+            ImageFiles.writePGMHeader(out, width, height);
+            int band[][] = new int[tileSize][width];
+            byte bytes[] = new byte[width];
+            for(int tr = 0; tr < down; tr++)
+            {
+                int count = readBand(tr, band);
+                for(int r = 0; r < count; r++)
+                {
+                    ImageFiles.writePGMRow(out, band[r], width, bytes);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Compress an image into a tiled RIT file.  The image is read a band
+     * of tileSize rows at a time, and every tile is compressed and written
+     * with the settings of the given tree (see QTree.writeBinary()).
+     *
+     * @param tree the tree to compress each tile with
+     * @param inputFile the name of a binary PGM or ASCII raw image file
+     * @param outputFile the name of the tiled file to write
+     * @param tileSize the square dimension of the tiles, a power of 2
+     * @return the total compressed size of the tiles
+     * @throws IOException if there are issues reading or writing the files
+     * @throws QTException if a tile can't be written
+     */
+    public static long compress(QTree tree, String inputFile, String outputFile, int tileSize)
+            throws IOException, QTException
+    {
+        if(tileSize < 1 || Integer.bitCount(tileSize) != 1)
+        {
+            throw new IllegalArgumentException("Bad tile size: " + tileSize);
+        }
+        try(RasterReader in = new RasterReader(inputFile);
+            RandomAccessFile out = new RandomAccessFile(outputFile, "rw"))
+        {
+            out.setLength(0);
+            int width = in.getWidth();
+            int height = in.getHeight();
+            int across = (int) (((long) width + tileSize - 1) / tileSize);
+            int down = (int) (((long) height + tileSize - 1) / tileSize);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            header.write(MAGIC);
+            header.write(VERSION);
+            RITFormat.writeVarint(header, width);
+            RITFormat.writeVarint(header, height);
+            RITFormat.writeVarint(header, tileSize);
+            out.write(header.toByteArray());
+            //the table is filled in once the tiles are written
+            long offsets[] = new long[across * down + 1];
+            long tableStart = out.getFilePointer();
+            out.seek(tableStart + 8L * offsets.length);
+
+            int band[][] = new int[tileSize][width];
+            int tile[][] = new int[tileSize][tileSize];
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            long compressed = 0;
+            for(int tr = 0; tr < down; tr++)
+            {
+                int rows = Math.min(tileSize, height - tr * tileSize);
+                for(int r = 0; r < rows; r++)
+                {
+                    in.readRow(band[r]);
+                }
+                for(int tc = 0; tc < across; tc++)
+                {
+                    int col = tc * tileSize;
+                    int cols = Math.min(tileSize, width - col);
+                    for(int r = 0; r < tileSize; r++)
+                    {
+                        if(r < rows)
+                        {
+                            System.arraycopy(band[r], col, tile[r], 0, cols);
+                            Arrays.fill(tile[r], cols, tileSize, PADDING);
+                        }
+                        else
+                        {
+                            Arrays.fill(tile[r], PADDING);
+                        }
+                    }
+                    tree.compress(tile);
+                    compressed += tree.getCompressedSize();
+                    bytes.reset();
+                    tree.writeBinary(bytes);
+                    offsets[tr * across + tc] = out.getFilePointer();
+                    out.write(bytes.toByteArray());
+                }
+            }
+            offsets[offsets.length - 1] = out.getFilePointer();
+            ByteBuffer table = ByteBuffer.allocate(8 * offsets.length);
+            table.asLongBuffer().put(offsets);
+            out.seek(tableStart);
+            out.write(table.array());
+            return compressed;
+        }
+    }
+}
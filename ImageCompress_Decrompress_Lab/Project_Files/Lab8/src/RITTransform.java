@@ -0,0 +1,423 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Rich Image Tool transformer.  This program rotates or mirrors a RIT
+ * compressed file, or cuts an aligned quadrant out of it, without
+ * uncompressing it (see transform() and crop()), and writes the result as
+ * a binary file.
+ *
+ * $ java RITTransform [-dict dictionary]
+ *          rotate90|rotate180|rotate270|fliph|flipv|transpose|transverse
+ *          input-file output-file
+ * $ java RITTransform [-dict dictionary] crop row col size input-file output-file
+ *
+ * A file compressed with a dictionary needs it to be read, and is written
+ * with it again.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITTransform {
+    /** leave the image as it is */
+    public final static int IDENTITY = 0;
+
+    /** rotate the image a quarter turn clockwise */
+    public final static int ROTATE_90 = 1;
+
+    /** rotate the image a half turn */
+    public final static int ROTATE_180 = 2;
+
+    /** rotate the image a quarter turn counterclockwise */
+    public final static int ROTATE_270 = 3;
+
+    /** mirror the image left to right */
+    public final static int FLIP_HORIZONTAL = 4;
+
+    /** mirror the image top to bottom */
+    public final static int FLIP_VERTICAL = 5;
+
+    /** mirror the image about the diagonal from its top left corner */
+    public final static int TRANSPOSE = 6;
+
+    /** mirror the image about the diagonal from its top right corner */
+    public final static int TRANSVERSE = 7;
+
+    /** the names of the transforms, in the order of their constants */
+    private final static String[] NAMES = {"identity", "rotate90", "rotate180", "rotate270",
+            "fliph", "flipv", "transpose", "transverse"};
+
+    /**
+     * Get the name of a transform.
+     *
+     * @param transform the transform
+     * @return its name on the command line
+     */
+    static String name(int transform) {
+        return NAMES[transform];
+    }
+
+    /**
+     * Rotate or mirror a RIT compressed file without uncompressing it.  On
+     * a quadtree these only move the quadrants of every split, and the
+     * pixels of every raw block, so the file's preorder is read once and
+     * the tree of nodes is built with each subtree where the transform puts
+     * it.  If the tree has setFlat() on, the tree is read flat and its
+     * arrays reordered instead, which is much cheaper for a busy image than
+     * a node per value.  The tree can then be written with write() or
+     * writeBinary() in any encoding.  A level order file has no preorder,
+     * so it can't be transformed.
+     *
+     * @param tree the tree to keep the result as, read with its dictionary
+     * @param filename the name of the compressed file, ASCII or binary
+     * @param transform IDENTITY, ROTATE_90, ROTATE_180, ROTATE_270,
+     * FLIP_HORIZONTAL, FLIP_VERTICAL, TRANSPOSE or TRANSVERSE
+     * @throws IOException if there are issues reading the file
+     * @throws QTException if there are issues parsing the data in the file
+     */
+    public static void transform(QTree tree, String filename, int transform) throws IOException, QTException {
+        if (RITFormat.isBinary(filename)) {
+            try (FileChannel channel = new FileInputStream(filename).getChannel()) {
+                transform(tree, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), transform);
+            }
+            return;
+        }
+        checkTransform(transform);
+        try (AsciiPreorderSource values = new AsciiPreorderSource(new FileInputStream(filename))) {
+            transform(tree, values, (int) Math.sqrt(values.next()), transform);
+        }
+    }
+
+    /**
+     * Rotate or mirror a binary RIT image held in a buffer, as
+     * transform(QTree, String, int) does for a file.
+     *
+     * @param tree the tree to keep the result as, read with its dictionary
+     * @param buffer the compressed image, positioned at its header
+     * @param transform the transform (see transform(QTree, String, int))
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if there are issues parsing the data in the buffer
+     */
+    public static void transform(QTree tree, ByteBuffer buffer, int transform) throws IOException, QTException {
+        checkTransform(transform);
+        //an index holds offsets from the start of the image
+        buffer = buffer.slice();
+        int encoding = RITFormat.readEncoding(buffer);
+        int size = (int) Math.sqrt(RITFormat.readVarint(buffer));
+        PreorderSource values = source(buffer, encoding, size, tree);
+        transform(tree, values, size, transform);
+        finish(values);
+    }
+
+    /**
+     * Read the values of a compressed image into a transformed tree, flat
+     * if the tree has setFlat() on.
+     *
+     * @param tree the tree to keep the result as
+     * @param values the source of the values, in preorder
+     * @param size the square dimension of the image
+     * @param transform the transform
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if there are issues parsing the values
+     */
+    private static void transform(QTree tree, PreorderSource values, int size, int transform)
+            throws IOException, QTException {
+        if (tree.isFlat()) {
+            FlatQTree flatTree = FlatQTree.read(values, size).transform(transform, size);
+            tree.load(null, flatTree, size, flatTree.size());
+            return;
+        }
+        int count[] = new int[1];
+        tree.load(read(values, size, transform, count), null, size, count[0]);
+    }
+
+    /**
+     * Cut an aligned quadrant out of a RIT compressed file without
+     * uncompressing it.  The quadrant is a subtree, so only the values on
+     * the way to it are read: the quadrants before it are stepped over
+     * (see PreorderSource.skip()) and nothing after it is read at all.  If
+     * the quadrant lies inside a leaf or a raw block, it is cut from that.
+     * The tree can then be written with write() or writeBinary().
+     *
+     * @param tree the tree to keep the quadrant as, read with its dictionary
+     * @param filename the name of the compressed file, ASCII or binary
+     * @param row the top row of the quadrant, a multiple of size
+     * @param col the left column of the quadrant, a multiple of size
+     * @param size the size of the quadrant, a power of 2
+     * @throws IOException if there are issues reading the file
+     * @throws QTException if there are issues parsing the data in the file
+     */
+    public static void crop(QTree tree, String filename, int row, int col, int size)
+            throws IOException, QTException {
+        if (RITFormat.isBinary(filename)) {
+            try (FileChannel channel = new FileInputStream(filename).getChannel()) {
+                crop(tree, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), row, col, size);
+            }
+            return;
+        }
+        try (AsciiPreorderSource values = new AsciiPreorderSource(new FileInputStream(filename))) {
+            int dim = (int) Math.sqrt(values.next());
+            checkQuadrant(dim, row, col, size);
+            int count[] = new int[1];
+            tree.load(crop(values, dim, row, col, size, count), null, size, count[0]);
+        }
+    }
+
+    /**
+     * Cut an aligned quadrant out of a binary RIT image held in a buffer,
+     * as crop(QTree, String, int, int, int) does for a file.
+     *
+     * @param tree the tree to keep the quadrant as, read with its dictionary
+     * @param buffer the compressed image, positioned at its header
+     * @param row the top row of the quadrant, a multiple of size
+     * @param col the left column of the quadrant, a multiple of size
+     * @param size the size of the quadrant, a power of 2
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if there are issues parsing the data in the buffer
+     */
+    public static void crop(QTree tree, ByteBuffer buffer, int row, int col, int size)
+            throws IOException, QTException {
+        buffer = buffer.slice();
+        int encoding = RITFormat.readEncoding(buffer);
+        int dim = (int) Math.sqrt(RITFormat.readVarint(buffer));
+        checkQuadrant(dim, row, col, size);
+        int count[] = new int[1];
+        PreorderSource values = source(buffer, encoding, dim, tree);
+        QTNode root = crop(values, dim, row, col, size, count);
+        finish(values);
+        tree.load(root, null, size, count[0]);
+    }
+
+    /**
+     * Get the source of the values of a binary image.  The values are read
+     * in preorder, so an index is of no use, but it is checked and left out
+     * of the values, so a damaged one is found as it would be by a decoder
+     * that uses it.
+     *
+     * @param buffer the compressed image, positioned after its header
+     * @param encoding the encoding from the header
+     * @param size the square dimension of the image
+     * @param tree the tree to keep the result as, read with its dictionary
+     * @return the source of the values
+     * @throws QTException if the index is missing or damaged, or the
+     * encoding has no preorder
+     */
+    private static PreorderSource source(ByteBuffer buffer, int encoding, int size, QTree tree)
+            throws QTException {
+        if (encoding == RITFormat.ENCODING_INDEXED_PREORDER) {
+            RITIndex.read(buffer);
+            buffer.limit(RITIndex.start(buffer));
+        }
+        return QTree.source(buffer, encoding, size, tree.getDictionary());
+    }
+
+    /**
+     * Check that the values read came from the buffer rather than past its
+     * end.  The coded bits of an entropy coded image can't tell by
+     * themselves that they were cut short.
+     *
+     * @param values the source of the values
+     * @throws QTException if more was read than the buffer holds
+     */
+    private static void finish(PreorderSource values) throws QTException {
+        if (values instanceof EntropyPreorderSource) {
+            ((EntropyPreorderSource) values).finish();
+        }
+    }
+
+    /**
+     * Check that a transform is one of the transforms.
+     *
+     * @param transform the transform
+     */
+    private static void checkTransform(int transform) {
+        if (transform < IDENTITY || transform > TRANSVERSE) {
+            throw new IllegalArgumentException("Unknown transform: " + transform);
+        }
+    }
+
+    /**
+     * Check that a quadrant is aligned and inside an image.
+     *
+     * @param dim the square dimension of the image
+     * @param row the top row of the quadrant
+     * @param col the left column of the quadrant
+     * @param size the size of the quadrant
+     */
+    private static void checkQuadrant(int dim, int row, int col, int size) {
+        if (size < 1 || Integer.bitCount(size) != 1 || size > dim || row < 0 || col < 0
+                || row % size != 0 || col % size != 0 || row + size > dim || col + size > dim) {
+            throw new IllegalArgumentException("Not an aligned quadrant of a " + dim + "x" + dim + " image: "
+                    + size + "x" + size + " at " + row + "," + col);
+        }
+    }
+
+    /**
+     * Read a subtree into nodes, moving each quadrant and raw block pixel
+     * where a transform puts it as it is read.
+     *
+     * @param values the source of the values, in preorder
+     * @param size the size of the subtree's region
+     * @param transform the transform
+     * @param count the number of values read so far, added to
+     * @return the root of the transformed subtree
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if there are issues parsing the values
+     */
+    private static QTNode read(PreorderSource values, int size, int transform, int[] count)
+            throws IOException, QTException {
+        int value = values.next();
+        count[0]++;
+        if (value == QTree.QUAD_SPLIT) {
+            if (size == 1) {
+                throw new QTException("Error uncompressing.  Split below pixel level.");
+            }
+            QTNode children[] = new QTNode[4];
+            for (int q = 0; q < 4; q++) {
+                children[moved(transform, q / 2, q % 2, 2)] = read(values, size / 2, transform, count);
+            }
+            return new QTNode(QTree.QUAD_SPLIT, children[0], children[1], children[2], children[3]);
+        }
+        if (value == QTree.RAW_BLOCK) {
+            int pixels[] = new int[size * size];
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    pixels[moved(transform, r, c, size)] = values.pixel();
+                }
+            }
+            count[0] += pixels.length;
+            return new QTNode(pixels);
+        }
+        return new QTNode(value);
+    }
+
+    /**
+     * Find where a transform moves a pixel of a square block.
+     *
+     * @param transform the transform
+     * @param row the row of the pixel
+     * @param col the column of the pixel
+     * @param size the size of the block
+     * @return where the pixel ends up, as row * size + col
+     */
+    static int moved(int transform, int row, int col, int size) {
+        int last = size - 1;
+        switch (transform) {
+            case ROTATE_90:
+                return col * size + (last - row);
+            case ROTATE_180:
+                return (last - row) * size + (last - col);
+            case ROTATE_270:
+                return (last - col) * size + row;
+            case FLIP_HORIZONTAL:
+                return row * size + (last - col);
+            case FLIP_VERTICAL:
+                return (last - row) * size + col;
+            case TRANSPOSE:
+                return col * size + row;
+            case TRANSVERSE:
+                return (last - col) * size + (last - row);
+            default:
+                return row * size + col;
+        }
+    }
+
+    /**
+     * Read the subtree of an aligned quadrant into nodes, stepping over the
+     * quadrants before it at every level.
+     *
+     * @param values the source of the values, in preorder
+     * @param blockSize the size of the current node's region
+     * @param row the top row of the quadrant, within the current region
+     * @param col the left column of the quadrant, within the current region
+     * @param size the size of the quadrant
+     * @param count the number of values read so far, added to
+     * @return the root of the quadrant's subtree
+     * @throws IOException if there are issues reading the values
+     * @throws QTException if there are issues parsing the values
+     */
+    private static QTNode crop(PreorderSource values, int blockSize, int row, int col, int size, int[] count)
+            throws IOException, QTException {
+        if (blockSize == size) {
+            return read(values, size, IDENTITY, count);
+        }
+        int value = values.next();
+        if (value == QTree.QUAD_SPLIT) {
+            int half = blockSize / 2;
+            int target = (row >= half ? 2 : 0) + (col >= half ? 1 : 0);
+            for (int q = 0; q < target; q++) {
+                values.skip(half);
+            }
+            // the quadrants after it are never read
+            return crop(values, half, row % half, col % half, size, count);
+        }
+        if (value == QTree.RAW_BLOCK) {
+            int pixels[] = new int[size * size];
+            for (int r = 0; r < blockSize; r++) {
+                for (int c = 0; c < blockSize; c++) {
+                    int pixel = values.pixel();
+                    if (r >= row && r < row + size && c >= col && c < col + size) {
+                        pixels[(r - row) * size + (c - col)] = pixel;
+                    }
+                }
+            }
+            if (size == 1) {
+                count[0]++;
+                return new QTNode(pixels[0]);
+            }
+            count[0] += 1 + pixels.length;
+            return new QTNode(pixels);
+        }
+        // the quadrant is all one value
+        count[0]++;
+        return new QTNode(value);
+    }
+
+    /**
+     * The main routine.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        String dictionaryFile = null;
+        int arg = 0;
+        if (args.length >= 2 && args[0].equals("-dict")) {
+            dictionaryFile = args[1];
+            arg = 2;
+        }
+        int transform = Arrays.asList(NAMES).indexOf(arg < args.length ? args[arg] : "");
+        boolean crop = arg < args.length && args[arg].equals("crop");
+        if (!(crop && args.length - arg == 6) && !(transform > 0 && args.length - arg == 3)) {
+            System.out.println("Usage: java RITTransform [-dict dictionary] " +
+                    "rotate90|rotate180|rotate270|fliph|flipv|transpose|transverse input-file output-file");
+            System.out.println("       java RITTransform [-dict dictionary] crop row col size input-file output-file");
+            return;
+        }
+
+        try {
+            QTree tree = new QTree();
+            if (dictionaryFile != null) {
+                tree.setDictionary(RITDictionary.read(dictionaryFile));
+            } else {
+                // writing with a dictionary needs a tree of nodes
+                tree.setFlat(true);
+            }
+            if (crop) {
+                crop(tree, args[arg + 4], Integer.parseInt(args[arg + 1]), Integer.parseInt(args[arg + 2]),
+                        Integer.parseInt(args[arg + 3]));
+            } else {
+                transform(tree, args[arg + 1], transform);
+            }
+            String outputFile = args[args.length - 1];
+            tree.writeBinary(outputFile);
+            System.out.println("Image size: " + tree.getDim() + "x" + tree.getDim());
+            System.out.println("Compressed image size: " + tree.getCompressedSize());
+            System.out.println("File size (bytes): " + new File(outputFile).length());
+        } catch (Exception e) {
+            System.err.println(e);
+        }
+    }
+}
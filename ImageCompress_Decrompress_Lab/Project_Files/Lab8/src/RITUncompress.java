@@ -1,8 +1,26 @@
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
 /**
  * Rich Image Tool uncompressor.  This program takes a compressed RIT file,
- * uncompresses it, and then displays the image using RITViewer.
+ * uncompresses it, and then displays the image using RITViewer.  Both the
+ * ASCII and the binary formats are accepted.
+ *
+ * $ java RITUncompress [-o image.pgm|image.png] [-size resolution]
+ *          [-dict dictionary] filename.rit
  *
- * $ java RITUncompress filename.rit
+ * The -o option writes the image to a binary PGM or 8-bit grayscale PNG
+ * file instead of displaying it, so it needs no display, and skips
+ * printing the tree, so no tree is kept while decoding.  Tiled files (see
+ * RITTiles) are accepted too; written to PGM, they are uncompressed a band
+ * of tiles at a time.  The -size option uncompresses a resolution x
+ * resolution preview instead of the whole image, where every block
+ * becomes the mean of its pixels (see RITRegion.preview()).
+ * A level order file (see LevelOrderDecoder) is displayed while it is
+ * read: the whole image appears coarse after the first levels and is
+ * refined as the rest arrive.  The -dict option gives the dictionary a
+ * file was compressed with (see RITDictionary).
  *
  * @author Sean Strout @ RIT
  * @author Benjamin Mitchell
@@ -15,28 +33,149 @@ public class RITUncompress {
      * @param args command line arguments
      */
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: ImageTool filename");
+        String imageFile = null;
+        int resolution = 0;
+        String dictionaryFile = null;
+        int arg = 0;
+        // consume the options in front of the file name
+        while (arg + 1 < args.length && args[arg].startsWith("-")) {
+            if (args[arg].equals("-o")) {
+                imageFile = args[arg + 1];
+            } else if (args[arg].equals("-size")) {
+                try {
+                    resolution = Integer.parseInt(args[arg + 1]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Bad resolution: " + args[arg + 1]);
+                    return;
+                }
+            } else if (args[arg].equals("-dict")) {
+                dictionaryFile = args[arg + 1];
+            } else {
+                System.out.println("Unknown option: " + args[arg]);
+                return;
+            }
+            arg += 2;
+        }
+        if (args.length - arg != 1 || args[arg].startsWith("-")) {
+            System.out.println("Usage: ImageTool [-o image.pgm|image.png] [-size resolution] " +
+                    "[-dict dictionary] filename");
             return;
         }
 
         try {
-            // initialize the tree
-            QTree tree = new QTree();
+            // a tiled image is uncompressed tile by tile
+            if (RITTiles.isTiled(args[arg])) {
+                uncompressTiles(args[arg], imageFile);
+                return;
+            }
+
+            // a level order file is shown coarse first and refined as it is read
+            if (imageFile == null && resolution == 0 && isLevelOrder(args[arg])) {
+                uncompressLevels(args[arg]);
+                return;
+            }
 
-            // uncompress the tree
-            tree.uncompress(args[0]);
+            RITDictionary dictionary = dictionaryFile != null ? RITDictionary.read(dictionaryFile) : null;
 
-            // print the tree in preorder
-            System.out.println(tree);
+            // uncompress the tree, or just a preview of it
+            int image[][];
+            if (resolution > 0) {
+                image = RITRegion.preview(args[arg], dictionary, resolution);
+            } else {
+                // initialize the tree, keeping the tree that was read only if it is printed
+                QTree tree = new QTree();
+                tree.setDictionary(dictionary);
+                tree.setFlat(imageFile == null);
+                tree.uncompress(args[arg]);
+
+                // print the tree in preorder when the image is displayed
+                if (imageFile == null) {
+                    System.out.println(tree);
+                }
+                image = tree.getImage();
+            }
+
+            // write the image out rather than displaying it
+            if (imageFile != null) {
+                ImageFiles.write(image, imageFile);
+                return;
+            }
 
             // create a separate viewer and pass it the raw image data
-            RITViewer view = new RITViewer(tree.getImage(), tree.getDim());
+            RITViewer view = new RITViewer(image, image.length);
 
             // finally display the image
-            view.display(args[0]);
+            view.display(args[arg]);
         } catch (Exception e) {
             System.err.println(e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Check whether a file is a binary file written a level at a time.
+     *
+     * @param filename the name of the file
+     * @return whether the file is a level order file
+     * @throws Exception if there are issues reading the file
+     */
+    private static boolean isLevelOrder(String filename) throws Exception {
+        if (!RITFormat.isBinary(filename)) {
+            return false;
+        }
+        try (InputStream in = new FileInputStream(filename)) {
+            return RITFormat.readEncoding(in) == RITFormat.ENCODING_LEVEL_ORDER;
+        }
+    }
+
+    /**
+     * Display a level order file while it is read, repainting the viewer
+     * after every level.
+     *
+     * @param filename the name of the level order file
+     * @throws Exception if there are issues uncompressing the image
+     */
+    private static void uncompressLevels(String filename) throws Exception {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filename))) {
+            RITFormat.readEncoding(in);
+            int dim = (int) Math.sqrt(RITFormat.readVarint(in));
+            LevelOrderDecoder levels = new LevelOrderDecoder(in, dim, 1, true);
+
+            // the viewer shows the image the decoder paints into, copying it
+            // on this thread after each level
+            RITViewer view = new RITViewer(levels.getImage(), dim);
+            view.display(filename);
+            int level = 0;
+            while (levels.readLevel()) {
+                level++;
+                view.refresh();
+            }
+            System.out.println("Read " + level + " levels");
+        }
+    }
+
+    /**
+     * Uncompress a tiled file and write or display the image.
+     *
+     * @param filename the name of the tiled file
+     * @param imageFile the name of the image file to write, or null to
+     * display the image
+     * @throws Exception if there are issues uncompressing the image
+     */
+    private static void uncompressTiles(String filename, String imageFile) throws Exception {
+        try (RITTiles tiles = new RITTiles(filename)) {
+            System.out.println("Tiled image: " + tiles.getWidth() + "x" + tiles.getHeight() +
+                    " in " + tiles.getTilesAcross() + "x" + tiles.getTilesDown() +
+                    " tiles of " + tiles.getTileSize() + "x" + tiles.getTileSize());
+            if (imageFile != null && imageFile.toLowerCase().endsWith(".pgm")) {
+                // PGM rows can be written a band at a time
+                tiles.writePGM(imageFile);
+            } else if (imageFile != null) {
+                ImageFiles.write(tiles.read(), imageFile);
+            } else if (tiles.getWidth() == tiles.getHeight()) {
+                new RITViewer(tiles.read(), tiles.getWidth()).display(filename);
+            } else {
+                System.out.println("Only square images can be displayed; use -o to write the image");
+            }
+        }
+    }
+}
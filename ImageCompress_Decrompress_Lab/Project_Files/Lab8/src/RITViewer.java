@@ -1,13 +1,36 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 
 /**
  * A class that visually displays a compressed image that was uncompressed
  * using QTree.
  *
+ * The pixels are copied once into an image that Java2D can keep in video
+ * memory, so a repaint is a single drawImage however often the window is
+ * resized or uncovered.  The copy is made by the thread that wrote the
+ * pixels, under a lock that painting takes too, so the event thread never
+ * reads an image that is still being written (see refresh()).  The mouse
+ * wheel or the + and - keys zoom in and out by powers of 2, keeping the
+ * point under the mouse still, and the image can be panned by dragging it
+ * or with the scroll bars.
+ *
  * @author Sean Strout @ RIT
+ * @author Benjamin Mitchell
  */
 public class RITViewer extends JPanel {
+    /** the smallest zoom, as a power of 2 */
+    private final static int MIN_ZOOM = -4;
+
+    /** the largest zoom, as a power of 2 */
+    private final static int MAX_ZOOM = 5;
+
     /**
      * the raw image of grayscale values (0-255)
      */
@@ -18,6 +41,15 @@ public class RITViewer extends JPanel {
      */
     private final int DIM;
 
+    /** the image as drawn, which is locked while it is copied or drawn */
+    private final BufferedImage picture;
+
+    /** the zoom, as a power of 2 */
+    private int zoom;
+
+    /** where a drag last was, on the screen */
+    private Point dragged;
+
     /**
      * Construct the viewer
      *
@@ -27,38 +59,169 @@ public class RITViewer extends JPanel {
     public RITViewer(int image[][], int dim) {
         this.image = image;
         this.DIM = dim;
+        this.picture = new BufferedImage(Math.max(dim, 1), Math.max(dim, 1), BufferedImage.TYPE_BYTE_GRAY);
+        copyPixels();
+        this.zoom = 0;
+        setPreferredSize(new Dimension(this.DIM, this.DIM));
+        setFocusable(true);
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragged = e.getLocationOnScreen();
+                requestFocusInWindow();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                Point now = e.getLocationOnScreen();
+                JViewport viewport = viewport();
+                if (viewport != null && dragged != null) {
+                    Point view = viewport.getViewPosition();
+                    scrollTo(viewport, view.x - (now.x - dragged.x), view.y - (now.y - dragged.y));
+                }
+                dragged = now;
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoom(-e.getWheelRotation(), e.getPoint());
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyTyped(KeyEvent e) {
+                char key = e.getKeyChar();
+                if (key == '+' || key == '=' || key == '-') {
+                    // zoom about the middle of what is showing
+                    Rectangle visible = getVisibleRect();
+                    zoom(key == '-' ? -1 : 1,
+                            new Point(visible.x + visible.width / 2, visible.y + visible.height / 2));
+                }
+            }
+        });
     }
 
     /**
      * Display the following image.  This causes paintComponent
-     * to get called to load the image.
+     * to get called to load the image.  A window too big for the screen
+     * is shrunk to fit, with scroll bars.
      *
      * @param title the title of the window
      */
     public void display(String title) {
-        setPreferredSize(new Dimension(this.DIM, this.DIM));
         JFrame f = new JFrame();
         f.setTitle(title);
         f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        f.getContentPane().add(this);
+        f.getContentPane().add(new JScrollPane(this));
         f.pack();
+        Rectangle screen = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+        f.setSize(Math.min(f.getWidth(), screen.width), Math.min(f.getHeight(), screen.height));
         f.setVisible(true);
+        requestFocusInWindow();
+    }
+
+    /**
+     * Show the image again after its pixels have changed, as they do while
+     * an image is refined a level at a time.  It must be called by the
+     * thread that changed them, once it has.
+     */
+    public void refresh() {
+        copyPixels();
+        repaint();
+    }
+
+    /**
+     * Copy the pixels into the picture.
+     */
+    private void copyPixels() {
+        synchronized (this.picture) {
+            // setSamples rather than the raster's array, which would keep Java2D
+            // from caching the picture in video memory
+            WritableRaster raster = this.picture.getRaster();
+            for (int row = 0; row < this.DIM; row++) {
+                raster.setSamples(0, row, this.DIM, 1, 0, image[row]);
+            }
+        }
+    }
+
+    /**
+     * Zoom in or out, keeping a point of the image where it is on the
+     * screen.
+     *
+     * @param steps the powers of 2 to zoom in by, or out by if negative
+     * @param anchor the point to keep still, in the viewer's coordinates
+     */
+    public void zoom(int steps, Point anchor) {
+        int next = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, this.zoom + steps));
+        if (next == this.zoom) {
+            return;
+        }
+        double factor = Math.pow(2, next - this.zoom);
+        this.zoom = next;
+        Dimension size = new Dimension(scaledDim(), scaledDim());
+        setPreferredSize(size);
+        // resized now rather than at the next layout, so the view can be moved
+        setSize(size);
+        revalidate();
+        JViewport viewport = viewport();
+        if (viewport != null) {
+            Point view = viewport.getViewPosition();
+            scrollTo(viewport, (int) Math.round(anchor.x * factor) - (anchor.x - view.x),
+                    (int) Math.round(anchor.y * factor) - (anchor.y - view.y));
+        }
+        repaint();
+    }
+
+    /**
+     * Get the width and height of the image as drawn.
+     *
+     * @return the scaled dimension
+     */
+    private int scaledDim() {
+        return this.zoom >= 0 ? this.DIM << this.zoom : Math.max(1, this.DIM >> -this.zoom);
+    }
+
+    /**
+     * Get the viewport the viewer is shown in, if it is in a scroll pane.
+     *
+     * @return the viewport, or null
+     */
+    private JViewport viewport() {
+        return (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this);
     }
 
     /**
-     * Set the pixel values in the graphics context to the color
-     * values in the image.
+     * Move the view, keeping it on the image.
+     *
+     * @param viewport the viewport
+     * @param x the left of the view
+     * @param y the top of the view
+     */
+    private void scrollTo(JViewport viewport, int x, int y) {
+        Dimension extent = viewport.getExtentSize();
+        x = Math.max(0, Math.min(x, getWidth() - extent.width));
+        y = Math.max(0, Math.min(y, getHeight() - extent.height));
+        viewport.setViewPosition(new Point(x, y));
+    }
+
+    /**
+     * Draw the image.
      *
      * @param g the graphics context we are drawing into
      */
+    @Override
     public void paintComponent(Graphics g) {
-        for (int row = 0; row < this.DIM; row++) {
-            for (int col = 0; col < this.DIM; col++) {
-                int c = image[row][col];
-                Color color = new Color(c, c, c);
-                g.setColor(color);
-                g.fillRect(col, row, 1, 1);
-            }
+        super.paintComponent(g);
+        int size = scaledDim();
+        // scaled by nearest neighbor, so zoomed in pixels stay sharp
+        ((Graphics2D) g).setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        synchronized (this.picture) {
+            g.drawImage(this.picture, 0, 0, size, size, null);
         }
     }
 }
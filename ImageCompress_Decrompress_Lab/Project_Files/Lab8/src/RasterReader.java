@@ -0,0 +1,195 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the rows of a grayscale image one at a time, so an image far
+ * larger than the heap can be worked through in bands.  Binary PGM (P5)
+ * files are read straight from their raster; ASCII raw files, which have
+ * no header, are counted first to find their size and must be square.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RasterReader implements Closeable {
+    /** the size of the read buffer */
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    /** the stream positioned at the next row */
+    private final InputStream in;
+
+    /** whether the file is a binary PGM rather than ASCII */
+    private final boolean pgm;
+
+    /** the width of the image */
+    private final int width;
+
+    /** the height of the image */
+    private final int height;
+
+    /** the largest value in a PGM file */
+    private final int maxValue;
+
+    /** the raw bytes of a PGM row */
+    private final byte bytes[];
+
+    /**
+     * Open an image file, telling PGM files apart from ASCII raw files by
+     * their magic number.
+     *
+     * @param filename the name of the image file
+     * @throws IOException if there are issues reading the file, or it isn't
+     * an 8-bit PGM or ASCII raw image
+     */
+    public RasterReader(String filename) throws IOException {
+        InputStream stream = new BufferedInputStream(new FileInputStream(filename), BUFFER_SIZE);
+        try
+        {
+            stream.mark(2);
+            this.pgm = stream.read() == 'P' && stream.read() == '5';
+            if(this.pgm)
+            {
+                this.width = readHeaderNumber(stream);
+                this.height = readHeaderNumber(stream);
+                this.maxValue = readHeaderNumber(stream);
+                if(this.maxValue < 1 || this.maxValue > 255)
+                {
+                    throw new IOException("Only 8-bit PGM images are supported");
+                }
+                //a single whitespace byte separates the header from the raster
+                stream.read();
+                this.bytes = new byte[this.width];
+            }
+            else
+            {
+                stream.reset();
+                this.width = RawImageLoader.dimension(RawImageLoader.count(filename));
+                this.height = this.width;
+                this.maxValue = 255;
+                this.bytes = null;
+            }
+        }
+        catch(IOException e)
+        {
+            stream.close();
+            throw e;
+        }
+        this.in = stream;
+    }
+
+    /**
+     * Read the next number in the header of a PGM file, skipping
+     * whitespace and comments.
+     *
+     * @param in the stream holding the file
+     * @return the number
+     * @throws IOException if the header is damaged
+     */
+    private static int readHeaderNumber(InputStream in) throws IOException
+    {
+        int b = in.read();
+        while(b == '#' || Character.isWhitespace(b))
+        {
+            if(b == '#')
+            {
+                //a comment runs to the end of the line
+                while(b != '\n' && b != -1)
+                {
+                    b = in.read();
+                }
+            }
+            b = in.read();
+        }
+        int value = 0;
+        int digits = 0;
+        while(b >= '0' && b <= '9')
+        {
+            value = value * 10 + (b - '0');
+            digits++;
+            in.mark(1);
+            b = in.read();
+        }
+        if(digits == 0 || digits > 9)
+        {
+            throw new IOException("Bad PGM header");
+        }
+        //the byte after the number belongs to whatever follows it
+        in.reset();
+        return value;
+    }
+
+    /**
+     * Get the width of the image.
+     *
+     * @return the width
+     */
+    public int getWidth() { return this.width; }
+
+    /**
+     * Get the height of the image.
+     *
+     * @return the height
+     */
+    public int getHeight() { return this.height; }
+
+    /**
+     * Read the next row of the image.
+     *
+     * @param row the array to fill, at least getWidth() long
+     * @throws IOException if there are issues reading the file, or it ends
+     * early
+     */
+    public void readRow(int[] row) throws IOException
+    {
+        if(pgm)
+        {
+            int n = 0;
+            while(n < width)
+            {
+                int read = in.read(bytes, n, width - n);
+                if(read < 0)
+                {
+                    throw new IOException("PGM raster is too short");
+                }
+                n += read;
+            }
+            for(int c = 0; c < width; c++)
+            {
+                int v = bytes[c] & 0xFF;
+                row[c] = maxValue == 255 ? v : (v * 255 + maxValue / 2) / maxValue;
+            }
+            return;
+        }
+        for(int c = 0; c < width; c++)
+        {
+            int b = in.read();
+            while(b == '\n' || b == '\r' || b == ' ' || b == '\t')
+            {
+                b = in.read();
+            }
+            if(b < '0' || b > '9')
+            {
+                throw new IOException(b < 0 ? "Raw image is too short"
+                        : "Bad character in raw image: '" + (char) b + "'");
+            }
+            int value = 0;
+            while(b >= '0' && b <= '9')
+            {
+                value = value * 10 + (b - '0');
+                b = in.read();
+            }
+            if(b != '\n' && b != '\r' && b != ' ' && b != '\t' && b != -1)
+            {
+                throw new IOException("Bad character in raw image: '" + (char) b + "'");
+            }
+            row[c] = value;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
@@ -0,0 +1,386 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads a raw image file of grayscale values, one per line, into a square
+ * array of pixels.  The file is memory mapped and cut into chunks at line
+ * boundaries, and the chunks are parsed on the fork/join pool straight out
+ * of the mapping, with no String or Integer made per pixel.
+ *
+ * It takes two passes: the first counts the values in every chunk, which
+ * gives the size of the image and where each chunk's first value goes,
+ * and the second parses every chunk into its place in the image.  As
+ * before, any values past the largest square that fits are ignored.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RawImageLoader {
+    /** the smallest chunk worth a task of its own */
+    private final static long MIN_CHUNK = 1 << 20;
+
+    /** the largest chunk that can be mapped */
+    private final static long MAX_CHUNK = 1 << 30;
+
+    /** the largest grayscale value */
+    private final static int MAX_PIXEL = 255;
+
+    /**
+     * The loader is only a static helper.
+     */
+    private RawImageLoader() {}
+
+    /**
+     * A region of the file that starts at the beginning of a line and ends
+     * after a newline or at the end of the file.
+     */
+    private static class Chunk
+    {
+        /** the mapped bytes of the region */
+        final MappedByteBuffer bytes;
+
+        /** the number of values in the region */
+        int count;
+
+        /** the position in the image of the region's first value */
+        long first;
+
+        /**
+         * Map a region of a file.
+         *
+         * @param channel the file
+         * @param start where the region starts
+         * @param end where the region ends
+         * @throws IOException if there are issues mapping the file
+         */
+        Chunk(FileChannel channel, long start, long end) throws IOException {
+            this.bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            this.count = 0;
+            this.first = 0;
+        }
+
+        /**
+         * Count the values in the region, checking that each is a pixel.
+         *
+         * @throws IOException if the region holds something other than
+         * pixels (0-255) and whitespace
+         */
+        void count() throws IOException
+        {
+            int n = 0;
+            int value = 0;
+            boolean inNumber = false;
+            int limit = bytes.limit();
+            for(int i = 0; i < limit; i++)
+            {
+                int b = bytes.get(i);
+                if(b >= '0' && b <= '9')
+                {
+                    value = value * 10 + (b - '0');
+                    if(value > MAX_PIXEL)
+                    {
+                        throw new IOException("Bad pixel in raw image: " + number(i));
+                    }
+                    inNumber = true;
+                }
+                else
+                {
+                    checkSeparator(b);
+                    if(inNumber)
+                    {
+                        n++;
+                        value = 0;
+                        inNumber = false;
+                    }
+                }
+            }
+            this.count = inNumber ? n + 1 : n;
+        }
+
+        /**
+         * Get the whole number a digit of the region is part of.
+         *
+         * @param i the position of the digit
+         * @return the digits of the number
+         */
+        private String number(int i)
+        {
+            int from = i;
+            while(from > 0 && bytes.get(from - 1) >= '0' && bytes.get(from - 1) <= '9')
+            {
+                from--;
+            }
+            StringBuilder digits = new StringBuilder();
+            for(int to = from; to < bytes.limit() && bytes.get(to) >= '0' && bytes.get(to) <= '9'; to++)
+            {
+                digits.append((char) bytes.get(to));
+            }
+            return digits.toString();
+        }
+
+        /**
+         * Parse the values in the region into the image.  count() has
+         * already checked them.
+         *
+         * @param image the image to fill
+         */
+        void parse(int[][] image)
+        {
+            int dim = image.length;
+            long end = (long) dim * dim;
+            long pos = this.first;
+            if(pos >= end)
+            {
+                return;
+            }
+            int row = (int) (pos / dim);
+            int col = (int) (pos % dim);
+            int value = 0;
+            boolean inNumber = false;
+            int limit = bytes.limit();
+            for(int i = 0; i <= limit; i++)
+            {
+                int b = i < limit ? bytes.get(i) : '\n';
+                if(b >= '0' && b <= '9')
+                {
+                    value = value * 10 + (b - '0');
+                    inNumber = true;
+                }
+                else if(inNumber)
+                {
+                    image[row][col] = value;
+                    value = 0;
+                    inNumber = false;
+                    if(++pos == end)
+                    {
+                        return;
+                    }
+                    if(++col == dim)
+                    {
+                        col = 0;
+                        row++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Make sure a byte between values is whitespace.
+     *
+     * @param b the byte
+     * @throws IOException if it isn't
+     */
+    private static void checkSeparator(int b) throws IOException
+    {
+        if(b != '\n' && b != '\r' && b != ' ' && b != '\t')
+        {
+            throw new IOException("Bad character in raw image: '" + (char) (b & 0xFF) + "'");
+        }
+    }
+
+    /**
+     * A fork/join task that counts or parses a range of chunks, splitting
+     * the range in half until there is one chunk left.
+     */
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveAction
+    {
+        /** the chunks of the file */
+        private final Chunk chunks[];
+
+        /** the first chunk of the range */
+        private final int lo;
+
+        /** one past the last chunk of the range */
+        private final int hi;
+
+        /** the image to parse into, or null to count */
+        private final int image[][];
+
+        /**
+         * Create a task for a range of chunks.
+         *
+         * @param chunks the chunks of the file
+         * @param lo the first chunk of the range
+         * @param hi one past the last chunk of the range
+         * @param image the image to parse into, or null to count
+         */
+        ChunkTask(Chunk[] chunks, int lo, int hi, int[][] image) {
+            this.chunks = chunks;
+            this.lo = lo;
+            this.hi = hi;
+            this.image = image;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(hi - lo > 1)
+            {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new ChunkTask(chunks, lo, mid, image), new ChunkTask(chunks, mid, hi, image));
+                return;
+            }
+            if(image != null)
+            {
+                chunks[lo].parse(image);
+                return;
+            }
+            try
+            {
+                chunks[lo].count();
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Find the start of the first line at or after a position.
+     *
+     * @param channel the file
+     * @param pos the position to search from
+     * @return the position after the next newline, or the end of the file
+     * @throws IOException if there are issues reading the file
+     */
+    private static long lineStart(FileChannel channel, long pos) throws IOException
+    {
+        if(pos == 0)
+        {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        //the line before pos might have ended right at it
+        pos--;
+        while(true)
+        {
+            buffer.clear();
+            int n = channel.read(buffer, pos);
+            if(n <= 0)
+            {
+                return channel.size();
+            }
+            for(int i = 0; i < n; i++)
+            {
+                if(buffer.get(i) == '\n')
+                {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Cut a raw image file into chunks and count the values in each of
+     * them, in parallel.
+     *
+     * @param channel the file
+     * @return the chunks, each knowing where its first value goes
+     * @throws IOException if there are issues reading the file, or it holds
+     * something other than pixels (0-255) and whitespace
+     */
+    private static Chunk[] count(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        //a few chunks per thread evens out the work
+        long wanted = Math.min(4L * ForkJoinPool.getCommonPoolParallelism(), size / MIN_CHUNK);
+        int count = (int) Math.max(Math.max(1, wanted), (size + MAX_CHUNK - 1) / MAX_CHUNK);
+        Chunk chunks[] = new Chunk[count];
+        long start = 0;
+        for(int i = 0; i < count; i++)
+        {
+            long end = i == count - 1 ? size : Math.max(start, lineStart(channel, size / count * (i + 1)));
+            chunks[i] = new Chunk(channel, start, end);
+            start = end;
+        }
+        try
+        {
+            ForkJoinPool.commonPool().invoke(new ChunkTask(chunks, 0, count, null));
+        }
+        catch(RuntimeException e)
+        {
+            //the tasks wrap what went wrong, possibly more than once
+            for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+            {
+                if(cause instanceof IOException)
+                {
+                    throw (IOException) cause;
+                }
+            }
+            throw e;
+        }
+        //every chunk's values follow the ones before it
+        long total = 0;
+        for(Chunk chunk : chunks)
+        {
+            chunk.first = total;
+            total += chunk.count;
+        }
+        return chunks;
+    }
+
+    /**
+     * Count the values in a raw image file without keeping them.
+     *
+     * @param filename the name of the raw image file
+     * @return the number of values
+     * @throws IOException if there are issues reading the file, or it holds
+     * something other than pixels (0-255) and whitespace
+     */
+    public static long count(String filename) throws IOException
+    {
+        try(FileChannel channel = new FileInputStream(filename).getChannel())
+        {
+            Chunk chunks[] = count(channel);
+            Chunk last = chunks[chunks.length - 1];
+            return last.first + last.count;
+        }
+    }
+
+    /**
+     * Find the size of the square image a count of values fills.
+     *
+     * @param total the number of values in a raw image file
+     * @return the width and height of the image
+     * @throws IOException if the values don't fill a square image
+     */
+    static int dimension(long total) throws IOException
+    {
+        int dim = (int) Math.sqrt((double) total);
+        if(total == 0 || (long) dim * dim != total)
+        {
+            throw new IOException("Raw image is not square: " + total + " pixels");
+        }
+        return dim;
+    }
+
+    /**
+     * Load a raw image file.
+     *
+     * @param filename the name of the raw image file
+     * @return the pixels of the image, by row
+     * @throws IOException if there are issues reading the file, it holds
+     * something other than pixels (0-255) and whitespace, or the pixels
+     * don't fill a square image
+     */
+    public static int[][] load(String filename) throws IOException
+    {
+        try(FileChannel channel = new FileInputStream(filename).getChannel())
+        {
+            Chunk chunks[] = count(channel);
+            Chunk last = chunks[chunks.length - 1];
+            int dim = dimension(last.first + last.count);
+            int image[][] = new int[dim][dim];
+            ForkJoinPool.commonPool().invoke(new ChunkTask(chunks, 0, chunks.length, image));
+            return image;
+        }
+    }
+}
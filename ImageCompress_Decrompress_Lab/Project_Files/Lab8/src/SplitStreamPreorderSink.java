@@ -0,0 +1,88 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Collects the values of a compressed RIT image as two streams: the shape
+ * of the tree as one bit per node, and the leaf colors as one byte per
+ * leaf.  The structure has to come before the colors in the file, so
+ * both are held until writeTo() is called.  See SplitStreamPreorderSource
+ * for the layout.
+ *
+ * @author Benjamin Mitchell
+ */
+public class SplitStreamPreorderSink implements PreorderSink {
+    /** the structure bits, 1 for a split, low bits first */
+    private long words[];
+
+    /** the number of nodes so far */
+    private int nodes;
+
+    /** the leaf colors */
+    private final ByteArrayOutputStream leaves;
+
+    /**
+     * Create an empty sink.
+     */
+    public SplitStreamPreorderSink() {
+        this.words = new long[16];
+        this.nodes = 0;
+        this.leaves = new ByteArrayOutputStream();
+    }
+
+    @Override
+    public void put(int value) throws QTException
+    {
+        if(value == QTree.RAW_BLOCK)
+        {
+            throw new QTException("Error writing compressed file.  Split streams can't hold raw blocks.");
+        }
+        if(value != QTree.QUAD_SPLIT && (value < 0 || value > 255))
+        {
+            throw new QTException("Error writing compressed file.  Bad value " + value + ".");
+        }
+        if((nodes >>> 6) == words.length)
+        {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        if(value == QTree.QUAD_SPLIT)
+        {
+            words[nodes >>> 6] |= 1L << (nodes & 63);
+        }
+        else
+        {
+            leaves.write(value);
+        }
+        nodes++;
+    }
+
+    @Override
+    public void putPixel(int pixel) throws QTException
+    {
+        throw new QTException("Error writing compressed file.  Split streams can't hold raw blocks.");
+    }
+
+    /**
+     * Write the node count, the structure bits and the leaf colors.
+     *
+     * @param out the stream to write to
+     * @throws IOException if there are issues writing the stream
+     */
+    public void writeTo(OutputStream out) throws IOException
+    {
+        RITFormat.writeVarint(out, nodes);
+        int count = (nodes + 63) >>> 6;
+        byte bytes[] = new byte[8];
+        for(int i = 0; i < count; i++)
+        {
+            long word = words[i];
+            for(int b = 0; b < 8; b++)
+            {
+                bytes[b] = (byte) (word >>> (8 * b));
+            }
+            out.write(bytes);
+        }
+        leaves.writeTo(out);
+    }
+}
@@ -0,0 +1,161 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads a compressed RIT image stored as separate structure and value
+ * streams:
+ *
+ *      - the number of nodes as a varint
+ *      - one bit per node in preorder, 1 for a split and 0 for a leaf,
+ *        packed low bits first into 8 byte little-endian words
+ *      - one byte per leaf holding its color, in preorder
+ *
+ * Since every node is one bit and every leaf one byte, a whole subtree can
+ * be stepped over with skip(int) by counting bits, a word at a time, without
+ * touching the colors.
+ *
+ * @author Benjamin Mitchell
+ */
+public class SplitStreamPreorderSource implements PreorderSource {
+    /** the structure words */
+    private final ByteBuffer structure;
+
+    /** the leaf colors */
+    private final ByteBuffer leaves;
+
+    /** the number of nodes */
+    private final int nodes;
+
+    /** the position of the next node */
+    private int node;
+
+    /**
+     * Create a new source over a buffer.
+     *
+     * @param in the buffer, positioned at the node count
+     * @throws QTException if the streams don't fit in the buffer
+     */
+    public SplitStreamPreorderSource(ByteBuffer in) throws QTException {
+        this.nodes = RITFormat.readVarint(in);
+        int words = (this.nodes + 63) >>> 6;
+        if(this.nodes < 0 || in.remaining() < 8L * words)
+        {
+            throw new QTException("Error uncompressing.  Not enough data.");
+        }
+        ByteBuffer rest = in.slice();
+        rest.limit(8 * words);
+        this.structure = rest.slice().order(ByteOrder.LITTLE_ENDIAN);
+        rest.clear();
+        rest.position(8 * words);
+        this.leaves = rest.slice();
+        this.node = 0;
+    }
+
+    /**
+     * Get the structure word holding a node.
+     *
+     * @param pos the position of the node
+     * @return the word, with the node's bit at bit pos % 64
+     */
+    private long word(int pos)
+    {
+        return structure.getLong(8 * (pos >>> 6));
+    }
+
+    @Override
+    public int next() throws QTException
+    {
+        if(node >= nodes)
+        {
+            throw new QTException("Error uncompressing.  Not enough data.");
+        }
+        long bit = word(node) & (1L << (node & 63));
+        node++;
+        if(bit != 0)
+        {
+            return QTree.QUAD_SPLIT;
+        }
+        if(!leaves.hasRemaining())
+        {
+            throw new QTException("Error uncompressing.  Not enough data.");
+        }
+        return leaves.get() & 0xFF;
+    }
+
+    @Override
+    public int pixel() throws QTException
+    {
+        throw new QTException("Error uncompressing.  Split streams can't hold raw blocks.");
+    }
+
+    /**
+     * Step over the next node and its whole subtree.  A subtree ends once
+     * it has as many leaves as splits times 3 plus 1, so each split adds 3
+     * to the nodes still owed and each leaf pays off 1.  A word with fewer
+     * leaves than are owed can't end the subtree and is skipped whole;
+     * otherwise the runs of leaves between splits are jumped with
+     * numberOfTrailingZeros.
+     *
+     * @param size the size of the square region the node represents, which
+     * isn't needed since there are no raw blocks
+     * @throws QTException if the structure ends inside the subtree
+     */
+    @Override
+    public void skip(int size) throws QTException
+    {
+        int owed = 1;
+        int splits = 0;
+        int pos = node;
+        while(true)
+        {
+            if(pos >= nodes)
+            {
+                throw new QTException("Error uncompressing.  Not enough data.");
+            }
+            int avail = Math.min(64 - (pos & 63), nodes - pos);
+            long bits = word(pos) >>> (pos & 63);
+            if(avail < 64)
+            {
+                bits &= (1L << avail) - 1;
+            }
+            int ones = Long.bitCount(bits);
+            if(owed > avail - ones)
+            {
+                //every leaf in the word is owed, so the subtree goes on
+                owed += 3 * ones - (avail - ones);
+                splits += ones;
+                pos += avail;
+                continue;
+            }
+            while(avail > 0)
+            {
+                int run = Math.min(Long.numberOfTrailingZeros(bits), avail);
+                if(owed <= run)
+                {
+                    pos += owed;
+                    int skipped = (pos - node) - splits;
+                    if(skipped > leaves.remaining())
+                    {
+                        throw new QTException("Error uncompressing.  Not enough data.");
+                    }
+                    leaves.position(leaves.position() + skipped);
+                    node = pos;
+                    return;
+                }
+                owed -= run;
+                pos += run;
+                avail -= run;
+                if(avail == 0)
+                {
+                    break;
+                }
+                //the run stopped at a split
+                bits >>>= run + 1;
+                owed += 3;
+                splits++;
+                pos++;
+                avail--;
+            }
+        }
+    }
+}
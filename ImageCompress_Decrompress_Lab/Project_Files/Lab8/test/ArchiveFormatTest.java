@@ -0,0 +1,119 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the RIT archive: members in any binary encoding must come back by
+ * name, in the order they were packed, and damaged archives, including a
+ * damaged index, must fail cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class ArchiveFormatTest extends RITTest {
+    /** the size of the images packed */
+    private final static int DIM = 16;
+
+    /** the encodings of the members */
+    private final static int ENCODINGS[] = {RITFormat.ENCODING_PREORDER, RITFormat.ENCODING_ARITHMETIC,
+            RITFormat.ENCODING_SPLIT_STREAMS, RITFormat.ENCODING_LEVEL_ORDER};
+
+    /** a temporary file for the damaged copies */
+    private File damaged;
+
+    /** reads every member of an archive, giving back the first */
+    private final Decoder members = new Decoder() {
+        @Override
+        public int[][] decode(byte[] file) throws IOException, QTException
+        {
+            Files.write(damaged.toPath(), file);
+            try(RITArchive archive = new RITArchive(damaged.getPath()))
+            {
+                int first[][] = null;
+                for(String name : archive.getNames())
+                {
+                    //a member could claim to be any size, as a file could, so it is held to the size packed
+                    ByteBuffer header = archive.getMember(name);
+                    RITFormat.readEncoding(header);
+                    if(RITFormat.readVarint(header) != DIM * DIM)
+                    {
+                        throw new QTException("Error uncompressing.  Member is the wrong size.");
+                    }
+                    int image[][] = archive.read(name);
+                    first = first == null ? image : first;
+                }
+                if(first == null)
+                {
+                    throw new QTException("Error reading archive.  No members.");
+                }
+                return first;
+            }
+        }
+    };
+
+    @Override
+    public void run() throws Exception
+    {
+        List<String> files = new ArrayList<>();
+        List<int[][]> images = new ArrayList<>();
+        File file = File.createTempFile("archive", ".rita");
+        this.damaged = File.createTempFile("damaged", ".rita");
+        try
+        {
+            for(int encoding : ENCODINGS)
+            {
+                RITCodec codec = new RITCodec();
+                codec.setEncoding(encoding);
+                int image[][] = image(DIM, encoding);
+                File member = File.createTempFile("member" + encoding + "-", ".rit");
+                Files.write(member.toPath(), compress(codec, image));
+                files.add(member.getPath());
+                images.add(image);
+            }
+            RITArchive.create(file.getPath(), files);
+            check(RITArchive.isArchive(file.getPath()), "not an archive");
+            try(RITArchive archive = new RITArchive(file.getPath()))
+            {
+                List<String> names = new ArrayList<>();
+                for(String member : files)
+                {
+                    names.add(new File(member).getName());
+                }
+                check(archive.getNames().equals(names), "members " + archive.getNames() + ", expected " + names);
+                check(!archive.contains("missing.rit"), "a missing member was found");
+                for(int i = 0; i < names.size(); i++)
+                {
+                    checkImage(images.get(i), archive.read(names.get(i)), names.get(i));
+                    byte bytes[] = new byte[archive.getMember(names.get(i)).remaining()];
+                    archive.getMember(names.get(i)).get(bytes);
+                    check(Arrays.equals(bytes, Files.readAllBytes(new File(files.get(i)).toPath())),
+                            names.get(i) + " was packed differently");
+                }
+            }
+            try
+            {
+                RITArchive.create(this.damaged.getPath(), Arrays.asList(files.get(0), files.get(0)));
+                throw new AssertionError("two members with the same name were packed");
+            }
+            catch(QTException e)
+            {
+                //a member is only found by its name
+            }
+
+            byte bytes[] = Files.readAllBytes(file.toPath());
+            damaged(bytes, DIM, RITArchive.MAGIC.length + 1, members, "archive");
+        }
+        finally
+        {
+            for(String member : files)
+            {
+                Files.delete(new File(member).toPath());
+            }
+            Files.delete(file.toPath());
+            Files.delete(this.damaged.toPath());
+        }
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * Tests the arithmetic coded binary RIT format: test images must come
+ * back, with and without raw blocks, the files must be smaller than
+ * plain binary ones, and damaged files must fail cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class ArithmeticFormatTest extends RITTest {
+
+    @Override
+    public void run() throws Exception
+    {
+        RITCodec codec = new RITCodec();
+        codec.setEncoding(RITFormat.ENCODING_ARITHMETIC);
+        binary(codec, true, "arithmetic");
+        int image[][] = image(64, 64);
+        check(compress(codec, image).length < compress(new RITCodec(), image).length,
+                "arithmetic coding is no smaller");
+        codec.setHybrid(true);
+        binary(codec, true, "arithmetic hybrid");
+    }
+}
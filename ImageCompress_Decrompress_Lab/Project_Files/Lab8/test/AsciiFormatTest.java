@@ -0,0 +1,102 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Tests the ASCII RIT format and the streaming decoder that reads it.
+ * The sample files must be written again byte for byte from the images
+ * they uncompress to, test images must survive a round trip through a
+ * file and a stream, and damaged files must fail cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class AsciiFormatTest extends RITTest {
+    /** the samples the compressor would have written as they are */
+    private final static String SAMPLES[] = {"simple4x4", "simple8x8", "simple8x8-2", "ritlogo128x128",
+            "mascot256x256", "smileyface256x256", "earth256x256", "redsox512x512"};
+
+    /** decodes an ASCII file from a stream */
+    private final static Decoder STREAM = new Decoder() {
+        @Override
+        public int[][] decode(byte[] file) throws IOException, QTException
+        {
+            QTree tree = new QTree();
+            tree.uncompress(new ByteArrayInputStream(file));
+            return tree.getImage();
+        }
+    };
+
+    @Override
+    public void run() throws Exception
+    {
+        File file = File.createTempFile("ascii", ".rit");
+        try
+        {
+            for(String sample : SAMPLES)
+            {
+                File original = new File("images/compressed/" + sample + ".rit");
+                QTree tree = new QTree();
+                tree.uncompress(original.getPath());
+                QTree again = new QTree();
+                again.compress(tree.getImage());
+                again.write(file.getPath());
+                check(Arrays.equals(Files.readAllBytes(original.toPath()), Files.readAllBytes(file.toPath())),
+                        sample + " was written differently");
+            }
+            for(int dim : SIZES)
+            {
+                int image[][] = image(dim, dim);
+                QTree tree = new QTree();
+                tree.compress(image);
+                tree.write(file.getPath());
+                QTree read = new QTree();
+                read.uncompress(file.getPath());
+                checkImage(image, read.getImage(), dim + "x" + dim + " from a file");
+                byte bytes[] = Files.readAllBytes(file.toPath());
+                checkImage(image, STREAM.decode(bytes), dim + "x" + dim + " from a stream");
+                damaged(new String(bytes, StandardCharsets.US_ASCII), dim);
+            }
+        }
+        finally
+        {
+            Files.delete(file.toPath());
+        }
+        check(!decodes("1\n-1\n1\n2\n3\n4\n".getBytes(StandardCharsets.US_ASCII), 1, STREAM, "split below a pixel"),
+                "a split below a pixel decoded");
+        check(!decodes("1\n99999999999\n".getBytes(StandardCharsets.US_ASCII), 1, STREAM, "overflowing value"),
+                "an overflowing value decoded");
+    }
+
+    /**
+     * Check that damaged copies of an ASCII file fail cleanly.  Dropping
+     * whole values must fail; cutting a value short or changing a digit
+     * may leave a valid file, but anything else in place of a digit must
+     * fail.
+     *
+     * @param file the undamaged file
+     * @param dim the size of its image
+     */
+    private static void damaged(String file, int dim)
+    {
+        //the header is left alone, so the image is the size it claims
+        int from = file.indexOf('\n') + 1;
+        for(int length = from; length < file.length(); length++)
+        {
+            byte cut[] = file.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+            boolean decoded = decodes(cut, dim, STREAM, dim + "x" + dim + " cut to " + length);
+            check(!decoded || file.charAt(length - 1) != '\n', dim + "x" + dim + " cut to " + length + " decoded");
+        }
+        for(int i = from; i < file.length(); i++)
+        {
+            if(Character.isDigit(file.charAt(i)))
+            {
+                byte junk[] = (file.substring(0, i) + 'x' + file.substring(i + 1)).getBytes(StandardCharsets.US_ASCII);
+                check(!decodes(junk, dim, STREAM, dim + "x" + dim + " with junk at " + i),
+                        dim + "x" + dim + " with junk at " + i + " decoded");
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Tests the batch compressor and uncompressor: every image in a directory
+ * or a manifest, in each input format, must come back from the files the
+ * batch writes, damaged files must be reported and skipped without
+ * holding up the rest, and inputs that would be written to the same file
+ * must stop the batch before it writes anything.
+ *
+ * @author Benjamin Mitchell
+ */
+public class BatchTest extends RITTest {
+    /** the sizes of the images compressed */
+    private final static int DIMS[] = {8, 16, 32, 64, 64};
+
+    @Override
+    public void run() throws Exception
+    {
+        File root = Files.createTempDirectory("batch").toFile();
+        try
+        {
+            File images = new File(root, "images");
+            images.mkdir();
+            int expected[][][] = new int[DIMS.length + 2][][];
+            for(int i = 0; i < DIMS.length; i++)
+            {
+                expected[i] = image(DIMS[i], i);
+                ImageFiles.writePGM(expected[i], new File(images, "image" + i + ".pgm").getPath());
+            }
+            expected[DIMS.length] = image(16, 20);
+            ImageFiles.writePNG(expected[DIMS.length], new File(images, "png.png").getPath());
+            expected[DIMS.length + 1] = image(4, 21);
+            StringBuilder raw = new StringBuilder();
+            for(int[] row : expected[DIMS.length + 1])
+            {
+                for(int pixel : row)
+                {
+                    raw.append(pixel).append('\n');
+                }
+            }
+            Files.write(new File(images, "raw.txt").toPath(), raw.toString().getBytes(StandardCharsets.US_ASCII));
+            byte pgm[] = Files.readAllBytes(new File(images, "image1.pgm").toPath());
+            Files.write(new File(images, "cut.pgm").toPath(), Arrays.copyOf(pgm, pgm.length / 2));
+            ImageFiles.writePGM(new int[4][8], new File(images, "wide.pgm").getPath());
+            String names[] = {"image0", "image1", "image2", "image3", "image4", "png", "raw"};
+
+            File compressed = new File(root, "compressed");
+            String report = batch("compress", "-threads", "3", "-queue", "1", images.getPath(), compressed.getPath());
+            check(report.contains("Images: 7\n") && report.contains("Failed: 2\n"), "compress report:\n" + report);
+            check(report.contains("cut.pgm") && report.contains("wide.pgm"), "the damaged inputs weren't named");
+            check(compressed.list().length == names.length, compressed.list().length + " files compressed");
+            for(int i = 0; i < names.length; i++)
+            {
+                byte file[] = Files.readAllBytes(new File(compressed, names[i] + ".rit").toPath());
+                checkImage(expected[i], BUFFER.decode(file), names[i] + " compressed");
+            }
+
+            File entropy = new File(root, "entropy");
+            batch("compress", "-entropy", images.getPath(), entropy.getPath());
+            for(int i = 0; i < names.length; i++)
+            {
+                byte file[] = Files.readAllBytes(new File(entropy, names[i] + ".rit").toPath());
+                check(file[RITFormat.MAGIC.length + 1] == RITFormat.ENCODING_ARITHMETIC, names[i] + " isn't entropy coded");
+                checkImage(expected[i], BUFFER.decode(file), names[i] + " entropy coded");
+            }
+
+            //an ASCII file and a damaged file among the compressed ones
+            QTree tree = new QTree();
+            tree.compress(expected[0]);
+            tree.write(new File(compressed, "ascii.rit").getPath());
+            byte file[] = Files.readAllBytes(new File(compressed, "image3.rit").toPath());
+            Files.write(new File(compressed, "cut.rit").toPath(), Arrays.copyOf(file, file.length - 1));
+            for(String format : new String[] {".pgm", ".png"})
+            {
+                File uncompressed = new File(root, "uncompressed" + format);
+                report = format.equals(".png") ? batch("uncompress", "-png", compressed.getPath(), uncompressed.getPath())
+                        : batch("uncompress", compressed.getPath(), uncompressed.getPath());
+                check(report.contains("Images: 8\n") && report.contains("Failed: 1\n") && report.contains("cut.rit"),
+                        "uncompress report:\n" + report);
+                for(int i = 0; i < names.length; i++)
+                {
+                    checkImage(expected[i], ImageFiles.read(new File(uncompressed, names[i] + format).getPath()),
+                            names[i] + format);
+                }
+                checkImage(expected[0], ImageFiles.read(new File(uncompressed, "ascii" + format).getPath()),
+                        "ascii" + format);
+            }
+
+            //a manifest names its files relative to itself
+            File manifest = new File(root, "manifest.txt");
+            Files.write(manifest.toPath(), ("images/image2.pgm\n\n" + new File(images, "png.png").getAbsolutePath()
+                    + "\n").getBytes(StandardCharsets.UTF_8));
+            File listed = new File(root, "listed");
+            report = batch("compress", manifest.getPath(), listed.getPath());
+            check(report.contains("Images: 2\n") && report.contains("Failed: 0\n"), "manifest report:\n" + report);
+            checkImage(expected[2], BUFFER.decode(Files.readAllBytes(new File(listed, "image2.rit").toPath())),
+                    "image2 from the manifest");
+            checkImage(expected[5], BUFFER.decode(Files.readAllBytes(new File(listed, "png.rit").toPath())),
+                    "png from the manifest");
+
+            //image1.pgm and image1.png would both be image1.rit
+            ImageFiles.writePNG(expected[1], new File(images, "image1.png").getPath());
+            File clash = new File(root, "clash");
+            report = batch("compress", images.getPath(), clash.getPath());
+            check(report.contains("would be written"), "the clash wasn't reported:\n" + report);
+            check(clash.list().length == 0, "files were written despite the clash");
+        }
+        finally
+        {
+            delete(root);
+        }
+    }
+
+    /**
+     * Run a batch, catching what it prints.
+     *
+     * @param args the command line arguments
+     * @return what it printed, errors first
+     */
+    private static String batch(String... args)
+    {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        try
+        {
+            System.setOut(new PrintStream(report, true));
+            System.setErr(new PrintStream(errors, true));
+            RITBatch.main(args);
+        }
+        finally
+        {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        return (errors.toString() + report.toString()).replace(System.lineSeparator(), "\n");
+    }
+
+    /**
+     * Delete a file, or a directory and everything in it.
+     *
+     * @param file the file or directory
+     * @throws IOException if it can't be deleted
+     */
+    private static void delete(File file) throws IOException
+    {
+        File files[] = file.listFiles();
+        if(files != null)
+        {
+            for(File child : files)
+            {
+                delete(child);
+            }
+        }
+        Files.delete(file.toPath());
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Tests the plain binary RIT format: test images must survive a round
+ * trip through a buffer, a stream and a file, a file must be no bigger
+ * than its ASCII form once the header is paid for, and damaged files,
+ * including a damaged header, must fail cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class BinaryFormatTest extends RITTest {
+
+    @Override
+    public void run() throws Exception
+    {
+        binary(new RITCodec(), true, "binary");
+        File binary = File.createTempFile("binary", ".rit");
+        File ascii = File.createTempFile("ascii", ".rit");
+        try
+        {
+            for(int dim : SIZES)
+            {
+                int image[][] = image(dim, dim);
+                QTree tree = new QTree();
+                tree.compress(image);
+                tree.writeBinary(binary.getPath());
+                tree.write(ascii.getPath());
+                //the header outweighs the values of the smallest images
+                check(dim < 8 || binary.length() <= ascii.length(), dim + "x" + dim + " is bigger than its ASCII form");
+                QTree read = new QTree();
+                read.uncompress(binary.getPath());
+                checkImage(image, read.getImage(), dim + "x" + dim + " from a file");
+            }
+        }
+        finally
+        {
+            Files.delete(binary.toPath());
+            Files.delete(ascii.toPath());
+        }
+        byte file[] = compress(new RITCodec(), image(8, 8));
+        //the magic number, the version and the encoding
+        for(int i = 0; i < RITFormat.MAGIC.length + 2; i++)
+        {
+            byte copy[] = file.clone();
+            copy[i] ^= 0xFF;
+            check(!decodes(copy, 8, BUFFER, "header byte " + i + " flipped"), "header byte " + i + " flipped decoded");
+        }
+        byte[] extra = new byte[file.length + 1];
+        System.arraycopy(file, 0, extra, 0, file.length);
+        extra[RITFormat.MAGIC.length + 1] = (byte) (RITFormat.ENCODING_DICTIONARY_PREORDER + 1);
+        check(!decodes(extra, 8, BUFFER, "unknown encoding"), "an unknown encoding decoded");
+    }
+}
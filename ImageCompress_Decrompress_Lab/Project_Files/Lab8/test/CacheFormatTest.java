@@ -0,0 +1,98 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Tests the cache of compressed files and images: entries must come back
+ * from memory, and from the directory to a new cache, the same as when
+ * they were coded, a small budget must evict entries without changing
+ * what is handed back, and entries damaged in the directory must be
+ * coded and written again rather than handed back.
+ *
+ * @author Benjamin Mitchell
+ */
+public class CacheFormatTest extends RITTest {
+    /** the size of the test image */
+    private final static int DIM = 16;
+
+    @Override
+    public void run() throws Exception
+    {
+        int image[][] = image(DIM, DIM);
+        RITCodec codec = new RITCodec();
+        byte file[] = compress(codec, image);
+
+        RITCache memory = new RITCache(1 << 20);
+        check(Arrays.equals(memory.compress(codec, image), file), "the cached file differs");
+        check(memory.compress(codec, image) == memory.compress(codec, image), "the file wasn't cached");
+        checkImage(image, memory.uncompress(codec, file), "cached image");
+        check(memory.uncompress(codec, file) == memory.uncompress(codec, file), "the image wasn't cached");
+        check(memory.getMisses() == 2 && memory.getHits() == 4, "misses " + memory.getMisses() + ", hits "
+                + memory.getHits());
+        RITCodec hybrid = new RITCodec();
+        hybrid.setHybrid(true);
+        check(Arrays.equals(memory.compress(hybrid, image), compress(hybrid, image)),
+                "a file was found for other settings");
+
+        //room for only a few entries at a time
+        RITCache small = new RITCache(4096, 1, null);
+        for(int pass = 0; pass < 2; pass++)
+        {
+            for(int seed = 0; seed < 8; seed++)
+            {
+                int other[][] = image(DIM, seed);
+                checkImage(other, small.uncompress(codec, small.compress(codec, other)), "evicted image " + seed);
+            }
+        }
+        check(small.getEvictions() > 0, "nothing was evicted");
+
+        File directory = Files.createTempDirectory("cache").toFile();
+        try
+        {
+            RITCache first = new RITCache(1 << 20, 4, directory);
+            first.compress(codec, image);
+            first.uncompress(codec, file);
+            File entries[] = directory.listFiles();
+            check(entries.length == 2, entries.length + " entries in the directory");
+            RITCache second = new RITCache(1 << 20, 4, directory);
+            check(Arrays.equals(second.compress(codec, image), file), "the file in the directory differs");
+            checkImage(image, second.uncompress(codec, file), "image in the directory");
+            check(second.getDiskHits() == 2 && second.getMisses() == 0, "the directory wasn't used");
+
+            for(File entry : entries)
+            {
+                byte bytes[] = Files.readAllBytes(entry.toPath());
+                for(int length = 0; length < bytes.length; length++)
+                {
+                    Files.write(entry.toPath(), Arrays.copyOf(bytes, length));
+                    String name = entry.getName() + " cut to " + length;
+                    RITCache cache = new RITCache(1 << 20, 4, directory);
+                    check(Arrays.equals(cache.compress(codec, image), file), name + ": the wrong file");
+                    checkImage(image, cache.uncompress(codec, file), name);
+                    check(cache.getMisses() == 1, name + ": " + cache.getMisses() + " misses");
+                    check(Arrays.equals(Files.readAllBytes(entry.toPath()), bytes), name + " wasn't written again");
+                }
+                for(int i = 0; i < bytes.length; i++)
+                {
+                    byte copy[] = bytes.clone();
+                    copy[i] ^= 0xFF;
+                    Files.write(entry.toPath(), copy);
+                    //a damaged entry may still be read, but only as an image of the right size
+                    RITCache cache = new RITCache(1 << 20, 4, directory);
+                    String name = entry.getName() + " with byte " + i + " flipped";
+                    check(BUFFER.decode(cache.compress(codec, image)).length == DIM, name + ": the wrong file size");
+                    check(cache.uncompress(codec, file).length == DIM, name + ": the wrong image size");
+                }
+                Files.write(entry.toPath(), bytes);
+            }
+        }
+        finally
+        {
+            for(File entry : directory.listFiles())
+            {
+                Files.delete(entry.toPath());
+            }
+            Files.delete(directory.toPath());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests the in-memory codec: an image held as rows, a single array of
+ * ints or bytes, or a BufferedImage must compress to the same file, which
+ * must come back from a buffer, from the middle of a larger one, from a
+ * stream and as a BufferedImage, without the caller's pixels or buffer
+ * being changed, from any number of threads at once, and damaged files
+ * read from a stream must fail cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class CodecTest extends RITTest {
+    /** decodes a file from a stream with a codec */
+    private final static Decoder STREAM = new Decoder() {
+        @Override
+        public int[][] decode(byte[] file) throws IOException, QTException
+        {
+            return new RITCodec().uncompress(new ByteArrayInputStream(file));
+        }
+    };
+
+    @Override
+    public void run() throws Exception
+    {
+        final RITCodec codec = new RITCodec();
+        for(int dim : SIZES)
+        {
+            int image[][] = image(dim, dim);
+            int copy[][] = new int[dim][];
+            int ints[] = new int[dim * dim];
+            byte bytes[] = new byte[dim * dim];
+            for(int r = 0; r < dim; r++)
+            {
+                copy[r] = image[r].clone();
+                for(int c = 0; c < dim; c++)
+                {
+                    ints[r * dim + c] = image[r][c];
+                    bytes[r * dim + c] = (byte) image[r][c];
+                }
+            }
+            String name = dim + "x" + dim;
+            byte file[] = compress(codec, image);
+            checkImage(copy, image, name + ": the pixels were changed");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            codec.compress(ints, dim, out);
+            check(Arrays.equals(out.toByteArray(), file), name + " from an int array differs");
+            out.reset();
+            codec.compress(bytes, dim, out);
+            check(Arrays.equals(out.toByteArray(), file), name + " from a byte array differs");
+            out.reset();
+            codec.compress(ImageFiles.toImage(image), out);
+            check(Arrays.equals(out.toByteArray(), file), name + " from a BufferedImage differs");
+            ByteBuffer buffer = codec.compress(image);
+            check(buffer.remaining() == file.length && Arrays.equals(buffer.array(), file),
+                    name + " in a buffer differs");
+
+            checkImage(image, codec.uncompress(ByteBuffer.wrap(file)), name + " from a buffer");
+            //the file in the middle of a larger buffer
+            ByteBuffer larger = ByteBuffer.allocate(file.length + 10);
+            larger.position(3);
+            larger.put(file);
+            larger.position(3).limit(3 + file.length);
+            checkImage(image, codec.uncompress(larger), name + " from the middle of a buffer");
+            check(larger.position() == 3 && larger.limit() == 3 + file.length, name + ": the buffer was moved");
+            checkImage(image, STREAM.decode(file), name + " from a stream");
+            checkImage(image, ImageFiles.getPixels(codec.uncompressImage(ByteBuffer.wrap(file))),
+                    name + " as a BufferedImage");
+            check(codec.uncompressImage(ByteBuffer.wrap(file)).getType() == BufferedImage.TYPE_BYTE_GRAY,
+                    name + " isn't 8-bit grayscale");
+        }
+
+        for(int[] shape : new int[][] {{9, 3}, {12, 4}, {15, 4}})
+        {
+            try
+            {
+                codec.compress(new int[shape[0]], shape[1], new ByteArrayOutputStream());
+                throw new AssertionError(shape[0] + " pixels were compressed as " + shape[1] + "x" + shape[1]);
+            }
+            catch(IllegalArgumentException e)
+            {
+                //the image has to be 2^n x 2^n
+            }
+        }
+
+        //an ASCII file read from a stream
+        int image[][] = image(64, 64);
+        QTree tree = new QTree();
+        tree.compress(image);
+        File ascii = File.createTempFile("codec", ".rit");
+        try
+        {
+            tree.write(ascii.getPath());
+            checkImage(image, STREAM.decode(Files.readAllBytes(ascii.toPath())), "ASCII from a stream");
+        }
+        finally
+        {
+            Files.delete(ascii.toPath());
+        }
+
+        //one codec used by many threads at once
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<int[][]>> results = new ArrayList<>();
+            for(int seed = 0; seed < 16; seed++)
+            {
+                final int other[][] = image(64, seed);
+                results.add(pool.submit(new Callable<int[][]>() {
+                    @Override
+                    public int[][] call() throws Exception
+                    {
+                        return codec.uncompress(codec.compress(other));
+                    }
+                }));
+            }
+            for(int seed = 0; seed < 16; seed++)
+            {
+                checkImage(image(64, seed), results.get(seed).get(), "image " + seed + " on a thread");
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        byte file[] = compress(codec, image(8, 8));
+        damaged(file, 8, headerLength(file), STREAM, "codec stream");
+    }
+}
@@ -0,0 +1,115 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the binary RIT format that refers to a dictionary of subtrees:
+ * test images must come back with the dictionary they were compressed
+ * with, and be smaller for it, a file must be refused without that
+ * dictionary, and damaged files and damaged dictionaries must fail
+ * cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class DictionaryFormatTest extends RITTest {
+    /** the dictionary the files are compressed with */
+    private RITDictionary dictionary;
+
+    /** a temporary file for the damaged dictionaries */
+    private File damaged;
+
+    /** decodes a file from a buffer with the dictionary */
+    private final Decoder buffer = new Decoder() {
+        @Override
+        public int[][] decode(byte[] file) throws IOException, QTException
+        {
+            QTree tree = new QTree();
+            tree.setDictionary(dictionary);
+            tree.uncompress(ByteBuffer.wrap(file));
+            return tree.getImage();
+        }
+    };
+
+    /** decodes a file from a stream into a flat tree with the dictionary */
+    private final Decoder flat = new Decoder() {
+        @Override
+        public int[][] decode(byte[] file) throws IOException, QTException
+        {
+            QTree tree = new QTree();
+            tree.setFlat(true);
+            tree.setDictionary(dictionary);
+            tree.uncompress(new ByteArrayInputStream(file));
+            return tree.getImage();
+        }
+    };
+
+    @Override
+    public void run() throws Exception
+    {
+        List<String> training = new ArrayList<>();
+        this.damaged = File.createTempFile("damaged", ".ritd");
+        try
+        {
+            for(int seed = 1; seed <= 4; seed++)
+            {
+                File pgm = File.createTempFile("training", ".pgm");
+                ImageFiles.writePGM(image(64, seed), pgm.getPath());
+                training.add(pgm.getPath());
+            }
+            this.dictionary = RITDictionary.build(new QTree(), training, RITDictionary.DEFAULT_ENTRIES);
+            check(this.dictionary.size() > 0, "the dictionary has no entries");
+
+            RITCodec codec = new RITCodec();
+            codec.setDictionary(this.dictionary);
+            int image[][] = image(64, 5);
+            byte file[] = compress(codec, image);
+            check(file[RITFormat.MAGIC.length + 1] == RITFormat.ENCODING_DICTIONARY_PREORDER,
+                    "the file doesn't use the dictionary");
+            check(file.length < compress(new RITCodec(), image).length, "the dictionary saves nothing");
+            for(Decoder decoder : new Decoder[] {buffer, flat})
+            {
+                checkImage(image, decoder.decode(file), "dictionary");
+                damaged(file, 64, headerLength(file), decoder, "dictionary");
+            }
+            for(int dim : SIZES)
+            {
+                int small[][] = image(dim, dim);
+                checkImage(small, buffer.decode(compress(codec, small)), "dictionary " + dim + "x" + dim);
+            }
+
+            check(!decodes(file, 64, BUFFER, "no dictionary"), "decoded without the dictionary");
+            RITDictionary wanted = this.dictionary;
+            this.dictionary = RITDictionary.build(new QTree(), training.subList(0, 1), 8);
+            check(!decodes(file, 64, buffer, "another dictionary"), "decoded with another dictionary");
+            this.dictionary = wanted;
+
+            File saved = new File(training.get(0) + ".ritd");
+            this.dictionary.write(saved.getPath());
+            byte bytes[] = Files.readAllBytes(saved.toPath());
+            Files.delete(saved.toPath());
+            damaged(bytes, 64, 0, new Decoder() {
+                @Override
+                public int[][] decode(byte[] dictionaryFile) throws IOException, QTException
+                {
+                    Files.write(damaged.toPath(), dictionaryFile);
+                    QTree tree = new QTree();
+                    tree.setDictionary(RITDictionary.read(damaged.getPath()));
+                    tree.uncompress(ByteBuffer.wrap(file));
+                    return tree.getImage();
+                }
+            }, "dictionary file");
+        }
+        finally
+        {
+            for(String name : training)
+            {
+                Files.delete(new File(name).toPath());
+            }
+            Files.delete(this.damaged.toPath());
+        }
+    }
+}
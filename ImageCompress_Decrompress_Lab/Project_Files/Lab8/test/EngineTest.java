@@ -0,0 +1,104 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Tests the compression engines: the pyramid engine must write the sample
+ * files byte for byte, as the scanning engine does, and the same files as
+ * it for the test images with every setting, which must come back, and
+ * both must refuse images that aren't 2^n x 2^n.
+ *
+ * @author Benjamin Mitchell
+ */
+public class EngineTest extends RITTest {
+    /** the samples the compressor would have written as they are */
+    private final static String SAMPLES[] = {"simple8x8", "ritlogo128x128", "mascot256x256", "redsox512x512"};
+
+    /** the engines */
+    private final static int ENGINES[] = {QTree.SCAN_ENGINE, QTree.PYRAMID_ENGINE};
+
+    @Override
+    public void run() throws Exception
+    {
+        File file = File.createTempFile("engine", ".rit");
+        try
+        {
+            for(String sample : SAMPLES)
+            {
+                File original = new File("images/compressed/" + sample + ".rit");
+                QTree read = new QTree();
+                read.uncompress(original.getPath());
+                for(int engine : ENGINES)
+                {
+                    QTree tree = new QTree();
+                    tree.setEngine(engine);
+                    tree.compress(read.getImage());
+                    tree.write(file.getPath());
+                    check(Arrays.equals(Files.readAllBytes(original.toPath()), Files.readAllBytes(file.toPath())),
+                            sample + " was written differently by engine " + engine);
+                }
+            }
+        }
+        finally
+        {
+            Files.delete(file.toPath());
+        }
+
+        for(int dim : new int[] {1, 2, 8, 64, 256})
+        {
+            int image[][] = image(dim, dim);
+            for(int setting = 0; setting < 3; setting++)
+            {
+                byte files[][] = new byte[ENGINES.length][];
+                for(int engine : ENGINES)
+                {
+                    QTree tree = new QTree();
+                    tree.setEngine(engine);
+                    tree.setHybrid(setting == 1);
+                    tree.setShared(setting == 2);
+                    files[engine] = write(tree, image);
+                }
+                String name = dim + "x" + dim + " with setting " + setting;
+                check(Arrays.equals(files[QTree.SCAN_ENGINE], files[QTree.PYRAMID_ENGINE]), name + ": the engines differ");
+                checkImage(image, BUFFER.decode(files[QTree.PYRAMID_ENGINE]), name);
+            }
+        }
+
+        for(int engine : ENGINES)
+        {
+            for(int[][] image : new int[][][] {new int[4][8], new int[12][12], new int[0][0]})
+            {
+                try
+                {
+                    QTree tree = new QTree();
+                    tree.setEngine(engine);
+                    tree.compress(image);
+                    throw new AssertionError("engine " + engine + " compressed an image " + image.length + " high");
+                }
+                catch(IllegalArgumentException e)
+                {
+                    //the quadrants wouldn't halve evenly
+                }
+            }
+        }
+    }
+
+    /**
+     * Compress an image into a binary file.
+     *
+     * @param tree the tree, with the settings to compress with
+     * @param image the pixels, by row
+     * @return the file
+     * @throws IOException if the file can't be written
+     * @throws QTException if the image can't be written with the settings
+     */
+    private static byte[] write(QTree tree, int[][] image) throws IOException, QTException
+    {
+        tree.compress(image);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tree.writeBinary(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Tests the flat tree: compressing into one must write the same binary
+ * files as a tree of nodes with every encoding, and print the same, a file
+ * read into one from a file, a stream or a buffer must be written back out
+ * byte for byte, as must an ASCII file, and damaged files must fail
+ * cleanly when read into one and written back out.
+ *
+ * @author Benjamin Mitchell
+ */
+public class FlatTreeTest extends RITTest {
+    /** the encodings written, with hybrid preorder last */
+    private final static int ENCODINGS[] = {RITFormat.ENCODING_PREORDER, RITFormat.ENCODING_ARITHMETIC,
+            RITFormat.ENCODING_SPLIT_STREAMS, RITFormat.ENCODING_LEVEL_ORDER, RITFormat.ENCODING_PREORDER};
+
+    /** reads a file into a flat tree and writes it back out */
+    private final static Decoder REWRITE = new Decoder() {
+        @Override
+        public int[][] decode(byte[] file) throws IOException, QTException
+        {
+            QTree tree = new QTree();
+            tree.setFlat(true);
+            tree.uncompress(ByteBuffer.wrap(file));
+            return BUFFER.decode(write(tree));
+        }
+    };
+
+    @Override
+    public void run() throws Exception
+    {
+        File ascii = File.createTempFile("flat", ".rit");
+        File binary = File.createTempFile("flat", ".rit");
+        try
+        {
+            for(int dim : SIZES)
+            {
+                int image[][] = image(dim, dim);
+                for(int setting = 0; setting < ENCODINGS.length; setting++)
+                {
+                    String name = dim + "x" + dim + " setting " + setting;
+                    byte files[][] = new byte[2][];
+                    String text[] = new String[2];
+                    for(int flat = 0; flat < 2; flat++)
+                    {
+                        QTree tree = tree(setting);
+                        tree.setFlat(flat == 1);
+                        tree.compress(image);
+                        files[flat] = write(tree);
+                        text[flat] = tree.toString();
+                    }
+                    check(Arrays.equals(files[0], files[1]), name + ": the flat tree wrote another file");
+                    check(text[0].equals(text[1]), name + ": the flat tree printed differently");
+                    checkImage(image, FLAT.decode(files[1]), name);
+
+                    //read back flat from a buffer, a stream and a file
+                    Files.write(binary.toPath(), files[0]);
+                    for(int source = 0; source < 3; source++)
+                    {
+                        QTree tree = tree(setting);
+                        tree.setFlat(true);
+                        if(source == 0)
+                        {
+                            tree.uncompress(ByteBuffer.wrap(files[0]));
+                        }
+                        else if(source == 1)
+                        {
+                            tree.uncompress(new ByteArrayInputStream(files[0]));
+                        }
+                        else
+                        {
+                            tree.uncompress(binary.getPath());
+                        }
+                        check(Arrays.equals(write(tree), files[0]), name + ": source " + source
+                                + " was written back differently");
+                        check(tree.toString().equals(text[0]), name + ": source " + source + " printed differently");
+                    }
+                }
+
+                //the ASCII file read flat is written back byte for byte
+                QTree tree = new QTree();
+                tree.compress(image);
+                tree.write(ascii.getPath());
+                byte original[] = Files.readAllBytes(ascii.toPath());
+                QTree flat = new QTree();
+                flat.setFlat(true);
+                flat.uncompress(ascii.getPath());
+                flat.write(ascii.getPath());
+                check(Arrays.equals(Files.readAllBytes(ascii.toPath()), original), dim + "x" + dim
+                        + " ASCII was written back differently");
+            }
+        }
+        finally
+        {
+            Files.delete(ascii.toPath());
+            Files.delete(binary.toPath());
+        }
+
+        byte file[] = compress(new RITCodec(), image(64, 64));
+        damaged(file, 64, headerLength(file), REWRITE, "flat rewrite");
+    }
+
+    /**
+     * Make a tree to write with one of the settings.
+     *
+     * @param setting the index of the setting in ENCODINGS
+     * @return the tree
+     */
+    private static QTree tree(int setting)
+    {
+        QTree tree = new QTree();
+        tree.setEncoding(ENCODINGS[setting]);
+        tree.setHybrid(setting == ENCODINGS.length - 1);
+        return tree;
+    }
+
+    /**
+     * Write a tree as a binary file.
+     *
+     * @param tree the tree
+     * @return the file
+     * @throws IOException if the file can't be written
+     * @throws QTException if the tree can't be written
+     */
+    private static byte[] write(QTree tree) throws IOException, QTException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tree.writeBinary(out);
+        return out.toByteArray();
+    }
+}
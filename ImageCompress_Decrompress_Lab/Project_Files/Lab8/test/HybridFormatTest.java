@@ -0,0 +1,63 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Tests raw blocks in the RIT formats: test images must come back from
+ * hybrid files, ASCII and binary, with and without an index, a noisy
+ * image must be smaller stored hybrid, and damaged files, including raw
+ * blocks cut short, must fail cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class HybridFormatTest extends RITTest {
+
+    @Override
+    public void run() throws Exception
+    {
+        RITCodec codec = new RITCodec();
+        codec.setHybrid(true);
+        binary(codec, true, "hybrid");
+
+        int noise[][] = new int[64][64];
+        Random random = new Random(64);
+        for(int[] row : noise)
+        {
+            for(int c = 0; c < row.length; c++)
+            {
+                row[c] = random.nextInt(256);
+            }
+        }
+        byte hybrid[] = compress(codec, noise);
+        check(hybrid.length < compress(new RITCodec(), noise).length, "noise is no smaller stored hybrid");
+        checkImage(noise, BUFFER.decode(hybrid), "noise");
+
+        int image[][] = image(64, 64);
+        QTree tree = new QTree();
+        tree.setHybrid(true);
+        tree.setIndexDepth(3);
+        tree.compress(image);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tree.writeBinary(out);
+        byte file[] = out.toByteArray();
+        for(Decoder decoder : new Decoder[] {BUFFER, FLAT})
+        {
+            checkImage(image, decoder.decode(file), "hybrid indexed");
+            damaged(file, 64, headerLength(file), decoder, "hybrid indexed");
+        }
+
+        File ascii = File.createTempFile("hybrid", ".rit");
+        try
+        {
+            tree.write(ascii.getPath());
+            QTree read = new QTree();
+            read.uncompress(ascii.getPath());
+            checkImage(image, read.getImage(), "hybrid ASCII");
+        }
+        finally
+        {
+            Files.delete(ascii.toPath());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+/**
+ * Tests the binary PGM and PNG formats read and written by ImageFiles:
+ * test images must come back from either, a PGM with a smaller maximum
+ * value must be scaled to the full range, images that aren't square and
+ * 8-bit grayscale must be refused, and damaged files must fail with an
+ * IOException rather than come back with pixels missing.
+ *
+ * @author Benjamin Mitchell
+ */
+public class ImageFormatTest extends RITTest {
+    /** a temporary file for the images */
+    private File file;
+
+    @Override
+    public void run() throws Exception
+    {
+        this.file = File.createTempFile("image", ".pgm");
+        File png = new File(this.file.getPath().replace(".pgm", ".png"));
+        try
+        {
+            for(int dim : SIZES)
+            {
+                int image[][] = image(dim, dim);
+                ImageFiles.write(image, this.file.getPath());
+                checkImage(image, ImageFiles.read(this.file.getPath()), "PGM " + dim + "x" + dim);
+                ImageFiles.write(image, png.getPath());
+                checkImage(image, ImageFiles.read(png.getPath()), "PNG " + dim + "x" + dim);
+            }
+
+            //a comment in the header, and a maximum value of 15 scaled up
+            write("P5\n# scaled\n2 2\n15\n", new byte[] {0, 15, 5, 10});
+            checkImage(new int[][] {{0, 255}, {85, 170}}, ImageFiles.read(this.file.getPath()), "scaled PGM");
+
+            write("P5\n2 2\n65535\n", new byte[8]);
+            check(!loads(this.file), "a 16-bit PGM loaded");
+            ImageFiles.writePGM(new int[4][2], this.file.getPath());
+            check(!loads(this.file), "a PGM that isn't square loaded");
+            ImageFiles.writePNG(new int[4][2], png.getPath());
+            check(!loads(png), "a PNG that isn't square loaded");
+            ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), "png", png);
+            check(!loads(png), "a color PNG loaded");
+            try
+            {
+                ImageFiles.write(new int[1][1], this.file.getPath() + ".gif");
+                throw new AssertionError("an image was written in an unknown format");
+            }
+            catch(IOException e)
+            {
+                //only PGM and PNG are written
+            }
+
+            int image[][] = image(8, 8);
+            ImageFiles.writePGM(image, this.file.getPath());
+            byte pgm[] = Files.readAllBytes(this.file.toPath());
+            for(int i = 0; i < pgm.length; i++)
+            {
+                Files.write(this.file.toPath(), Arrays.copyOf(pgm, i));
+                check(!loads(this.file), "a PGM cut to " + i + " bytes loaded");
+            }
+            write("P5\n8 x\n255\n", Arrays.copyOfRange(pgm, pgm.length - 64, pgm.length));
+            check(!loads(this.file), "a PGM with a damaged header loaded");
+
+            ImageFiles.writePNG(image, png.getPath());
+            byte bytes[] = Files.readAllBytes(png.toPath());
+            for(int i = 0; i < bytes.length; i++)
+            {
+                Files.write(png.toPath(), Arrays.copyOf(bytes, i));
+                //ImageIO checks neither the checksums nor the end chunk, so a cut there is only
+                //found if pixels are missing
+                if(loads(png))
+                {
+                    checkImage(image, ImageFiles.read(png.getPath()), "a PNG cut to " + i + " bytes");
+                }
+            }
+        }
+        finally
+        {
+            Files.delete(this.file.toPath());
+            Files.deleteIfExists(png.toPath());
+        }
+    }
+
+    /**
+     * Write a PGM file from its header and raster.
+     *
+     * @param header the header, through the byte before the raster
+     * @param raster the raster
+     * @throws IOException if the file can't be written
+     */
+    private void write(String header, byte[] raster) throws IOException
+    {
+        byte head[] = header.getBytes(StandardCharsets.US_ASCII);
+        byte bytes[] = Arrays.copyOf(head, head.length + raster.length);
+        System.arraycopy(raster, 0, bytes, head.length, raster.length);
+        Files.write(this.file.toPath(), bytes);
+    }
+
+    /**
+     * Try to read an image file.
+     *
+     * @param image the file
+     * @return whether it was read
+     */
+    private static boolean loads(File image)
+    {
+        try
+        {
+            ImageFiles.read(image.getPath());
+            return true;
+        }
+        catch(IOException e)
+        {
+            return false;
+        }
+    }
+}
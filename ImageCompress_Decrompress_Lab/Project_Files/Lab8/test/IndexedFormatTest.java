@@ -0,0 +1,59 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests the binary RIT format with an index of where the quadrants
+ * start: test images must come back at every index depth, decoded in
+ * parallel with the tree kept or flat, a small image must get no index,
+ * and damaged files, including a damaged index, must fail cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class IndexedFormatTest extends RITTest {
+
+    @Override
+    public void run() throws Exception
+    {
+        for(int dim : SIZES)
+        {
+            int image[][] = image(dim, dim);
+            byte plain[] = indexed(image, 0);
+            for(int depth = 1; depth <= 4; depth++)
+            {
+                byte file[] = indexed(image, depth);
+                String name = dim + "x" + dim + " indexed to depth " + depth;
+                if(dim <= RITIndex.MIN_SIZE)
+                {
+                    check(Arrays.equals(plain, file), name + " has an index");
+                    continue;
+                }
+                check(file[RITFormat.MAGIC.length + 1] == RITFormat.ENCODING_INDEXED_PREORDER, name + " has no index");
+                for(Decoder decoder : new Decoder[] {BUFFER, FLAT})
+                {
+                    checkImage(image, decoder.decode(file), name);
+                    damaged(file, dim, headerLength(file), decoder, name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compress an image into a binary file with an index.
+     *
+     * @param image the pixels, by row
+     * @param depth the depth of the index
+     * @return the file
+     * @throws IOException if the file can't be written
+     * @throws QTException if the image can't be written
+     */
+    private static byte[] indexed(int[][] image, int depth) throws IOException, QTException
+    {
+        QTree tree = new QTree();
+        tree.setIndexDepth(depth);
+        tree.compress(image);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tree.writeBinary(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,64 @@
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Tests the level order binary RIT format: test images must come back
+ * whole and a level at a time from a stream, a coarse read must see the
+ * whole image, and damaged files must fail cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class LevelOrderFormatTest extends RITTest {
+
+    @Override
+    public void run() throws Exception
+    {
+        RITCodec codec = new RITCodec();
+        codec.setEncoding(RITFormat.ENCODING_LEVEL_ORDER);
+        binary(codec, true, "level order");
+
+        int image[][] = image(64, 64);
+        byte file[] = compress(codec, image);
+        InputStream in = new ByteArrayInputStream(file);
+        in.skip(headerLength(file));
+        LevelOrderDecoder levels = new LevelOrderDecoder(in, 64, 1, true);
+        check(levels.readLevel(), "no first level");
+        //the root is split, so the first level paints its mean everywhere
+        int first[][] = levels.getImage();
+        for(int[] row : first)
+        {
+            for(int pixel : row)
+            {
+                check(pixel == first[0][0], "the first level isn't one color");
+            }
+        }
+        int count = 1;
+        while(levels.readLevel())
+        {
+            count++;
+        }
+        //a level for every size from 64 down to single pixels
+        check(count == 7, count + " levels read");
+        checkImage(image, levels.getImage(), "level order a level at a time");
+
+        in = new ByteArrayInputStream(file);
+        in.skip(headerLength(file));
+        LevelOrderDecoder coarse = new LevelOrderDecoder(in, 64, 8, false);
+        coarse.readAll();
+        int blocks[][] = coarse.getImage();
+        check(blocks.length == 8, "a coarse read has " + blocks.length + " rows");
+        //the upper left quadrant is flat
+        check(blocks[0][0] == image[0][0] && blocks[3][3] == image[0][0], "a coarse read has the wrong colors");
+
+        codec.setHybrid(true);
+        try
+        {
+            compress(codec, image);
+            throw new AssertionError("raw blocks were written a level at a time");
+        }
+        catch(QTException e)
+        {
+            //the levels have no way to hold raw pixels
+        }
+    }
+}
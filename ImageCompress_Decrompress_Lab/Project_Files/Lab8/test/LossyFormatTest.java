@@ -0,0 +1,69 @@
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Tests lossy compression: files compressed within an error bound must
+ * come back the right size with every metric, within the bound where it
+ * limits each pixel, with the error reported, and smaller than lossless,
+ * a bound of 0 must be lossless, and damaged files must fail cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class LossyFormatTest extends RITTest {
+    /** the bound every metric is tested with */
+    private final static double BOUND = 8;
+
+    @Override
+    public void run() throws Exception
+    {
+        int image[][] = image(64, 64);
+        byte lossless[] = compress(new RITCodec(), image);
+        String names[] = {"range", "stddev", "max error"};
+        for(int metric : new int[] {ErrorBound.RANGE, ErrorBound.STDDEV, ErrorBound.MAX_ERROR})
+        {
+            String name = "lossy " + names[metric];
+            RITCodec codec = new RITCodec();
+            codec.setErrorBound(new ErrorBound(metric, BOUND));
+            binary(codec, false, name);
+            byte file[] = compress(codec, image);
+            check(file.length < lossless.length, name + " is no smaller than lossless");
+
+            //both engines keep to the bound the same way
+            byte trees[][] = new byte[2][];
+            for(int engine : new int[] {QTree.SCAN_ENGINE, QTree.PYRAMID_ENGINE})
+            {
+                QTree tree = new QTree();
+                tree.setEngine(engine);
+                tree.setErrorBound(new ErrorBound(metric, BOUND));
+                tree.compress(image);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                tree.writeBinary(out);
+                trees[engine] = out.toByteArray();
+
+                int decoded[][] = BUFFER.decode(trees[engine]);
+                int maxError = 0;
+                double squares = 0;
+                for(int r = 0; r < 64; r++)
+                {
+                    for(int c = 0; c < 64; c++)
+                    {
+                        int error = Math.abs(decoded[r][c] - image[r][c]);
+                        maxError = Math.max(maxError, error);
+                        squares += (double) error * error;
+                    }
+                }
+                check(maxError == tree.getMaxError(), name + ": max error " + tree.getMaxError() + " reported, "
+                        + maxError + " found");
+                check(Math.abs(squares / (64 * 64) - tree.getMeanSquaredError()) < 1e-9,
+                        name + ": the wrong mean squared error was reported");
+                //a block within a range or a max error can't stray further from its mean
+                check(metric == ErrorBound.STDDEV || maxError <= BOUND, name + ": a pixel is off by " + maxError);
+            }
+            check(Arrays.equals(trees[QTree.SCAN_ENGINE], trees[QTree.PYRAMID_ENGINE]),
+                    name + ": the engines disagree");
+
+            codec.setErrorBound(new ErrorBound(metric, 0));
+            check(Arrays.equals(compress(codec, image), lossless), names[metric] + " bound of 0 is lossy");
+        }
+    }
+}
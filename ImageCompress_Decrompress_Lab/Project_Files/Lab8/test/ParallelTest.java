@@ -0,0 +1,68 @@
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Tests parallel compression: every threshold, from a task per pixel to
+ * none at all, must give the same file as compressing sequentially, with
+ * either engine, the tree kept or flat, and every setting, the counts of
+ * the tree must agree, and a bad threshold must be refused.
+ *
+ * @author Benjamin Mitchell
+ */
+public class ParallelTest extends RITTest {
+    /** the thresholds compressed with, 0 being sequential */
+    private final static int THRESHOLDS[] = {0, 1, 4, 64, 1 << 20};
+
+    @Override
+    public void run() throws Exception
+    {
+        for(int dim : new int[] {1, 8, 256})
+        {
+            int image[][] = image(dim, dim);
+            for(int engine : new int[] {QTree.SCAN_ENGINE, QTree.PYRAMID_ENGINE})
+            {
+                for(int setting = 0; setting < 4; setting++)
+                {
+                    String name = dim + "x" + dim + " engine " + engine + " setting " + setting;
+                    byte sequential[] = null;
+                    int size = 0;
+                    for(int threshold : THRESHOLDS)
+                    {
+                        QTree tree = new QTree();
+                        tree.setEngine(engine);
+                        tree.setFlat(setting == 1);
+                        tree.setHybrid(setting == 2);
+                        tree.setErrorBound(setting == 3 ? new ErrorBound(ErrorBound.RANGE, 16) : null);
+                        tree.setParallelThreshold(threshold);
+                        tree.compress(image);
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        tree.writeBinary(out);
+                        if(threshold == 0)
+                        {
+                            sequential = out.toByteArray();
+                            size = tree.getCompressedSize();
+                            continue;
+                        }
+                        check(Arrays.equals(out.toByteArray(), sequential), name + ": threshold " + threshold
+                                + " gave another file");
+                        check(tree.getCompressedSize() == size, name + ": threshold " + threshold + " counted "
+                                + tree.getCompressedSize() + " values, not " + size);
+                    }
+                    if(setting != 3)
+                    {
+                        checkImage(image, BUFFER.decode(sequential), name);
+                    }
+                }
+            }
+        }
+        try
+        {
+            new QTree().setParallelThreshold(-1);
+            throw new AssertionError("a negative threshold was taken");
+        }
+        catch(IllegalArgumentException e)
+        {
+            //0 is sequential
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Tests decoding a compressed file at a lower resolution: every preview
+ * must hold the rounded means of the image's blocks in the ASCII format
+ * and every binary encoding, a preview larger than the image must be
+ * refused, and damaged files must fail cleanly when previewed.
+ *
+ * @author Benjamin Mitchell
+ */
+public class PreviewFormatTest extends RITTest {
+    /** the size of the test image */
+    private final static int DIM = 64;
+
+    /** a temporary file for the compressed images */
+    private File file;
+
+    /** the resolution the damaged files are previewed at */
+    private int resolution;
+
+    /** previews a file at the resolution */
+    private final Decoder preview = new Decoder() {
+        @Override
+        public int[][] decode(byte[] bytes) throws IOException, QTException
+        {
+            Files.write(file.toPath(), bytes);
+            QTree tree = new QTree();
+            tree.uncompress(file.getPath(), resolution);
+            return tree.getImage();
+        }
+    };
+
+    @Override
+    public void run() throws Exception
+    {
+        int image[][] = image(DIM, DIM);
+        this.file = File.createTempFile("preview", ".rit");
+        try
+        {
+            QTree tree = new QTree();
+            tree.compress(image);
+            tree.write(this.file.getPath());
+            previews(image, "ASCII");
+
+            for(int encoding : new int[] {RITFormat.ENCODING_PREORDER, RITFormat.ENCODING_SPLIT_STREAMS,
+                    RITFormat.ENCODING_ARITHMETIC})
+            {
+                tree = new QTree();
+                tree.setEncoding(encoding);
+                binary(tree, image, 8, "encoding " + encoding);
+            }
+            tree = new QTree();
+            tree.setIndexDepth(2);
+            binary(tree, image, 8, "indexed");
+            tree = new QTree();
+            tree.setHybrid(true);
+            binary(tree, image, 8, "hybrid");
+            //the levels below a preview aren't read, so only a full size one finds damage in them
+            tree = new QTree();
+            tree.setEncoding(RITFormat.ENCODING_LEVEL_ORDER);
+            binary(tree, image, DIM, "level order");
+        }
+        finally
+        {
+            Files.delete(this.file.toPath());
+        }
+    }
+
+    /**
+     * Check the previews of an image compressed into a binary file, and
+     * that the file fails cleanly when damaged.
+     *
+     * @param tree the tree, with the settings of the format
+     * @param image the pixels, by row
+     * @param resolution the resolution to preview the damaged files at
+     * @param what what the format is, for the messages
+     * @throws IOException if the file can't be written
+     * @throws QTException if the file can't be written with the settings
+     */
+    private void binary(QTree tree, int[][] image, int resolution, String what) throws IOException, QTException
+    {
+        tree.compress(image);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tree.writeBinary(out);
+        byte bytes[] = out.toByteArray();
+        Files.write(this.file.toPath(), bytes);
+        previews(image, what);
+        this.resolution = resolution;
+        damaged(bytes, resolution, headerLength(bytes), preview, what);
+    }
+
+    /**
+     * Check the previews of the compressed file at every resolution
+     * against the means of the image's blocks, and that a preview larger
+     * than the image is refused.
+     *
+     * @param image the pixels, by row
+     * @param what what the file is, for the messages
+     * @throws IOException if the file can't be read
+     * @throws QTException if the file can't be decoded
+     */
+    private void previews(int[][] image, String what) throws IOException, QTException
+    {
+        for(int resolution = 1; resolution <= DIM; resolution *= 2)
+        {
+            int scale = DIM / resolution;
+            int expected[][] = new int[resolution][resolution];
+            for(int r = 0; r < resolution; r++)
+            {
+                for(int c = 0; c < resolution; c++)
+                {
+                    long sum = 0;
+                    for(int y = r * scale; y < (r + 1) * scale; y++)
+                    {
+                        for(int x = c * scale; x < (c + 1) * scale; x++)
+                        {
+                            sum += image[y][x];
+                        }
+                    }
+                    expected[r][c] = ErrorBound.mean(sum, (long) scale * scale);
+                }
+            }
+            QTree tree = new QTree();
+            tree.uncompress(this.file.getPath(), resolution);
+            checkImage(expected, tree.getImage(), what + " at " + resolution + "x" + resolution);
+            check(tree.getDim() == resolution, what + ": the preview is " + tree.getDim() + " wide");
+        }
+        try
+        {
+            new QTree().uncompress(this.file.getPath(), DIM * 2);
+            throw new AssertionError(what + ": a preview larger than the image was decoded");
+        }
+        catch(IllegalArgumentException e)
+        {
+            //a preview can't add pixels
+        }
+    }
+}
@@ -0,0 +1,277 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A test of one of the RIT formats, with the helpers the tests share.
+ * The tests are plain programs with no framework, run together by
+ * RITTests from the Lab8 directory.
+ *
+ * A damaged file must either fail with an IOException or a QTException
+ * or, if the damage happens to leave a valid file, decode to an image of
+ * the right size.  Anything else, such as an ArrayIndexOutOfBoundsException
+ * from running off the end of the data, is a failure of the test.
+ *
+ * @author Benjamin Mitchell
+ */
+public abstract class RITTest {
+    /** the sizes of the images the formats are tried on */
+    public final static int SIZES[] = {1, 2, 8, 64};
+
+    /**
+     * Decodes a compressed file for damaged(), so that each format can be
+     * read its own way.
+     */
+    public interface Decoder {
+        /**
+         * Decode a file.
+         *
+         * @param file the compressed file
+         * @return the pixels of the image, by row
+         * @throws IOException if the file can't be read
+         * @throws QTException if the file is damaged
+         */
+        int[][] decode(byte[] file) throws IOException, QTException;
+    }
+
+    /** decodes a binary file from a buffer */
+    public final static Decoder BUFFER = new Decoder() {
+        @Override
+        public int[][] decode(byte[] file) throws IOException, QTException
+        {
+            QTree tree = new QTree();
+            tree.uncompress(ByteBuffer.wrap(file));
+            return tree.getImage();
+        }
+    };
+
+    /** decodes a binary file from a stream into a flat tree */
+    public final static Decoder FLAT = new Decoder() {
+        @Override
+        public int[][] decode(byte[] file) throws IOException, QTException
+        {
+            QTree tree = new QTree();
+            tree.setFlat(true);
+            tree.uncompress(new ByteArrayInputStream(file));
+            return tree.getImage();
+        }
+    };
+
+    /**
+     * Get the name of the test.
+     *
+     * @return the name
+     */
+    public String getName()
+    {
+        return this.getClass().getName();
+    }
+
+    /**
+     * Run the test.
+     *
+     * @throws Exception if the test fails
+     */
+    public abstract void run() throws Exception;
+
+    /**
+     * Fail the test unless a condition holds.
+     *
+     * @param condition the condition
+     * @param message what went wrong if it doesn't hold
+     */
+    public static void check(boolean condition, String message)
+    {
+        if(!condition)
+        {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Fail the test unless two images are the same.
+     *
+     * @param expected the image expected
+     * @param actual the image found
+     * @param what what the image is, for the message
+     */
+    public static void checkImage(int[][] expected, int[][] actual, String what)
+    {
+        check(actual != null, what + ": no image");
+        check(actual.length == expected.length, what + ": " + actual.length + " rows, expected " + expected.length);
+        for(int r = 0; r < expected.length; r++)
+        {
+            if(!Arrays.equals(expected[r], actual[r]))
+            {
+                throw new AssertionError(what + ": row " + r + " differs");
+            }
+        }
+    }
+
+    /**
+     * Make a 2^n x 2^n test image.  The quadrants are flat, a gradient,
+     * noise and a checkerboard, so the tree has leaves, splits all the way
+     * down and blocks that are cheaper stored raw.
+     *
+     * @param dim the size of the image
+     * @param seed the seed of the noise
+     * @return the pixels, by row
+     */
+    public static int[][] image(int dim, long seed)
+    {
+        Random random = new Random(seed);
+        int half = Math.max(dim / 2, 1);
+        int image[][] = new int[dim][dim];
+        for(int r = 0; r < dim; r++)
+        {
+            for(int c = 0; c < dim; c++)
+            {
+                int quadrant = (r / half) * 2 + c / half;
+                if(quadrant == 0)
+                {
+                    image[r][c] = 200;
+                }
+                else if(quadrant == 1)
+                {
+                    image[r][c] = (r + c) * 255 / (2 * dim);
+                }
+                else if(quadrant == 2)
+                {
+                    image[r][c] = random.nextInt(256);
+                }
+                else
+                {
+                    image[r][c] = ((r / 2 + c / 2) % 2) * 255;
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Compress an image with a codec.
+     *
+     * @param codec the codec
+     * @param image the pixels, by row
+     * @return the compressed file
+     * @throws IOException if the file can't be written
+     * @throws QTException if the image can't be written with the settings
+     */
+    public static byte[] compress(RITCodec codec, int[][] image) throws IOException, QTException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.compress(image, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Get the length of the header of a binary file, up to the end of the
+     * raw size.
+     *
+     * @param file the binary file
+     * @return the length of the header
+     */
+    public static int headerLength(byte[] file)
+    {
+        int length = RITFormat.MAGIC.length + 2;
+        while((file[length] & 0x80) != 0)
+        {
+            length++;
+        }
+        return length + 1;
+    }
+
+    /**
+     * Check that a codec's binary files give back the test images, with
+     * the tree kept or flat, and that damaged files fail cleanly.
+     *
+     * @param codec the codec, with the settings of the format
+     * @param lossless whether the images must come back exactly, or only
+     * the right size
+     * @param what what the format is, for the messages
+     * @throws IOException if a file can't be written
+     * @throws QTException if a file can't be written with the settings
+     */
+    public static void binary(RITCodec codec, boolean lossless, String what) throws IOException, QTException
+    {
+        for(int dim : SIZES)
+        {
+            int image[][] = image(dim, dim);
+            byte file[] = compress(codec, image);
+            String name = what + " " + dim + "x" + dim;
+            for(Decoder decoder : new Decoder[] {BUFFER, FLAT})
+            {
+                int decoded[][] = decoder.decode(file);
+                if(lossless)
+                {
+                    checkImage(image, decoded, name);
+                }
+                else
+                {
+                    check(decoded.length == dim, name + ": decoded " + decoded.length + " rows");
+                }
+                damaged(file, dim, headerLength(file), decoder, name);
+            }
+        }
+    }
+
+    /**
+     * Check that a damaged file fails cleanly: every truncation of the
+     * file must fail, and flipping the bits of any byte past the given
+     * offset must fail or give an image of the right size.
+     *
+     * @param file the undamaged file
+     * @param dim the size of its image
+     * @param from the offset to damage from, past the header that gives
+     * the image's size
+     * @param decoder the decoder of the format
+     * @param what what the file is, for the message
+     */
+    public static void damaged(byte[] file, int dim, int from, Decoder decoder, String what)
+    {
+        for(int length = 0; length < file.length; length++)
+        {
+            if(decodes(Arrays.copyOf(file, length), dim, decoder, what + " cut to " + length))
+            {
+                throw new AssertionError(what + " cut to " + length + " bytes decoded");
+            }
+        }
+        for(int i = from; i < file.length; i++)
+        {
+            byte copy[] = file.clone();
+            copy[i] ^= 0xFF;
+            decodes(copy, dim, decoder, what + " with byte " + i + " flipped");
+        }
+    }
+
+    /**
+     * Decode a damaged file.
+     *
+     * @param file the file
+     * @param dim the size of its image
+     * @param decoder the decoder of the format
+     * @param what what the file is, for the message
+     * @return whether it decoded, to an image of the right size
+     */
+    public static boolean decodes(byte[] file, int dim, Decoder decoder, String what)
+    {
+        int image[][];
+        try
+        {
+            image = decoder.decode(file);
+        }
+        catch(IOException | QTException e)
+        {
+            return false;
+        }
+        catch(RuntimeException e)
+        {
+            throw new AssertionError(what + ": " + e, e);
+        }
+        check(image.length == dim, what + ": decoded " + image.length + " rows, expected " + dim);
+        return true;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Runs the tests of the RIT formats.  From the Lab8 directory:
+ *
+ * $ javac -d out/test src/*.java test/*.java
+ * $ java -cp out/test RITTests
+ *
+ * Each test is run in turn and reported as passing or failing; the
+ * program exits with status 1 if any failed.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RITTests {
+
+    /**
+     * The main routine.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        RITTest tests[] = {
+            new AsciiFormatTest(),
+            new BinaryFormatTest(),
+            new RawImageFormatTest(),
+            new ImageFormatTest(),
+            new EngineTest(),
+            new ParallelTest(),
+            new FlatTreeTest(),
+            new IndexedFormatTest(),
+            new LossyFormatTest(),
+            new HybridFormatTest(),
+            new ArithmeticFormatTest(),
+            new SplitStreamFormatTest(),
+            new TiledFormatTest(),
+            new RegionFormatTest(),
+            new PreviewFormatTest(),
+            new LevelOrderFormatTest(),
+            new SharedFormatTest(),
+            new DictionaryFormatTest(),
+            new ArchiveFormatTest(),
+            new BatchTest(),
+            new CodecTest(),
+            new ServerFormatTest(),
+            new CacheFormatTest(),
+            new TransformFormatTest(),
+        };
+        int failed = 0;
+        for (RITTest test : tests) {
+            try {
+                test.run();
+                System.out.println("PASS " + test.getName());
+            } catch (Throwable e) {
+                failed++;
+                System.out.println("FAIL " + test.getName());
+                e.printStackTrace(System.out);
+            }
+        }
+        System.out.println((tests.length - failed) + " of " + tests.length + " tests passed");
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+}
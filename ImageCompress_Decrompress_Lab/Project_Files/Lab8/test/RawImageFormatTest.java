@@ -0,0 +1,97 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Tests the ASCII raw image format read by RawImageLoader: images must
+ * come back whether they fit in one chunk or are parsed in many, with any
+ * line endings, and damaged files, including pixels out of range or too
+ * many to fit an int and pixels that don't fill a square, must fail with
+ * an IOException.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RawImageFormatTest extends RITTest {
+
+    @Override
+    public void run() throws Exception
+    {
+        File file = File.createTempFile("raw", ".txt");
+        try
+        {
+            //the biggest is parsed in several chunks
+            for(int dim : new int[] {1, 2, 8, 64, 1024})
+            {
+                int image[][] = image(dim, dim);
+                write(image, file, "\n");
+                checkImage(image, ImageFiles.read(file.getPath()), dim + "x" + dim);
+            }
+            int image[][] = image(8, 8);
+            write(image, file, "\r\n");
+            checkImage(image, ImageFiles.read(file.getPath()), "CRLF line endings");
+
+            write(image, file, "\n");
+            String raw = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+            String last = image[7][7] + "\n";
+            check(raw.endsWith(last), "the file doesn't end with the last pixel");
+            String rest = raw.substring(0, raw.length() - last.length());
+            //each is the file with its last pixel replaced
+            String ends[] = {"256", "4294967396", "-1", "1x", "", "1\n2"};
+            for(String end : ends)
+            {
+                Files.write(file.toPath(), (rest + end + "\n").getBytes(StandardCharsets.US_ASCII));
+                check(!loads(file), "a raw image ending \"" + end.replace("\n", "\\n") + "\" loaded");
+            }
+            Files.write(file.toPath(), new byte[0]);
+            check(!loads(file), "an empty raw image loaded");
+        }
+        finally
+        {
+            Files.delete(file.toPath());
+        }
+    }
+
+    /**
+     * Try to load a raw image file.
+     *
+     * @param file the file
+     * @return whether it loaded
+     */
+    private static boolean loads(File file)
+    {
+        try
+        {
+            ImageFiles.read(file.getPath());
+            return true;
+        }
+        catch(IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Write an image as an ASCII raw file, one pixel a line.
+     *
+     * @param image the pixels, by row
+     * @param file the file to write
+     * @param lineEnd what ends each line
+     * @throws IOException if the file can't be written
+     */
+    private static void write(int[][] image, File file, String lineEnd) throws IOException
+    {
+        try(BufferedWriter out = new BufferedWriter(new FileWriter(file)))
+        {
+            for(int[] row : image)
+            {
+                for(int pixel : row)
+                {
+                    out.write(pixel + lineEnd);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Tests decoding a rectangle of a compressed file: every rectangle must
+ * match the same pixels of the image in the ASCII format and every binary
+ * encoding, a rectangle outside the image must be refused, and damaged
+ * files must fail cleanly when only part of them is decoded.
+ *
+ * @author Benjamin Mitchell
+ */
+public class RegionFormatTest extends RITTest {
+    /** the size of the test image */
+    private final static int DIM = 64;
+
+    /** the rectangles decoded, as row, column, height and width */
+    private final static int REGIONS[][] = {{0, 0, DIM, DIM}, {13, 21, 30, 40}, {DIM - 1, DIM - 1, 1, 1},
+            {32, 0, 32, 32}, {5, 7, 0, 0}};
+
+    /** the rectangle decoded from the damaged files, which reaches the last pixel */
+    private final static int DAMAGED[] = {10, 21, DIM - 10, DIM - 21};
+
+    /** a temporary file for the compressed images */
+    private File file;
+
+    /** decodes the damaged rectangle of a file */
+    private final Decoder region = new Decoder() {
+        @Override
+        public int[][] decode(byte[] bytes) throws IOException, QTException
+        {
+            Files.write(file.toPath(), bytes);
+            return QTree.decodeRegion(file.getPath(), DAMAGED[0], DAMAGED[1], DAMAGED[2], DAMAGED[3]);
+        }
+    };
+
+    @Override
+    public void run() throws Exception
+    {
+        int image[][] = image(DIM, DIM);
+        this.file = File.createTempFile("region", ".rit");
+        try
+        {
+            QTree tree = new QTree();
+            tree.compress(image);
+            tree.write(this.file.getPath());
+            regions(image, "ASCII");
+
+            for(int encoding : new int[] {RITFormat.ENCODING_PREORDER, RITFormat.ENCODING_SPLIT_STREAMS,
+                    RITFormat.ENCODING_ARITHMETIC, RITFormat.ENCODING_LEVEL_ORDER})
+            {
+                tree = new QTree();
+                tree.setEncoding(encoding);
+                binary(tree, image, "encoding " + encoding);
+            }
+            tree = new QTree();
+            tree.setIndexDepth(2);
+            binary(tree, image, "indexed");
+            tree = new QTree();
+            tree.setHybrid(true);
+            binary(tree, image, "hybrid");
+        }
+        finally
+        {
+            Files.delete(this.file.toPath());
+        }
+    }
+
+    /**
+     * Check the rectangles of an image compressed into a binary file, and
+     * that the file fails cleanly when damaged.
+     *
+     * @param tree the tree, with the settings of the format
+     * @param image the pixels, by row
+     * @param what what the format is, for the messages
+     * @throws IOException if the file can't be written
+     * @throws QTException if the file can't be written with the settings
+     */
+    private void binary(QTree tree, int[][] image, String what) throws IOException, QTException
+    {
+        tree.compress(image);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tree.writeBinary(out);
+        byte bytes[] = out.toByteArray();
+        Files.write(this.file.toPath(), bytes);
+        regions(image, what);
+        damaged(bytes, DAMAGED[2], headerLength(bytes), region, what);
+    }
+
+    /**
+     * Check the rectangles of the compressed file against the image, and
+     * that a rectangle outside the image is refused.
+     *
+     * @param image the pixels, by row
+     * @param what what the file is, for the messages
+     * @throws IOException if the file can't be read
+     * @throws QTException if the file can't be decoded
+     */
+    private void regions(int[][] image, String what) throws IOException, QTException
+    {
+        for(int[] r : REGIONS)
+        {
+            int pixels[][] = QTree.decodeRegion(this.file.getPath(), r[0], r[1], r[2], r[3]);
+            String name = what + " region " + r[0] + ", " + r[1] + " " + r[2] + "x" + r[3];
+            check(pixels.length == r[2], name + ": " + pixels.length + " rows");
+            for(int row = 0; row < r[2]; row++)
+            {
+                for(int col = 0; col < r[3]; col++)
+                {
+                    check(pixels[row][col] == image[row + r[0]][col + r[1]], name + ": pixel " + row + ", " + col
+                            + " differs");
+                }
+            }
+        }
+        try
+        {
+            QTree.decodeRegion(this.file.getPath(), DIM - 4, 0, 5, 1);
+            throw new AssertionError(what + ": a region past the bottom was decoded");
+        }
+        catch(IllegalArgumentException e)
+        {
+            //the region has to be inside the image
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+
+/**
+ * Tests the codec server's protocol: test images must come back from
+ * files the server compressed with each setting, and from files it
+ * uncompresses in either format, files that are damaged or too big must
+ * be refused with an error, and none of that may cost the client its
+ * connection, while a malformed request must be answered with an error.
+ *
+ * @author Benjamin Mitchell
+ */
+public class ServerFormatTest extends RITTest {
+    /** the most pixels the server uncompresses */
+    private final static int MAX_PIXELS = 64 * 64;
+
+    /** the connection to the server */
+    private RITClient client;
+
+    /** uncompresses a file on the server */
+    private final Decoder server = new Decoder() {
+        @Override
+        public int[][] decode(byte[] file) throws IOException, QTException
+        {
+            return client.uncompress(file);
+        }
+    };
+
+    @Override
+    public void run() throws Exception
+    {
+        final ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final RITServer codec = new RITServer(2, 4, 4, null, null, MAX_PIXELS);
+        Thread serving = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    codec.serve(socket);
+                }
+                catch(IOException e)
+                {
+                    //the socket was closed
+                }
+            }
+        });
+        serving.start();
+        try
+        {
+            this.client = new RITClient(socket.getLocalPort());
+            int settings[][] = {{0, RITFormat.ENCODING_PREORDER}, {RITServer.HYBRID, RITFormat.ENCODING_PREORDER},
+                    {RITServer.SHARED, RITFormat.ENCODING_PREORDER}, {0, RITFormat.ENCODING_ARITHMETIC},
+                    {0, RITFormat.ENCODING_SPLIT_STREAMS}, {0, RITFormat.ENCODING_LEVEL_ORDER}};
+            for(int[] setting : settings)
+            {
+                String name = "flags " + setting[0] + " encoding " + setting[1];
+                for(int dim : SIZES)
+                {
+                    int image[][] = image(dim, dim);
+                    byte file[] = this.client.compress(image, setting[0], setting[1], null);
+                    checkImage(image, BUFFER.decode(file), name + " " + dim + "x" + dim);
+                    checkImage(image, this.client.uncompress(file), name + " " + dim + "x" + dim + " on the server");
+                }
+            }
+            int image[][] = image(64, 64);
+            byte lossy[] = this.client.compress(image, 0, RITFormat.ENCODING_PREORDER,
+                    new ErrorBound(ErrorBound.MAX_ERROR, 8));
+            check(lossy.length < this.client.compress(image, 0, RITFormat.ENCODING_PREORDER, null).length,
+                    "a lossy file is no smaller");
+            check(this.client.uncompress(lossy).length == 64, "a lossy file came back the wrong size");
+            QTree tree = new QTree();
+            tree.compress(image);
+            File ascii = File.createTempFile("server", ".rit");
+            try
+            {
+                tree.write(ascii.getPath());
+                checkImage(image, this.client.uncompress(Files.readAllBytes(ascii.toPath())), "ASCII on the server");
+            }
+            finally
+            {
+                Files.delete(ascii.toPath());
+            }
+
+            try
+            {
+                this.client.compress(image, RITServer.HYBRID, RITFormat.ENCODING_LEVEL_ORDER, null);
+                throw new AssertionError("raw blocks were written a level at a time");
+            }
+            catch(QTException e)
+            {
+                //the server says why
+            }
+            byte big[] = compress(new RITCodec(), image(128, 128));
+            check(!decodes(big, 128, server, "too big"), "an image of more than the pixel limit was uncompressed");
+            byte file[] = compress(new RITCodec(), image(8, 8));
+            damaged(file, 8, headerLength(file), server, "on the server");
+            checkImage(image(8, 8), this.client.uncompress(file), "after the damaged files");
+            check(!this.client.stats().contains("Failed: 0\n"), "the failures weren't counted");
+
+            //an unknown operation is answered and the connection closed
+            try(Socket raw = new Socket(InetAddress.getLoopbackAddress(), socket.getLocalPort()))
+            {
+                DataOutputStream out = new DataOutputStream(raw.getOutputStream());
+                out.write(99);
+                out.writeInt(0);
+                out.flush();
+                DataInputStream in = new DataInputStream(raw.getInputStream());
+                check(in.read() == RITServer.ERROR, "an unknown operation wasn't refused");
+                in.skipBytes(in.readInt());
+                check(in.read() < 0, "the connection stayed open");
+            }
+        }
+        finally
+        {
+            if(this.client != null)
+            {
+                this.client.close();
+            }
+            socket.close();
+            serving.join();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Tests shared subtrees in the binary RIT format: test images must come
+ * back from files that refer back to earlier subtrees, whole and a
+ * rectangle at a time, a repetitive image must be smaller shared, and
+ * damaged files, including references that point anywhere, must fail
+ * cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class SharedFormatTest extends RITTest {
+
+    @Override
+    public void run() throws Exception
+    {
+        RITCodec codec = new RITCodec();
+        codec.setShared(true);
+        binary(codec, true, "shared");
+        codec.setHybrid(true);
+        binary(codec, true, "shared hybrid");
+        codec.setHybrid(false);
+
+        //the same noisy block over and over
+        int tile[][] = image(8, 8);
+        int image[][] = new int[64][64];
+        for(int r = 0; r < 64; r++)
+        {
+            for(int c = 0; c < 64; c++)
+            {
+                image[r][c] = tile[r % 8][c % 8];
+            }
+        }
+        byte shared[] = compress(codec, image);
+        check(shared.length < compress(new RITCodec(), image).length / 4, "a repeated block is not shared");
+        for(Decoder decoder : new Decoder[] {BUFFER, FLAT})
+        {
+            checkImage(image, decoder.decode(shared), "repeated block");
+            damaged(shared, 64, headerLength(shared), decoder, "repeated block");
+        }
+
+        File file = File.createTempFile("shared", ".rit");
+        try
+        {
+            Files.write(file.toPath(), shared);
+            int region[][] = QTree.decodeRegion(file.getPath(), 13, 21, 30, 40);
+            for(int r = 0; r < 30; r++)
+            {
+                for(int c = 0; c < 40; c++)
+                {
+                    check(region[r][c] == image[r + 13][c + 21], "region pixel " + r + ", " + c + " differs");
+                }
+            }
+        }
+        finally
+        {
+            Files.delete(file.toPath());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Tests the binary RIT format with the tree shape and the leaf colors in
+ * separate streams: test images must come back, raw blocks must be
+ * refused, and damaged files must fail cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class SplitStreamFormatTest extends RITTest {
+
+    @Override
+    public void run() throws Exception
+    {
+        RITCodec codec = new RITCodec();
+        codec.setEncoding(RITFormat.ENCODING_SPLIT_STREAMS);
+        binary(codec, true, "split streams");
+        codec.setHybrid(true);
+        try
+        {
+            compress(codec, image(64, 64));
+            throw new AssertionError("raw blocks were written to split streams");
+        }
+        catch(QTException e)
+        {
+            //the streams have no way to hold raw pixels
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Tests the tiled RIT container: an image that isn't 2^n x 2^n must come
+ * back whole, a tile at a time and a rectangle at a time, with the tiles
+ * in more than one encoding, a raw file that isn't square must be
+ * refused, and damaged files, including a damaged tile table or a tile
+ * claiming the wrong size, must fail cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class TiledFormatTest extends RITTest {
+    /** the width of the test image, which leaves the last column of tiles padded */
+    private final static int WIDTH = 40;
+
+    /** the height of the test image, which leaves the last row of tiles padded */
+    private final static int HEIGHT = 24;
+
+    /** the size of the tiles */
+    private final static int TILE_SIZE = 16;
+
+    /** a temporary file for the damaged copies */
+    private File damaged;
+
+    /** reads a tiled file whole */
+    private final Decoder tiles = new Decoder() {
+        @Override
+        public int[][] decode(byte[] file) throws IOException, QTException
+        {
+            Files.write(damaged.toPath(), file);
+            try(RITTiles tiles = new RITTiles(damaged.getPath()))
+            {
+                return tiles.read();
+            }
+        }
+    };
+
+    @Override
+    public void run() throws Exception
+    {
+        int square[][] = image(64, 64);
+        int image[][] = new int[HEIGHT][WIDTH];
+        for(int r = 0; r < HEIGHT; r++)
+        {
+            System.arraycopy(square[r + 20], 10, image[r], 0, WIDTH);
+        }
+        File pgm = File.createTempFile("tiles", ".pgm");
+        File file = File.createTempFile("tiles", ".ritt");
+        this.damaged = File.createTempFile("damaged", ".ritt");
+        try
+        {
+            ImageFiles.writePGM(image, pgm.getPath());
+            for(int encoding : new int[] {RITFormat.ENCODING_PREORDER, RITFormat.ENCODING_ARITHMETIC})
+            {
+                QTree tree = new QTree();
+                tree.setEncoding(encoding);
+                RITTiles.compress(tree, pgm.getPath(), file.getPath(), TILE_SIZE);
+                check(RITTiles.isTiled(file.getPath()), "not a tiled file");
+                String name = "tiles with encoding " + encoding;
+                try(RITTiles tiles = new RITTiles(file.getPath()))
+                {
+                    check(tiles.getWidth() == WIDTH && tiles.getHeight() == HEIGHT, name + ": wrong size");
+                    checkImage(image, tiles.read(), name);
+                    int tile[][] = tiles.readTile(1, 1);
+                    for(int r = 0; r < TILE_SIZE; r++)
+                    {
+                        for(int c = 0; c < TILE_SIZE; c++)
+                        {
+                            int expected = r + TILE_SIZE < HEIGHT ? image[r + TILE_SIZE][c + TILE_SIZE] : 0;
+                            check(tile[r][c] == expected, name + ": tile pixel " + r + ", " + c + " differs");
+                        }
+                    }
+                    int region[][] = tiles.readRegion(5, 11, 17, 29);
+                    for(int r = 0; r < 17; r++)
+                    {
+                        for(int c = 0; c < 29; c++)
+                        {
+                            check(region[r][c] == image[r + 5][c + 11], name + ": region pixel " + r + ", " + c
+                                    + " differs");
+                        }
+                    }
+                }
+            }
+            //an ASCII raw file is read as a square, so one a pixel short is refused
+            StringBuilder raw = new StringBuilder();
+            for(int[] row : square)
+            {
+                for(int pixel : row)
+                {
+                    raw.append(pixel).append('\n');
+                }
+            }
+            Files.write(pgm.toPath(), raw.toString().getBytes(StandardCharsets.US_ASCII));
+            RITTiles.compress(new QTree(), pgm.getPath(), file.getPath(), TILE_SIZE);
+            try(RITTiles tiles = new RITTiles(file.getPath()))
+            {
+                checkImage(square, tiles.read(), "tiles from a raw file");
+            }
+            raw.setLength(raw.lastIndexOf("\n", raw.length() - 2) + 1);
+            Files.write(pgm.toPath(), raw.toString().getBytes(StandardCharsets.US_ASCII));
+            try
+            {
+                RITTiles.compress(new QTree(), pgm.getPath(), file.getPath(), TILE_SIZE);
+                throw new AssertionError("a raw file a pixel short was tiled");
+            }
+            catch(IOException e)
+            {
+                //the pixels don't fill a square
+            }
+            ImageFiles.writePGM(image, pgm.getPath());
+
+            //the tiles' own encodings are tested on their own
+            RITTiles.compress(new QTree(), pgm.getPath(), file.getPath(), TILE_SIZE);
+            byte bytes[] = Files.readAllBytes(file.toPath());
+            //the width, height and tile size each fit in a byte
+            damaged(bytes, HEIGHT, RITTiles.MAGIC.length + 4, tiles, "tiles");
+        }
+        finally
+        {
+            Files.delete(pgm.toPath());
+            Files.delete(file.toPath());
+            Files.delete(this.damaged.toPath());
+        }
+    }
+}
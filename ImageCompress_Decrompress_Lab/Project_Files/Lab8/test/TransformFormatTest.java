@@ -0,0 +1,198 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * Tests transforming compressed files without uncompressing them: every
+ * rotation and mirror image, and every aligned quadrant cut out, must
+ * match the same done to the pixels, from ASCII files and every binary
+ * encoding with a preorder, with the tree kept or flat, and damaged
+ * files must fail cleanly.
+ *
+ * @author Benjamin Mitchell
+ */
+public class TransformFormatTest extends RITTest {
+    /** the size of the test image */
+    private final static int DIM = 32;
+
+    /** the size of the quadrant cut from the damaged files, the last in preorder */
+    private final static int CROP = 8;
+
+    /** rotates a file a quarter turn and decodes the result */
+    private final static Decoder ROTATE = new Decoder() {
+        @Override
+        public int[][] decode(byte[] file) throws IOException, QTException
+        {
+            QTree tree = new QTree();
+            RITTransform.transform(tree, ByteBuffer.wrap(file), RITTransform.ROTATE_90);
+            return BUFFER.decode(write(tree));
+        }
+    };
+
+    /** cuts the last quadrant out of a file and decodes it */
+    private final static Decoder CROP_LAST = new Decoder() {
+        @Override
+        public int[][] decode(byte[] file) throws IOException, QTException
+        {
+            QTree tree = new QTree();
+            RITTransform.crop(tree, ByteBuffer.wrap(file), DIM - CROP, DIM - CROP, CROP);
+            return BUFFER.decode(write(tree));
+        }
+    };
+
+    @Override
+    public void run() throws Exception
+    {
+        int image[][] = image(DIM, DIM);
+        File file = File.createTempFile("transform", ".rit");
+        try
+        {
+            QTree tree = new QTree();
+            tree.compress(image);
+            tree.write(file.getPath());
+            for(boolean flat : new boolean[] {false, true})
+            {
+                String name = flat ? "flat ASCII" : "ASCII";
+                for(int transform = RITTransform.IDENTITY; transform <= RITTransform.TRANSVERSE; transform++)
+                {
+                    QTree result = new QTree();
+                    result.setFlat(flat);
+                    RITTransform.transform(result, file.getPath(), transform);
+                    checkImage(transformed(image, transform), BUFFER.decode(write(result)),
+                            name + " " + RITTransform.name(transform));
+                }
+                QTree quadrant = new QTree();
+                RITTransform.crop(quadrant, file.getPath(), 16, 8, 8);
+                checkImage(cropped(image, 16, 8, 8), BUFFER.decode(write(quadrant)), name + " crop");
+            }
+
+            for(int encoding : new int[] {RITFormat.ENCODING_PREORDER, RITFormat.ENCODING_SPLIT_STREAMS,
+                    RITFormat.ENCODING_ARITHMETIC})
+            {
+                tree = new QTree();
+                tree.setEncoding(encoding);
+                binary(tree, image, "encoding " + encoding);
+            }
+            tree = new QTree();
+            tree.setHybrid(true);
+            binary(tree, image, "hybrid");
+            tree = new QTree();
+            tree.setShared(true);
+            binary(tree, image, "shared");
+            tree = new QTree();
+            tree.setIndexDepth(2);
+            binary(tree, image, "indexed");
+
+            tree = new QTree();
+            tree.setEncoding(RITFormat.ENCODING_LEVEL_ORDER);
+            tree.compress(image);
+            check(!decodes(write(tree), DIM, ROTATE, "level order"), "a level order file was transformed");
+        }
+        finally
+        {
+            Files.delete(file.toPath());
+        }
+    }
+
+    /**
+     * Check every transform and quadrant of an image compressed into a
+     * binary file, and that the file fails cleanly when damaged.
+     *
+     * @param tree the tree, with the settings of the format
+     * @param image the pixels, by row
+     * @param what what the format is, for the messages
+     * @throws IOException if the file can't be written
+     * @throws QTException if the file can't be written with the settings
+     */
+    private static void binary(QTree tree, int[][] image, String what) throws IOException, QTException
+    {
+        tree.compress(image);
+        byte file[] = write(tree);
+        for(boolean flat : new boolean[] {false, true})
+        {
+            String name = flat ? "flat " + what : what;
+            for(int transform = RITTransform.IDENTITY; transform <= RITTransform.TRANSVERSE; transform++)
+            {
+                QTree result = new QTree();
+                result.setFlat(flat);
+                RITTransform.transform(result, ByteBuffer.wrap(file), transform);
+                checkImage(transformed(image, transform), BUFFER.decode(write(result)),
+                        name + " " + RITTransform.name(transform));
+            }
+        }
+        for(int size = 1; size <= DIM; size *= 2)
+        {
+            for(int row = 0; row < DIM; row += size * 3)
+            {
+                for(int col = 0; col < DIM; col += size * 5)
+                {
+                    QTree quadrant = new QTree();
+                    RITTransform.crop(quadrant, ByteBuffer.wrap(file), row, col, size);
+                    checkImage(cropped(image, row, col, size), BUFFER.decode(write(quadrant)),
+                            what + " crop " + row + ", " + col + " " + size + "x" + size);
+                }
+            }
+        }
+        damaged(file, DIM, headerLength(file), ROTATE, what + " rotated");
+        damaged(file, CROP, headerLength(file), CROP_LAST, what + " cropped");
+    }
+
+    /**
+     * Write a tree as a binary file.
+     *
+     * @param tree the tree
+     * @return the file
+     * @throws IOException if the file can't be written
+     * @throws QTException if the tree can't be written
+     */
+    private static byte[] write(QTree tree) throws IOException, QTException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tree.writeBinary(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rotate or mirror the pixels of an image.
+     *
+     * @param image the pixels, by row
+     * @param transform the transform
+     * @return the transformed pixels
+     */
+    private static int[][] transformed(int[][] image, int transform)
+    {
+        int n = image.length;
+        int result[][] = new int[n][n];
+        for(int r = 0; r < n; r++)
+        {
+            for(int c = 0; c < n; c++)
+            {
+                int rows[] = {r, n - 1 - c, n - 1 - r, c, r, n - 1 - r, c, n - 1 - c};
+                int cols[] = {c, r, n - 1 - c, n - 1 - r, n - 1 - c, c, r, n - 1 - r};
+                result[r][c] = image[rows[transform]][cols[transform]];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Cut a square out of the pixels of an image.
+     *
+     * @param image the pixels, by row
+     * @param row the top row of the square
+     * @param col the left column of the square
+     * @param size the size of the square
+     * @return the square's pixels
+     */
+    private static int[][] cropped(int[][] image, int row, int col, int size)
+    {
+        int result[][] = new int[size][size];
+        for(int r = 0; r < size; r++)
+        {
+            System.arraycopy(image[row + r], col, result[r], 0, size);
+        }
+        return result;
+    }
+}